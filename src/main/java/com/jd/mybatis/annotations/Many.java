@@ -32,4 +32,6 @@ public @interface Many {
 
   FetchType fetchType() default FetchType.DEFAULT;
 
+  int batchSize() default 0;
+
 }
@@ -20,6 +20,7 @@ import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
 
+import com.jd.mybatis.mapping.FetchMode;
 import com.jd.mybatis.mapping.StatementType;
 import com.jd.mybatis.mapping.ResultSetType;
 
@@ -39,8 +40,20 @@ public @interface Options {
 
   int fetchSize() default -1;
 
+  FetchMode fetchMode() default FetchMode.DEFAULT;
+
   int timeout() default -1;
 
+  /**
+   * BATCH执行器累积多少行后自动执行批处理，-1时使用全局设置，0表示不限制
+   */
+  int batchSize() default -1;
+
+  /**
+   * BATCH执行器累积的参数估算超过多少字节后自动执行批处理，-1时使用全局设置，0表示不限制
+   */
+  long batchMaxBytes() default -1;
+
   boolean useGeneratedKeys() default false;
 
   String keyProperty() default "id";
@@ -33,10 +33,12 @@ import com.jd.mybatis.type.TypeHandler;
 import com.jd.mybatis.cache.Cache;
 import com.jd.mybatis.cache.decorators.LruCache;
 import com.jd.mybatis.cache.impl.PerpetualCache;
+import com.jd.mybatis.cache.serializer.Serializer;
 import com.jd.mybatis.executor.ErrorContext;
 import com.jd.mybatis.executor.keygen.KeyGenerator;
 import com.jd.mybatis.mapping.CacheBuilder;
 import com.jd.mybatis.mapping.Discriminator;
+import com.jd.mybatis.mapping.FetchMode;
 import com.jd.mybatis.mapping.ParameterMapping;
 import com.jd.mybatis.mapping.ParameterMode;
 import com.jd.mybatis.mapping.ResultFlag;
@@ -154,6 +156,11 @@ public class MapperBuilderAssistant extends BaseBuilder {
 		typeClass = valueOrDefault(typeClass, PerpetualCache.class);
 		//判断具体回收算法
 		evictionClass = valueOrDefault(evictionClass, LruCache.class);
+		//序列化方式，<property name="serializer">优先于全局的cacheSerializer
+		Serializer serializer = configuration.getCacheSerializer();
+		if (props != null && props.getProperty("serializer") != null) {
+			serializer = (Serializer) createInstance(props.getProperty("serializer"));
+		}
 
 		Cache cache = new CacheBuilder(currentNamespace)
 				.implementation(typeClass)
@@ -162,6 +169,8 @@ public class MapperBuilderAssistant extends BaseBuilder {
 				.size(size)
 				.readWrite(readWrite)
 				.blocking(blocking)
+				.serializer(serializer)
+				.metricsRegistry(configuration.isCacheMetricsEnabled() ? configuration.getCacheMetricsRegistry() : null)
 				.properties(props)
 				.build();
 		configuration.addCache(cache);
@@ -308,6 +317,136 @@ public class MapperBuilderAssistant extends BaseBuilder {
 			String databaseId,
 			LanguageDriver lang,
 			String resultSets) {
+		return addMappedStatement(
+				id, sqlSource, statementType, sqlCommandType, fetchSize, timeout,
+				parameterMap, parameterType, resultMap, resultType, resultSetType,
+				flushCache, useCache, resultOrdered, keyGenerator, keyProperty,
+				keyColumn, databaseId, lang, resultSets, null);
+	}
+
+	public MappedStatement addMappedStatement(
+			String id,
+			SqlSource sqlSource,
+			StatementType statementType,
+			SqlCommandType sqlCommandType,
+			Integer fetchSize,
+			Integer timeout,
+			String parameterMap,
+			Class<?> parameterType,
+			String resultMap,
+			Class<?> resultType,
+			ResultSetType resultSetType,
+			boolean flushCache,
+			boolean useCache,
+			boolean resultOrdered,
+			KeyGenerator keyGenerator,
+			String keyProperty,
+			String keyColumn,
+			String databaseId,
+			LanguageDriver lang,
+			String resultSets,
+			String tables) {
+		return addMappedStatement(
+				id, sqlSource, statementType, sqlCommandType, fetchSize, timeout,
+				parameterMap, parameterType, resultMap, resultType, resultSetType,
+				flushCache, useCache, resultOrdered, keyGenerator, keyProperty,
+				keyColumn, databaseId, lang, resultSets, tables, true);
+	}
+
+	public MappedStatement addMappedStatement(
+			String id,
+			SqlSource sqlSource,
+			StatementType statementType,
+			SqlCommandType sqlCommandType,
+			Integer fetchSize,
+			Integer timeout,
+			String parameterMap,
+			Class<?> parameterType,
+			String resultMap,
+			Class<?> resultType,
+			ResultSetType resultSetType,
+			boolean flushCache,
+			boolean useCache,
+			boolean resultOrdered,
+			KeyGenerator keyGenerator,
+			String keyProperty,
+			String keyColumn,
+			String databaseId,
+			LanguageDriver lang,
+			String resultSets,
+			String tables,
+			boolean useLocalCache) {
+		return addMappedStatement(
+				id, sqlSource, statementType, sqlCommandType, fetchSize, timeout,
+				parameterMap, parameterType, resultMap, resultType, resultSetType,
+				flushCache, useCache, resultOrdered, keyGenerator, keyProperty,
+				keyColumn, databaseId, lang, resultSets, tables, useLocalCache, FetchMode.DEFAULT);
+	}
+
+	public MappedStatement addMappedStatement(
+			String id,
+			SqlSource sqlSource,
+			StatementType statementType,
+			SqlCommandType sqlCommandType,
+			Integer fetchSize,
+			Integer timeout,
+			String parameterMap,
+			Class<?> parameterType,
+			String resultMap,
+			Class<?> resultType,
+			ResultSetType resultSetType,
+			boolean flushCache,
+			boolean useCache,
+			boolean resultOrdered,
+			KeyGenerator keyGenerator,
+			String keyProperty,
+			String keyColumn,
+			String databaseId,
+			LanguageDriver lang,
+			String resultSets,
+			String tables,
+			boolean useLocalCache,
+			FetchMode fetchMode) {
+		return addMappedStatement(
+				id, sqlSource, statementType, sqlCommandType, fetchSize, timeout,
+				parameterMap, parameterType, resultMap, resultType, resultSetType,
+				flushCache, useCache, resultOrdered, keyGenerator, keyProperty,
+				keyColumn, databaseId, lang, resultSets, tables, useLocalCache, fetchMode, null, null);
+	}
+
+	/**
+	 * @param tables        语句读取或写入的表，逗号分隔，用于按表失效二级缓存，为null时从SQL中解析
+	 * @param useLocalCache 为false时查询结果不保留在一级缓存中
+	 * @param fetchMode     查询结果的读取方式，DEFAULT时使用全局设置
+	 * @param batchSize     BATCH执行器累积多少行后自动执行批处理，为null时使用全局设置
+	 * @param batchMaxBytes BATCH执行器累积的参数估算超过多少字节后自动执行批处理，为null时使用全局设置
+	 */
+	public MappedStatement addMappedStatement(
+			String id,
+			SqlSource sqlSource,
+			StatementType statementType,
+			SqlCommandType sqlCommandType,
+			Integer fetchSize,
+			Integer timeout,
+			String parameterMap,
+			Class<?> parameterType,
+			String resultMap,
+			Class<?> resultType,
+			ResultSetType resultSetType,
+			boolean flushCache,
+			boolean useCache,
+			boolean resultOrdered,
+			KeyGenerator keyGenerator,
+			String keyProperty,
+			String keyColumn,
+			String databaseId,
+			LanguageDriver lang,
+			String resultSets,
+			String tables,
+			boolean useLocalCache,
+			FetchMode fetchMode,
+			Integer batchSize,
+			Long batchMaxBytes) {
 
 		if (unresolvedCacheRef) {
 			throw new IncompleteElementException("Cache-ref not yet resolved");
@@ -327,6 +466,11 @@ public class MapperBuilderAssistant extends BaseBuilder {
 		statementBuilder.lang(lang);
 		statementBuilder.resultOrdered(resultOrdered);
 		statementBuilder.resulSets(resultSets);
+		statementBuilder.tables(tables);
+		statementBuilder.useLocalCache(useLocalCache);
+		statementBuilder.fetchMode(fetchMode);
+		statementBuilder.batchSize(batchSize);
+		statementBuilder.batchMaxBytes(batchMaxBytes);
 		setStatementTimeout(timeout, statementBuilder);
 
 		setStatementParameterMap(parameterMap, parameterType, statementBuilder);
@@ -439,6 +583,30 @@ public class MapperBuilderAssistant extends BaseBuilder {
 			String resultSet,
 			String foreignColumn,
 			boolean lazy) {
+		return buildResultMapping(
+				resultType, property, column, javaType, jdbcType, nestedSelect,
+				nestedResultMap, notNullColumn, columnPrefix, typeHandler, flags, resultSet, foreignColumn, lazy, 0);
+	}
+
+	/**
+	 * @param batchSize 大于0时嵌套查询按批执行，nestedSelect的参数为外键列表
+	 */
+	public ResultMapping buildResultMapping(
+			Class<?> resultType,
+			String property,
+			String column,
+			Class<?> javaType,
+			JdbcType jdbcType,
+			String nestedSelect,
+			String nestedResultMap,
+			String notNullColumn,
+			String columnPrefix,
+			Class<? extends TypeHandler<?>> typeHandler,
+			List<ResultFlag> flags,
+			String resultSet,
+			String foreignColumn,
+			boolean lazy,
+			int batchSize) {
 		Class<?> javaTypeClass = resolveResultJavaType(resultType, property, javaType);
 		TypeHandler<?> typeHandlerInstance = resolveTypeHandler(javaTypeClass, typeHandler);
 		List<ResultMapping> composites = parseCompositeColumnName(column);
@@ -457,6 +625,7 @@ public class MapperBuilderAssistant extends BaseBuilder {
 		builder.columnPrefix(columnPrefix);
 		builder.foreignColumn(foreignColumn);
 		builder.lazy(lazy);
+		builder.batchSize(batchSize);
 		return builder.build();
 	}
 
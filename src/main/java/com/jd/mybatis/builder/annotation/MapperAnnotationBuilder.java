@@ -38,6 +38,7 @@ import com.jd.mybatis.builder.BuilderException;
 import com.jd.mybatis.builder.IncompleteElementException;
 import com.jd.mybatis.builder.MapperBuilderAssistant;
 import com.jd.mybatis.builder.xml.XMLMapperBuilder;
+import com.jd.mybatis.cursor.Cursor;
 import com.jd.mybatis.executor.keygen.KeyGenerator;
 import com.jd.mybatis.executor.keygen.SelectKeyGenerator;
 import com.jd.mybatis.io.Resources;
@@ -70,6 +71,7 @@ import com.jd.mybatis.binding.BindingException;
 import com.jd.mybatis.executor.keygen.Jdbc3KeyGenerator;
 import com.jd.mybatis.executor.keygen.NoKeyGenerator;
 import com.jd.mybatis.mapping.Discriminator;
+import com.jd.mybatis.mapping.FetchMode;
 import com.jd.mybatis.mapping.FetchType;
 import com.jd.mybatis.mapping.MappedStatement;
 import com.jd.mybatis.mapping.ResultFlag;
@@ -257,6 +259,9 @@ public class MapperAnnotationBuilder {
 			Options options = method.getAnnotation(Options.class);
 			final String mappedStatementId = type.getName() + "." + method.getName();
 			Integer fetchSize = null;
+			FetchMode fetchMode = FetchMode.DEFAULT;
+			Integer batchSize = null;
+			Long batchMaxBytes = null;
 			Integer timeout = null;
 			StatementType statementType = StatementType.PREPARED;
 			ResultSetType resultSetType = ResultSetType.FORWARD_ONLY;
@@ -289,6 +294,9 @@ public class MapperAnnotationBuilder {
 				flushCache = options.flushCache();
 				useCache = options.useCache();
 				fetchSize = options.fetchSize() > -1 || options.fetchSize() == Integer.MIN_VALUE ? options.fetchSize() : null; //issue #348
+				fetchMode = options.fetchMode();
+				batchSize = options.batchSize() > -1 ? options.batchSize() : null;
+				batchMaxBytes = options.batchMaxBytes() > -1 ? options.batchMaxBytes() : null;
 				timeout = options.timeout() > -1 ? options.timeout() : null;
 				statementType = options.statementType();
 				resultSetType = options.resultSetType();
@@ -334,7 +342,13 @@ public class MapperAnnotationBuilder {
 					null,
 					languageDriver,
 					// ResultSets
-					null);
+					null,
+					// Tables
+					null,
+					true,
+					fetchMode,
+					batchSize,
+					batchMaxBytes);
 		}
 	}
 
@@ -371,7 +385,7 @@ public class MapperAnnotationBuilder {
 			if (rt != null) {
 				returnType = rt.value();
 			}
-		} else if (Collection.class.isAssignableFrom(returnType)) {
+		} else if (Collection.class.isAssignableFrom(returnType) || Cursor.class.isAssignableFrom(returnType)) {
 			Type returnTypeParameter = method.getGenericReturnType();
 			if (returnTypeParameter instanceof ParameterizedType) {
 				Type[] actualTypeArguments = ((ParameterizedType) returnTypeParameter).getActualTypeArguments();
@@ -501,7 +515,8 @@ public class MapperAnnotationBuilder {
 					flags,
 					null,
 					null,
-					isLazy(result));
+					isLazy(result),
+					batchSize(result));
 			resultMappings.add(resultMapping);
 		}
 	}
@@ -527,6 +542,10 @@ public class MapperAnnotationBuilder {
 		return isLazy;
 	}
 
+	private int batchSize(Result result) {
+		return result.one().select().length() > 0 ? result.one().batchSize() : result.many().batchSize();
+	}
+
 	private boolean hasNestedSelect(Result result) {
 		if (result.one().select().length() > 0 && result.many().select().length() > 0) {
 			throw new BuilderException("Cannot use both @One and @Many annotations in the same @Result");
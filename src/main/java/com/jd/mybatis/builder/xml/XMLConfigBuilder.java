@@ -24,12 +24,16 @@ import javax.sql.DataSource;
 import com.jd.mybatis.type.JdbcType;
 import com.jd.mybatis.builder.BaseBuilder;
 import com.jd.mybatis.builder.BuilderException;
+import com.jd.mybatis.cache.invalidation.InvalidationBus;
+import com.jd.mybatis.cache.invalidation.InvalidationTransport;
+import com.jd.mybatis.cache.serializer.Serializer;
 import com.jd.mybatis.datasource.DataSourceFactory;
 import com.jd.mybatis.executor.ErrorContext;
 import com.jd.mybatis.executor.loader.ProxyFactory;
 import com.jd.mybatis.io.Resources;
 import com.jd.mybatis.mapping.DatabaseIdProvider;
 import com.jd.mybatis.mapping.Environment;
+import com.jd.mybatis.mapping.FetchMode;
 import com.jd.mybatis.parsing.XNode;
 import com.jd.mybatis.parsing.XPathParser;
 import com.jd.mybatis.plugin.Interceptor;
@@ -39,6 +43,7 @@ import com.jd.mybatis.reflection.ReflectorFactory;
 import com.jd.mybatis.reflection.factory.ObjectFactory;
 import com.jd.mybatis.reflection.wrapper.ObjectWrapperFactory;
 import com.jd.mybatis.session.AutoMappingBehavior;
+import com.jd.mybatis.session.CacheInvalidation;
 import com.jd.mybatis.session.Configuration;
 import com.jd.mybatis.session.ExecutorType;
 import com.jd.mybatis.session.LocalCacheScope;
@@ -144,6 +149,7 @@ public class XMLConfigBuilder extends BaseBuilder {
 			// read it after objectFactory and objectWrapperFactory issue #631
 			//7.处理environments
 			environmentsElement(root.evalNode("environments"));
+			cacheInvalidationBusElement(root.evalNode("cacheInvalidationBus"));
 			//8.database
 			databaseIdProviderElement(root.evalNode("databaseIdProvider"));
 			//9. typeHandlers
@@ -151,6 +157,8 @@ public class XMLConfigBuilder extends BaseBuilder {
 			//10 mappers
 			mapperElement(root.evalNode("mappers"));
 		} catch (Exception e) {
+			// 之后解析失败时这个Configuration不会被使用，已经启动的失效广播要关闭
+			configuration.close();
 			throw new BuilderException("Error parsing SQL Mapper Configuration. Cause: " + e, e);
 		}
 	}
@@ -291,6 +299,11 @@ public class XMLConfigBuilder extends BaseBuilder {
 			configuration.setAutoMappingBehavior(AutoMappingBehavior.valueOf(props.getProperty("autoMappingBehavior", "PARTIAL")));
 			configuration.setCacheEnabled(booleanValueOf(props.getProperty("cacheEnabled"), true));
 			configuration.setProxyFactory((ProxyFactory) createInstance(props.getProperty("proxyFactory")));
+			configuration.setCacheSerializer((Serializer) createInstance(props.getProperty("cacheSerializer")));
+			configuration.setCacheMetricsEnabled(booleanValueOf(props.getProperty("cacheMetricsEnabled"), false));
+			configuration.setCacheMetricsJmxEnabled(booleanValueOf(props.getProperty("cacheMetricsJmxEnabled"), false));
+			configuration.setCacheInvalidation(CacheInvalidation.valueOf(props.getProperty("cacheInvalidation", "NAMESPACE")));
+			configuration.setCacheRefreshThreads(integerValueOf(props.getProperty("cacheRefreshThreads"), 2));
 			configuration.setLazyLoadingEnabled(booleanValueOf(props.getProperty("lazyLoadingEnabled"), false));
 			configuration.setAggressiveLazyLoading(booleanValueOf(props.getProperty("aggressiveLazyLoading"), true));
 			configuration.setMultipleResultSetsEnabled(booleanValueOf(props.getProperty("multipleResultSetsEnabled"), true));
@@ -299,14 +312,25 @@ public class XMLConfigBuilder extends BaseBuilder {
 			configuration.setDefaultExecutorType(ExecutorType.valueOf(props.getProperty("defaultExecutorType", "SIMPLE")));
 			configuration.setDefaultStatementTimeout(integerValueOf(props.getProperty("defaultStatementTimeout"), null));
 			configuration.setDefaultFetchSize(integerValueOf(props.getProperty("defaultFetchSize"), null));
+			configuration.setDefaultFetchMode(FetchMode.valueOf(props.getProperty("defaultFetchMode", "BUFFERED")));
 			configuration.setMapUnderscoreToCamelCase(booleanValueOf(props.getProperty("mapUnderscoreToCamelCase"), false));
 			configuration.setSafeRowBoundsEnabled(booleanValueOf(props.getProperty("safeRowBoundsEnabled"), false));
 			configuration.setLocalCacheScope(LocalCacheScope.valueOf(props.getProperty("localCacheScope", "SESSION")));
+			configuration.setLocalCacheSize(integerValueOf(props.getProperty("localCacheSize"), 0));
+			configuration.setLocalCacheMaxBytes(Long.valueOf(props.getProperty("localCacheMaxBytes", "0")));
 			configuration.setJdbcTypeForNull(JdbcType.valueOf(props.getProperty("jdbcTypeForNull", "OTHER")));
 			configuration.setLazyLoadTriggerMethods(stringSetValueOf(props.getProperty("lazyLoadTriggerMethods"), "equals,clone,hashCode,toString"));
 			configuration.setSafeResultHandlerEnabled(booleanValueOf(props.getProperty("safeResultHandlerEnabled"), true));
 			configuration.setDefaultScriptingLanguage(resolveClass(props.getProperty("defaultScriptingLanguage")));
 			configuration.setCallSettersOnNulls(booleanValueOf(props.getProperty("callSettersOnNulls"), false));
+			configuration.setCompiledRowMappingEnabled(booleanValueOf(props.getProperty("compiledRowMappingEnabled"), false));
+			configuration.setInterleavedBatchEnabled(booleanValueOf(props.getProperty("interleavedBatchEnabled"), false));
+			configuration.setDefaultBatchSize(integerValueOf(props.getProperty("defaultBatchSize"), 0));
+			configuration.setDefaultBatchMaxBytes(Long.valueOf(props.getProperty("defaultBatchMaxBytes", "0")));
+			configuration.setMultiRowInsertSize(integerValueOf(props.getProperty("multiRowInsertSize"), 0));
+			configuration.setMultiRowInsertMaxParameters(integerValueOf(props.getProperty("multiRowInsertMaxParameters"), 0));
+			configuration.setAsyncBatchFlushEnabled(booleanValueOf(props.getProperty("asyncBatchFlushEnabled"), false));
+			configuration.setAsyncBatchQueueSize(integerValueOf(props.getProperty("asyncBatchQueueSize"), 2));
 			configuration.setLogPrefix(props.getProperty("logPrefix"));
 			configuration.setLogImpl(resolveClass(props.getProperty("logImpl")));
 			configuration.setConfigurationFactory(resolveClass(props.getProperty("configurationFactory")));
@@ -348,6 +372,25 @@ public class XMLConfigBuilder extends BaseBuilder {
 		}
 	}
 
+	/**
+	 * 解析cacheInvalidationBus，type为传输方式，子元素property传给传输实现
+	 *
+	 * @param context
+	 * @throws Exception
+	 */
+	private void cacheInvalidationBusElement(XNode context) throws Exception {
+		if (context != null) {
+			String type = context.getStringAttribute("type");
+			InvalidationTransport transport = (InvalidationTransport) resolveClass(type).newInstance();
+			transport.setProperties(context.getChildrenAsProperties());
+			InvalidationBus bus = new InvalidationBus(configuration, transport);
+			bus.setFlushInterval(context.getLongAttribute("flushInterval", 10L));
+			bus.setBatchSize(context.getIntAttribute("batchSize", 256));
+			bus.start();
+			configuration.setInvalidationBus(bus);
+		}
+	}
+
 	private void databaseIdProviderElement(XNode context) throws Exception {
 		DatabaseIdProvider databaseIdProvider = null;
 		if (context != null) {
@@ -19,6 +19,7 @@ import java.util.List;
 import java.util.Locale;
 
 import com.jd.mybatis.builder.MapperBuilderAssistant;
+import com.jd.mybatis.mapping.FetchMode;
 import com.jd.mybatis.mapping.MappedStatement;
 import com.jd.mybatis.mapping.SqlCommandType;
 import com.jd.mybatis.mapping.SqlSource;
@@ -82,6 +83,8 @@ public class XMLStatementBuilder extends BaseBuilder {
 		boolean flushCache = context.getBooleanAttribute("flushCache", !isSelect);
 		boolean useCache = context.getBooleanAttribute("useCache", isSelect);
 		boolean resultOrdered = context.getBooleanAttribute("resultOrdered", false);
+		boolean useLocalCache = context.getBooleanAttribute("useLocalCache", true);
+		FetchMode fetchMode = FetchMode.valueOf(context.getStringAttribute("fetchMode", FetchMode.DEFAULT.toString()));
 
 		// Include Fragments before parsing
 		XMLIncludeTransformer includeParser = new XMLIncludeTransformer(configuration, builderAssistant);
@@ -93,6 +96,9 @@ public class XMLStatementBuilder extends BaseBuilder {
 		// Parse the SQL (pre: <selectKey> and <include> were parsed and removed)
 		SqlSource sqlSource = langDriver.createSqlSource(configuration, context, parameterTypeClass);
 		String resultSets = context.getStringAttribute("resultSets");
+		String tables = context.getStringAttribute("tables");
+		Integer batchSize = context.getIntAttribute("batchSize");
+		Long batchMaxBytes = context.getLongAttribute("batchMaxBytes");
 		String keyProperty = context.getStringAttribute("keyProperty");
 		String keyColumn = context.getStringAttribute("keyColumn");
 		KeyGenerator keyGenerator;
@@ -109,7 +115,8 @@ public class XMLStatementBuilder extends BaseBuilder {
 		builderAssistant.addMappedStatement(id, sqlSource, statementType, sqlCommandType,
 				fetchSize, timeout, parameterMap, parameterTypeClass, resultMap, resultTypeClass,
 				resultSetTypeEnum, flushCache, useCache, resultOrdered,
-				keyGenerator, keyProperty, keyColumn, databaseId, langDriver, resultSets);
+				keyGenerator, keyProperty, keyColumn, databaseId, langDriver, resultSets, tables, useLocalCache, fetchMode,
+				batchSize, batchMaxBytes);
 	}
 
 	private void processSelectKeyNodes(String id, Class<?> parameterTypeClass, LanguageDriver langDriver) {
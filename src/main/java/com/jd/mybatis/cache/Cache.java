@@ -49,6 +49,12 @@ import java.util.concurrent.locks.ReadWriteLock;
  * SoftCache 软引用缓存，核心是SoftReference
  * WeakCache 弱引用缓存，核心是WeakReference
  * TransactionalCache 事务缓存，一次性存入多个缓存，移除多个缓存
+ * ConcurrentPerpetualCache 线程安全的永久缓存，内部是ConcurrentHashMap
+ * ConcurrentLruCache 分段的最近最少使用缓存，与ConcurrentPerpetualCache组合时不需要SynchronizedCache
+ * OffHeapCache 堆外缓存，值序列化后保存在直接内存的slab中，按字节数限制大小
+ * WeightedCache 按值的估算字节数限制缓存大小，配置maxBytes属性时包装在基础缓存外层
+ * CoalescingCache 合并同一个key的并发加载，blocking为true并配置coalescing属性时代替BlockingCache
+ * ExpiringCache 按条目过期（写入后/访问后），可以在过期之前由后台线程刷新经常读取的条目
  *
  * @author Clinton Begin
  */
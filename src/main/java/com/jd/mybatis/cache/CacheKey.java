@@ -17,41 +17,46 @@ package com.jd.mybatis.cache;
 
 import java.io.Serializable;
 import java.lang.reflect.Array;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 
 /**
+ * 缓存的key由多个组成部分决定，各部分保存在按预计数量分配的数组中，
+ * 每次update时增量计算64位的hash，equals先比较数量和hash，再逐个比较组成部分（同一个对象时不调用equals）。
+ *
  * @author Clinton Begin
  */
 public class CacheKey implements Cloneable, Serializable {
 
-  private static final long serialVersionUID = 1146682552656046210L;
+  private static final long serialVersionUID = -2730932843096917624L;
 
   public static final CacheKey NULL_CACHE_KEY = new NullCacheKey();
 
-  private static final int DEFAULT_MULTIPLYER = 37;
-  private static final int DEFAULT_HASHCODE = 17;
+  private static final int DEFAULT_CAPACITY = 8;
+  private static final long SEED = 0x2545F4914F6CDD1DL;
 
-  private int multiplier;
-  private int hashcode;
-  private long checksum;
+  private long hash;
   private int count;
-  private List<Object> updateList;
+  private Object[] updateList;
 
   public CacheKey() {
-    this.hashcode = DEFAULT_HASHCODE;
-    this.multiplier = DEFAULT_MULTIPLYER;
-    this.count = 0;
-    this.updateList = new ArrayList<Object>();
+    this(DEFAULT_CAPACITY);
+  }
+
+  /*
+   * @param expectedSize - the expected number of components, the key grows if more are added
+   */
+  public CacheKey(int expectedSize) {
+    this.hash = SEED;
+    this.updateList = new Object[Math.max(expectedSize, 1)];
   }
 
   public CacheKey(Object[] objects) {
-    this();
+    this(objects.length);
     updateAll(objects);
   }
 
   public int getUpdateCount() {
-    return updateList.size();
+    return count;
   }
 
   public void update(Object object) {
@@ -67,17 +72,25 @@ public class CacheKey implements Cloneable, Serializable {
   }
 
   private void doUpdate(Object object) {
-	//1. 得到对象的hashcode; 
     int baseHashCode = object == null ? 1 : object.hashCode();
-    //对象计数递增
-    count++;
-    checksum += baseHashCode;
-    //2. 对象的hashcode 扩大count倍
-    baseHashCode *= count;
-    //3. hashCode * 拓展因子（默认37）+拓展扩大后的对象hashCode值
-    hashcode = multiplier * hashcode + baseHashCode;
-
-    updateList.add(object);
+    if (count == updateList.length) {
+      updateList = Arrays.copyOf(updateList, count << 1);
+    }
+    updateList[count++] = object;
+    //与位置相关的混合，交换两个组成部分后hash不同
+    hash = mix(hash ^ ((long) baseHashCode & 0xFFFFFFFFL) ^ ((long) count << 32));
+  }
+
+  /*
+   * 64位的finalizer（MurmurHash3 fmix64），每一位输入都会影响所有输出位
+   */
+  private static long mix(long h) {
+    h ^= h >>> 33;
+    h *= 0xFF51AFD7ED558CCDL;
+    h ^= h >>> 33;
+    h *= 0xC4CEB9FE1A85EC53L;
+    h ^= h >>> 33;
+    return h;
   }
 
   public void updateAll(Object[] objects) {
@@ -97,27 +110,18 @@ public class CacheKey implements Cloneable, Serializable {
 
     final CacheKey cacheKey = (CacheKey) object;
 
-    if (hashcode != cacheKey.hashcode) {
-      return false;
-    }
-    if (checksum != cacheKey.checksum) {
+    if (hash != cacheKey.hash) {
       return false;
     }
     if (count != cacheKey.count) {
       return false;
     }
 
-    for (int i = 0; i < updateList.size(); i++) {
-      Object thisObject = updateList.get(i);
-      Object thatObject = cacheKey.updateList.get(i);
-      if (thisObject == null) {
-        if (thatObject != null) {
-          return false;
-        }
-      } else {
-        if (!thisObject.equals(thatObject)) {
-          return false;
-        }
+    for (int i = 0; i < count; i++) {
+      Object thisObject = updateList[i];
+      Object thatObject = cacheKey.updateList[i];
+      if (thisObject != thatObject && (thisObject == null || !thisObject.equals(thatObject))) {
+        return false;
       }
     }
     return true;
@@ -125,14 +129,14 @@ public class CacheKey implements Cloneable, Serializable {
 
   @Override
   public int hashCode() {
-    return hashcode;
+    return (int) (hash ^ (hash >>> 32));
   }
 
   @Override
   public String toString() {
-    StringBuilder returnValue = new StringBuilder().append(hashcode).append(':').append(checksum);
-    for (int i = 0; i < updateList.size(); i++) {
-      returnValue.append(':').append(updateList.get(i));
+    StringBuilder returnValue = new StringBuilder().append(hashCode()).append(':').append(Long.toHexString(hash));
+    for (int i = 0; i < count; i++) {
+      returnValue.append(':').append(updateList[i]);
     }
 
     return returnValue.toString();
@@ -141,7 +145,7 @@ public class CacheKey implements Cloneable, Serializable {
   @Override
   public CacheKey clone() throws CloneNotSupportedException {
     CacheKey clonedCacheKey = (CacheKey) super.clone();
-    clonedCacheKey.updateList = new ArrayList<Object>(updateList);
+    clonedCacheKey.updateList = Arrays.copyOf(updateList, Math.max(count, 1));
     return clonedCacheKey;
   }
 
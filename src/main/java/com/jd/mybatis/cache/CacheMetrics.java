@@ -0,0 +1,187 @@
+/**
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.jd.mybatis.cache;
+
+import com.jd.mybatis.cache.decorators.WeightedCache;
+import com.jd.mybatis.util.LatencyHistogram;
+import com.jd.mybatis.util.StripedCounter;
+
+/**
+ * Statistics of one second level cache, updated by MetricsCache and the CachingExecutor.
+ * 计数器都是无锁的，读取时只是近似的当前值。
+ * 淘汰次数 = 底层存储实际删除的次数 - 显式删除的次数，包括回收策略和maxBytes引起的淘汰。
+ *
+ * @author Clinton Begin
+ */
+public class CacheMetrics implements CacheMetricsMBean {
+
+  private final String id;
+  private final StripedCounter hits = new StripedCounter();
+  private final StripedCounter misses = new StripedCounter();
+  private final StripedCounter puts = new StripedCounter();
+  private final StripedCounter removals = new StripedCounter();
+  private final StripedCounter storeRemovals = new StripedCounter();
+  private final StripedCounter clears = new StripedCounter();
+  private final StripedCounter loads = new StripedCounter();
+  private final StripedCounter accumulatedLoadTime = new StripedCounter();
+  private final LatencyHistogram loadTime = new LatencyHistogram();
+  private volatile Cache cache;
+  private volatile WeightedCache weightedCache;
+
+  public CacheMetrics(String id) {
+    this.id = id;
+  }
+
+  public void recordHit() {
+    hits.increment();
+  }
+
+  public void recordMiss() {
+    misses.increment();
+  }
+
+  public void recordPut() {
+    puts.increment();
+  }
+
+  /*
+   * An entry removed through the cache
+   */
+  public void recordRemoval() {
+    removals.increment();
+  }
+
+  /*
+   * An entry removed from the underlying store, by a removal or by an eviction
+   */
+  public void recordStoreRemoval() {
+    storeRemovals.increment();
+  }
+
+  public void recordClear() {
+    clears.increment();
+  }
+
+  /*
+   * Records the time the database query of a cache miss took
+   *
+   * @param millis - the time in milliseconds
+   */
+  public void recordLoad(long millis) {
+    loads.increment();
+    accumulatedLoadTime.add(millis);
+    loadTime.record(millis);
+  }
+
+  /*
+   * @param cache - the cache whose size is reported as entry count
+   */
+  public void setCache(Cache cache) {
+    this.cache = cache;
+  }
+
+  public void setWeightedCache(WeightedCache weightedCache) {
+    this.weightedCache = weightedCache;
+  }
+
+  @Override
+  public String getId() {
+    return id;
+  }
+
+  @Override
+  public long getHits() {
+    return hits.sum();
+  }
+
+  @Override
+  public long getMisses() {
+    return misses.sum();
+  }
+
+  @Override
+  public double getHitRatio() {
+    long hits = getHits();
+    long requests = hits + getMisses();
+    return requests == 0 ? 0 : (double) hits / requests;
+  }
+
+  @Override
+  public long getPuts() {
+    return puts.sum();
+  }
+
+  @Override
+  public long getRemovals() {
+    return removals.sum();
+  }
+
+  @Override
+  public long getEvictions() {
+    return Math.max(0, storeRemovals.sum() - removals.sum());
+  }
+
+  @Override
+  public long getClears() {
+    return clears.sum();
+  }
+
+  @Override
+  public long getLoads() {
+    return loads.sum();
+  }
+
+  @Override
+  public double getAverageLoadTime() {
+    long loads = getLoads();
+    return loads == 0 ? 0 : (double) accumulatedLoadTime.sum() / loads;
+  }
+
+  @Override
+  public long getLoadTime99thPercentile() {
+    return getLoadTimePercentile(99);
+  }
+
+  /*
+   * @param percentile - between 0 and 100
+   * @return the upper bound in milliseconds of the load time percentile
+   */
+  public long getLoadTimePercentile(double percentile) {
+    return loadTime.getPercentile(percentile);
+  }
+
+  @Override
+  public int getEntryCount() {
+    Cache current = cache;
+    return current == null ? 0 : current.getSize();
+  }
+
+  /*
+   * @return the estimated bytes of the values, -1 if the cache has no maxBytes
+   */
+  @Override
+  public long getWeight() {
+    WeightedCache current = weightedCache;
+    return current == null ? -1 : current.getWeight();
+  }
+
+  @Override
+  public String toString() {
+    return "CacheMetrics[" + id + "] hits=" + getHits() + ", misses=" + getMisses() + ", puts=" + getPuts()
+        + ", evictions=" + getEvictions() + ", entries=" + getEntryCount() + ", averageLoadTime=" + getAverageLoadTime();
+  }
+
+}
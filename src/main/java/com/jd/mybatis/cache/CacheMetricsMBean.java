@@ -0,0 +1,51 @@
+/**
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.jd.mybatis.cache;
+
+/**
+ * JMX view of {@link CacheMetrics}.
+ *
+ * @author Clinton Begin
+ */
+public interface CacheMetricsMBean {
+
+  String getId();
+
+  long getHits();
+
+  long getMisses();
+
+  double getHitRatio();
+
+  long getPuts();
+
+  long getRemovals();
+
+  long getEvictions();
+
+  long getClears();
+
+  long getLoads();
+
+  double getAverageLoadTime();
+
+  long getLoadTime99thPercentile();
+
+  int getEntryCount();
+
+  long getWeight();
+
+}
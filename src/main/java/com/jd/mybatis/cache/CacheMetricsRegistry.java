@@ -0,0 +1,119 @@
+/**
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.jd.mybatis.cache;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.jd.mybatis.logging.Log;
+import com.jd.mybatis.logging.LogFactory;
+
+/**
+ * Metrics of all second level caches of a Configuration, by cache id (namespace).
+ * 开启JMX后，每个缓存的统计注册为MBean：com.jd.mybatis:type=CacheMetrics,registry=N,name="namespace"，
+ * registry区分同一JVM中的多个Configuration，同名的缓存不会互相覆盖。
+ *
+ * @author Clinton Begin
+ */
+public class CacheMetricsRegistry {
+
+  private static final Log log = LogFactory.getLog(CacheMetricsRegistry.class);
+
+  private static final String JMX_DOMAIN = "com.jd.mybatis";
+  private static final AtomicInteger REGISTRY_COUNT = new AtomicInteger();
+
+  private final ConcurrentMap<String, CacheMetrics> metrics = new ConcurrentHashMap<String, CacheMetrics>();
+  private final int registryId = REGISTRY_COUNT.incrementAndGet();
+  private volatile boolean jmxEnabled;
+
+  /*
+   * Creates the metrics of a cache, replacing the metrics of an older cache with the same id
+   */
+  public CacheMetrics register(String id) {
+    CacheMetrics cacheMetrics = new CacheMetrics(id);
+    CacheMetrics previous = metrics.put(id, cacheMetrics);
+    if (jmxEnabled) {
+      if (previous != null) {
+        unregisterMBean(previous);
+      }
+      registerMBean(cacheMetrics);
+    }
+    return cacheMetrics;
+  }
+
+  /*
+   * @return the metrics of the cache or null if the cache has none
+   */
+  public CacheMetrics getMetrics(String id) {
+    return metrics.get(id);
+  }
+
+  public Collection<CacheMetrics> getAllMetrics() {
+    return Collections.unmodifiableCollection(metrics.values());
+  }
+
+  public boolean isJmxEnabled() {
+    return jmxEnabled;
+  }
+
+  public synchronized void setJmxEnabled(boolean jmxEnabled) {
+    if (this.jmxEnabled == jmxEnabled) {
+      return;
+    }
+    this.jmxEnabled = jmxEnabled;
+    for (CacheMetrics cacheMetrics : metrics.values()) {
+      if (jmxEnabled) {
+        registerMBean(cacheMetrics);
+      } else {
+        unregisterMBean(cacheMetrics);
+      }
+    }
+  }
+
+  private void registerMBean(CacheMetrics cacheMetrics) {
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      server.registerMBean(cacheMetrics, objectName(cacheMetrics.getId()));
+    } catch (Exception e) {
+      //JMX只用于监控，注册失败不影响缓存
+      log.warn("Could not register cache metrics of " + cacheMetrics.getId() + " with JMX. Cause: " + e);
+    }
+  }
+
+  private void unregisterMBean(CacheMetrics cacheMetrics) {
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = objectName(cacheMetrics.getId());
+      if (server.isRegistered(name)) {
+        server.unregisterMBean(name);
+      }
+    } catch (Exception e) {
+      log.warn("Could not unregister cache metrics of " + cacheMetrics.getId() + " from JMX. Cause: " + e);
+    }
+  }
+
+  private ObjectName objectName(String id) throws Exception {
+    return new ObjectName(JMX_DOMAIN + ":type=CacheMetrics,registry=" + registryId + ",name=" + ObjectName.quote(id));
+  }
+
+}
@@ -0,0 +1,60 @@
+/**
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.jd.mybatis.cache;
+
+import java.io.Serializable;
+
+/**
+ * A cached result together with the versions of the tables it was read from, see {@link TableVersions}.
+ *
+ * @author Clinton Begin
+ */
+public final class TableTaggedResult implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  private final Object value;
+  private final String[] tables;
+  private final long[] versions;
+
+  public TableTaggedResult(Object value, String[] tables, long[] versions) {
+    this.value = value;
+    this.tables = tables;
+    this.versions = versions;
+  }
+
+  private TableTaggedResult() {
+    //供CompactSerializer反序列化使用
+    this(null, null, null);
+  }
+
+  public Object getValue() {
+    return value;
+  }
+
+  public String[] getTables() {
+    return tables;
+  }
+
+  public long[] getVersions() {
+    return versions;
+  }
+
+  public boolean isCurrent(TableVersions tableVersions) {
+    return tableVersions.isCurrent(tables, versions);
+  }
+
+}
@@ -0,0 +1,90 @@
+/**
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.jd.mybatis.cache;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Version counters of the tables written through MyBatis, used to invalidate cached results by table.
+ * 缓存结果时记录所读取的表的版本，读取缓存时版本没有变化才有效，写操作提交时递增被写入的表的版本。
+ * 无法确定读取了哪些表的结果记录的是所有写操作的总版本，任何写入都会使其失效。
+ *
+ * @author Clinton Begin
+ */
+public class TableVersions {
+
+  private final ConcurrentMap<String, AtomicLong> versions = new ConcurrentHashMap<String, AtomicLong>();
+  //所有写操作的总版本
+  private final AtomicLong writes = new AtomicLong();
+
+  /*
+   * Must be taken before the query whose result is cached
+   *
+   * @param tables - the tables read, null if unknown
+   */
+  public long[] snapshot(String[] tables) {
+    if (tables == null) {
+      return new long[] { writes.get() };
+    }
+    long[] snapshot = new long[tables.length];
+    for (int i = 0; i < tables.length; i++) {
+      snapshot[i] = version(tables[i]).get();
+    }
+    return snapshot;
+  }
+
+  public boolean isCurrent(String[] tables, long[] snapshot) {
+    if (tables == null) {
+      return snapshot.length == 1 && snapshot[0] == writes.get();
+    }
+    for (int i = 0; i < tables.length; i++) {
+      if (version(tables[i]).get() != snapshot[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /*
+   * Invalidates the results that read any of the tables
+   */
+  public void invalidate(Collection<String> tables) {
+    for (String table : tables) {
+      version(table).incrementAndGet();
+    }
+    writes.incrementAndGet();
+  }
+
+  public long getVersion(String table) {
+    return version(table).get();
+  }
+
+  private AtomicLong version(String table) {
+    AtomicLong version = versions.get(table);
+    if (version == null) {
+      version = new AtomicLong();
+      AtomicLong existing = versions.putIfAbsent(table, version);
+      if (existing != null) {
+        version = existing;
+      }
+    }
+    return version;
+  }
+
+}
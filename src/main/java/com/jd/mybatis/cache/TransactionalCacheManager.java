@@ -16,9 +16,12 @@
 package com.jd.mybatis.cache;
 
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 
 import com.jd.mybatis.cache.decorators.TransactionalCache;
+import com.jd.mybatis.cache.invalidation.InvalidationBus;
 
 /**
  * @author Clinton Begin
@@ -26,6 +29,19 @@ import com.jd.mybatis.cache.decorators.TransactionalCache;
 public class TransactionalCacheManager {
 
   private Map<Cache, TransactionalCache> transactionalCaches = new HashMap<Cache, TransactionalCache>();
+  //按表失效时，本事务写入、提交时要递增版本的表
+  private Set<String> tablesToInvalidateOnCommit = new HashSet<String>();
+  private TableVersions tableVersions;
+  //集群部署时把提交的失效广播给其他节点，为null时只在本地生效
+  private final InvalidationBus invalidationBus;
+
+  public TransactionalCacheManager() {
+    this(null);
+  }
+
+  public TransactionalCacheManager(InvalidationBus invalidationBus) {
+    this.invalidationBus = invalidationBus;
+  }
 
   public void clear(Cache cache) {
     getTransactionalCache(cache).clear();
@@ -39,13 +55,59 @@ public class TransactionalCacheManager {
     getTransactionalCache(cache).putObject(key, value);
   }
 
+  public void invalidateTables(String[] tables, TableVersions tableVersions) {
+    this.tableVersions = tableVersions;
+    for (String table : tables) {
+      tablesToInvalidateOnCommit.add(table);
+    }
+  }
+
+  /**
+   * @param cache The cache of the statement
+   * @param tables The tables the statement reads, null if unknown
+   * @return True if this transaction changed the data, cached results must not be used until it ends
+   */
+  public boolean isInvalidated(Cache cache, String[] tables) {
+    if (getTransactionalCache(cache).isClearOnCommit()) {
+      return true;
+    }
+    if (tablesToInvalidateOnCommit.isEmpty()) {
+      return false;
+    }
+    if (tables == null) {
+      return true;
+    }
+    for (String table : tables) {
+      if (tablesToInvalidateOnCommit.contains(table)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  public void releaseMissedEntry(Cache cache, CacheKey key) {
+    getTransactionalCache(cache).releaseMissedEntry(key);
+  }
+
   public void commit() {
+    //先使旧版本失效，再写入本事务缓存的结果
+    if (!tablesToInvalidateOnCommit.isEmpty()) {
+      tableVersions.invalidate(tablesToInvalidateOnCommit);
+      if (invalidationBus != null) {
+        invalidationBus.publishTables(tablesToInvalidateOnCommit);
+      }
+      tablesToInvalidateOnCommit.clear();
+    }
     for (TransactionalCache txCache : transactionalCaches.values()) {
+      if (invalidationBus != null && txCache.isClearOnCommit()) {
+        invalidationBus.publishNamespace(txCache.getId());
+      }
       txCache.commit();
     }
   }
 
   public void rollback() {
+    tablesToInvalidateOnCommit.clear();
     for (TransactionalCache txCache : transactionalCaches.values()) {
       txCache.rollback();
     }
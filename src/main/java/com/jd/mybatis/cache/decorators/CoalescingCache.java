@@ -0,0 +1,180 @@
+/**
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.jd.mybatis.cache.decorators;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import com.jd.mybatis.cache.Cache;
+import com.jd.mybatis.cache.CacheException;
+
+/**
+ * Request coalescing alternative to {@link BlockingCache}.
+ * 同一个key并发未命中时，只有第一个线程去查询数据库，其他线程等待这次加载结束后重新读取缓存：
+ * 1. 加载结束（putObject）或失败、回滚（removeObject）时立即从map中删除，map里只有正在进行的加载
+ * 2. 等待超过timeout的线程不再等待，把这次加载当作已放弃，自己成为新的加载者
+ * 3. 正在进行的加载数超过maxLoads时不再合并，直接查询数据库，map不会无限增长
+ * 等待的线程从缓存中重新读取值，所以readOnly为false时每个线程仍然得到自己的副本。
+ *
+ * @author Eduardo Macarron
+ */
+public class CoalescingCache implements Cache {
+
+  private final Cache delegate;
+  private final ConcurrentHashMap<Object, Load> loads = new ConcurrentHashMap<Object, Load>();
+  private long timeout;
+  private int maxLoads = 1024;
+
+  public CoalescingCache(Cache delegate) {
+    this.delegate = delegate;
+  }
+
+  @Override
+  public String getId() {
+    return delegate.getId();
+  }
+
+  @Override
+  public int getSize() {
+    return delegate.getSize();
+  }
+
+  @Override
+  public void putObject(Object key, Object value) {
+    try {
+      delegate.putObject(key, value);
+    } finally {
+      //不论是谁写入的，缓存中已经有新值，等待的线程都可以重新读取
+      Load load = loads.remove(key);
+      if (load != null) {
+        load.finish();
+      }
+    }
+  }
+
+  @Override
+  public Object getObject(Object key) {
+    for (;;) {
+      Object value = delegate.getObject(key);
+      if (value != null) {
+        return value;
+      }
+      Load load = loads.get(key);
+      if (load == null) {
+        if (loads.size() >= maxLoads) {
+          return null;
+        }
+        Load created = new Load();
+        load = loads.putIfAbsent(key, created);
+        if (load == null) {
+          //登记之前可能刚好有加载结束，再检查一次
+          value = delegate.getObject(key);
+          if (value != null) {
+            finish(key, created);
+          }
+          return value;
+        }
+      }
+      if (load.owner == Thread.currentThread()) {
+        //同一个会话在提交前再次查询
+        return null;
+      }
+      if (!load.await(timeout, key, getId())) {
+        finish(key, load);
+      }
+    }
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    // like in BlockingCache, this method is called only to release the load of a missed key
+    Load load = loads.get(key);
+    if (load != null && load.owner == Thread.currentThread()) {
+      finish(key, load);
+    }
+    return null;
+  }
+
+  @Override
+  public void clear() {
+    delegate.clear();
+  }
+
+  @Override
+  public ReadWriteLock getReadWriteLock() {
+    return null;
+  }
+
+  /**
+   * @return The number of loads in progress
+   */
+  public int getLoadCount() {
+    return loads.size();
+  }
+
+  public long getTimeout() {
+    return timeout;
+  }
+
+  /**
+   * @param timeout 等待其他线程加载的最长时间（毫秒），0表示一直等待
+   */
+  public void setTimeout(long timeout) {
+    this.timeout = timeout;
+  }
+
+  public int getMaxLoads() {
+    return maxLoads;
+  }
+
+  public void setMaxLoads(int maxLoads) {
+    this.maxLoads = maxLoads;
+  }
+
+  private void finish(Object key, Load load) {
+    loads.remove(key, load);
+    load.finish();
+  }
+
+  private static final class Load {
+
+    private final Thread owner = Thread.currentThread();
+    private final CountDownLatch done = new CountDownLatch(1);
+
+    void finish() {
+      done.countDown();
+    }
+
+    /*
+     * @return False if the load did not finish in time
+     */
+    boolean await(long timeout, Object key, String id) {
+      try {
+        if (timeout > 0) {
+          return done.await(timeout, TimeUnit.MILLISECONDS);
+        }
+        done.await();
+        return true;
+      } catch (InterruptedException e) {
+        throw new CacheException("Got interrupted while waiting for the load of key " + key + " at the cache " + id, e);
+      }
+    }
+
+  }
+
+}
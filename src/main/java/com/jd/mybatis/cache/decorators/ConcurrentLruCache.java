@@ -0,0 +1,176 @@
+/**
+ * Copyright 2009-2015 the original author or authors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jd.mybatis.cache.decorators;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.jd.mybatis.cache.Cache;
+
+/**
+ * Segmented Lru (least recently used) cache decorator, safe for concurrent use
+ * when the delegate is (e.g. ConcurrentPerpetualCache).
+ * key按hash分布到多个段，每个段有自己的锁和按访问顺序排列的LinkedHashMap，只在段内淘汰最久未使用的key。
+ * 读操作只尝试获取段锁，段锁被占用时放弃这次访问顺序的更新，所以缓存命中不会阻塞。
+ * 写入和删除在段锁内同时修改delegate和段，clear按顺序锁住所有段，保证段中记录的key与delegate中的值一致。
+ *
+ * @author Clinton Begin
+ */
+public class ConcurrentLruCache implements Cache {
+
+	private static final int MAXIMUM_SEGMENTS = 16;
+
+	private final Cache delegate;
+	private Segment[] segments;
+
+	public ConcurrentLruCache(Cache delegate) {
+		this.delegate = delegate;
+		setSize(1024);
+	}
+
+	@Override
+	public String getId() {
+		return delegate.getId();
+	}
+
+	@Override
+	public int getSize() {
+		return delegate.getSize();
+	}
+
+	/**
+	 * 总容量平均分配到各段，小于16时段数为不大于size的2的幂
+	 *
+	 * @param size
+	 */
+	public void setSize(int size) {
+		int segmentCount = 1;
+		while (segmentCount < MAXIMUM_SEGMENTS && segmentCount * 2 <= size) {
+			segmentCount <<= 1;
+		}
+		Segment[] newSegments = new Segment[segmentCount];
+		for (int i = 0; i < segmentCount; i++) {
+			newSegments[i] = new Segment(size / segmentCount + (i < size % segmentCount ? 1 : 0));
+		}
+		this.segments = newSegments;
+	}
+
+	@Override
+	public void putObject(Object key, Object value) {
+		segmentFor(key).put(key, value);
+	}
+
+	@Override
+	public Object getObject(Object key) {
+		Object value = delegate.getObject(key);
+		if (value != null) {
+			segmentFor(key).touch(key);
+		}
+		return value;
+	}
+
+	@Override
+	public Object removeObject(Object key) {
+		return segmentFor(key).remove(key);
+	}
+
+	@Override
+	public void clear() {
+		Segment[] current = segments;
+		int locked = 0;
+		try {
+			for (Segment segment : current) {
+				segment.lock();
+				locked++;
+			}
+			delegate.clear();
+			for (Segment segment : current) {
+				segment.keyMap.clear();
+			}
+		} finally {
+			for (int i = 0; i < locked; i++) {
+				current[i].unlock();
+			}
+		}
+	}
+
+	@Override
+	public ReadWriteLock getReadWriteLock() {
+		return null;
+	}
+
+	private Segment segmentFor(Object key) {
+		int h = key.hashCode();
+		h ^= (h >>> 16);
+		Segment[] current = segments;
+		return current[h & (current.length - 1)];
+	}
+
+	private final class Segment extends ReentrantLock {
+
+		private static final long serialVersionUID = 1L;
+
+		private final int capacity;
+		private final LinkedHashMap<Object, Object> keyMap;
+
+		Segment(int capacity) {
+			this.capacity = capacity;
+			this.keyMap = new LinkedHashMap<Object, Object>(16, .75F, true);
+		}
+
+		void touch(Object key) {
+			if (tryLock()) {
+				try {
+					keyMap.get(key);
+				} finally {
+					unlock();
+				}
+			}
+		}
+
+		void put(Object key, Object value) {
+			lock();
+			try {
+				delegate.putObject(key, value);
+				keyMap.put(key, key);
+				if (keyMap.size() > capacity) {
+					Iterator<Map.Entry<Object, Object>> it = keyMap.entrySet().iterator();
+					Object eldestKey = it.next().getKey();
+					it.remove();
+					//在段锁内删除，保证不会留下没有key记录的缓存值
+					delegate.removeObject(eldestKey);
+				}
+			} finally {
+				unlock();
+			}
+		}
+
+		Object remove(Object key) {
+			lock();
+			try {
+				keyMap.remove(key);
+				return delegate.removeObject(key);
+			} finally {
+				unlock();
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,245 @@
+/**
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.jd.mybatis.cache.decorators;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import com.jd.mybatis.cache.Cache;
+
+/**
+ * Per entry expiration with optional refresh-ahead.
+ * 与ScheduledCache定时清空整个缓存不同，每个条目单独计算过期时间，不会在同一时刻集中失效：
+ * 1. expireAfterWrite：写入后超过指定毫秒数过期
+ * 2. expireAfterAccess：超过指定毫秒数没有被读取过期
+ * 3. refreshAfterWrite：写入后超过指定毫秒数仍被读取的条目，在过期之前由后台线程重新查询
+ *
+ * 过期的条目在读取时删除，从未再读取的条目由回收策略淘汰。
+ * 缓存本身无法执行查询，命中需要刷新的条目时记录一个{@link Refresh}，
+ * 由CachingExecutor通过{@link #pollRefresh()}取出后交给后台线程按原来的MappedStatement重新加载。
+ *
+ * @author Clinton Begin
+ */
+public class ExpiringCache implements Cache {
+
+  private static final ThreadLocal<Refresh> requestedRefresh = new ThreadLocal<Refresh>();
+  private static final ThreadLocal<Refresh> completingRefresh = new ThreadLocal<Refresh>();
+
+  private final Cache delegate;
+  private final ConcurrentHashMap<Object, Refresh> refreshing = new ConcurrentHashMap<Object, Refresh>();
+  // 每次clear递增，清空之前开始的刷新不再写回
+  private final AtomicLong generation = new AtomicLong();
+  private long expireAfterWrite;
+  private long expireAfterAccess;
+  private long refreshAfterWrite;
+
+  public ExpiringCache(Cache delegate) {
+    this.delegate = delegate;
+  }
+
+  @Override
+  public String getId() {
+    return delegate.getId();
+  }
+
+  @Override
+  public int getSize() {
+    return delegate.getSize();
+  }
+
+  @Override
+  public void putObject(Object key, Object value) {
+    Refresh refresh = completingRefresh.get();
+    if (refresh != null && refresh.cache == this) {
+      if (!refresh.isCurrent()) {
+        // 刷新期间缓存被清空过，查询到的结果可能已经过期
+        refresh.release();
+        return;
+      }
+    }
+    delegate.putObject(key, new Entry(value, System.currentTimeMillis()));
+    Refresh pending = refreshing.remove(key);
+    if (pending != null && pending != refresh) {
+      // 其他线程已经写入新值，正在进行的刷新作废
+      pending.cancelled = true;
+    }
+  }
+
+  @Override
+  public Object getObject(Object key) {
+    Object stored = delegate.getObject(key);
+    if (!(stored instanceof Entry)) {
+      return stored;
+    }
+    Entry entry = (Entry) stored;
+    long now = System.currentTimeMillis();
+    if (isExpired(entry, now)) {
+      delegate.removeObject(key);
+      return null;
+    }
+    entry.accessTime = now;
+    if (refreshAfterWrite > 0 && now - entry.writeTime >= refreshAfterWrite) {
+      Refresh refresh = new Refresh(this, key, generation.get());
+      if (refreshing.putIfAbsent(key, refresh) == null) {
+        requestedRefresh.set(refresh);
+      }
+    }
+    return entry.value;
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    Object stored = delegate.removeObject(key);
+    return stored instanceof Entry ? ((Entry) stored).value : stored;
+  }
+
+  @Override
+  public void clear() {
+    generation.incrementAndGet();
+    refreshing.clear();
+    delegate.clear();
+  }
+
+  @Override
+  public ReadWriteLock getReadWriteLock() {
+    return null;
+  }
+
+  @Override
+  public int hashCode() {
+    return delegate.hashCode();
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    return delegate.equals(obj);
+  }
+
+  private boolean isExpired(Entry entry, long now) {
+    return (expireAfterWrite > 0 && now - entry.writeTime >= expireAfterWrite)
+        || (expireAfterAccess > 0 && now - entry.accessTime >= expireAfterAccess);
+  }
+
+  /*
+   * Returns the refresh requested by the last read of the current thread, if any, and forgets it.
+   * The caller owns the returned refresh and must either complete or release it.
+   */
+  public static Refresh pollRefresh() {
+    Refresh refresh = requestedRefresh.get();
+    if (refresh != null) {
+      requestedRefresh.remove();
+    }
+    return refresh;
+  }
+
+  /*
+   * @return the number of entries being refreshed in the background
+   */
+  public int getRefreshCount() {
+    return refreshing.size();
+  }
+
+  public long getExpireAfterWrite() {
+    return expireAfterWrite;
+  }
+
+  public void setExpireAfterWrite(long expireAfterWrite) {
+    this.expireAfterWrite = expireAfterWrite;
+  }
+
+  public long getExpireAfterAccess() {
+    return expireAfterAccess;
+  }
+
+  public void setExpireAfterAccess(long expireAfterAccess) {
+    this.expireAfterAccess = expireAfterAccess;
+  }
+
+  public long getRefreshAfterWrite() {
+    return refreshAfterWrite;
+  }
+
+  public void setRefreshAfterWrite(long refreshAfterWrite) {
+    this.refreshAfterWrite = refreshAfterWrite;
+  }
+
+  /**
+   * A pending background reload of one key.
+   */
+  public static final class Refresh {
+
+    private final ExpiringCache cache;
+    private final Object key;
+    private final long generation;
+    private volatile boolean cancelled;
+
+    private Refresh(ExpiringCache cache, Object key, long generation) {
+      this.cache = cache;
+      this.key = key;
+      this.generation = generation;
+    }
+
+    public Object getKey() {
+      return key;
+    }
+
+    /*
+     * Stores the reloaded value through the given cache, which must be the decorator chain this refresh came from,
+     * so outer decorators like SerializedCache still apply. The value is dropped if the cache has been cleared
+     * or written meanwhile.
+     */
+    public void complete(Cache target, Object value) {
+      if (!isCurrent()) {
+        release();
+        return;
+      }
+      completingRefresh.set(this);
+      try {
+        target.putObject(key, value);
+      } finally {
+        completingRefresh.remove();
+      }
+    }
+
+    /*
+     * Gives up the refresh, the entry may be refreshed again by a later read.
+     */
+    public void release() {
+      cache.refreshing.remove(key, this);
+    }
+
+    private boolean isCurrent() {
+      return !cancelled && generation == cache.generation.get();
+    }
+
+  }
+
+  private static final class Entry {
+
+    private final Object value;
+    private final long writeTime;
+    private volatile long accessTime;
+
+    private Entry(Object value, long writeTime) {
+      this.value = value;
+      this.writeTime = writeTime;
+      this.accessTime = writeTime;
+    }
+
+  }
+
+}
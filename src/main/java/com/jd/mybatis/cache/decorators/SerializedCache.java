@@ -15,29 +15,41 @@
  */
 package com.jd.mybatis.cache.decorators;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.ObjectStreamClass;
 import java.io.Serializable;
 import java.util.concurrent.locks.ReadWriteLock;
 
 import com.jd.mybatis.cache.Cache;
 import com.jd.mybatis.cache.CacheException;
+import com.jd.mybatis.cache.serializer.JdkSerializer;
+import com.jd.mybatis.cache.serializer.Serializer;
 import com.jd.mybatis.io.Resources;
 
 /**
+ * Stores serialized copies of the values, every read returns a new copy.
+ * 序列化方式由{@link Serializer}决定，默认使用Java序列化。
+ *
  * @author Clinton Begin
  */
 public class SerializedCache implements Cache {
 
   private Cache delegate;
+  private Serializer serializer;
 
   public SerializedCache(Cache delegate) {
+    this(delegate, new JdkSerializer());
+  }
+
+  public SerializedCache(Cache delegate, Serializer serializer) {
     this.delegate = delegate;
+    this.serializer = serializer;
+  }
+
+  public void setSerializer(Serializer serializer) {
+    this.serializer = serializer;
   }
 
   @Override
@@ -91,29 +103,11 @@ public class SerializedCache implements Cache {
   }
 
   private byte[] serialize(Serializable value) {
-    try {
-      ByteArrayOutputStream bos = new ByteArrayOutputStream();
-      ObjectOutputStream oos = new ObjectOutputStream(bos);
-      oos.writeObject(value);
-      oos.flush();
-      oos.close();
-      return bos.toByteArray();
-    } catch (Exception e) {
-      throw new CacheException("Error serializing object.  Cause: " + e, e);
-    }
+    return value == null ? null : serializer.serialize(value);
   }
 
   private Serializable deserialize(byte[] value) {
-    Serializable result;
-    try {
-      ByteArrayInputStream bis = new ByteArrayInputStream(value);
-      ObjectInputStream ois = new CustomObjectInputStream(bis);
-      result = (Serializable) ois.readObject();
-      ois.close();
-    } catch (Exception e) {
-      throw new CacheException("Error deserializing object.  Cause: " + e, e);
-    }
-    return result;
+    return (Serializable) serializer.deserialize(value);
   }
 
   public static class CustomObjectInputStream extends ObjectInputStream {
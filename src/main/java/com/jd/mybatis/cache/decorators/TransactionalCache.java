@@ -98,6 +98,13 @@ public class TransactionalCache implements Cache {
     entriesToAddOnCommit.clear();
   }
 
+  /**
+   * @return True if the cache is cleared when the transaction commits
+   */
+  public boolean isClearOnCommit() {
+    return clearOnCommit;
+  }
+
   public void commit() {
     if (clearOnCommit) {
       delegate.clear();
@@ -111,6 +118,23 @@ public class TransactionalCache implements Cache {
     reset();
   }
 
+  /**
+   * Releases a key missed by a load that failed, so blocking caches do not make
+   * other sessions wait for this one to end.
+   *
+   * @param key The key of the failed load
+   */
+  public void releaseMissedEntry(Object key) {
+    if (entriesMissedInCache.remove(key) && !entriesToAddOnCommit.containsKey(key)) {
+      try {
+        delegate.removeObject(key);
+      } catch (Exception e) {
+        log.warn("Unexpected exception while releasing a failed load at the cache adapter."
+            + "Consider upgrading your cache adapter to the latest version.  Cause: " + e);
+      }
+    }
+  }
+
   private void reset() {
     clearOnCommit = false;
     entriesToAddOnCommit.clear();
@@ -0,0 +1,196 @@
+/**
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.jd.mybatis.cache.decorators;
+
+import java.lang.reflect.Constructor;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.jd.mybatis.cache.Cache;
+import com.jd.mybatis.cache.CacheException;
+import com.jd.mybatis.cache.weigher.ObjectSizeEstimator;
+import com.jd.mybatis.cache.weigher.Weigher;
+import com.jd.mybatis.io.Resources;
+import com.jd.mybatis.logging.Log;
+import com.jd.mybatis.logging.LogFactory;
+
+/**
+ * Bounds the cache by the estimated bytes of its values instead of the number of keys.
+ * 每个值在写入时由{@link Weigher}估算大小，总大小超过maxBytes时淘汰最久未使用的key，
+ * 单个值超过maxBytes时不缓存。
+ * 由CacheBuilder在配置了maxBytes属性时直接包装在基础缓存外层，回收策略删除的key也会经过这里，
+ * 所以记录的总大小与实际缓存的值保持一致。线程安全，可用于并发的缓存链。
+ *
+ * @author Clinton Begin
+ */
+public class WeightedCache implements Cache {
+
+	private static final Log log = LogFactory.getLog(WeightedCache.class);
+
+	private final Cache delegate;
+	//key -> 估算的大小，按访问顺序排列
+	private final LinkedHashMap<Object, Long> weights = new LinkedHashMap<Object, Long>(16, .75F, true);
+	private final ReentrantLock lock = new ReentrantLock();
+	private long maxBytes = 64L * 1024 * 1024;
+	private volatile long weight;
+	private Weigher weigher = new ObjectSizeEstimator();
+
+	public WeightedCache(Cache delegate) {
+		this.delegate = delegate;
+	}
+
+	@Override
+	public String getId() {
+		return delegate.getId();
+	}
+
+	@Override
+	public int getSize() {
+		return delegate.getSize();
+	}
+
+	/**
+	 * @return 当前缓存值的估算总大小（字节）
+	 */
+	public long getWeight() {
+		return weight;
+	}
+
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	public void setMaxBytes(long maxBytes) {
+		if (maxBytes <= 0) {
+			throw new CacheException("Invalid maxBytes for cache " + getId() + ": " + maxBytes);
+		}
+		lock.lock();
+		try {
+			this.maxBytes = maxBytes;
+			evict();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @param weigher Weigher实现类的全限定名
+	 */
+	public void setWeigher(String weigher) {
+		Constructor<? extends Weigher> weigherConstructor = getWeigherConstructor(weigher);
+		try {
+			this.weigher = weigherConstructor.newInstance();
+		} catch (Exception e) {
+			throw new CacheException("Could not instantiate weigher (" + weigher + "). Cause: " + e, e);
+		}
+	}
+
+	/**
+	 * <strong>必须实现Weigher并且有无参构造函数，否则会抛出异常</strong>
+	 */
+	private static Constructor<? extends Weigher> getWeigherConstructor(String weigher) {
+		try {
+			return Resources.classForName(weigher).asSubclass(Weigher.class).getDeclaredConstructor();
+		} catch (Exception e) {
+			throw new CacheException("Invalid weigher (" + weigher + ").  " +
+					"Weighers must implement " + Weigher.class.getName() + " and have a constructor without parameters.  Cause: " + e, e);
+		}
+	}
+
+	@Override
+	public void putObject(Object key, Object value) {
+		//估算可能要遍历整个结果列表，放在锁外
+		long valueWeight = value == null ? 0 : weigher.weigh(value);
+		if (valueWeight > maxBytes) {
+			if (log.isDebugEnabled()) {
+				log.debug("Value of " + valueWeight + " bytes exceeds maxBytes of cache " + getId() + ", not cached");
+			}
+			removeObject(key);
+			return;
+		}
+		lock.lock();
+		try {
+			delegate.putObject(key, value);
+			Long previous = weights.put(key, valueWeight);
+			weight += valueWeight - (previous == null ? 0 : previous);
+			evict();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public Object getObject(Object key) {
+		Object value = delegate.getObject(key);
+		//只尝试更新访问顺序，缓存命中不等待写入
+		if (value != null && lock.tryLock()) {
+			try {
+				weights.get(key);
+			} finally {
+				lock.unlock();
+			}
+		}
+		return value;
+	}
+
+	@Override
+	public Object removeObject(Object key) {
+		lock.lock();
+		try {
+			Long previous = weights.remove(key);
+			if (previous != null) {
+				weight -= previous;
+			}
+			return delegate.removeObject(key);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public void clear() {
+		lock.lock();
+		try {
+			delegate.clear();
+			weights.clear();
+			weight = 0;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public ReadWriteLock getReadWriteLock() {
+		return null;
+	}
+
+	/*
+	 * 调用前必须持有锁
+	 */
+	private void evict() {
+		Iterator<Map.Entry<Object, Long>> it = weights.entrySet().iterator();
+		while (weight > maxBytes && it.hasNext()) {
+			Map.Entry<Object, Long> eldest = it.next();
+			it.remove();
+			weight -= eldest.getValue();
+			delegate.removeObject(eldest.getKey());
+		}
+	}
+
+}
@@ -0,0 +1,41 @@
+/**
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.jd.mybatis.cache.impl;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 线程安全的永久缓存，内部是一个ConcurrentHashMap，
+ * 与并发的回收策略（如ConcurrentLruCache）配合使用时，CacheBuilder不再包装SynchronizedCache
+ * @author Clinton Begin
+ */
+public class ConcurrentPerpetualCache extends PerpetualCache {
+
+	public ConcurrentPerpetualCache(String id) {
+		super(id, new ConcurrentHashMap<Object, Object>());
+	}
+
+	@Override
+	public void putObject(Object key, Object value) {
+		//ConcurrentHashMap不允许null值，TransactionalCache会为未命中的key放入null
+		if (value == null) {
+			removeObject(key);
+		} else {
+			super.putObject(key, value);
+		}
+	}
+
+}
@@ -0,0 +1,303 @@
+/**
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.jd.mybatis.cache.impl;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.jd.mybatis.cache.Cache;
+import com.jd.mybatis.cache.CacheException;
+import com.jd.mybatis.cache.serializer.JdkSerializer;
+import com.jd.mybatis.cache.serializer.Serializer;
+import com.jd.mybatis.logging.Log;
+import com.jd.mybatis.logging.LogFactory;
+
+/**
+ * 堆外缓存，值序列化后保存在直接内存（DirectByteBuffer）的slab中，只有key和索引留在堆上。
+ * 写入时顺序追加到当前slab，写满后切换到下一个slab，循环使用；
+ * 被重新使用的slab中的所有缓存项一起淘汰（按slab的先进先出），所以占用的直接内存不会超过maxBytes。
+ * 读取时只获取该slab的读锁，与其他读操作和写入都不冲突。
+ * 可以通过&lt;property&gt;设置maxBytes、slabSize和serializer（Serializer的别名或实现类的全限定名）。
+ *
+ * @author Clinton Begin
+ */
+public class OffHeapCache implements Cache {
+
+	private static final Log log = LogFactory.getLog(OffHeapCache.class);
+
+	private final String id;
+	private final ConcurrentHashMap<Object, Location> index = new ConcurrentHashMap<Object, Location>();
+	//写入和淘汰互斥，读取不需要此锁
+	private final ReentrantLock writeLock = new ReentrantLock();
+	private final AtomicLong usedBytes = new AtomicLong();
+	private long maxBytes = 64L * 1024 * 1024;
+	private int slabSize = 4 * 1024 * 1024;
+	private Serializer serializer = new JdkSerializer();
+	private Slab[] slabs;
+	//实际的slab大小，maxBytes不足两个slabSize时会更小
+	private int slabCapacity;
+	private int currentSlab;
+
+	public OffHeapCache(String id) {
+		this.id = id;
+		initialize();
+	}
+
+	@Override
+	public String getId() {
+		return id;
+	}
+
+	@Override
+	public int getSize() {
+		return index.size();
+	}
+
+	/**
+	 * @param maxBytes 所有slab占用的直接内存上限（字节）
+	 */
+	public void setMaxBytes(long maxBytes) {
+		this.maxBytes = maxBytes;
+		initialize();
+	}
+
+	/**
+	 * @param slabSize 每个slab的大小（字节），超过slab大小的值不会被缓存，maxBytes不足两个slab时按maxBytes的一半
+	 */
+	public void setSlabSize(int slabSize) {
+		this.slabSize = slabSize;
+		initialize();
+	}
+
+	/**
+	 * @param serializer 值的序列化方式，由CacheBuilder根据serializer属性或全局配置设置
+	 */
+	public void setSerializer(Serializer serializer) {
+		this.serializer = serializer;
+	}
+
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	public int getSlabSize() {
+		return slabSize;
+	}
+
+	/**
+	 * @return 当前有效缓存项占用的字节数，不包括被覆盖或删除后尚未回收的空间
+	 */
+	public long getUsedBytes() {
+		return usedBytes.get();
+	}
+
+	@Override
+	public void putObject(Object key, Object value) {
+		//TransactionalCache会为未命中的key放入null
+		if (value == null) {
+			removeObject(key);
+			return;
+		}
+		byte[] bytes = serializer.serialize(value);
+		if (bytes.length > slabCapacity) {
+			removeObject(key);
+			if (log.isDebugEnabled()) {
+				log.debug("Value of " + bytes.length + " bytes exceeds the slab size of cache " + id + ", not cached.");
+			}
+			return;
+		}
+		writeLock.lock();
+		try {
+			Slab slab = slabs[currentSlab];
+			if (slabCapacity - slab.writeOffset < bytes.length) {
+				currentSlab = (currentSlab + 1) % slabs.length;
+				slab = slabs[currentSlab];
+				slab.recycle();
+			}
+			Location location = slab.append(key, bytes);
+			usedBytes.addAndGet(location.length);
+			Location old = index.put(key, location);
+			if (old != null) {
+				usedBytes.addAndGet(-old.length);
+			}
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	@Override
+	public Object getObject(Object key) {
+		Location location = index.get(key);
+		if (location == null) {
+			return null;
+		}
+		byte[] bytes = location.slab.read(location);
+		return bytes == null ? null : serializer.deserialize(bytes);
+	}
+
+	@Override
+	public Object removeObject(Object key) {
+		Location location = index.remove(key);
+		if (location == null) {
+			return null;
+		}
+		usedBytes.addAndGet(-location.length);
+		return null;
+	}
+
+	@Override
+	public void clear() {
+		writeLock.lock();
+		try {
+			for (Slab slab : slabs) {
+				slab.recycle();
+			}
+			currentSlab = 0;
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	@Override
+	public ReadWriteLock getReadWriteLock() {
+		return null;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) {
+			return true;
+		}
+		if (!(o instanceof Cache)) {
+			return false;
+		}
+		return id.equals(((Cache) o).getId());
+	}
+
+	@Override
+	public int hashCode() {
+		return id.hashCode();
+	}
+
+	private void initialize() {
+		if (slabSize <= 0 || maxBytes < 2) {
+			throw new CacheException("Invalid off-heap cache size for " + id + ": maxBytes " + maxBytes + ", slabSize " + slabSize);
+		}
+		writeLock.lock();
+		try {
+			if (slabs != null) {
+				for (Slab slab : slabs) {
+					slab.recycle();
+				}
+			}
+			//至少两个slab，淘汰一个slab时其他slab中的缓存仍然可用
+			int count = (int) Math.max(2, maxBytes / slabSize);
+			slabCapacity = (int) Math.min(slabSize, maxBytes / count);
+			slabs = new Slab[count];
+			for (int i = 0; i < count; i++) {
+				slabs[i] = new Slab();
+			}
+			currentSlab = 0;
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	private static final class Location {
+
+		private final Slab slab;
+		private final Object key;
+		private final int offset;
+		private final int length;
+		//slab被回收后置为false，由slab的锁保护
+		private boolean valid = true;
+
+		Location(Slab slab, Object key, int offset, int length) {
+			this.slab = slab;
+			this.key = key;
+			this.offset = offset;
+			this.length = length;
+		}
+
+	}
+
+	private final class Slab {
+
+		private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+		private final List<Location> locations = new ArrayList<Location>();
+		private ByteBuffer buffer;
+		private int writeOffset;
+
+		/**
+		 * 只在writeLock内调用，写入的区域还没有被索引引用，所以不需要slab的锁
+		 */
+		Location append(Object key, byte[] bytes) {
+			if (buffer == null) {
+				buffer = ByteBuffer.allocateDirect(slabCapacity);
+			}
+			ByteBuffer target = buffer.duplicate();
+			target.position(writeOffset);
+			target.put(bytes);
+			Location location = new Location(this, key, writeOffset, bytes.length);
+			writeOffset += bytes.length;
+			locations.add(location);
+			return location;
+		}
+
+		byte[] read(Location location) {
+			lock.readLock().lock();
+			try {
+				if (!location.valid) {
+					return null;
+				}
+				byte[] bytes = new byte[location.length];
+				ByteBuffer source = buffer.duplicate();
+				source.position(location.offset);
+				source.get(bytes);
+				return bytes;
+			} finally {
+				lock.readLock().unlock();
+			}
+		}
+
+		/**
+		 * 只在writeLock内调用，淘汰此slab中的所有缓存项
+		 */
+		void recycle() {
+			lock.writeLock().lock();
+			try {
+				for (Location location : locations) {
+					location.valid = false;
+					if (index.remove(location.key, location)) {
+						usedBytes.addAndGet(-location.length);
+					}
+				}
+				locations.clear();
+				writeOffset = 0;
+			} finally {
+				lock.writeLock().unlock();
+			}
+		}
+
+	}
+
+}
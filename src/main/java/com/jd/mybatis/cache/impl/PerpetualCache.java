@@ -31,10 +31,15 @@ public class PerpetualCache implements Cache {
 	private String id;
 
 	//本地永久缓存（一级缓存）使用简单的HashMap来维护缓存
-	private Map<Object, Object> cache = new HashMap<>();
+	private final Map<Object, Object> cache;
 
 	public PerpetualCache(String id) {
+		this(id, new HashMap<Object, Object>());
+	}
+
+	protected PerpetualCache(String id, Map<Object, Object> cache) {
 		this.id = id;
+		this.cache = cache;
 	}
 
 	@Override
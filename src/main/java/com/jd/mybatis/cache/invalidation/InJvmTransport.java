@@ -0,0 +1,85 @@
+/**
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.jd.mybatis.cache.invalidation;
+
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Delivers messages to the other transports of the same channel in this JVM.
+ * 用于测试或者同一个进程中有多个SqlSessionFactory的情况，channel属性默认为default。
+ *
+ * @author Clinton Begin
+ */
+public class InJvmTransport implements InvalidationTransport {
+
+  private static final ConcurrentMap<String, List<InJvmTransport>> channels = new ConcurrentHashMap<String, List<InJvmTransport>>();
+
+  private String channel = "default";
+  private volatile Receiver receiver;
+
+  @Override
+  public void setProperties(Properties properties) {
+    if (properties != null && properties.getProperty("channel") != null) {
+      channel = properties.getProperty("channel");
+    }
+  }
+
+  @Override
+  public void start(Receiver receiver) {
+    this.receiver = receiver;
+    List<InJvmTransport> members = channels.get(channel);
+    if (members == null) {
+      List<InJvmTransport> created = new CopyOnWriteArrayList<InJvmTransport>();
+      members = channels.putIfAbsent(channel, created);
+      if (members == null) {
+        members = created;
+      }
+    }
+    members.add(this);
+  }
+
+  @Override
+  public void send(byte[] message) {
+    List<InJvmTransport> members = channels.get(channel);
+    if (members == null) {
+      return;
+    }
+    for (InJvmTransport member : members) {
+      Receiver target = member.receiver;
+      if (member != this && target != null) {
+        target.receive(message);
+      }
+    }
+  }
+
+  @Override
+  public void close() {
+    List<InJvmTransport> members = channels.get(channel);
+    if (members != null) {
+      members.remove(this);
+    }
+    receiver = null;
+  }
+
+  public String getChannel() {
+    return channel;
+  }
+
+}
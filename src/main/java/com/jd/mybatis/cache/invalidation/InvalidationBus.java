@@ -0,0 +1,287 @@
+/**
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.jd.mybatis.cache.invalidation;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import com.jd.mybatis.cache.CacheException;
+import com.jd.mybatis.logging.Log;
+import com.jd.mybatis.logging.LogFactory;
+import com.jd.mybatis.session.Configuration;
+
+/**
+ * Broadcasts the invalidations committed on this node to the other nodes of a cluster.
+ * 每个节点都有自己的二级缓存，一个节点提交后其他节点的缓存就会过期：
+ * 1. 提交时清空的命名空间，其他节点清空同名的缓存
+ * 2. 按表失效（cacheInvalidation=TABLE）时写入的表，其他节点递增这些表的版本
+ *
+ * 提交线程只把名字放进待发送集合，由后台线程每隔flushInterval毫秒合并去重后发送一次，
+ * 待发送的名字达到batchSize时立即发送。
+ *
+ * @author Clinton Begin
+ */
+public class InvalidationBus {
+
+  private static final Log log = LogFactory.getLog(InvalidationBus.class);
+
+  private static final byte VERSION = 1;
+  // 留出余量，编码后的消息不超过一个UDP数据报
+  private static final int MAX_MESSAGE_SIZE = 60 * 1024;
+
+  private final Configuration configuration;
+  private final InvalidationTransport transport;
+  private final String nodeId = UUID.randomUUID().toString();
+  private final Object lock = new Object();
+  private Set<String> pendingNamespaces = new LinkedHashSet<String>();
+  private Set<String> pendingTables = new LinkedHashSet<String>();
+  private long flushInterval = 10;
+  private int batchSize = 256;
+  private volatile boolean running;
+  private Thread flusher;
+
+  public InvalidationBus(Configuration configuration, InvalidationTransport transport) {
+    this.configuration = configuration;
+    this.transport = transport;
+  }
+
+  public synchronized void start() {
+    if (running) {
+      return;
+    }
+    try {
+      transport.start(new InvalidationTransport.Receiver() {
+        @Override
+        public void receive(byte[] message) {
+          InvalidationBus.this.receive(message);
+        }
+      });
+    } catch (IOException e) {
+      throw new CacheException("Error starting cache invalidation transport.  Cause: " + e, e);
+    }
+    running = true;
+    flusher = new Thread("mybatis-cache-invalidation") {
+      @Override
+      public void run() {
+        while (running) {
+          try {
+            flushWhenReady();
+          } catch (InterruptedException e) {
+            break;
+          }
+        }
+        flush();
+      }
+    };
+    flusher.setDaemon(true);
+    flusher.start();
+  }
+
+  /*
+   * Sends what is still pending and stops the transport.
+   */
+  public void close() {
+    Thread stopping;
+    synchronized (this) {
+      if (!running) {
+        return;
+      }
+      running = false;
+      stopping = flusher;
+    }
+    stopping.interrupt();
+    try {
+      stopping.join(1000);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    transport.close();
+  }
+
+  public void publishNamespace(String namespace) {
+    synchronized (lock) {
+      if (pendingNamespaces.add(namespace)) {
+        signal();
+      }
+    }
+  }
+
+  public void publishTables(Collection<String> tables) {
+    synchronized (lock) {
+      if (pendingTables.addAll(tables)) {
+        signal();
+      }
+    }
+  }
+
+  private void signal() {
+    int pending = pendingNamespaces.size() + pendingTables.size();
+    if (pending == 1 || pending >= batchSize) {
+      lock.notifyAll();
+    }
+  }
+
+  private void flushWhenReady() throws InterruptedException {
+    synchronized (lock) {
+      while (pendingNamespaces.isEmpty() && pendingTables.isEmpty()) {
+        lock.wait();
+      }
+      // 第一条失效到达后再等一个间隔，让同一时间段内的提交合并成一条消息
+      long deadline = System.currentTimeMillis() + flushInterval;
+      long remaining = flushInterval;
+      while (remaining > 0 && pendingNamespaces.size() + pendingTables.size() < batchSize) {
+        lock.wait(remaining);
+        remaining = deadline - System.currentTimeMillis();
+      }
+    }
+    flush();
+  }
+
+  private void flush() {
+    Set<String> namespaces;
+    Set<String> tables;
+    synchronized (lock) {
+      if (pendingNamespaces.isEmpty() && pendingTables.isEmpty()) {
+        return;
+      }
+      namespaces = pendingNamespaces;
+      tables = pendingTables;
+      pendingNamespaces = new LinkedHashSet<String>();
+      pendingTables = new LinkedHashSet<String>();
+    }
+    try {
+      for (byte[] message : encode(namespaces, tables)) {
+        transport.send(message);
+      }
+    } catch (Exception e) {
+      log.warn("Error sending cache invalidation of namespaces " + namespaces + " and tables " + tables + ".  Cause: " + e);
+    }
+  }
+
+  /*
+   * 每条消息：版本、节点id、命名空间列表、表列表，超过长度时拆成多条
+   */
+  List<byte[]> encode(Collection<String> namespaces, Collection<String> tables) throws IOException {
+    List<byte[]> messages = new ArrayList<byte[]>();
+    List<String> namespaceChunk = new ArrayList<String>();
+    List<String> tableChunk = new ArrayList<String>();
+    int size = 0;
+    for (String namespace : namespaces) {
+      if (size + namespace.length() * 3 > MAX_MESSAGE_SIZE && size > 0) {
+        messages.add(encodeMessage(namespaceChunk, tableChunk));
+        namespaceChunk.clear();
+        size = 0;
+      }
+      namespaceChunk.add(namespace);
+      size += namespace.length() * 3 + 2;
+    }
+    for (String table : tables) {
+      if (size + table.length() * 3 > MAX_MESSAGE_SIZE && size > 0) {
+        messages.add(encodeMessage(namespaceChunk, tableChunk));
+        namespaceChunk.clear();
+        tableChunk.clear();
+        size = 0;
+      }
+      tableChunk.add(table);
+      size += table.length() * 3 + 2;
+    }
+    if (size > 0) {
+      messages.add(encodeMessage(namespaceChunk, tableChunk));
+    }
+    return messages;
+  }
+
+  private byte[] encodeMessage(List<String> namespaces, List<String> tables) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeByte(VERSION);
+    out.writeUTF(nodeId);
+    out.writeInt(namespaces.size());
+    for (String namespace : namespaces) {
+      out.writeUTF(namespace);
+    }
+    out.writeInt(tables.size());
+    for (String table : tables) {
+      out.writeUTF(table);
+    }
+    out.flush();
+    return bytes.toByteArray();
+  }
+
+  void receive(byte[] message) {
+    try {
+      DataInputStream in = new DataInputStream(new ByteArrayInputStream(message));
+      if (in.readByte() != VERSION) {
+        log.warn("Ignoring cache invalidation message of unknown version");
+        return;
+      }
+      if (nodeId.equals(in.readUTF())) {
+        return;
+      }
+      int namespaceCount = in.readInt();
+      for (int i = 0; i < namespaceCount; i++) {
+        String namespace = in.readUTF();
+        if (configuration.hasCache(namespace)) {
+          configuration.getCache(namespace).clear();
+        }
+      }
+      int tableCount = in.readInt();
+      List<String> tables = new ArrayList<String>(tableCount);
+      for (int i = 0; i < tableCount; i++) {
+        tables.add(in.readUTF());
+      }
+      if (!tables.isEmpty()) {
+        configuration.getTableVersions().invalidate(tables);
+      }
+    } catch (IOException e) {
+      log.warn("Ignoring malformed cache invalidation message.  Cause: " + e);
+    }
+  }
+
+  public String getNodeId() {
+    return nodeId;
+  }
+
+  public InvalidationTransport getTransport() {
+    return transport;
+  }
+
+  public long getFlushInterval() {
+    return flushInterval;
+  }
+
+  public void setFlushInterval(long flushInterval) {
+    this.flushInterval = flushInterval;
+  }
+
+  public int getBatchSize() {
+    return batchSize;
+  }
+
+  public void setBatchSize(int batchSize) {
+    this.batchSize = batchSize;
+  }
+
+}
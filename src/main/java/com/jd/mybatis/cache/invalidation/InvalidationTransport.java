@@ -0,0 +1,48 @@
+/**
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.jd.mybatis.cache.invalidation;
+
+import java.io.IOException;
+import java.util.Properties;
+
+/**
+ * SPI for the channel the {@link InvalidationBus} sends its messages over.
+ * 消息已经按批编码好，传输层只负责把字节送到其他节点，可以丢失但不能截断。
+ * 实现类必须有无参构造函数，&lt;cacheInvalidationBus&gt;中的property会通过setProperties传入。
+ *
+ * @author Clinton Begin
+ */
+public interface InvalidationTransport {
+
+  void setProperties(Properties properties);
+
+  /**
+   * Starts listening, messages of other nodes are passed to the receiver.
+   * 发送方自己的消息可能也会收到，由InvalidationBus忽略。
+   */
+  void start(Receiver receiver) throws IOException;
+
+  void send(byte[] message) throws IOException;
+
+  void close();
+
+  interface Receiver {
+
+    void receive(byte[] message);
+
+  }
+
+}
@@ -0,0 +1,165 @@
+/**
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.jd.mybatis.cache.invalidation;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+
+import com.jd.mybatis.logging.Log;
+import com.jd.mybatis.logging.LogFactory;
+
+/**
+ * Sends each message as one UDP datagram to a fixed list of peers.
+ * 属性：
+ * host 监听的地址，默认127.0.0.1（同一台机器上的多个进程）
+ * port 监听的端口，默认0表示随机端口
+ * peers 其他节点的地址，逗号分隔的host:port，只接受从这些地址发来的数据报
+ *
+ * UDP不保证送达，丢失的消息只能等缓存过期，对一致性要求高的场景可以实现基于消息队列的传输。
+ *
+ * @author Clinton Begin
+ */
+public class UdpTransport implements InvalidationTransport {
+
+  private static final Log log = LogFactory.getLog(UdpTransport.class);
+
+  // IPv4下UDP数据报的最大长度
+  static final int MAX_MESSAGE_SIZE = 65507;
+
+  private String host = "127.0.0.1";
+  private int port;
+  private volatile List<InetSocketAddress> peers = new ArrayList<InetSocketAddress>();
+  private volatile Set<InetSocketAddress> peerAddresses = new HashSet<InetSocketAddress>();
+  private DatagramSocket socket;
+  private Thread listener;
+
+  @Override
+  public void setProperties(Properties properties) {
+    if (properties == null) {
+      return;
+    }
+    if (properties.getProperty("host") != null) {
+      host = properties.getProperty("host");
+    }
+    if (properties.getProperty("port") != null) {
+      port = Integer.parseInt(properties.getProperty("port"));
+    }
+    if (properties.getProperty("peers") != null) {
+      setPeers(properties.getProperty("peers"));
+    }
+  }
+
+  public void setPeers(String peers) {
+    List<InetSocketAddress> addresses = new ArrayList<InetSocketAddress>();
+    for (String peer : Arrays.asList(peers.split(","))) {
+      peer = peer.trim();
+      if (peer.length() == 0) {
+        continue;
+      }
+      int colon = peer.lastIndexOf(':');
+      if (colon < 0) {
+        throw new IllegalArgumentException("Invalid peer '" + peer + "', expected host:port");
+      }
+      InetSocketAddress address = new InetSocketAddress(peer.substring(0, colon), Integer.parseInt(peer.substring(colon + 1)));
+      if (address.isUnresolved()) {
+        log.warn("Cache invalidation peer '" + peer + "' can not be resolved, its datagrams will be ignored");
+      }
+      addresses.add(address);
+    }
+    this.peers = addresses;
+    this.peerAddresses = new HashSet<InetSocketAddress>(addresses);
+  }
+
+  @Override
+  public synchronized void start(final Receiver receiver) throws IOException {
+    socket = new DatagramSocket(new InetSocketAddress(host, port));
+    final DatagramSocket listening = socket;
+    listener = new Thread("mybatis-cache-invalidation-udp-" + listening.getLocalPort()) {
+      @Override
+      public void run() {
+        byte[] buffer = new byte[MAX_MESSAGE_SIZE];
+        while (!listening.isClosed()) {
+          DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+          try {
+            listening.receive(packet);
+            if (!isPeer(packet.getSocketAddress())) {
+              if (log.isDebugEnabled()) {
+                log.debug("Ignoring cache invalidation datagram from " + packet.getSocketAddress() + ", it is not a configured peer");
+              }
+              continue;
+            }
+            receiver.receive(Arrays.copyOfRange(packet.getData(), packet.getOffset(), packet.getOffset() + packet.getLength()));
+          } catch (SocketException e) {
+            // 关闭socket
+          } catch (Exception e) {
+            log.warn("Error receiving cache invalidation.  Cause: " + e);
+          }
+        }
+      }
+    };
+    listener.setDaemon(true);
+    listener.start();
+  }
+
+  /*
+   * 节点从监听的socket发送，来源地址就是它在peers中的host:port
+   */
+  private boolean isPeer(SocketAddress source) {
+    return peerAddresses.contains(source);
+  }
+
+  @Override
+  public void send(byte[] message) throws IOException {
+    if (message.length > MAX_MESSAGE_SIZE) {
+      throw new IOException("Cache invalidation message of " + message.length + " bytes exceeds the maximum datagram size");
+    }
+    DatagramSocket sending = socket;
+    if (sending == null) {
+      throw new IOException("Transport not started");
+    }
+    for (InetSocketAddress peer : peers) {
+      sending.send(new DatagramPacket(message, message.length, peer));
+    }
+  }
+
+  @Override
+  public synchronized void close() {
+    if (socket != null) {
+      socket.close();
+      socket = null;
+    }
+    listener = null;
+  }
+
+  /*
+   * @return the port actually bound, useful when port is 0
+   */
+  public int getLocalPort() {
+    DatagramSocket bound = socket;
+    return bound == null ? -1 : bound.getLocalPort();
+  }
+
+}
@@ -0,0 +1,911 @@
+/**
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.jd.mybatis.cache.serializer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Externalizable;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.jd.mybatis.cache.CacheException;
+import com.jd.mybatis.cache.decorators.SerializedCache;
+import com.jd.mybatis.io.Resources;
+
+/**
+ * A compact binary serializer for result objects.
+ * 常见的值类型、集合和普通JavaBean直接按字段写成二进制，类名在一次序列化中只写一次，
+ * 反射得到的类描述（字段、构造函数）缓存在serializer实例中，输出缓冲区按线程复用。
+ * <p>
+ * Beans are written field by field when they are {@link Serializable}, have a no-arg constructor and do not
+ * customize Java serialization (writeObject, readObject, writeReplace, readResolve, Externalizable).
+ * Everything else, lazy loading proxies included, is embedded using Java serialization so the semantics stay
+ * the same. Shared references and cycles between compactly written objects are preserved.
+ * <p>
+ * A compactly read bean is created with its no-arg constructor, then its transient fields are reset to
+ * null, zero or false as Java serialization leaves them, and its other fields are read. Side effects of the
+ * constructor other than field values are not undone.
+ * <p>
+ * The format is meant for copies held by a running application, it is not versioned: classes must not change
+ * between serializing and deserializing. Access ordered LinkedHashMaps come back insertion ordered.
+ *
+ * @author Clinton Begin
+ */
+public class CompactSerializer implements Serializer {
+
+  private static final byte NULL = 0;
+  private static final byte REFERENCE = 1;
+  private static final byte STRING = 2;
+  private static final byte INTEGER = 3;
+  private static final byte LONG = 4;
+  private static final byte TRUE = 5;
+  private static final byte FALSE = 6;
+  private static final byte SHORT = 7;
+  private static final byte BYTE = 8;
+  private static final byte CHARACTER = 9;
+  private static final byte FLOAT = 10;
+  private static final byte DOUBLE = 11;
+  private static final byte BIG_DECIMAL = 12;
+  private static final byte BIG_INTEGER = 13;
+  private static final byte DATE = 14;
+  private static final byte SQL_DATE = 15;
+  private static final byte SQL_TIME = 16;
+  private static final byte SQL_TIMESTAMP = 17;
+  private static final byte BYTE_ARRAY = 18;
+  private static final byte ARRAY = 19;
+  private static final byte ARRAY_LIST = 20;
+  private static final byte LINKED_LIST = 21;
+  private static final byte HASH_SET = 22;
+  private static final byte LINKED_HASH_SET = 23;
+  private static final byte HASH_MAP = 24;
+  private static final byte LINKED_HASH_MAP = 25;
+  private static final byte ENUM = 26;
+  private static final byte OBJECT = 27;
+  private static final byte JAVA = 28;
+
+  //超过该大小的输出缓冲区用完后不再保留，避免偶尔的大对象长期占用线程的内存
+  private static final int MAXIMUM_RETAINED_BUFFER = 1024 * 1024;
+
+  private static final Map<String, Class<?>> PRIMITIVES = new HashMap<String, Class<?>>();
+
+  static {
+    Class<?>[] primitives = { boolean.class, byte.class, char.class, short.class, int.class, long.class, float.class, double.class };
+    for (Class<?> primitive : primitives) {
+      PRIMITIVES.put(primitive.getName(), primitive);
+    }
+  }
+
+  private final ConcurrentMap<Class<?>, ClassDescriptor> descriptors = new ConcurrentHashMap<Class<?>, ClassDescriptor>();
+  private final ConcurrentMap<String, Class<?>> classes = new ConcurrentHashMap<String, Class<?>>();
+  private final ThreadLocal<Context> contexts = new ThreadLocal<Context>() {
+    @Override
+    protected Context initialValue() {
+      return new Context();
+    }
+  };
+
+  @Override
+  public byte[] serialize(Object value) {
+    if (!(value instanceof Serializable)) {
+      throw new CacheException("SharedCache failed to make a copy of a non-serializable object: " + value);
+    }
+    Context context = acquireContext();
+    try {
+      writeValue(context, value);
+      return context.output.toByteArray();
+    } catch (CacheException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new CacheException("Error serializing object.  Cause: " + e, e);
+    } finally {
+      releaseContext(context);
+    }
+  }
+
+  @Override
+  public Object deserialize(byte[] bytes) {
+    Context context = acquireContext();
+    try {
+      return readValue(context, new Input(bytes));
+    } catch (CacheException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new CacheException("Error deserializing object.  Cause: " + e, e);
+    } finally {
+      releaseContext(context);
+    }
+  }
+
+  private Context acquireContext() {
+    Context context = contexts.get();
+    if (context.inUse) {
+      //重入（比如对象的writeObject里又用到了同一个serializer），使用临时的上下文
+      return new Context();
+    }
+    context.inUse = true;
+    return context;
+  }
+
+  private void releaseContext(Context context) {
+    context.reset();
+    context.inUse = false;
+  }
+
+  private void writeValue(Context context, Object value) throws Exception {
+    Output out = context.output;
+    if (value == null) {
+      out.writeByte(NULL);
+      return;
+    }
+    Class<?> type = value.getClass();
+    //不可变的值类型，不需要维护引用
+    if (type == String.class) {
+      out.writeByte(STRING);
+      out.writeString((String) value);
+    } else if (type == Integer.class) {
+      out.writeByte(INTEGER);
+      out.writeVarInt(zigZag((Integer) value));
+    } else if (type == Long.class) {
+      out.writeByte(LONG);
+      out.writeVarLong(zigZag((Long) value));
+    } else if (type == Boolean.class) {
+      out.writeByte((Boolean) value ? TRUE : FALSE);
+    } else if (type == Short.class) {
+      out.writeByte(SHORT);
+      out.writeVarInt(zigZag((Short) value));
+    } else if (type == Byte.class) {
+      out.writeByte(BYTE);
+      out.writeByte((Byte) value);
+    } else if (type == Character.class) {
+      out.writeByte(CHARACTER);
+      out.writeVarInt((Character) value);
+    } else if (type == Float.class) {
+      out.writeByte(FLOAT);
+      out.writeInt(Float.floatToRawIntBits((Float) value));
+    } else if (type == Double.class) {
+      out.writeByte(DOUBLE);
+      out.writeLong(Double.doubleToRawLongBits((Double) value));
+    } else if (type == BigDecimal.class) {
+      BigDecimal decimal = (BigDecimal) value;
+      out.writeByte(BIG_DECIMAL);
+      out.writeVarInt(zigZag(decimal.scale()));
+      out.writeBytes(decimal.unscaledValue().toByteArray());
+    } else if (type == BigInteger.class) {
+      out.writeByte(BIG_INTEGER);
+      out.writeBytes(((BigInteger) value).toByteArray());
+    } else if (type == Date.class) {
+      out.writeByte(DATE);
+      out.writeVarLong(zigZag(((Date) value).getTime()));
+    } else if (type == java.sql.Date.class) {
+      out.writeByte(SQL_DATE);
+      out.writeVarLong(zigZag(((Date) value).getTime()));
+    } else if (type == java.sql.Time.class) {
+      out.writeByte(SQL_TIME);
+      out.writeVarLong(zigZag(((Date) value).getTime()));
+    } else if (type == java.sql.Timestamp.class) {
+      java.sql.Timestamp timestamp = (java.sql.Timestamp) value;
+      out.writeByte(SQL_TIMESTAMP);
+      out.writeVarLong(zigZag(timestamp.getTime()));
+      out.writeVarInt(timestamp.getNanos());
+    } else if (value instanceof Enum) {
+      Enum<?> constant = (Enum<?>) value;
+      out.writeByte(ENUM);
+      writeClass(context, constant.getDeclaringClass());
+      out.writeVarInt(constant.ordinal());
+    } else {
+      writeReference(context, value, type);
+    }
+  }
+
+  private void writeReference(Context context, Object value, Class<?> type) throws Exception {
+    Output out = context.output;
+    Integer reference = context.writtenObjects.get(value);
+    if (reference != null) {
+      out.writeByte(REFERENCE);
+      out.writeVarInt(reference);
+      return;
+    }
+    context.writtenObjects.put(value, context.writtenObjects.size());
+    if (type == byte[].class) {
+      out.writeByte(BYTE_ARRAY);
+      out.writeBytes((byte[]) value);
+    } else if (type.isArray()) {
+      int length = Array.getLength(value);
+      out.writeByte(ARRAY);
+      writeClass(context, type.getComponentType());
+      out.writeVarInt(length);
+      for (int i = 0; i < length; i++) {
+        writeValue(context, Array.get(value, i));
+      }
+    } else if (type == ArrayList.class) {
+      writeCollection(context, ARRAY_LIST, (Collection<?>) value);
+    } else if (type == LinkedList.class) {
+      writeCollection(context, LINKED_LIST, (Collection<?>) value);
+    } else if (type == HashSet.class) {
+      writeCollection(context, HASH_SET, (Collection<?>) value);
+    } else if (type == LinkedHashSet.class) {
+      writeCollection(context, LINKED_HASH_SET, (Collection<?>) value);
+    } else if (type == HashMap.class) {
+      writeMap(context, HASH_MAP, (Map<?, ?>) value);
+    } else if (type == LinkedHashMap.class) {
+      writeMap(context, LINKED_HASH_MAP, (Map<?, ?>) value);
+    } else {
+      ClassDescriptor descriptor = getDescriptor(type);
+      if (descriptor.compact) {
+        out.writeByte(OBJECT);
+        writeClass(context, type);
+        writeFields(context, descriptor, value);
+      } else {
+        out.writeByte(JAVA);
+        out.writeBytes(javaSerialize(value));
+      }
+    }
+  }
+
+  private void writeCollection(Context context, byte tag, Collection<?> collection) throws Exception {
+    context.output.writeByte(tag);
+    context.output.writeVarInt(collection.size());
+    for (Object element : collection) {
+      writeValue(context, element);
+    }
+  }
+
+  private void writeMap(Context context, byte tag, Map<?, ?> map) throws Exception {
+    context.output.writeByte(tag);
+    context.output.writeVarInt(map.size());
+    for (Map.Entry<?, ?> entry : map.entrySet()) {
+      writeValue(context, entry.getKey());
+      writeValue(context, entry.getValue());
+    }
+  }
+
+  private void writeFields(Context context, ClassDescriptor descriptor, Object value) throws Exception {
+    Output out = context.output;
+    Field[] fields = descriptor.fields;
+    for (int i = 0; i < fields.length; i++) {
+      Field field = fields[i];
+      switch (descriptor.kinds[i]) {
+        case 'I':
+          out.writeVarInt(zigZag(field.getInt(value)));
+          break;
+        case 'J':
+          out.writeVarLong(zigZag(field.getLong(value)));
+          break;
+        case 'Z':
+          out.writeByte(field.getBoolean(value) ? TRUE : FALSE);
+          break;
+        case 'S':
+          out.writeVarInt(zigZag(field.getShort(value)));
+          break;
+        case 'B':
+          out.writeByte(field.getByte(value));
+          break;
+        case 'C':
+          out.writeVarInt(field.getChar(value));
+          break;
+        case 'F':
+          out.writeInt(Float.floatToRawIntBits(field.getFloat(value)));
+          break;
+        case 'D':
+          out.writeLong(Double.doubleToRawLongBits(field.getDouble(value)));
+          break;
+        default:
+          writeValue(context, field.get(value));
+      }
+    }
+  }
+
+  /*
+   * 类名在一次序列化中只写一次，之后只写序号
+   */
+  private void writeClass(Context context, Class<?> type) {
+    Integer index = context.writtenClasses.get(type);
+    if (index != null) {
+      context.output.writeVarInt(index + 1);
+    } else {
+      context.writtenClasses.put(type, context.writtenClasses.size());
+      context.output.writeVarInt(0);
+      context.output.writeString(type.getName());
+    }
+  }
+
+  private Object readValue(Context context, Input in) throws Exception {
+    byte tag = in.readByte();
+    switch (tag) {
+      case NULL:
+        return null;
+      case REFERENCE:
+        return context.readObjects.get(in.readVarInt());
+      case STRING:
+        return in.readString();
+      case INTEGER:
+        return unZigZag(in.readVarInt());
+      case LONG:
+        return unZigZag(in.readVarLong());
+      case TRUE:
+        return Boolean.TRUE;
+      case FALSE:
+        return Boolean.FALSE;
+      case SHORT:
+        return (short) unZigZag(in.readVarInt());
+      case BYTE:
+        return in.readByte();
+      case CHARACTER:
+        return (char) in.readVarInt();
+      case FLOAT:
+        return Float.intBitsToFloat(in.readInt());
+      case DOUBLE:
+        return Double.longBitsToDouble(in.readLong());
+      case BIG_DECIMAL:
+        int scale = unZigZag(in.readVarInt());
+        return new BigDecimal(new BigInteger(in.readBytes()), scale);
+      case BIG_INTEGER:
+        return new BigInteger(in.readBytes());
+      case DATE:
+        return new Date(unZigZag(in.readVarLong()));
+      case SQL_DATE:
+        return new java.sql.Date(unZigZag(in.readVarLong()));
+      case SQL_TIME:
+        return new java.sql.Time(unZigZag(in.readVarLong()));
+      case SQL_TIMESTAMP:
+        java.sql.Timestamp timestamp = new java.sql.Timestamp(unZigZag(in.readVarLong()));
+        timestamp.setNanos(in.readVarInt());
+        return timestamp;
+      case ENUM:
+        Object[] constants = getDescriptor(readClass(context, in)).enumConstants;
+        return constants[in.readVarInt()];
+      case BYTE_ARRAY:
+        return register(context, in.readBytes());
+      case ARRAY:
+        return readArray(context, in);
+      case ARRAY_LIST:
+        int size = in.readVarInt();
+        return readCollection(context, in, new ArrayList<Object>(size), size);
+      case LINKED_LIST:
+        return readCollection(context, in, new LinkedList<Object>(), in.readVarInt());
+      case HASH_SET:
+        size = in.readVarInt();
+        return readCollection(context, in, new HashSet<Object>(capacity(size)), size);
+      case LINKED_HASH_SET:
+        size = in.readVarInt();
+        return readCollection(context, in, new LinkedHashSet<Object>(capacity(size)), size);
+      case HASH_MAP:
+        size = in.readVarInt();
+        return readMap(context, in, new HashMap<Object, Object>(capacity(size)), size);
+      case LINKED_HASH_MAP:
+        size = in.readVarInt();
+        return readMap(context, in, new LinkedHashMap<Object, Object>(capacity(size)), size);
+      case OBJECT:
+        return readObject(context, in);
+      case JAVA:
+        //先占住引用序号，保持与写入时的顺序一致
+        int index = context.readObjects.size();
+        context.readObjects.add(null);
+        Object value = javaDeserialize(in.readBytes());
+        context.readObjects.set(index, value);
+        return value;
+      default:
+        throw new CacheException("Error deserializing object.  Cause: unknown type tag " + tag);
+    }
+  }
+
+  private Object readArray(Context context, Input in) throws Exception {
+    Class<?> componentType = readClass(context, in);
+    int length = in.readVarInt();
+    Object array = register(context, Array.newInstance(componentType, length));
+    for (int i = 0; i < length; i++) {
+      Array.set(array, i, readValue(context, in));
+    }
+    return array;
+  }
+
+  private Collection<Object> readCollection(Context context, Input in, Collection<Object> collection, int size) throws Exception {
+    register(context, collection);
+    for (int i = 0; i < size; i++) {
+      collection.add(readValue(context, in));
+    }
+    return collection;
+  }
+
+  private Map<Object, Object> readMap(Context context, Input in, Map<Object, Object> map, int size) throws Exception {
+    register(context, map);
+    for (int i = 0; i < size; i++) {
+      Object key = readValue(context, in);
+      map.put(key, readValue(context, in));
+    }
+    return map;
+  }
+
+  private Object readObject(Context context, Input in) throws Exception {
+    ClassDescriptor descriptor = getDescriptor(readClass(context, in));
+    if (!descriptor.compact) {
+      throw new CacheException("Error deserializing object.  Cause: " + descriptor.type + " can not be read field by field");
+    }
+    //先登记再读字段，字段中对自身的循环引用才能解析
+    Object value = register(context, descriptor.constructor.newInstance());
+    //Java序列化不会执行可序列化类的构造函数和字段初始化，transient字段保持默认值
+    Field[] transientFields = descriptor.transientFields;
+    for (int i = 0; i < transientFields.length; i++) {
+      transientFields[i].set(value, descriptor.transientDefaults[i]);
+    }
+    Field[] fields = descriptor.fields;
+    for (int i = 0; i < fields.length; i++) {
+      Field field = fields[i];
+      switch (descriptor.kinds[i]) {
+        case 'I':
+          field.setInt(value, unZigZag(in.readVarInt()));
+          break;
+        case 'J':
+          field.setLong(value, unZigZag(in.readVarLong()));
+          break;
+        case 'Z':
+          field.setBoolean(value, in.readByte() == TRUE);
+          break;
+        case 'S':
+          field.setShort(value, (short) unZigZag(in.readVarInt()));
+          break;
+        case 'B':
+          field.setByte(value, in.readByte());
+          break;
+        case 'C':
+          field.setChar(value, (char) in.readVarInt());
+          break;
+        case 'F':
+          field.setFloat(value, Float.intBitsToFloat(in.readInt()));
+          break;
+        case 'D':
+          field.setDouble(value, Double.longBitsToDouble(in.readLong()));
+          break;
+        default:
+          field.set(value, readValue(context, in));
+      }
+    }
+    return value;
+  }
+
+  private Class<?> readClass(Context context, Input in) throws ClassNotFoundException {
+    int index = in.readVarInt();
+    if (index > 0) {
+      return context.readClasses.get(index - 1);
+    }
+    String name = in.readString();
+    Class<?> type = classes.get(name);
+    if (type == null) {
+      type = PRIMITIVES.get(name);
+      if (type == null) {
+        type = Resources.classForName(name);
+      }
+      classes.putIfAbsent(name, type);
+    }
+    context.readClasses.add(type);
+    return type;
+  }
+
+  private static <T> T register(Context context, T value) {
+    context.readObjects.add(value);
+    return value;
+  }
+
+  private ClassDescriptor getDescriptor(Class<?> type) {
+    ClassDescriptor descriptor = descriptors.get(type);
+    if (descriptor == null) {
+      descriptor = new ClassDescriptor(type);
+      ClassDescriptor existing = descriptors.putIfAbsent(type, descriptor);
+      if (existing != null) {
+        descriptor = existing;
+      }
+    }
+    return descriptor;
+  }
+
+  private static byte[] javaSerialize(Object value) throws Exception {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    ObjectOutputStream oos = new ObjectOutputStream(bos);
+    oos.writeObject(value);
+    oos.flush();
+    oos.close();
+    return bos.toByteArray();
+  }
+
+  private static Object javaDeserialize(byte[] bytes) throws Exception {
+    ObjectInputStream ois = new SerializedCache.CustomObjectInputStream(new ByteArrayInputStream(bytes));
+    try {
+      return ois.readObject();
+    } finally {
+      ois.close();
+    }
+  }
+
+  private static int capacity(int size) {
+    return Math.max((int) (size / .75f) + 1, 16);
+  }
+
+  private static int zigZag(int value) {
+    return (value << 1) ^ (value >> 31);
+  }
+
+  private static long zigZag(long value) {
+    return (value << 1) ^ (value >> 63);
+  }
+
+  private static int unZigZag(int value) {
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+  private static long unZigZag(long value) {
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+  /**
+   * Reflection data of a class, computed once per serializer.
+   */
+  private static class ClassDescriptor {
+
+    private static final String[] SERIALIZATION_METHODS = { "writeObject", "readObject", "readObjectNoData", "writeReplace", "readResolve" };
+
+    private final Class<?> type;
+    //能否按字段直接读写，否则交给Java序列化
+    private final boolean compact;
+    private final Constructor<?> constructor;
+    private final Field[] fields;
+    private final char[] kinds;
+    private final Field[] transientFields;
+    private final Object[] transientDefaults;
+    private final Object[] enumConstants;
+
+    ClassDescriptor(Class<?> type) {
+      this.type = type;
+      this.enumConstants = type.isEnum() ? type.getEnumConstants() : null;
+      Constructor<?> constructor = null;
+      List<Field> fields = new ArrayList<Field>();
+      List<Field> transientFields = new ArrayList<Field>();
+      boolean compact = isCompactCandidate(type);
+      try {
+        if (compact) {
+          constructor = type.getDeclaredConstructor();
+          constructor.setAccessible(true);
+          for (Class<?> c = type; c != null && Serializable.class.isAssignableFrom(c); c = c.getSuperclass()) {
+            fields.addAll(getSerialFields(c));
+            transientFields.addAll(getTransientFields(c));
+          }
+        }
+      } catch (Exception e) {
+        //没有无参构造函数或者无法访问，交给Java序列化
+        compact = false;
+      }
+      this.compact = compact;
+      this.constructor = constructor;
+      this.fields = fields.toArray(new Field[fields.size()]);
+      this.kinds = new char[this.fields.length];
+      for (int i = 0; i < kinds.length; i++) {
+        Class<?> fieldType = this.fields[i].getType();
+        kinds[i] = fieldType.isPrimitive() ? primitiveKind(fieldType) : 'L';
+      }
+      this.transientFields = transientFields.toArray(new Field[transientFields.size()]);
+      this.transientDefaults = new Object[this.transientFields.length];
+      for (int i = 0; i < transientDefaults.length; i++) {
+        transientDefaults[i] = defaultValue(this.transientFields[i].getType());
+      }
+    }
+
+    private static boolean isCompactCandidate(Class<?> type) {
+      if (!Serializable.class.isAssignableFrom(type) || Externalizable.class.isAssignableFrom(type)
+          || type.isEnum() || Modifier.isAbstract(type.getModifiers()) || Proxy.isProxyClass(type)) {
+        return false;
+      }
+      for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+        for (String methodName : SERIALIZATION_METHODS) {
+          if (declaresMethod(c, methodName)) {
+            return false;
+          }
+        }
+        try {
+          c.getDeclaredField("serialPersistentFields");
+          return false;
+        } catch (NoSuchFieldException e) {
+          // ignore
+        }
+      }
+      return true;
+    }
+
+    private static boolean declaresMethod(Class<?> type, String name) {
+      for (java.lang.reflect.Method method : type.getDeclaredMethods()) {
+        if (method.getName().equals(name)) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    private static List<Field> getSerialFields(Class<?> type) {
+      Field[] declared = type.getDeclaredFields();
+      //字段按名称排序，保证读写顺序一致
+      Arrays.sort(declared, new Comparator<Field>() {
+        @Override
+        public int compare(Field o1, Field o2) {
+          return o1.getName().compareTo(o2.getName());
+        }
+      });
+      List<Field> fields = new ArrayList<Field>(declared.length);
+      for (Field field : declared) {
+        int modifiers = field.getModifiers();
+        if (!Modifier.isStatic(modifiers) && !Modifier.isTransient(modifiers)) {
+          field.setAccessible(true);
+          fields.add(field);
+        }
+      }
+      return fields;
+    }
+
+    private static List<Field> getTransientFields(Class<?> type) {
+      List<Field> fields = new ArrayList<Field>();
+      for (Field field : type.getDeclaredFields()) {
+        int modifiers = field.getModifiers();
+        if (!Modifier.isStatic(modifiers) && Modifier.isTransient(modifiers)) {
+          field.setAccessible(true);
+          fields.add(field);
+        }
+      }
+      return fields;
+    }
+
+    private static Object defaultValue(Class<?> type) {
+      if (!type.isPrimitive()) {
+        return null;
+      }
+      switch (primitiveKind(type)) {
+        case 'Z':
+          return Boolean.FALSE;
+        case 'C':
+          return Character.valueOf((char) 0);
+        case 'B':
+          return Byte.valueOf((byte) 0);
+        case 'S':
+          return Short.valueOf((short) 0);
+        case 'I':
+          return Integer.valueOf(0);
+        case 'J':
+          return Long.valueOf(0L);
+        case 'F':
+          return Float.valueOf(0f);
+        default:
+          return Double.valueOf(0d);
+      }
+    }
+
+    private static char primitiveKind(Class<?> type) {
+      if (type == boolean.class) {
+        return 'Z';
+      } else if (type == long.class) {
+        return 'J';
+      } else {
+        return Character.toUpperCase(type.getName().charAt(0));
+      }
+    }
+
+  }
+
+  /**
+   * Per thread state, reused between calls.
+   */
+  private static class Context {
+
+    private final Output output = new Output();
+    private final IdentityHashMap<Object, Integer> writtenObjects = new IdentityHashMap<Object, Integer>();
+    private final IdentityHashMap<Class<?>, Integer> writtenClasses = new IdentityHashMap<Class<?>, Integer>();
+    private final List<Object> readObjects = new ArrayList<Object>();
+    private final List<Class<?>> readClasses = new ArrayList<Class<?>>();
+    private boolean inUse;
+
+    void reset() {
+      output.reset();
+      if (!writtenObjects.isEmpty()) {
+        writtenObjects.clear();
+      }
+      if (!writtenClasses.isEmpty()) {
+        writtenClasses.clear();
+      }
+      readObjects.clear();
+      readClasses.clear();
+    }
+
+  }
+
+  private static class Output {
+
+    private static final int INITIAL_SIZE = 256;
+
+    private byte[] buffer = new byte[INITIAL_SIZE];
+    private int position;
+
+    void reset() {
+      position = 0;
+      if (buffer.length > MAXIMUM_RETAINED_BUFFER) {
+        buffer = new byte[INITIAL_SIZE];
+      }
+    }
+
+    byte[] toByteArray() {
+      return Arrays.copyOf(buffer, position);
+    }
+
+    private void ensureCapacity(int count) {
+      if (position + count > buffer.length) {
+        buffer = Arrays.copyOf(buffer, Math.max(buffer.length << 1, position + count));
+      }
+    }
+
+    void writeByte(int value) {
+      ensureCapacity(1);
+      buffer[position++] = (byte) value;
+    }
+
+    void writeVarInt(int value) {
+      ensureCapacity(5);
+      while ((value & ~0x7F) != 0) {
+        buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+        value >>>= 7;
+      }
+      buffer[position++] = (byte) value;
+    }
+
+    void writeVarLong(long value) {
+      ensureCapacity(10);
+      while ((value & ~0x7FL) != 0) {
+        buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+        value >>>= 7;
+      }
+      buffer[position++] = (byte) value;
+    }
+
+    void writeInt(int value) {
+      ensureCapacity(4);
+      buffer[position++] = (byte) (value >>> 24);
+      buffer[position++] = (byte) (value >>> 16);
+      buffer[position++] = (byte) (value >>> 8);
+      buffer[position++] = (byte) value;
+    }
+
+    void writeLong(long value) {
+      writeInt((int) (value >>> 32));
+      writeInt((int) value);
+    }
+
+    void writeBytes(byte[] bytes) {
+      writeVarInt(bytes.length);
+      ensureCapacity(bytes.length);
+      System.arraycopy(bytes, 0, buffer, position, bytes.length);
+      position += bytes.length;
+    }
+
+    /*
+     * 长度 + 每个char按1到3个字节编码（与modified UTF-8相同，代理对分开编码）
+     */
+    void writeString(String value) {
+      int length = value.length();
+      writeVarInt(length);
+      ensureCapacity(length * 3);
+      for (int i = 0; i < length; i++) {
+        char c = value.charAt(i);
+        if (c < 0x80) {
+          buffer[position++] = (byte) c;
+        } else if (c < 0x800) {
+          buffer[position++] = (byte) (0xC0 | (c >> 6));
+          buffer[position++] = (byte) (0x80 | (c & 0x3F));
+        } else {
+          buffer[position++] = (byte) (0xE0 | (c >> 12));
+          buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+          buffer[position++] = (byte) (0x80 | (c & 0x3F));
+        }
+      }
+    }
+
+  }
+
+  private static class Input {
+
+    private final byte[] buffer;
+    private int position;
+
+    Input(byte[] buffer) {
+      this.buffer = buffer;
+    }
+
+    byte readByte() {
+      return buffer[position++];
+    }
+
+    int readVarInt() {
+      int result = 0;
+      for (int shift = 0; ; shift += 7) {
+        byte b = buffer[position++];
+        result |= (b & 0x7F) << shift;
+        if ((b & 0x80) == 0) {
+          return result;
+        }
+      }
+    }
+
+    long readVarLong() {
+      long result = 0;
+      for (int shift = 0; ; shift += 7) {
+        byte b = buffer[position++];
+        result |= (long) (b & 0x7F) << shift;
+        if ((b & 0x80) == 0) {
+          return result;
+        }
+      }
+    }
+
+    int readInt() {
+      return ((buffer[position++] & 0xFF) << 24) | ((buffer[position++] & 0xFF) << 16)
+          | ((buffer[position++] & 0xFF) << 8) | (buffer[position++] & 0xFF);
+    }
+
+    long readLong() {
+      return ((long) readInt() << 32) | (readInt() & 0xFFFFFFFFL);
+    }
+
+    byte[] readBytes() {
+      int length = readVarInt();
+      byte[] bytes = Arrays.copyOfRange(buffer, position, position + length);
+      position += length;
+      return bytes;
+    }
+
+    String readString() {
+      int length = readVarInt();
+      char[] chars = new char[length];
+      for (int i = 0; i < length; i++) {
+        int b = buffer[position++] & 0xFF;
+        if (b < 0x80) {
+          chars[i] = (char) b;
+        } else if ((b & 0xE0) == 0xC0) {
+          chars[i] = (char) (((b & 0x1F) << 6) | (buffer[position++] & 0x3F));
+        } else {
+          chars[i] = (char) (((b & 0x0F) << 12) | ((buffer[position++] & 0x3F) << 6) | (buffer[position++] & 0x3F));
+        }
+      }
+      return new String(chars);
+    }
+
+  }
+
+}
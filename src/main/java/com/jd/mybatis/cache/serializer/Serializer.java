@@ -0,0 +1,39 @@
+/**
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.jd.mybatis.cache.serializer;
+
+/**
+ * Turns cached values into bytes and back, used by caches that keep copies
+ * of the values instead of the values themselves.
+ * 实现类必须是线程安全的，并且有一个无参构造函数。
+ *
+ * @author Clinton Begin
+ */
+public interface Serializer {
+
+  /**
+   * @param value The value to copy, never null
+   * @return The serialized form of the value
+   */
+  byte[] serialize(Object value);
+
+  /**
+   * @param bytes Bytes produced by {@link #serialize(Object)}
+   * @return A new copy of the value
+   */
+  Object deserialize(byte[] bytes);
+
+}
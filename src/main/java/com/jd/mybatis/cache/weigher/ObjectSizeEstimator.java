@@ -0,0 +1,218 @@
+/**
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.jd.mybatis.cache.weigher;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Estimates the retained size of an object graph by walking it with reflection,
+ * assuming a 64 bit JVM with compressed references.
+ * 估算值而不是精确值：集合和Map只按元素个数估算内部结构，较大的列表只抽样估算部分元素再按比例放大，
+ * 懒加载代理的处理器、Configuration等框架对象不计入。
+ *
+ * @author Clinton Begin
+ */
+public class ObjectSizeEstimator implements Weigher {
+
+  private static final int OBJECT_HEADER = 12;
+  private static final int ARRAY_HEADER = 16;
+  private static final int REFERENCE = 4;
+  //HashMap.Node等集合内部节点的大小
+  private static final int ENTRY = 32;
+  //超过该大小的列表只估算这么多个元素
+  private static final int SAMPLE_SIZE = 256;
+
+  private static final String[] SKIPPED_PACKAGES = { "com.jd.mybatis.executor.loader.", "com.jd.mybatis.session.",
+      "javassist.", "net.sf.cglib." };
+
+  private final ConcurrentMap<Class<?>, ClassLayout> layouts = new ConcurrentHashMap<Class<?>, ClassLayout>();
+
+  @Override
+  public long weigh(Object value) {
+    if (value instanceof byte[]) {
+      return align(ARRAY_HEADER + ((byte[]) value).length);
+    }
+    return measure(value, new IdentityHashMap<Object, Object>());
+  }
+
+  private long measure(Object root, IdentityHashMap<Object, Object> visited) {
+    long size = 0;
+    Deque<Object> pending = new ArrayDeque<Object>();
+    push(pending, visited, root);
+    while (!pending.isEmpty()) {
+      Object value = pending.pop();
+      Class<?> type = value.getClass();
+      if (type.isArray()) {
+        size += measureArray(pending, visited, value, type.getComponentType());
+      } else if (type == String.class) {
+        size += align(OBJECT_HEADER + 2 * REFERENCE) + align(ARRAY_HEADER + 2 * ((String) value).length());
+      } else if (value instanceof Collection) {
+        size += measureCollection(pending, visited, (Collection<?>) value);
+      } else if (value instanceof Map) {
+        Map<?, ?> map = (Map<?, ?>) value;
+        size += getLayout(type).shallowSize + align(ARRAY_HEADER + map.size() * REFERENCE * 4 / 3) + (long) map.size() * ENTRY;
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+          push(pending, visited, entry.getKey());
+          push(pending, visited, entry.getValue());
+        }
+      } else {
+        ClassLayout layout = getLayout(type);
+        size += layout.shallowSize;
+        for (Field field : layout.referenceFields) {
+          try {
+            push(pending, visited, field.get(value));
+          } catch (IllegalAccessException e) {
+            // ignore
+          }
+        }
+      }
+    }
+    return size;
+  }
+
+  private long measureArray(Deque<Object> pending, IdentityHashMap<Object, Object> visited, Object array, Class<?> componentType) {
+    int length = Array.getLength(array);
+    if (componentType.isPrimitive()) {
+      return align(ARRAY_HEADER + (long) length * primitiveSize(componentType));
+    }
+    for (Object element : (Object[]) array) {
+      push(pending, visited, element);
+    }
+    return align(ARRAY_HEADER + (long) length * REFERENCE);
+  }
+
+  private long measureCollection(Deque<Object> pending, IdentityHashMap<Object, Object> visited, Collection<?> collection) {
+    int count = collection.size();
+    long size = getLayout(collection.getClass()).shallowSize;
+    if (collection instanceof List && collection instanceof RandomAccess) {
+      size += align(ARRAY_HEADER + (long) count * REFERENCE);
+      if (count > SAMPLE_SIZE) {
+        //结果列表的元素一般结构相同，均匀抽样后按比例放大
+        List<?> list = (List<?>) collection;
+        long sampled = 0;
+        for (int i = 0; i < SAMPLE_SIZE; i++) {
+          sampled += measure(list.get((int) ((long) i * count / SAMPLE_SIZE)), visited);
+        }
+        return size + sampled * count / SAMPLE_SIZE;
+      }
+    } else {
+      size += (long) count * ENTRY;
+    }
+    for (Object element : collection) {
+      push(pending, visited, element);
+    }
+    return size;
+  }
+
+  private static void push(Deque<Object> pending, IdentityHashMap<Object, Object> visited, Object value) {
+    if (value != null && !isSkipped(value.getClass()) && visited.put(value, value) == null) {
+      pending.push(value);
+    }
+  }
+
+  /*
+   * 枚举、Class以及框架内部的对象是共享的，不属于缓存的值
+   */
+  private static boolean isSkipped(Class<?> type) {
+    if (type.isEnum() || type == Class.class || Thread.class.isAssignableFrom(type)
+        || ClassLoader.class.isAssignableFrom(type)) {
+      return true;
+    }
+    String name = type.getName();
+    for (String skippedPackage : SKIPPED_PACKAGES) {
+      if (name.startsWith(skippedPackage)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private ClassLayout getLayout(Class<?> type) {
+    ClassLayout layout = layouts.get(type);
+    if (layout == null) {
+      layout = new ClassLayout(type);
+      ClassLayout existing = layouts.putIfAbsent(type, layout);
+      if (existing != null) {
+        layout = existing;
+      }
+    }
+    return layout;
+  }
+
+  private static long align(long size) {
+    return (size + 7) & ~7L;
+  }
+
+  private static int primitiveSize(Class<?> type) {
+    if (type == long.class || type == double.class) {
+      return 8;
+    } else if (type == int.class || type == float.class) {
+      return 4;
+    } else if (type == short.class || type == char.class) {
+      return 2;
+    } else {
+      return 1;
+    }
+  }
+
+  /**
+   * Shallow size and reference fields of a class.
+   */
+  private static class ClassLayout {
+
+    private final long shallowSize;
+    private final Field[] referenceFields;
+
+    ClassLayout(Class<?> type) {
+      long size = OBJECT_HEADER;
+      List<Field> fields = new ArrayList<Field>();
+      for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+        for (Field field : c.getDeclaredFields()) {
+          if (Modifier.isStatic(field.getModifiers())) {
+            continue;
+          }
+          if (field.getType().isPrimitive()) {
+            size += primitiveSize(field.getType());
+          } else {
+            size += REFERENCE;
+            try {
+              field.setAccessible(true);
+              fields.add(field);
+            } catch (RuntimeException e) {
+              //无法访问的字段（如JDK 9以后未开放的模块）只计入引用本身
+            }
+          }
+        }
+      }
+      this.shallowSize = align(size);
+      this.referenceFields = fields.toArray(new Field[fields.size()]);
+    }
+
+  }
+
+}
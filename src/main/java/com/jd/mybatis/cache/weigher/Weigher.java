@@ -0,0 +1,32 @@
+/**
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.jd.mybatis.cache.weigher;
+
+/**
+ * Estimates how many bytes a cached value occupies, used by size bounded caches.
+ * 实现类必须是线程安全的，并且有一个无参构造函数。
+ *
+ * @author Clinton Begin
+ */
+public interface Weigher {
+
+  /**
+   * @param value The cached value, never null
+   * @return The estimated size of the value in bytes
+   */
+  long weigh(Object value);
+
+}
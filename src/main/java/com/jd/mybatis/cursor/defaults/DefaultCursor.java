@@ -0,0 +1,235 @@
+/**
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.jd.mybatis.cursor.defaults;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import com.jd.mybatis.cursor.Cursor;
+import com.jd.mybatis.exceptions.ExceptionFactory;
+import com.jd.mybatis.executor.resultset.DefaultResultSetHandler;
+import com.jd.mybatis.executor.resultset.ResultSetWrapper;
+import com.jd.mybatis.mapping.ResultMap;
+import com.jd.mybatis.session.ResultContext;
+import com.jd.mybatis.session.ResultHandler;
+import com.jd.mybatis.session.RowBounds;
+
+/**
+ * This is the default implementation of a MyBatis Cursor.
+ * 每次调用DefaultResultSetHandler.handleRowValues只映射一行（ResultHandler收到结果后立即stop），
+ * 嵌套结果映射要求resultOrdered=true，一个对象的所有行读完后才返回。
+ * RowBounds在这里处理：先跳过offset个对象，返回limit个后关闭。
+ *
+ * @author Clinton Begin
+ */
+public class DefaultCursor<T> implements Cursor<T> {
+
+  // ResultSetHandler stuff
+  private final DefaultResultSetHandler resultSetHandler;
+  private final ResultMap resultMap;
+  private final ResultSetWrapper rsw;
+  private final RowBounds rowBounds;
+  private final ObjectWrapperResultHandler<T> objectWrapperResultHandler = new ObjectWrapperResultHandler<T>();
+
+  private final CursorIterator cursorIterator = new CursorIterator();
+  private boolean iteratorRetrieved;
+
+  private CursorStatus status = CursorStatus.CREATED;
+  // 已经从数据库读取的对象数，包括offset跳过的
+  private int indexWithRowBound = -1;
+
+  private enum CursorStatus {
+
+    /**
+     * A freshly created cursor, database ResultSet consuming has not started
+     */
+    CREATED,
+    /**
+     * A cursor currently in use, database ResultSet consuming has started
+     */
+    OPEN,
+    /**
+     * A closed cursor, not fully consumed
+     */
+    CLOSED,
+    /**
+     * A fully consumed cursor, a consumed cursor is always closed
+     */
+    CONSUMED
+  }
+
+  /*
+   * @param rsw - the first result set of the statement, null if the statement returned none
+   */
+  public DefaultCursor(DefaultResultSetHandler resultSetHandler, ResultMap resultMap, ResultSetWrapper rsw, RowBounds rowBounds) {
+    this.resultSetHandler = resultSetHandler;
+    this.resultMap = resultMap;
+    this.rsw = rsw;
+    this.rowBounds = rowBounds;
+  }
+
+  @Override
+  public boolean isOpen() {
+    return status == CursorStatus.OPEN;
+  }
+
+  @Override
+  public boolean isConsumed() {
+    return status == CursorStatus.CONSUMED;
+  }
+
+  @Override
+  public int getCurrentIndex() {
+    return rowBounds.getOffset() + cursorIterator.iteratorIndex;
+  }
+
+  @Override
+  public Iterator<T> iterator() {
+    if (iteratorRetrieved) {
+      throw new IllegalStateException("Cannot open more than one iterator on a Cursor");
+    }
+    iteratorRetrieved = true;
+    return cursorIterator;
+  }
+
+  @Override
+  public void close() {
+    if (isClosed()) {
+      return;
+    }
+    try {
+      if (rsw != null) {
+        ResultSet rs = rsw.getResultSet();
+        if (rs != null) {
+          rs.close();
+        }
+      }
+    } catch (SQLException e) {
+      // ignore
+    } finally {
+      status = CursorStatus.CLOSED;
+    }
+  }
+
+  /*
+   * @return true if a row was fetched, its object is left in the result handler
+   */
+  protected boolean fetchNextUsingRowBound() {
+    boolean found = fetchNextObjectFromDatabase();
+    while (found && indexWithRowBound < rowBounds.getOffset()) {
+      found = fetchNextObjectFromDatabase();
+    }
+    return found;
+  }
+
+  protected boolean fetchNextObjectFromDatabase() {
+    if (isClosed()) {
+      return false;
+    }
+    objectWrapperResultHandler.reset();
+    try {
+      status = CursorStatus.OPEN;
+      if (rsw != null) {
+        resultSetHandler.handleRowValues(rsw, resultMap, objectWrapperResultHandler, RowBounds.DEFAULT, null);
+      }
+    } catch (SQLException e) {
+      close();
+      throw ExceptionFactory.wrapException("Error fetching the next row of the cursor.  Cause: " + e, e);
+    }
+    boolean found = objectWrapperResultHandler.found;
+    if (found) {
+      indexWithRowBound++;
+    }
+    if (!found || getReadItemsCount() == rowBounds.getOffset() + rowBounds.getLimit()) {
+      close();
+      status = CursorStatus.CONSUMED;
+    }
+    return found;
+  }
+
+  private boolean isClosed() {
+    return status == CursorStatus.CLOSED || status == CursorStatus.CONSUMED;
+  }
+
+  private int getReadItemsCount() {
+    return indexWithRowBound + 1;
+  }
+
+  private static class ObjectWrapperResultHandler<E> implements ResultHandler<E> {
+
+    private E result;
+    private boolean found;
+
+    @Override
+    public void handleResult(ResultContext<? extends E> context) {
+      this.result = context.getResultObject();
+      this.found = true;
+      context.stop();
+    }
+
+    private void reset() {
+      result = null;
+      found = false;
+    }
+
+  }
+
+  private class CursorIterator implements Iterator<T> {
+
+    /**
+     * Holder for the next object to be returned
+     */
+    private T object;
+    private boolean fetched;
+    private boolean hasObject;
+
+    /**
+     * Index of objects returned using next(), and as such, visible to users.
+     */
+    private int iteratorIndex = -1;
+
+    @Override
+    public boolean hasNext() {
+      if (!fetched) {
+        hasObject = fetchNextUsingRowBound();
+        object = objectWrapperResultHandler.result;
+        fetched = true;
+      }
+      return hasObject;
+    }
+
+    @Override
+    public T next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      T next = object;
+      object = null;
+      fetched = false;
+      iteratorIndex++;
+      return next;
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException("Cannot remove element from Cursor");
+    }
+
+  }
+
+}
@@ -0,0 +1,202 @@
+/**
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.jd.mybatis.datasource.pooled;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A lock-free container for pooled entries.
+ * 每个元素通过CAS修改自身状态完成借出/归还，不需要对整个连接池加锁：
+ * 1. 线程本地列表：优先借出本线程上次归还的元素（thread affinity）
+ * 2. 共享列表：所有元素都保存在CopyOnWriteArrayList中，读多写少
+ * 3. 交接队列：归还时如果有线程在等待，直接通过SynchronousQueue交给等待线程
+ *
+ * @author Clinton Begin
+ */
+class ConcurrentBag<T extends ConcurrentBag.BagEntry> {
+
+  static final int STATE_NOT_IN_USE = 0;
+  static final int STATE_IN_USE = 1;
+  static final int STATE_REMOVED = -1;
+
+  private static final int THREAD_LOCAL_LIST_LIMIT = 16;
+
+  private final CopyOnWriteArrayList<T> sharedList = new CopyOnWriteArrayList<T>();
+  private final ThreadLocal<List<T>> threadList = new ThreadLocal<List<T>>() {
+    @Override
+    protected List<T> initialValue() {
+      return new ArrayList<T>(THREAD_LOCAL_LIST_LIMIT);
+    }
+  };
+  private final SynchronousQueue<T> handoffQueue = new SynchronousQueue<T>(true);
+  private final AtomicInteger waiters = new AtomicInteger();
+
+  /*
+   * Borrows an entry, waiting at most the given time for one to be returned.
+   *
+   * @param timeout - the time to wait, 0 to return immediately
+   * @param unit - the unit of the timeout
+   * @return the borrowed entry or null if none became available in time
+   */
+  public T borrow(long timeout, TimeUnit unit) throws InterruptedException {
+    List<T> list = threadList.get();
+    for (int i = list.size() - 1; i >= 0; i--) {
+      T entry = list.remove(i);
+      if (entry.compareAndSetState(STATE_NOT_IN_USE, STATE_IN_USE)) {
+        return entry;
+      }
+    }
+
+    waiters.incrementAndGet();
+    try {
+      for (T entry : sharedList) {
+        if (entry.compareAndSetState(STATE_NOT_IN_USE, STATE_IN_USE)) {
+          return entry;
+        }
+      }
+
+      long remaining = unit.toNanos(timeout);
+      while (remaining > 0) {
+        long start = System.nanoTime();
+        T entry = handoffQueue.poll(remaining, TimeUnit.NANOSECONDS);
+        if (entry == null || entry.compareAndSetState(STATE_NOT_IN_USE, STATE_IN_USE)) {
+          return entry;
+        }
+        remaining -= System.nanoTime() - start;
+      }
+      return null;
+    } finally {
+      waiters.decrementAndGet();
+    }
+  }
+
+  /*
+   * Returns a borrowed entry, handing it directly to a waiting thread if there is one.
+   *
+   * @param entry - the entry to return
+   */
+  public void requite(T entry) {
+    if (handoff(entry)) {
+      return;
+    }
+    List<T> list = threadList.get();
+    if (list.size() < THREAD_LOCAL_LIST_LIMIT) {
+      list.add(entry);
+    }
+  }
+
+  /*
+   * Makes an entry that was reserved by a maintenance thread available again,
+   * it is not remembered in the thread local list of the calling thread.
+   *
+   * @param entry - the reserved entry
+   */
+  public void unreserve(T entry) {
+    handoff(entry);
+  }
+
+  /*
+   * @return True if the entry was handed to a waiting thread or has been removed meanwhile
+   */
+  private boolean handoff(T entry) {
+    if (!entry.compareAndSetState(STATE_IN_USE, STATE_NOT_IN_USE)) {
+      return true;
+    }
+    while (waiters.get() > 0) {
+      if (entry.getState() != STATE_NOT_IN_USE || handoffQueue.offer(entry)) {
+        return true;
+      }
+      Thread.yield();
+    }
+    return false;
+  }
+
+  /*
+   * Adds a new entry to the bag, the state of the entry is left untouched so
+   * a freshly created entry can be added already borrowed.
+   *
+   * @param entry - the entry to add
+   */
+  public void add(T entry) {
+    sharedList.add(entry);
+    while (waiters.get() > 0 && entry.getState() == STATE_NOT_IN_USE && !handoffQueue.offer(entry)) {
+      Thread.yield();
+    }
+  }
+
+  /*
+   * Removes an entry from the bag, it can never be borrowed again.
+   *
+   * @param entry - the entry to remove
+   * @return True if the entry was in the bag
+   */
+  public boolean remove(T entry) {
+    entry.setState(STATE_REMOVED);
+    return sharedList.remove(entry);
+  }
+
+  /*
+   * A snapshot of all entries, regardless of their state
+   */
+  public List<T> values() {
+    return new ArrayList<T>(sharedList);
+  }
+
+  public int getCount(int state) {
+    int count = 0;
+    for (T entry : sharedList) {
+      if (entry.getState() == state) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  public int size() {
+    return sharedList.size();
+  }
+
+  public int getWaitingThreadCount() {
+    return waiters.get();
+  }
+
+  /**
+   * An element of the bag, borrowed and returned by switching its state with CAS.
+   */
+  abstract static class BagEntry {
+
+    private final AtomicInteger state = new AtomicInteger(STATE_NOT_IN_USE);
+
+    public int getState() {
+      return state.get();
+    }
+
+    public void setState(int newState) {
+      state.set(newState);
+    }
+
+    public boolean compareAndSetState(int expect, int update) {
+      return state.compareAndSet(expect, update);
+    }
+
+  }
+
+}
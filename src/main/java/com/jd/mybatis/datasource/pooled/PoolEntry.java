@@ -0,0 +1,113 @@
+/**
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.jd.mybatis.datasource.pooled;
+
+import java.sql.Connection;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A physical connection held by the {@link ConcurrentBag}.
+ * 与PooledConnection不同，PoolEntry在连接的整个生命周期中保持不变，
+ * 每次借出时都会创建一个新的PooledConnection代理，归还时使其失效，
+ * 这样用户手中旧的代理连接在归还后就不能再使用了。
+ *
+ * @author Clinton Begin
+ */
+class PoolEntry extends ConcurrentBag.BagEntry {
+
+  private final Connection realConnection;
+  private final long createdTimestamp;
+  private volatile long lastUsedTimestamp;
+  private volatile long lastValidatedTimestamp;
+  //当前借出该连接的代理，未借出时为null
+  private final AtomicReference<PooledConnection> borrower = new AtomicReference<PooledConnection>();
+  //该物理连接的PreparedStatement缓存，未开启时为null
+  private final PreparedStatementCache statementCache;
+
+  public PoolEntry(Connection realConnection, PreparedStatementCache statementCache) {
+    this.realConnection = realConnection;
+    this.statementCache = statementCache;
+    this.createdTimestamp = System.currentTimeMillis();
+    this.lastUsedTimestamp = createdTimestamp;
+    this.lastValidatedTimestamp = createdTimestamp;
+  }
+
+  public Connection getRealConnection() {
+    return realConnection;
+  }
+
+  public PreparedStatementCache getStatementCache() {
+    return statementCache;
+  }
+
+  /*
+   * Closes the cached statements, called before the physical connection is closed
+   */
+  public void closeStatementCache() {
+    if (statementCache != null) {
+      statementCache.close();
+    }
+  }
+
+  public long getCreatedTimestamp() {
+    return createdTimestamp;
+  }
+
+  public long getLastUsedTimestamp() {
+    return lastUsedTimestamp;
+  }
+
+  public void setLastUsedTimestamp(long lastUsedTimestamp) {
+    this.lastUsedTimestamp = lastUsedTimestamp;
+  }
+
+  public long getLastValidatedTimestamp() {
+    return lastValidatedTimestamp;
+  }
+
+  public void setLastValidatedTimestamp(long lastValidatedTimestamp) {
+    this.lastValidatedTimestamp = lastValidatedTimestamp;
+  }
+
+  public long getTimeElapsedSinceLastUse() {
+    return System.currentTimeMillis() - lastUsedTimestamp;
+  }
+
+  public long getTimeElapsedSinceLastValidation() {
+    return System.currentTimeMillis() - Math.max(lastUsedTimestamp, lastValidatedTimestamp);
+  }
+
+  public PooledConnection getBorrower() {
+    return borrower.get();
+  }
+
+  public void setBorrower(PooledConnection conn) {
+    borrower.set(conn);
+  }
+
+  /*
+   * Atomically hands the entry over from one proxy to another, only one of
+   * the owner returning it and a thread claiming it as overdue can win.
+   */
+  public boolean compareAndSetBorrower(PooledConnection expect, PooledConnection update) {
+    return borrower.compareAndSet(expect, update);
+  }
+
+  public int getRealHashCode() {
+    return realConnection == null ? 0 : realConnection.hashCode();
+  }
+
+}
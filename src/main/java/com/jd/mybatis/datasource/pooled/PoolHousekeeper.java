@@ -0,0 +1,108 @@
+/**
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.jd.mybatis.datasource.pooled;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.jd.mybatis.logging.Log;
+import com.jd.mybatis.logging.LogFactory;
+
+/**
+ * Runs {@link PooledDataSource#housekeep()} periodically on a daemon thread.
+ * 后台线程只持有数据源的弱引用，数据源被回收后任务自动结束，不影响原有的finalize()关闭连接逻辑。
+ *
+ * @author Clinton Begin
+ */
+class PoolHousekeeper implements Runnable {
+
+  private static final Log log = LogFactory.getLog(PoolHousekeeper.class);
+
+  private final WeakReference<PooledDataSource> dataSource;
+  private final ScheduledExecutorService executor;
+  private final AtomicBoolean fillPending = new AtomicBoolean();
+
+  /*
+   * @param period - the housekeeping period in milliseconds, 0 to only run requested fills
+   */
+  public PoolHousekeeper(PooledDataSource dataSource, long period) {
+    this.dataSource = new WeakReference<PooledDataSource>(dataSource);
+    this.executor = Executors.newSingleThreadScheduledExecutor(daemonThreadFactory("PooledDataSource-housekeeper"));
+    if (period > 0) {
+      this.executor.scheduleWithFixedDelay(this, period, period, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /*
+   * Fills the pool up to poolMinimumIdle in the background, at most one fill is queued at a time
+   */
+  public void requestFill() {
+    if (!fillPending.compareAndSet(false, true)) {
+      return;
+    }
+    try {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          fillPending.set(false);
+          PooledDataSource ds = dataSource.get();
+          if (ds != null) {
+            ds.fillPool();
+          }
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      // shut down
+      fillPending.set(false);
+    }
+  }
+
+  @Override
+  public void run() {
+    PooledDataSource ds = dataSource.get();
+    if (ds == null) {
+      executor.shutdown();
+      return;
+    }
+    try {
+      ds.housekeep();
+    } catch (Exception e) {
+      // 异常会终止后续调度，这里只记录日志
+      log.warn("PooledDataSource housekeeping failed: " + e);
+    }
+  }
+
+  public void shutdown() {
+    executor.shutdownNow();
+  }
+
+  static ThreadFactory daemonThreadFactory(final String name) {
+    return new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, name);
+        thread.setDaemon(true);
+        return thread;
+      }
+    };
+  }
+
+}
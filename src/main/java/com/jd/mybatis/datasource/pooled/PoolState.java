@@ -18,6 +18,9 @@ package com.jd.mybatis.datasource.pooled;
 import java.util.ArrayList;
 import java.util.List;
 
+import com.jd.mybatis.util.LatencyHistogram;
+import com.jd.mybatis.util.StripedCounter;
+
 /**
  * PooledDataSource将java.sql.Connection对象包裹成PooledConnection对象放到了PoolState类型的容器中维护。
  *  MyBatis将连接池中的PooledConnection分为两种状态： 空闲状态（idle）和活动状态(active)，
@@ -40,58 +43,104 @@ public class PoolState {
    * 如果没有，则看此集合是否已满，如果未满，PooledDataSource会创建出一个PooledConnection，添加到此集合中，并返回。
    */
   protected final List<PooledConnection> activeConnections = new ArrayList<PooledConnection>();
-  protected long requestCount = 0;
-  protected long accumulatedRequestTime = 0;
-  protected long accumulatedCheckoutTime = 0;
-  protected long claimedOverdueConnectionCount = 0;
-  protected long accumulatedCheckoutTimeOfOverdueConnections = 0;
-  protected long accumulatedWaitTime = 0;
-  protected long hadToWaitCount = 0;
-  protected long badConnectionCount = 0;
+  /*
+   * 以下统计数据使用分段计数器累加，读取时不需要获取连接池的锁
+   */
+  protected final StripedCounter requestCount = new StripedCounter();
+  protected final StripedCounter accumulatedRequestTime = new StripedCounter();
+  protected final StripedCounter accumulatedCheckoutTime = new StripedCounter();
+  protected final StripedCounter claimedOverdueConnectionCount = new StripedCounter();
+  protected final StripedCounter accumulatedCheckoutTimeOfOverdueConnections = new StripedCounter();
+  protected final StripedCounter accumulatedWaitTime = new StripedCounter();
+  protected final StripedCounter hadToWaitCount = new StripedCounter();
+  protected final StripedCounter badConnectionCount = new StripedCounter();
+  //所有物理连接的PreparedStatement缓存命中、未命中和淘汰的次数
+  protected final StripedCounter statementCacheHitCount = new StripedCounter();
+  protected final StripedCounter statementCacheMissCount = new StripedCounter();
+  protected final StripedCounter statementCacheEvictionCount = new StripedCounter();
+  //getConnection()耗时分布
+  protected final LatencyHistogram checkoutWaitTime = new LatencyHistogram();
+  //连接从借出到归还的持有时间分布
+  protected final LatencyHistogram checkoutHoldTime = new LatencyHistogram();
 
   public PoolState(PooledDataSource dataSource) {
     this.dataSource = dataSource;
   }
 
-  public synchronized long getRequestCount() {
-    return requestCount;
+  public long getRequestCount() {
+    return requestCount.sum();
+  }
+
+  public long getAverageRequestTime() {
+    long requests = requestCount.sum();
+    return requests == 0 ? 0 : accumulatedRequestTime.sum() / requests;
   }
 
-  public synchronized long getAverageRequestTime() {
-    return requestCount == 0 ? 0 : accumulatedRequestTime / requestCount;
+  public long getAverageWaitTime() {
+    long waits = hadToWaitCount.sum();
+    return waits == 0 ? 0 : accumulatedWaitTime.sum() / waits;
   }
 
-  public synchronized long getAverageWaitTime() {
-    return hadToWaitCount == 0 ? 0 : accumulatedWaitTime / hadToWaitCount;
+  public long getHadToWaitCount() {
+    return hadToWaitCount.sum();
+  }
+
+  public long getBadConnectionCount() {
+    return badConnectionCount.sum();
+  }
 
+  public long getClaimedOverdueConnectionCount() {
+    return claimedOverdueConnectionCount.sum();
   }
 
-  public synchronized long getHadToWaitCount() {
-    return hadToWaitCount;
+  public long getAverageOverdueCheckoutTime() {
+    long claimed = claimedOverdueConnectionCount.sum();
+    return claimed == 0 ? 0 : accumulatedCheckoutTimeOfOverdueConnections.sum() / claimed;
   }
 
-  public synchronized long getBadConnectionCount() {
-    return badConnectionCount;
+  public long getAverageCheckoutTime() {
+    long requests = requestCount.sum();
+    return requests == 0 ? 0 : accumulatedCheckoutTime.sum() / requests;
   }
 
-  public synchronized long getClaimedOverdueConnectionCount() {
-    return claimedOverdueConnectionCount;
+  public long getStatementCacheHitCount() {
+    return statementCacheHitCount.sum();
   }
 
-  public synchronized long getAverageOverdueCheckoutTime() {
-    return claimedOverdueConnectionCount == 0 ? 0 : accumulatedCheckoutTimeOfOverdueConnections / claimedOverdueConnectionCount;
+  public long getStatementCacheMissCount() {
+    return statementCacheMissCount.sum();
   }
 
-  public synchronized long getAverageCheckoutTime() {
-    return requestCount == 0 ? 0 : accumulatedCheckoutTime / requestCount;
+  public long getStatementCacheEvictionCount() {
+    return statementCacheEvictionCount.sum();
   }
 
+  public LatencyHistogram getCheckoutWaitTime() {
+    return checkoutWaitTime;
+  }
+
+  public LatencyHistogram getCheckoutHoldTime() {
+    return checkoutHoldTime;
+  }
+
+  /*
+   * Takes a consistent-enough copy of all statistics without locking the pool
+   *
+   * @return the snapshot
+   */
+  public PoolStatistics snapshot() {
+    return new PoolStatistics(this);
+  }
 
   /**
    * 最大空闲连接数
    * @return
    */
-  public synchronized int getIdleConnectionCount() {
+  public int getIdleConnectionCount() {
+    if (dataSource.isPoolConcurrentEnabled()) {
+      return dataSource.getConcurrentBag().getCount(ConcurrentBag.STATE_NOT_IN_USE);
+    }
+    //不加锁读取，值可能稍有滞后
     return idleConnections.size();
   }
 
@@ -99,12 +148,16 @@ public class PoolState {
    * 最大活动连接数
    * @return
    */
-  public synchronized int getActiveConnectionCount() {
+  public int getActiveConnectionCount() {
+    if (dataSource.isPoolConcurrentEnabled()) {
+      return dataSource.getConcurrentBag().getCount(ConcurrentBag.STATE_IN_USE);
+    }
+    //不加锁读取，值可能稍有滞后
     return activeConnections.size();
   }
 
   @Override
-  public synchronized String toString() {
+  public String toString() {
     StringBuilder builder = new StringBuilder();
     builder.append("\n===CONFINGURATION==============================================");
     builder.append("\n jdbcDriver                     ").append(dataSource.getDriver());
@@ -118,6 +171,12 @@ public class PoolState {
     builder.append("\n poolPingEnabled                ").append(dataSource.poolPingEnabled);
     builder.append("\n poolPingQuery                  ").append(dataSource.poolPingQuery);
     builder.append("\n poolPingConnectionsNotUsedFor  ").append(dataSource.poolPingConnectionsNotUsedFor);
+    builder.append("\n poolConcurrentEnabled          ").append(dataSource.poolConcurrentEnabled);
+    builder.append("\n poolHousekeepingPeriod         ").append(dataSource.poolHousekeepingPeriod);
+    builder.append("\n poolMaximumIdleTime            ").append(dataSource.poolMaximumIdleTime);
+    builder.append("\n poolMinimumIdle                ").append(dataSource.poolMinimumIdle);
+    builder.append("\n poolPingUseIsValid             ").append(dataSource.isPoolPingUseIsValid());
+    builder.append("\n poolStatementCacheSize         ").append(dataSource.poolStatementCacheSize);
     builder.append("\n ---STATUS-----------------------------------------------------");
     builder.append("\n activeConnections              ").append(getActiveConnectionCount());
     builder.append("\n idleConnections                ").append(getIdleConnectionCount());
@@ -129,6 +188,9 @@ public class PoolState {
     builder.append("\n hadToWait                      ").append(getHadToWaitCount());
     builder.append("\n averageWaitTime                ").append(getAverageWaitTime());
     builder.append("\n badConnectionCount             ").append(getBadConnectionCount());
+    builder.append("\n statementCacheHit/Miss/Evicted ").append(getStatementCacheHitCount()).append('/').append(getStatementCacheMissCount()).append('/').append(getStatementCacheEvictionCount());
+    builder.append("\n checkoutWaitTimeP50/P99        ").append(checkoutWaitTime.getPercentile(50)).append('/').append(checkoutWaitTime.getPercentile(99));
+    builder.append("\n checkoutHoldTimeP50/P99        ").append(checkoutHoldTime.getPercentile(50)).append('/').append(checkoutHoldTime.getPercentile(99));
     builder.append("\n===============================================================");
     return builder.toString();
   }
@@ -0,0 +1,151 @@
+/**
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.jd.mybatis.datasource.pooled;
+
+import com.jd.mybatis.util.LatencyHistogram;
+
+/**
+ * An immutable snapshot of the statistics of a {@link PoolState}.
+ * 由PoolState.snapshot()创建，创建时不需要获取连接池的锁，
+ * 适合监控程序定期采集后导出平均值和p50/p99等百分位数。
+ *
+ * @author Clinton Begin
+ */
+public class PoolStatistics {
+
+  private final long timestamp;
+  private final int activeConnectionCount;
+  private final int idleConnectionCount;
+  private final long requestCount;
+  private final long accumulatedRequestTime;
+  private final long accumulatedCheckoutTime;
+  private final long claimedOverdueConnectionCount;
+  private final long accumulatedCheckoutTimeOfOverdueConnections;
+  private final long accumulatedWaitTime;
+  private final long hadToWaitCount;
+  private final long badConnectionCount;
+  private final long statementCacheHitCount;
+  private final long statementCacheMissCount;
+  private final long statementCacheEvictionCount;
+  private final long[] checkoutWaitTimes;
+  private final long[] checkoutHoldTimes;
+
+  PoolStatistics(PoolState state) {
+    this.timestamp = System.currentTimeMillis();
+    this.activeConnectionCount = state.getActiveConnectionCount();
+    this.idleConnectionCount = state.getIdleConnectionCount();
+    this.requestCount = state.requestCount.sum();
+    this.accumulatedRequestTime = state.accumulatedRequestTime.sum();
+    this.accumulatedCheckoutTime = state.accumulatedCheckoutTime.sum();
+    this.claimedOverdueConnectionCount = state.claimedOverdueConnectionCount.sum();
+    this.accumulatedCheckoutTimeOfOverdueConnections = state.accumulatedCheckoutTimeOfOverdueConnections.sum();
+    this.accumulatedWaitTime = state.accumulatedWaitTime.sum();
+    this.hadToWaitCount = state.hadToWaitCount.sum();
+    this.badConnectionCount = state.badConnectionCount.sum();
+    this.statementCacheHitCount = state.statementCacheHitCount.sum();
+    this.statementCacheMissCount = state.statementCacheMissCount.sum();
+    this.statementCacheEvictionCount = state.statementCacheEvictionCount.sum();
+    this.checkoutWaitTimes = state.checkoutWaitTime.getBucketCounts();
+    this.checkoutHoldTimes = state.checkoutHoldTime.getBucketCounts();
+  }
+
+  public long getTimestamp() {
+    return timestamp;
+  }
+
+  public int getActiveConnectionCount() {
+    return activeConnectionCount;
+  }
+
+  public int getIdleConnectionCount() {
+    return idleConnectionCount;
+  }
+
+  public long getRequestCount() {
+    return requestCount;
+  }
+
+  public long getAverageRequestTime() {
+    return requestCount == 0 ? 0 : accumulatedRequestTime / requestCount;
+  }
+
+  public long getAverageCheckoutTime() {
+    return requestCount == 0 ? 0 : accumulatedCheckoutTime / requestCount;
+  }
+
+  public long getClaimedOverdueConnectionCount() {
+    return claimedOverdueConnectionCount;
+  }
+
+  public long getAverageOverdueCheckoutTime() {
+    return claimedOverdueConnectionCount == 0 ? 0 : accumulatedCheckoutTimeOfOverdueConnections / claimedOverdueConnectionCount;
+  }
+
+  public long getHadToWaitCount() {
+    return hadToWaitCount;
+  }
+
+  public long getAverageWaitTime() {
+    return hadToWaitCount == 0 ? 0 : accumulatedWaitTime / hadToWaitCount;
+  }
+
+  public long getBadConnectionCount() {
+    return badConnectionCount;
+  }
+
+  public long getStatementCacheHitCount() {
+    return statementCacheHitCount;
+  }
+
+  public long getStatementCacheMissCount() {
+    return statementCacheMissCount;
+  }
+
+  public long getStatementCacheEvictionCount() {
+    return statementCacheEvictionCount;
+  }
+
+  /*
+   * Share of the prepares served by the statement caches of the pooled connections
+   *
+   * @return the hit ratio between 0 and 1, 0 when nothing was prepared
+   */
+  public double getStatementCacheHitRatio() {
+    long requests = statementCacheHitCount + statementCacheMissCount;
+    return requests == 0 ? 0 : (double) statementCacheHitCount / requests;
+  }
+
+  /*
+   * Time spent in getConnection() until a connection was handed out
+   *
+   * @param percentile - between 0 and 100, e.g. 50 or 99
+   * @return the latency in milliseconds
+   */
+  public long getCheckoutWaitTimePercentile(double percentile) {
+    return LatencyHistogram.percentile(checkoutWaitTimes, percentile);
+  }
+
+  /*
+   * Time a connection was held between checkout and close()
+   *
+   * @param percentile - between 0 and 100, e.g. 50 or 99
+   * @return the latency in milliseconds
+   */
+  public long getCheckoutHoldTimePercentile(double percentile) {
+    return LatencyHistogram.percentile(checkoutHoldTimes, percentile);
+  }
+
+}
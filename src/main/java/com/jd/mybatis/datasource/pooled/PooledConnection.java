@@ -29,6 +29,8 @@ import com.jd.mybatis.reflection.ExceptionUtil;
 class PooledConnection implements InvocationHandler {
 
   private static final String CLOSE = "close";
+  private static final String UNWRAP = "unwrap";
+  private static final String IS_WRAPPER_FOR = "isWrapperFor";
   private static final Class<?>[] IFACES = new Class<?>[] { Connection.class };
 
   private int hashCode = 0;
@@ -41,8 +43,14 @@ class PooledConnection implements InvocationHandler {
   private long checkoutTimestamp;
   private long createdTimestamp;
   private long lastUsedTimestamp;
+  //最近一次校验连接有效的时间
+  private volatile long lastValidatedTimestamp;
   private int connectionTypeCode;
-  private boolean valid;
+  private volatile boolean valid;
+  //并发模式下所属的连接池元素，同步模式下为null
+  private PoolEntry poolEntry;
+  //物理连接的PreparedStatement缓存，重新包装同一个物理连接时交给新的代理，未开启时为null
+  private final PreparedStatementCache statementCache;
 
   /*
    * Constructor for SimplePooledConnection that uses the Connection and PooledDataSource passed in
@@ -51,11 +59,24 @@ class PooledConnection implements InvocationHandler {
    * @param dataSource - the dataSource that the connection is from
    */
   public PooledConnection(Connection connection, PooledDataSource dataSource) {
+    this(connection, dataSource, dataSource.newStatementCache());
+  }
+
+  /*
+   * Constructor for a new proxy of a physical connection that keeps its statement cache
+   *
+   * @param connection - the connection that is to be presented as a pooled connection
+   * @param dataSource - the dataSource that the connection is from
+   * @param statementCache - the statement cache of the connection, or null
+   */
+  public PooledConnection(Connection connection, PooledDataSource dataSource, PreparedStatementCache statementCache) {
+    this.statementCache = statementCache;
     this.hashCode = connection.hashCode();
     this.realConnection = connection;
     this.dataSource = dataSource;
     this.createdTimestamp = System.currentTimeMillis();
     this.lastUsedTimestamp = System.currentTimeMillis();
+    this.lastValidatedTimestamp = this.lastUsedTimestamp;
     this.valid = true;
     //PooledConenction实现了InvocationHandler接口，并且，proxyConnection对象也是根据这个它来生成的代理对象
     this.proxyConnection = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), IFACES, this);
@@ -77,6 +98,42 @@ class PooledConnection implements InvocationHandler {
     return valid && realConnection != null && dataSource.pingConnection(this);
   }
 
+  /*
+   * Getter for the cache of the prepared statements of the physical connection
+   *
+   * @return The cache or null when poolStatementCacheSize is 0
+   */
+  public PreparedStatementCache getStatementCache() {
+    return statementCache;
+  }
+
+  /*
+   * Closes the cached statements, called before the physical connection is closed or discarded
+   */
+  public void closeStatementCache() {
+    if (statementCache != null) {
+      statementCache.close();
+    }
+  }
+
+  /*
+   * Getter for the entry of the concurrent pool this connection was borrowed from
+   *
+   * @return The entry or null when the pool is not in concurrent mode
+   */
+  public PoolEntry getPoolEntry() {
+    return poolEntry;
+  }
+
+  /*
+   * Setter for the entry of the concurrent pool this connection was borrowed from
+   *
+   * @param poolEntry - the entry
+   */
+  public void setPoolEntry(PoolEntry poolEntry) {
+    this.poolEntry = poolEntry;
+  }
+
   /*
    * Getter for the *real* connection that this wraps
    *
@@ -167,6 +224,34 @@ class PooledConnection implements InvocationHandler {
     return System.currentTimeMillis() - lastUsedTimestamp;
   }
 
+  /*
+   * Getter for the time that the connection was last known to be good
+   *
+   * @return - the timestamp
+   */
+  public long getLastValidatedTimestamp() {
+    return lastValidatedTimestamp;
+  }
+
+  /*
+   * Setter for the time that the connection was last known to be good
+   *
+   * @param lastValidatedTimestamp - the timestamp
+   */
+  public void setLastValidatedTimestamp(long lastValidatedTimestamp) {
+    this.lastValidatedTimestamp = lastValidatedTimestamp;
+  }
+
+  /*
+   * Getter for the time since this connection was last used or validated,
+   * whichever happened later
+   *
+   * @return - the time since the connection was last known to be good
+   */
+  public long getTimeElapsedSinceLastValidation() {
+    return System.currentTimeMillis() - Math.max(lastUsedTimestamp, lastValidatedTimestamp);
+  }
+
   /*
    * Getter for the age of the connection
    *
@@ -248,6 +333,14 @@ class PooledConnection implements InvocationHandler {
           // throw an SQLException instead of a Runtime
           checkConnection();
         }
+        //BaseStatementHandler通过unwrap取得语句缓存，ConnectionLogger等包装会把调用转发到这里
+        if (statementCache != null && args != null && args.length == 1 && PreparedStatementCache.class.equals(args[0])) {
+          if (UNWRAP.equals(methodName)) {
+            return statementCache;
+          } else if (IS_WRAPPER_FOR.equals(methodName)) {
+            return true;
+          }
+        }
         return method.invoke(realConnection, args);
       } catch (Throwable t) {
         throw ExceptionUtil.unwrapThrowable(t);
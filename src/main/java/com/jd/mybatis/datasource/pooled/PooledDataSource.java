@@ -22,8 +22,19 @@ import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
 import javax.sql.DataSource;
@@ -43,8 +54,17 @@ public class PooledDataSource implements DataSource {
 
   private static final Log log = LogFactory.getLog(PooledDataSource.class);
 
+  //启动时并行创建连接的最大线程数
+  private static final int PREFILL_MAXIMUM_THREADS = 16;
+  private static final String NO_PING_QUERY = "NO PING QUERY SET";
+
   private final PoolState state = new PoolState(this);
 
+  //并发模式下保存所有连接的容器，同步模式下不使用
+  private final ConcurrentBag<PoolEntry> bag = new ConcurrentBag<PoolEntry>();
+  //并发模式下已创建（含正在创建）的物理连接数
+  private final AtomicInteger totalConnections = new AtomicInteger();
+
   private final UnpooledDataSource dataSource;
 
   // OPTIONAL CONFIGURATION FIELDS
@@ -52,11 +72,31 @@ public class PooledDataSource implements DataSource {
   protected int poolMaximumIdleConnections = 5;//默认最大空闲连接是5
   protected int poolMaximumCheckoutTime = 20000;
   protected int poolTimeToWait = 20000;
-  protected String poolPingQuery = "NO PING QUERY SET";
+  protected String poolPingQuery = NO_PING_QUERY;
   protected boolean poolPingEnabled = false;
   protected int poolPingConnectionsNotUsedFor = 0;
-
-  private int expectedConnectionTypeCode;
+  //是否使用无锁的ConcurrentBag代替synchronized(state)管理连接
+  protected boolean poolConcurrentEnabled = false;
+  //后台维护线程的执行间隔（毫秒），0表示不启用
+  protected int poolHousekeepingPeriod = 0;
+  //空闲超过此时间（毫秒）的连接由后台线程关闭，0表示不关闭
+  protected int poolMaximumIdleTime = 0;
+  //后台线程保持的最小空闲连接数
+  protected int poolMinimumIdle = 0;
+  //驱动支持时使用Connection.isValid()代替ping查询，没有设置时只在没有配置poolPingQuery时使用
+  protected Boolean poolPingUseIsValid;
+  //Connection.isValid()的超时时间（秒）
+  protected int poolValidationTimeout = 5;
+  //每个物理连接缓存的PreparedStatement数，0表示不缓存
+  protected int poolStatementCacheSize = 0;
+
+  private volatile int expectedConnectionTypeCode;
+  private volatile boolean isValidSupported = true;
+  //每次forceCloseAll()后加1，用于丢弃后台线程在关闭前取出或创建的连接，在state锁内修改
+  private volatile int poolGeneration;
+  //同步模式下正在锁外创建的连接数，由state锁保护
+  private int pendingConnections;
+  private volatile PoolHousekeeper housekeeper;
 
   public PooledDataSource() {
     dataSource = new UnpooledDataSource();
@@ -223,6 +263,87 @@ public class PooledDataSource implements DataSource {
     forceCloseAll();
   }
 
+  /*
+   * Determines if the pool should use a lock-free concurrent bag instead of
+   * synchronizing every checkout and return on the pool state.
+   *
+   * @param poolConcurrentEnabled True to use the concurrent pool
+   */
+  public void setPoolConcurrentEnabled(boolean poolConcurrentEnabled) {
+    this.poolConcurrentEnabled = poolConcurrentEnabled;
+    forceCloseAll();
+  }
+
+  /*
+   * The period of the background housekeeping that validates idle
+   * connections, evicts the ones idle for too long and keeps
+   * poolMinimumIdle connections open.
+   *
+   * @param milliseconds the period, 0 disables the housekeeping
+   */
+  public void setPoolHousekeepingPeriod(int milliseconds) {
+    this.poolHousekeepingPeriod = milliseconds;
+    forceCloseAll();
+    restartHousekeeper();
+  }
+
+  /*
+   * Idle connections not used for this many milliseconds are closed by the
+   * housekeeping, as long as poolMinimumIdle connections remain.
+   *
+   * @param milliseconds the maximum idle time, 0 to never evict
+   */
+  public void setPoolMaximumIdleTime(int milliseconds) {
+    this.poolMaximumIdleTime = milliseconds;
+    forceCloseAll();
+  }
+
+  /*
+   * The number of idle connections the housekeeping keeps open, also opened
+   * in parallel by prefill() and reopened in the background when a checkout
+   * leaves fewer idle connections.
+   *
+   * @param poolMinimumIdle The minimum number of idle connections
+   */
+  public void setPoolMinimumIdle(int poolMinimumIdle) {
+    this.poolMinimumIdle = poolMinimumIdle;
+    forceCloseAll();
+    restartHousekeeper();
+  }
+
+  /*
+   * Determines if Connection.isValid() should be used instead of the ping
+   * query when the driver supports it. Not set, it is only used when no ping
+   * query is configured, so a configured query is not silently skipped.
+   *
+   * @param poolPingUseIsValid True to prefer Connection.isValid()
+   */
+  public void setPoolPingUseIsValid(boolean poolPingUseIsValid) {
+    this.poolPingUseIsValid = poolPingUseIsValid;
+    forceCloseAll();
+  }
+
+  /*
+   * The timeout passed to Connection.isValid()
+   *
+   * @param seconds the timeout in seconds, 0 means no timeout
+   */
+  public void setPoolValidationTimeout(int seconds) {
+    this.poolValidationTimeout = seconds;
+    forceCloseAll();
+  }
+
+  /*
+   * The number of prepared statements kept open per physical connection
+   * across checkouts, the least recently used ones are closed beyond it.
+   *
+   * @param poolStatementCacheSize the cache size, 0 disables the cache
+   */
+  public void setPoolStatementCacheSize(int poolStatementCacheSize) {
+    this.poolStatementCacheSize = poolStatementCacheSize;
+    forceCloseAll();
+  }
+
   public String getDriver() {
     return dataSource.getDriver();
   }
@@ -279,16 +400,52 @@ public class PooledDataSource implements DataSource {
     return poolPingConnectionsNotUsedFor;
   }
 
+  public boolean isPoolConcurrentEnabled() {
+    return poolConcurrentEnabled;
+  }
+
+  public int getPoolHousekeepingPeriod() {
+    return poolHousekeepingPeriod;
+  }
+
+  public int getPoolMaximumIdleTime() {
+    return poolMaximumIdleTime;
+  }
+
+  public int getPoolMinimumIdle() {
+    return poolMinimumIdle;
+  }
+
+  /*
+   * Whether Connection.isValid() is preferred, by default only when no ping query is configured
+   */
+  public boolean isPoolPingUseIsValid() {
+    if (poolPingUseIsValid != null) {
+      return poolPingUseIsValid;
+    }
+    return poolPingQuery == null || NO_PING_QUERY.equals(poolPingQuery);
+  }
+
+  public int getPoolValidationTimeout() {
+    return poolValidationTimeout;
+  }
+
+  public int getPoolStatementCacheSize() {
+    return poolStatementCacheSize;
+  }
+
   /*
    * Closes all active and idle connections in the pool
    */
   public void forceCloseAll() {
     synchronized (state) {
+      poolGeneration++;
       expectedConnectionTypeCode = assembleConnectionTypeCode(dataSource.getUrl(), dataSource.getUsername(), dataSource.getPassword());
       for (int i = state.activeConnections.size(); i > 0; i--) {
         try {
           PooledConnection conn = state.activeConnections.remove(i - 1);
           conn.invalidate();
+          conn.closeStatementCache();
 
           Connection realConn = conn.getRealConnection();
           if (!realConn.getAutoCommit()) {
@@ -303,6 +460,7 @@ public class PooledDataSource implements DataSource {
         try {
           PooledConnection conn = state.idleConnections.remove(i - 1);
           conn.invalidate();
+          conn.closeStatementCache();
 
           Connection realConn = conn.getRealConnection();
           if (!realConn.getAutoCommit()) {
@@ -314,6 +472,26 @@ public class PooledDataSource implements DataSource {
         }
       }
     }
+    for (PoolEntry entry : bag.values()) {
+      PooledConnection borrower = entry.getBorrower();
+      entry.setBorrower(null);
+      if (borrower != null) {
+        borrower.invalidate();
+      }
+      if (bag.remove(entry)) {
+        totalConnections.decrementAndGet();
+      }
+      entry.closeStatementCache();
+      try {
+        Connection realConn = entry.getRealConnection();
+        if (!realConn.getAutoCommit()) {
+          realConn.rollback();
+        }
+        realConn.close();
+      } catch (Exception e) {
+        // ignore
+      }
+    }
     if (log.isDebugEnabled()) {
       log.debug("PooledDataSource forcefully closed/removed all connections.");
     }
@@ -323,6 +501,10 @@ public class PooledDataSource implements DataSource {
     return state;
   }
 
+  ConcurrentBag<PoolEntry> getConcurrentBag() {
+    return bag;
+  }
+
   private int assembleConnectionTypeCode(String url, String username, String password) {
     return ("" + url + username + password).hashCode();
   }
@@ -334,6 +516,10 @@ public class PooledDataSource implements DataSource {
    * @throws SQLException
    */
   protected void pushConnection(PooledConnection conn) throws SQLException {
+    if (poolConcurrentEnabled) {
+      pushConnectionToBag(conn);
+      return;
+    }
     //1.加同步锁
     synchronized (state) {
       state.activeConnections.remove(conn);
@@ -341,16 +527,19 @@ public class PooledDataSource implements DataSource {
       if (conn.isValid()) {
     	  //3.判断空闲连接小于最大空闲连接数
         if (state.idleConnections.size() < poolMaximumIdleConnections && conn.getConnectionTypeCode() == expectedConnectionTypeCode) {
-          state.accumulatedCheckoutTime += conn.getCheckoutTime();
+          long checkoutTime = conn.getCheckoutTime();
+          state.accumulatedCheckoutTime.add(checkoutTime);
+          state.checkoutHoldTime.record(checkoutTime);
           //该连接未提交则回滚
           if (!conn.getRealConnection().getAutoCommit()) {
             conn.getRealConnection().rollback();
           }
           //向空闲创建连接并且添加到空闲连接中
-          PooledConnection newConn = new PooledConnection(conn.getRealConnection(), this);
+          PooledConnection newConn = new PooledConnection(conn.getRealConnection(), this, conn.getStatementCache());
           state.idleConnections.add(newConn);
           newConn.setCreatedTimestamp(conn.getCreatedTimestamp());
           newConn.setLastUsedTimestamp(conn.getLastUsedTimestamp());
+          newConn.setLastValidatedTimestamp(conn.getLastValidatedTimestamp());
           //原连接失效
           conn.invalidate();
           if (log.isDebugEnabled()) {
@@ -360,10 +549,13 @@ public class PooledDataSource implements DataSource {
           state.notifyAll();
         } else {
           //最大空闲连接数超过上限，则该连接失效，并且回滚相关未提交信息
-          state.accumulatedCheckoutTime += conn.getCheckoutTime();
+          long checkoutTime = conn.getCheckoutTime();
+          state.accumulatedCheckoutTime.add(checkoutTime);
+          state.checkoutHoldTime.record(checkoutTime);
           if (!conn.getRealConnection().getAutoCommit()) {
             conn.getRealConnection().rollback();
           }
+          conn.closeStatementCache();
           conn.getRealConnection().close();
           if (log.isDebugEnabled()) {
             log.debug("Closed connection " + conn.getRealHashCode() + ".");
@@ -374,7 +566,7 @@ public class PooledDataSource implements DataSource {
         if (log.isDebugEnabled()) {
           log.debug("A bad connection (" + conn.getRealHashCode() + ") attempted to return to the pool, discarding connection.");
         }
-        state.badConnectionCount++;
+        state.badConnectionCount.increment();
       }
     }
   }
@@ -387,50 +579,61 @@ public class PooledDataSource implements DataSource {
    * @throws SQLException
    */
   private PooledConnection popConnection(String username, String password) throws SQLException {
+    if (poolConcurrentEnabled) {
+      return popConnectionFromBag(username, password);
+    }
     boolean countedWait = false;
     PooledConnection conn = null;
+    //在锁外新建的连接，下一轮循环时在锁内激活
+    PooledConnection createdConnection = null;
     long t = System.currentTimeMillis();
     int localBadConnectionCount = 0;
 
     while (conn == null) {
+      boolean reserved = false;
+      boolean fillRequested = false;
       synchronized (state) {
-    	//1. 先看是否有空闲(idle)状态下的PooledConnection对象
-        if (!state.idleConnections.isEmpty()) {//有空闲(idle)状态下的PooledConnection对象
+        if (createdConnection != null) {
+          conn = createdConnection;
+          createdConnection = null;
+          pendingConnections--;
+        } else if (!state.idleConnections.isEmpty()) {//1. 先看是否有空闲(idle)状态下的PooledConnection对象
           // Pool has available connection
           //有，就直接返回一个可用的PooledConnection对象， 连接池中有空闲连接，取出第一个  
           conn = state.idleConnections.remove(0);
+          //空闲连接低于最小空闲数时，由后台线程异步补充
+          fillRequested = state.idleConnections.size() < poolMinimumIdle;
           if (log.isDebugEnabled()) {
             log.debug("Checked out connection " + conn.getRealHashCode() + " from pool.");
           }
         } else {//没有空闲（idle）状态的PooledConnection对象
           // Pool does not have available connection
-          //2.查看活动状态的PooledConnection池activeConnections是否已满
-          if (state.activeConnections.size() < poolMaximumActiveConnections) {//活动连接数小于最大活动连接数，活动连接数不满
+          //2.查看活动状态的PooledConnection池activeConnections是否已满（包括正在创建的连接）
+          if (state.activeConnections.size() + pendingConnections < poolMaximumActiveConnections) {//活动连接数小于最大活动连接数，活动连接数不满
             // Can create new connection
-        	//没有满，则创建一个新的PooledConnection对象，然后放到activeConnections池
-            conn = new PooledConnection(dataSource.getConnection(), this);
-            if (log.isDebugEnabled()) {
-              log.debug("Created connection " + conn.getRealHashCode() + ".");
-            }
+        	//没有满，则预留一个名额，在锁外创建新的PooledConnection对象，避免其他线程等待建立连接
+            pendingConnections++;
+            reserved = true;
 		          } else {
 		        	//3. 看最先进入activeConnections池中的PooledConnection对象是否已经过期
 		            // Cannot create new connection
 		        	// 当活动连接池已满，不能创建时，取出活动连接池的第一个，即最先进入连接池的PooledConnection对象  
-		            PooledConnection oldestActiveConnection = state.activeConnections.get(0);
-		            long longestCheckoutTime = oldestActiveConnection.getCheckoutTime();
+		            PooledConnection oldestActiveConnection = state.activeConnections.isEmpty() ? null : state.activeConnections.get(0);
+		            long longestCheckoutTime = oldestActiveConnection == null ? 0 : oldestActiveConnection.getCheckoutTime();
 		            //计算它的校验时间，如果校验时间大于连接池规定的最大校验时间，则认为它已经过期了，           
-		            if (longestCheckoutTime > poolMaximumCheckoutTime) {
+		            if (oldestActiveConnection != null && longestCheckoutTime > poolMaximumCheckoutTime) {
 		              // Can claim overdue connection
 		              //申明逾期连接
-		              state.claimedOverdueConnectionCount++;
-		              state.accumulatedCheckoutTimeOfOverdueConnections += longestCheckoutTime;
-		              state.accumulatedCheckoutTime += longestCheckoutTime;
+		              state.claimedOverdueConnectionCount.increment();
+		              state.accumulatedCheckoutTimeOfOverdueConnections.add(longestCheckoutTime);
+		              state.accumulatedCheckoutTime.add(longestCheckoutTime);
+		              state.checkoutHoldTime.record(longestCheckoutTime);
 		              state.activeConnections.remove(oldestActiveConnection);
 		              if (!oldestActiveConnection.getRealConnection().getAutoCommit()) {
 		                oldestActiveConnection.getRealConnection().rollback();
 		              }
 		              //利用这个PoolConnection内部的realConnection重新生成一个PooledConnection 
-		              conn = new PooledConnection(oldestActiveConnection.getRealConnection(), this);
+		              conn = new PooledConnection(oldestActiveConnection.getRealConnection(), this, oldestActiveConnection.getStatementCache());
 		              oldestActiveConnection.invalidate();
 		              if (log.isDebugEnabled()) {
 		                log.debug("Claimed overdue connection " + conn.getRealHashCode() + ".");
@@ -440,7 +643,7 @@ public class PooledDataSource implements DataSource {
 		              //4.线程等待
 		              try {
 		                if (!countedWait) {
-		                  state.hadToWaitCount++;
+		                  state.hadToWaitCount.increment();
 		                  countedWait = true;
 		                }
 		                if (log.isDebugEnabled()) {
@@ -448,7 +651,7 @@ public class PooledDataSource implements DataSource {
 		                }
 		                long wt = System.currentTimeMillis();
 		                state.wait(poolTimeToWait);//线程等待
-		                state.accumulatedWaitTime += System.currentTimeMillis() - wt;
+		                state.accumulatedWaitTime.add(System.currentTimeMillis() - wt);
 		              } catch (InterruptedException e) {
 		                break;
 		              }
@@ -465,14 +668,17 @@ public class PooledDataSource implements DataSource {
             conn.setCheckoutTimestamp(System.currentTimeMillis());
             conn.setLastUsedTimestamp(System.currentTimeMillis());
             state.activeConnections.add(conn);
-            state.requestCount++;
-            state.accumulatedRequestTime += System.currentTimeMillis() - t;
+            state.requestCount.increment();
+            long requestTime = System.currentTimeMillis() - t;
+            state.accumulatedRequestTime.add(requestTime);
+            state.checkoutWaitTime.record(requestTime);
           } else {
             if (log.isDebugEnabled()) {
               log.debug("A bad connection (" + conn.getRealHashCode() + ") was returned from the pool, getting another connection.");
             }
-            state.badConnectionCount++;
+            state.badConnectionCount.increment();
             localBadConnectionCount++;
+            conn.closeStatementCache();
             conn = null;
             //超过最大空闲连接数+3，则抛出异常
             if (localBadConnectionCount > (poolMaximumIdleConnections + 3)) {
@@ -484,7 +690,23 @@ public class PooledDataSource implements DataSource {
           }
         }
       }
-
+      if (fillRequested) {
+        requestFill();
+      }
+      if (reserved) {
+        try {
+          createdConnection = new PooledConnection(dataSource.getConnection(), this);
+        } catch (SQLException e) {
+          releaseReservation();
+          throw e;
+        } catch (RuntimeException e) {
+          releaseReservation();
+          throw e;
+        }
+        if (log.isDebugEnabled()) {
+          log.debug("Created connection " + createdConnection.getRealHashCode() + ".");
+        }
+      }
     }
 
     if (conn == null) {
@@ -497,6 +719,239 @@ public class PooledDataSource implements DataSource {
     return conn;
   }
 
+  /**
+   * 并发模式下归还连接：只有当前借出者能通过CAS把连接交还给bag，过期被抢占的旧代理视为坏连接
+   * @param conn
+   * @throws SQLException
+   */
+  private void pushConnectionToBag(PooledConnection conn) throws SQLException {
+    PoolEntry entry = conn.getPoolEntry();
+    if (entry == null || !entry.compareAndSetBorrower(conn, null)) {
+      if (log.isDebugEnabled()) {
+        log.debug("A bad connection (" + conn.getRealHashCode() + ") attempted to return to the pool, discarding connection.");
+      }
+      state.badConnectionCount.increment();
+      return;
+    }
+    long checkoutTime = conn.getCheckoutTime();
+    state.accumulatedCheckoutTime.add(checkoutTime);
+    state.checkoutHoldTime.record(checkoutTime);
+    if (conn.isValid()) {
+      entry.setLastUsedTimestamp(conn.getLastUsedTimestamp());
+      entry.setLastValidatedTimestamp(conn.getLastValidatedTimestamp());
+      if (!conn.getRealConnection().getAutoCommit()) {
+        conn.getRealConnection().rollback();
+      }
+      conn.invalidate();
+      //有线程在等待时总是归还，否则空闲连接数不能超过上限
+      if (conn.getConnectionTypeCode() == expectedConnectionTypeCode
+          && (bag.getWaitingThreadCount() > 0 || bag.getCount(ConcurrentBag.STATE_NOT_IN_USE) < poolMaximumIdleConnections)) {
+        bag.requite(entry);
+        if (log.isDebugEnabled()) {
+          log.debug("Returned connection " + entry.getRealHashCode() + " to pool.");
+        }
+      } else {
+        closeBagEntry(entry);
+        if (log.isDebugEnabled()) {
+          log.debug("Closed connection " + entry.getRealHashCode() + ".");
+        }
+      }
+    } else {
+      if (log.isDebugEnabled()) {
+        log.debug("A bad connection (" + conn.getRealHashCode() + ") attempted to return to the pool, discarding connection.");
+      }
+      state.badConnectionCount.increment();
+      conn.invalidate();
+      closeBagEntry(entry);
+    }
+  }
+
+  /**
+   * 并发模式下获取连接：
+   * 1.从bag中借出空闲连接 2.未达上限则新建连接 3.抢占超时未归还的连接 4.等待其他线程归还
+   * @param username
+   * @param password
+   * @return
+   * @throws SQLException
+   */
+  private PooledConnection popConnectionFromBag(String username, String password) throws SQLException {
+    boolean countedWait = false;
+    long t = System.currentTimeMillis();
+    int localBadConnectionCount = 0;
+
+    while (true) {
+      PooledConnection conn = null;
+      PoolEntry entry;
+      try {
+        entry = bag.borrow(0, TimeUnit.MILLISECONDS);
+        if (entry != null && poolMinimumIdle > 0 && bag.getCount(ConcurrentBag.STATE_NOT_IN_USE) < poolMinimumIdle) {
+          requestFill();
+        }
+        if (entry == null) {
+          entry = createBagEntry(true);
+        }
+        if (entry == null) {
+          conn = claimOverdueBagEntry();
+          entry = conn == null ? null : conn.getPoolEntry();
+        }
+        if (entry == null) {
+          if (!countedWait) {
+            state.hadToWaitCount.increment();
+            countedWait = true;
+          }
+          if (log.isDebugEnabled()) {
+            log.debug("Waiting as long as " + poolTimeToWait + " milliseconds for connection.");
+          }
+          long wt = System.currentTimeMillis();
+          entry = bag.borrow(poolTimeToWait, TimeUnit.MILLISECONDS);
+          state.accumulatedWaitTime.add(System.currentTimeMillis() - wt);
+          if (entry == null) {
+            continue;
+          }
+        }
+      } catch (InterruptedException e) {
+        break;
+      }
+
+      if (conn == null) {
+        conn = newBagConnection(entry);
+        if (log.isDebugEnabled()) {
+          log.debug("Checked out connection " + conn.getRealHashCode() + " from pool.");
+        }
+      }
+      if (conn.isValid()) {
+        if (!conn.getRealConnection().getAutoCommit()) {
+          conn.getRealConnection().rollback();
+        }
+        conn.setConnectionTypeCode(assembleConnectionTypeCode(dataSource.getUrl(), username, password));
+        conn.setCheckoutTimestamp(System.currentTimeMillis());
+        conn.setLastUsedTimestamp(System.currentTimeMillis());
+        entry.setBorrower(conn);
+        state.requestCount.increment();
+        long requestTime = System.currentTimeMillis() - t;
+        state.accumulatedRequestTime.add(requestTime);
+        state.checkoutWaitTime.record(requestTime);
+        return conn;
+      }
+
+      if (log.isDebugEnabled()) {
+        log.debug("A bad connection (" + conn.getRealHashCode() + ") was returned from the pool, getting another connection.");
+      }
+      state.badConnectionCount.increment();
+      localBadConnectionCount++;
+      entry.setBorrower(null);
+      conn.invalidate();
+      closeBagEntry(entry);
+      if (localBadConnectionCount > (poolMaximumIdleConnections + 3)) {
+        if (log.isDebugEnabled()) {
+          log.debug("PooledDataSource: Could not get a good connection to the database.");
+        }
+        throw new SQLException("PooledDataSource: Could not get a good connection to the database.");
+      }
+    }
+
+    if (log.isDebugEnabled()) {
+      log.debug("PooledDataSource: Unknown severe error condition.  The connection pool returned a null connection.");
+    }
+    throw new SQLException("PooledDataSource: Unknown severe error condition.  The connection pool returned a null connection.");
+  }
+
+  /*
+   * Opens a new physical connection if the pool is not full yet.
+   *
+   * @param borrowed - True to add the new entry to the bag already borrowed by the caller
+   * @return the new entry or null if the pool is full
+   */
+  private PoolEntry createBagEntry(boolean borrowed) throws SQLException {
+    int total;
+    do {
+      total = totalConnections.get();
+      if (total >= poolMaximumActiveConnections) {
+        return null;
+      }
+    } while (!totalConnections.compareAndSet(total, total + 1));
+
+    PoolEntry entry;
+    try {
+      entry = new PoolEntry(dataSource.getConnection(), newStatementCache());
+    } catch (SQLException e) {
+      totalConnections.decrementAndGet();
+      throw e;
+    } catch (RuntimeException e) {
+      totalConnections.decrementAndGet();
+      throw e;
+    }
+    if (borrowed) {
+      entry.setState(ConcurrentBag.STATE_IN_USE);
+    }
+    bag.add(entry);
+    if (log.isDebugEnabled()) {
+      log.debug("Created connection " + entry.getRealHashCode() + ".");
+    }
+    return entry;
+  }
+
+  /*
+   * Takes over a connection that has been checked out for longer than
+   * poolMaximumCheckoutTime, the old proxy is invalidated.
+   *
+   * @return the new proxy for the claimed connection or null if none is overdue
+   */
+  private PooledConnection claimOverdueBagEntry() throws SQLException {
+    for (PoolEntry entry : bag.values()) {
+      PooledConnection oldestActiveConnection = entry.getBorrower();
+      if (oldestActiveConnection == null) {
+        continue;
+      }
+      long longestCheckoutTime = oldestActiveConnection.getCheckoutTime();
+      if (longestCheckoutTime > poolMaximumCheckoutTime) {
+        PooledConnection conn = newBagConnection(entry);
+        if (entry.compareAndSetBorrower(oldestActiveConnection, conn)) {
+          oldestActiveConnection.invalidate();
+          state.claimedOverdueConnectionCount.increment();
+          state.accumulatedCheckoutTimeOfOverdueConnections.add(longestCheckoutTime);
+          state.accumulatedCheckoutTime.add(longestCheckoutTime);
+          state.checkoutHoldTime.record(longestCheckoutTime);
+          if (!entry.getRealConnection().getAutoCommit()) {
+            entry.getRealConnection().rollback();
+          }
+          if (log.isDebugEnabled()) {
+            log.debug("Claimed overdue connection " + conn.getRealHashCode() + ".");
+          }
+          return conn;
+        }
+      }
+    }
+    return null;
+  }
+
+  /*
+   * Creates a new proxy for an entry of the bag
+   */
+  private PooledConnection newBagConnection(PoolEntry entry) {
+    PooledConnection conn = new PooledConnection(entry.getRealConnection(), this, entry.getStatementCache());
+    conn.setCreatedTimestamp(entry.getCreatedTimestamp());
+    conn.setLastUsedTimestamp(entry.getLastUsedTimestamp());
+    conn.setLastValidatedTimestamp(entry.getLastValidatedTimestamp());
+    conn.setPoolEntry(entry);
+    return conn;
+  }
+
+  /*
+   * Removes an entry from the bag and closes its physical connection
+   */
+  private void closeBagEntry(PoolEntry entry) {
+    if (bag.remove(entry)) {
+      totalConnections.decrementAndGet();
+    }
+    entry.closeStatementCache();
+    try {
+      entry.getRealConnection().close();
+    } catch (Exception e) {
+      // ignore
+    }
+  }
+
   /*
    * Method to check to see if a connection is still usable
    * 判断数据库连接是否正常
@@ -517,25 +972,31 @@ public class PooledDataSource implements DataSource {
 
     if (result) {//未关闭
       if (poolPingEnabled) {//默认ping检查未启用
-        if (poolPingConnectionsNotUsedFor >= 0 && conn.getTimeElapsedSinceLastUse() > poolPingConnectionsNotUsedFor) {
+        if (poolPingConnectionsNotUsedFor >= 0 && conn.getTimeElapsedSinceLastValidation() > poolPingConnectionsNotUsedFor) {
           try {
             if (log.isDebugEnabled()) {
               log.debug("Testing connection " + conn.getRealHashCode() + " ...");
             }
-            Connection realConn = conn.getRealConnection();
-            Statement statement = realConn.createStatement();
-            ResultSet rs = statement.executeQuery(poolPingQuery);
-            rs.close();
-            statement.close();
-            if (!realConn.getAutoCommit()) {
-              realConn.rollback();
-            }
-            result = true;
-            if (log.isDebugEnabled()) {
-              log.debug("Connection " + conn.getRealHashCode() + " is GOOD!");
+            result = validateConnection(conn.getRealConnection());
+            if (result) {
+              conn.setLastValidatedTimestamp(System.currentTimeMillis());
+              if (log.isDebugEnabled()) {
+                log.debug("Connection " + conn.getRealHashCode() + " is GOOD!");
+              }
+            } else {
+              conn.closeStatementCache();
+              try {
+                conn.getRealConnection().close();
+              } catch (Exception e2) {
+                //ignore
+              }
+              if (log.isDebugEnabled()) {
+                log.debug("Connection " + conn.getRealHashCode() + " is BAD: Connection.isValid() returned false");
+              }
             }
           } catch (Exception e) {
             log.warn("Execution of ping query '" + poolPingQuery + "' failed: " + e.getMessage());
+            conn.closeStatementCache();
             try {
               conn.getRealConnection().close();
             } catch (Exception e2) {
@@ -552,6 +1013,331 @@ public class PooledDataSource implements DataSource {
     return result;
   }
 
+  /*
+   * Tests a physical connection with Connection.isValid() when enabled and
+   * supported by the driver, or with the ping query otherwise.
+   *
+   * @param realConn - the connection to test
+   * @return True if the connection is usable
+   */
+  private boolean validateConnection(Connection realConn) throws SQLException {
+    if (isPoolPingUseIsValid() && isValidSupported) {
+      try {
+        return realConn.isValid(poolValidationTimeout);
+      } catch (AbstractMethodError e) {
+        // pre JDBC 4 driver
+        isValidSupported = false;
+      } catch (SQLFeatureNotSupportedException e) {
+        isValidSupported = false;
+      }
+    }
+    Statement statement = realConn.createStatement();
+    ResultSet rs = statement.executeQuery(poolPingQuery);
+    rs.close();
+    statement.close();
+    if (!realConn.getAutoCommit()) {
+      realConn.rollback();
+    }
+    return true;
+  }
+
+  /*
+   * Same as validateConnection() but never fails, used by the housekeeping
+   */
+  private boolean isConnectionAlive(Connection realConn, int realHashCode) {
+    try {
+      return !realConn.isClosed() && validateConnection(realConn);
+    } catch (Exception e) {
+      if (log.isDebugEnabled()) {
+        log.debug("Connection " + realHashCode + " is BAD: " + e.getMessage());
+      }
+      return false;
+    }
+  }
+
+  private synchronized void restartHousekeeper() {
+    if (housekeeper != null) {
+      housekeeper.shutdown();
+      housekeeper = null;
+    }
+    //异步补充空闲连接也由housekeeper线程执行
+    if (poolHousekeepingPeriod > 0 || poolMinimumIdle > 0) {
+      housekeeper = new PoolHousekeeper(this, poolHousekeepingPeriod);
+    }
+  }
+
+  /*
+   * Validates idle connections in the background, closes the ones that have
+   * been idle for longer than poolMaximumIdleTime and opens new ones until
+   * poolMinimumIdle connections are idle. Called by the PoolHousekeeper.
+   */
+  void housekeep() {
+    if (poolConcurrentEnabled) {
+      housekeepBag();
+    } else {
+      housekeepState();
+    }
+  }
+
+  private void housekeepState() {
+    List<PooledConnection> evicted = new ArrayList<PooledConnection>();
+    List<PooledConnection> validating = new ArrayList<PooledConnection>();
+    int generation;
+    int reserved;
+    //1.在锁内取出需要关闭和校验的空闲连接，校验在锁外进行
+    synchronized (state) {
+      generation = poolGeneration;
+      int idle = state.idleConnections.size();
+      for (Iterator<PooledConnection> it = state.idleConnections.iterator(); it.hasNext();) {
+        PooledConnection conn = it.next();
+        if (poolMaximumIdleTime > 0 && idle > poolMinimumIdle && conn.getTimeElapsedSinceLastUse() > poolMaximumIdleTime) {
+          it.remove();
+          idle--;
+          evicted.add(conn);
+        } else if (conn.getTimeElapsedSinceLastValidation() >= poolHousekeepingPeriod) {
+          it.remove();
+          validating.add(conn);
+        }
+      }
+      //校验中的连接既不空闲也不活动，计入pendingConnections，避免popConnection因此多建连接超过poolMaximumActiveConnections
+      reserved = validating.size();
+      pendingConnections += reserved;
+    }
+    for (PooledConnection conn : evicted) {
+      conn.invalidate();
+      closeQuietly(conn);
+      if (log.isDebugEnabled()) {
+        log.debug("Evicted idle connection " + conn.getRealHashCode() + ".");
+      }
+    }
+    try {
+      for (Iterator<PooledConnection> it = validating.iterator(); it.hasNext();) {
+        PooledConnection conn = it.next();
+        if (isConnectionAlive(conn.getRealConnection(), conn.getRealHashCode())) {
+          conn.setLastValidatedTimestamp(System.currentTimeMillis());
+        } else {
+          state.badConnectionCount.increment();
+          conn.invalidate();
+          closeQuietly(conn);
+          it.remove();
+        }
+      }
+    } finally {
+      putBackValidated(validating, reserved, generation);
+    }
+    //3.补足最小空闲连接数
+    fillPool();
+  }
+
+  /*
+   * 2.放回校验通过的连接并释放预留的名额，期间连接池被重置或空闲连接已满则关闭
+   */
+  private void putBackValidated(List<PooledConnection> validating, int reserved, int generation) {
+    synchronized (state) {
+      pendingConnections -= reserved;
+      for (PooledConnection conn : validating) {
+        if (generation == poolGeneration && state.idleConnections.size() < poolMaximumIdleConnections) {
+          state.idleConnections.add(conn);
+        } else {
+          conn.invalidate();
+          closeQuietly(conn);
+        }
+      }
+      if (reserved > 0) {
+        state.notifyAll();
+      }
+    }
+  }
+
+  private void housekeepBag() {
+    for (PoolEntry entry : bag.values()) {
+      //先把空闲连接占为己有，避免与借出的线程冲突
+      if (!entry.compareAndSetState(ConcurrentBag.STATE_NOT_IN_USE, ConcurrentBag.STATE_IN_USE)) {
+        continue;
+      }
+      if (poolMaximumIdleTime > 0 && entry.getTimeElapsedSinceLastUse() > poolMaximumIdleTime
+          && bag.getCount(ConcurrentBag.STATE_NOT_IN_USE) >= poolMinimumIdle) {
+        closeBagEntry(entry);
+        if (log.isDebugEnabled()) {
+          log.debug("Evicted idle connection " + entry.getRealHashCode() + ".");
+        }
+      } else if (entry.getTimeElapsedSinceLastValidation() >= poolHousekeepingPeriod) {
+        if (isConnectionAlive(entry.getRealConnection(), entry.getRealHashCode())) {
+          entry.setLastValidatedTimestamp(System.currentTimeMillis());
+          bag.unreserve(entry);
+        } else {
+          state.badConnectionCount.increment();
+          closeBagEntry(entry);
+        }
+      } else {
+        bag.unreserve(entry);
+      }
+    }
+    fillPool();
+  }
+
+  /*
+   * Opens new connections one by one, outside of any lock, until
+   * poolMinimumIdle connections are idle or the pool is full.
+   */
+  void fillPool() {
+    int generation = poolGeneration;
+    int missing = getMissingIdleCount();
+    for (int i = 0; i < missing; i++) {
+      Connection realConn;
+      try {
+        realConn = dataSource.getConnection();
+      } catch (SQLException e) {
+        log.warn("PooledDataSource could not open an idle connection: " + e.getMessage());
+        return;
+      }
+      if (!addIdleConnection(realConn, generation)) {
+        return;
+      }
+    }
+  }
+
+  /*
+   * Opens connections in parallel until poolMinimumIdle connections are idle,
+   * so the first requests after startup do not pay for the connection
+   * handshakes one after another. Called by PooledDataSourceFactory once all
+   * properties are set, failures are logged and leave the pool to grow lazily.
+   */
+  public void prefill() {
+    final int generation = poolGeneration;
+    int missing = getMissingIdleCount();
+    if (missing <= 0) {
+      return;
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(Math.min(missing, PREFILL_MAXIMUM_THREADS),
+        PoolHousekeeper.daemonThreadFactory("PooledDataSource-prefill"));
+    try {
+      List<Future<Boolean>> results = new ArrayList<Future<Boolean>>(missing);
+      for (int i = 0; i < missing; i++) {
+        //连接由任务自己放入连接池，等待被中断时也不会泄漏
+        results.add(executor.submit(new Callable<Boolean>() {
+          @Override
+          public Boolean call() throws SQLException {
+            return addIdleConnection(dataSource.getConnection(), generation);
+          }
+        }));
+      }
+      int added = 0;
+      for (Future<Boolean> result : results) {
+        try {
+          if (result.get()) {
+            added++;
+          }
+        } catch (ExecutionException e) {
+          log.warn("PooledDataSource could not prefill a connection: " + e.getCause().getMessage());
+        }
+      }
+      if (log.isDebugEnabled()) {
+        log.debug("PooledDataSource prefilled " + added + " connections.");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  /*
+   * Asks the housekeeper to fill the pool in the background
+   */
+  private void requestFill() {
+    PoolHousekeeper hk = housekeeper;
+    if (hk != null) {
+      hk.requestFill();
+    }
+  }
+
+  private int getMissingIdleCount() {
+    int target = Math.min(poolMinimumIdle, poolMaximumIdleConnections);
+    if (poolConcurrentEnabled) {
+      return Math.min(target - bag.getCount(ConcurrentBag.STATE_NOT_IN_USE), poolMaximumActiveConnections - totalConnections.get());
+    }
+    synchronized (state) {
+      int idle = state.idleConnections.size();
+      return Math.min(target - idle, poolMaximumActiveConnections - state.activeConnections.size() - idle - pendingConnections);
+    }
+  }
+
+  /*
+   * Adds a newly opened connection to the idle connections, or closes it if
+   * the pool is full or has been reset since the connection was requested.
+   *
+   * @param realConn - the new connection
+   * @param generation - the pool generation when the connection was requested
+   * @return True if the connection was added
+   */
+  private boolean addIdleConnection(Connection realConn, int generation) {
+    boolean added = false;
+    if (poolConcurrentEnabled) {
+      while (generation == poolGeneration) {
+        int total = totalConnections.get();
+        if (total >= poolMaximumActiveConnections) {
+          break;
+        }
+        if (totalConnections.compareAndSet(total, total + 1)) {
+          bag.add(new PoolEntry(realConn, newStatementCache()));
+          added = true;
+          break;
+        }
+      }
+    } else {
+      synchronized (state) {
+        int idle = state.idleConnections.size();
+        if (generation == poolGeneration && idle < poolMaximumIdleConnections
+            && idle + state.activeConnections.size() + pendingConnections < poolMaximumActiveConnections) {
+          state.idleConnections.add(new PooledConnection(realConn, this));
+          state.notifyAll();
+          added = true;
+        }
+      }
+    }
+    if (added) {
+      if (log.isDebugEnabled()) {
+        log.debug("Created idle connection " + realConn.hashCode() + ".");
+      }
+    } else {
+      closeQuietly(realConn);
+    }
+    return added;
+  }
+
+  /*
+   * Gives back a slot reserved for a connection that could not be opened
+   */
+  private void releaseReservation() {
+    synchronized (state) {
+      pendingConnections--;
+      state.notifyAll();
+    }
+  }
+
+  private static void closeQuietly(PooledConnection conn) {
+    conn.closeStatementCache();
+    closeQuietly(conn.getRealConnection());
+  }
+
+  private static void closeQuietly(Connection realConn) {
+    try {
+      realConn.close();
+    } catch (Exception e) {
+      // ignore
+    }
+  }
+
+  /*
+   * Creates the statement cache of a new physical connection
+   *
+   * @return the cache or null when poolStatementCacheSize is 0
+   */
+  PreparedStatementCache newStatementCache() {
+    return poolStatementCacheSize > 0 ? new PreparedStatementCache(poolStatementCacheSize, state) : null;
+  }
+
   /*
    * Unwraps a pooled connection to get to the 'real' connection
    *
@@ -569,6 +1355,9 @@ public class PooledDataSource implements DataSource {
   }
 
   protected void finalize() throws Throwable {
+    if (housekeeper != null) {
+      housekeeper.shutdown();
+    }
     forceCloseAll();
     super.finalize();
   }
@@ -15,6 +15,8 @@
  */
 package com.jd.mybatis.datasource.pooled;
 
+import java.util.Properties;
+
 import com.jd.mybatis.datasource.unpooled.UnpooledDataSourceFactory;
 
 /**
@@ -26,4 +28,11 @@ public class PooledDataSourceFactory extends UnpooledDataSourceFactory {
     this.dataSource = new PooledDataSource();
   }
 
+  @Override
+  public void setProperties(Properties properties) {
+    super.setProperties(properties);
+    //所有属性设置完成后再预先创建poolMinimumIdle个连接，每个属性的setter都会关闭已有连接
+    ((PooledDataSource) dataSource).prefill();
+  }
+
 }
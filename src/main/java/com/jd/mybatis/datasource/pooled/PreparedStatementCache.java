@@ -0,0 +1,271 @@
+/**
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.jd.mybatis.datasource.pooled;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.jd.mybatis.reflection.ExceptionUtil;
+
+/**
+ * A bounded LRU cache of the prepared statements of one physical connection.
+ * 由PooledConnection持有，连接归还连接池后仍然保留，之后借出同一个物理连接的会话继续使用，
+ * 不像ReuseExecutor那样只在一个SqlSession内复用。
+ * BaseStatementHandler.prepare通过{@link #forConnection(Connection)}找到缓存并按key取出空闲的语句，
+ * 取出的语句在关闭之前不会再被取到，关闭时清空参数和批处理、恢复超时时间和fetchSize后放回缓存。
+ * 取出的语句的getConnection返回取出时使用的连接池连接，不会泄露物理连接。
+ * 超过poolStatementCacheSize时关闭最久未使用的语句，物理连接关闭或被丢弃时关闭所有缓存的语句。
+ *
+ * @author Clinton Begin
+ */
+public class PreparedStatementCache {
+
+  private final int maxSize;
+  private final PoolState state;
+  private final LinkedHashMap<Object, CachedStatement> statements;
+  private long hitCount;
+  private long missCount;
+  private long evictionCount;
+  private boolean closed;
+
+  PreparedStatementCache(int maxSize, PoolState state) {
+    this.maxSize = maxSize;
+    this.state = state;
+    this.statements = new LinkedHashMap<Object, CachedStatement>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Object, CachedStatement> eldest) {
+        if (size() > PreparedStatementCache.this.maxSize) {
+          evictionCount++;
+          PreparedStatementCache.this.state.statementCacheEvictionCount.increment();
+          eldest.getValue().close();
+          return true;
+        }
+        return false;
+      }
+    };
+  }
+
+  /*
+   * Returns the statement cache of the pooled connection behind the given connection, or null if it has none
+   */
+  public static PreparedStatementCache forConnection(Connection connection) {
+    try {
+      if (connection.isWrapperFor(PreparedStatementCache.class)) {
+        return connection.unwrap(PreparedStatementCache.class);
+      }
+    } catch (SQLException e) {
+      // ignore
+    } catch (AbstractMethodError e) {
+      // pre JDBC 4 driver
+    }
+    return null;
+  }
+
+  /*
+   * Whether the statement was handed out by a cache and is given back to it when it is closed
+   */
+  public static boolean isCached(Statement statement) {
+    return Proxy.isProxyClass(statement.getClass()) && Proxy.getInvocationHandler(statement) instanceof StatementHandle;
+  }
+
+  /*
+   * Takes the idle statement cached for the key
+   *
+   * @param connection - the pooled connection the statement is used with, returned by its getConnection
+   * @return the statement or null on a miss
+   */
+  public synchronized PreparedStatement take(Object key, Connection connection) {
+    CachedStatement cached = closed ? null : statements.remove(key);
+    if (cached == null) {
+      missCount++;
+      state.statementCacheMissCount.increment();
+      return null;
+    }
+    hitCount++;
+    state.statementCacheHitCount.increment();
+    return cached.newProxy(connection);
+  }
+
+  /*
+   * Hands out a newly prepared statement, it is put into the cache when it is closed
+   */
+  public PreparedStatement put(Object key, PreparedStatement statement, Connection connection) throws SQLException {
+    return new CachedStatement(this, key, statement).newProxy(connection);
+  }
+
+  private synchronized void release(CachedStatement cached) {
+    // 同一个SQL同时使用了多个语句时只缓存一个
+    if (closed || statements.containsKey(cached.key) || !cached.reset()) {
+      cached.close();
+      return;
+    }
+    statements.put(cached.key, cached);
+  }
+
+  /*
+   * Closes the idle statements, statements still in use are closed when they are given back
+   */
+  synchronized void close() {
+    closed = true;
+    for (CachedStatement cached : statements.values()) {
+      cached.close();
+    }
+    statements.clear();
+  }
+
+  public synchronized int size() {
+    return statements.size();
+  }
+
+  public int getMaxSize() {
+    return maxSize;
+  }
+
+  public synchronized long getHitCount() {
+    return hitCount;
+  }
+
+  public synchronized long getMissCount() {
+    return missCount;
+  }
+
+  public synchronized long getEvictionCount() {
+    return evictionCount;
+  }
+
+  private static final class CachedStatement {
+
+    private final PreparedStatementCache cache;
+    private final Object key;
+    private final PreparedStatement statement;
+    // 创建时驱动的默认值，归还时恢复，避免上一次使用的设置带到下一次
+    private final int queryTimeout;
+    private final int fetchSize;
+
+    private CachedStatement(PreparedStatementCache cache, Object key, PreparedStatement statement) throws SQLException {
+      this.cache = cache;
+      this.key = key;
+      this.statement = statement;
+      this.queryTimeout = statement.getQueryTimeout();
+      this.fetchSize = statement.getFetchSize();
+    }
+
+    private PreparedStatement newProxy(Connection connection) {
+      Class<?> iface = statement instanceof CallableStatement ? CallableStatement.class : PreparedStatement.class;
+      return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(), new Class<?>[] { iface }, new StatementHandle(this, connection));
+    }
+
+    private boolean reset() {
+      try {
+        if (statement.isClosed()) {
+          return false;
+        }
+        statement.clearParameters();
+        statement.clearBatch();
+        statement.clearWarnings();
+        if (statement.getQueryTimeout() != queryTimeout) {
+          statement.setQueryTimeout(queryTimeout);
+        }
+        if (statement.getFetchSize() != fetchSize) {
+          statement.setFetchSize(fetchSize);
+        }
+        return true;
+      } catch (SQLException e) {
+        return false;
+      } catch (AbstractMethodError e) {
+        // pre JDBC 4 driver
+        return false;
+      }
+    }
+
+    private void close() {
+      try {
+        statement.close();
+      } catch (SQLException e) {
+        // ignore
+      }
+    }
+
+  }
+
+  /*
+   * The proxy handed out for one use of a cached statement, closing it gives the statement back to the cache
+   */
+  private static final class StatementHandle implements InvocationHandler {
+
+    private static final String CLOSE = "close";
+    private static final String IS_CLOSED = "isClosed";
+    private static final String GET_CONNECTION = "getConnection";
+    private static final String EQUALS = "equals";
+    private static final String HASH_CODE = "hashCode";
+
+    private final CachedStatement cached;
+    private final Connection connection;
+    private boolean closed;
+
+    private StatementHandle(CachedStatement cached, Connection connection) {
+      this.cached = cached;
+      this.connection = connection;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+      String methodName = method.getName();
+      // 每次取出都是不同的代理，按代理本身比较
+      if (Object.class.equals(method.getDeclaringClass())) {
+        if (EQUALS.equals(methodName)) {
+          return proxy == args[0];
+        } else if (HASH_CODE.equals(methodName)) {
+          return System.identityHashCode(proxy);
+        }
+        return "Cached " + cached.statement + (closed ? " (closed)" : "");
+      }
+      if (CLOSE.equals(methodName)) {
+        if (!closed) {
+          closed = true;
+          cached.cache.release(cached);
+        }
+        return null;
+      }
+      if (closed) {
+        if (IS_CLOSED.equals(methodName)) {
+          return true;
+        }
+        throw new SQLException("Error accessing cached PreparedStatement. Statement is closed.");
+      }
+      if (GET_CONNECTION.equals(methodName)) {
+        return connection;
+      }
+      try {
+        return method.invoke(cached.statement, args);
+      } catch (Throwable t) {
+        throw ExceptionUtil.unwrapThrowable(t);
+      }
+    }
+
+  }
+
+}
@@ -0,0 +1,206 @@
+/**
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.jd.mybatis.executor;
+
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executes the sealed batches of one BatchExecutor in the background, one after another in submission order.
+ * 同一个执行器的批处理在后台线程中按提交顺序逐个执行，使用的是同一个事务的连接，
+ * 因此调用方在自己使用连接（查询、提交、回滚、需要立即执行的语句）之前必须先调用{@link #await()}等待执行完。
+ * 排队的批处理超过queueSize时submit阻塞，避免调用方生成数据的速度超过数据库写入的速度。
+ * 某个批处理失败后，之后排队的批处理不再执行，异常在下一次submit或await时抛给调用方。
+ *
+ * @author Jeff Butler
+ */
+final class AsyncBatchFlusher {
+
+  private static final ThreadPoolExecutor threads = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS,
+      new SynchronousQueue<Runnable>(), new FlushThreadFactory());
+
+  private final Semaphore slots;
+  private final ArrayDeque<Batch> queue = new ArrayDeque<Batch>();
+  private final List<BatchResult> results = new ArrayList<BatchResult>();
+  private boolean running;
+  private Throwable failure;
+
+  AsyncBatchFlusher(int queueSize) {
+    this.slots = new Semaphore(Math.max(1, queueSize));
+  }
+
+  /*
+   * Queues a sealed batch, blocks while queueSize batches are waiting or running.
+   */
+  void submit(Batch batch) throws SQLException {
+    slots.acquireUninterruptibly();
+    synchronized (this) {
+      if (failure != null) {
+        slots.release();
+        waitUntilIdle();
+        batch.close();
+        rethrow(failure);
+      }
+      queue.add(batch);
+      if (!running) {
+        running = true;
+        threads.execute(new Runnable() {
+          @Override
+          public void run() {
+            drain();
+          }
+        });
+      }
+    }
+  }
+
+  /*
+   * Waits until every queued batch has been executed and returns their results, or throws the first failure.
+   */
+  List<BatchResult> await() throws SQLException {
+    final Throwable error;
+    final List<BatchResult> completed;
+    synchronized (this) {
+      waitUntilIdle();
+      error = failure;
+      completed = new ArrayList<BatchResult>(results);
+      results.clear();
+    }
+    if (error != null) {
+      rethrow(error);
+    }
+    return completed;
+  }
+
+  /*
+   * Returns the results of the batches executed so far without waiting.
+   */
+  synchronized List<BatchResult> takeResults() {
+    final List<BatchResult> completed = new ArrayList<BatchResult>(results);
+    results.clear();
+    return completed;
+  }
+
+  /*
+   * Waits until the running batch has finished and drops the results and the failure, the queued batches are not executed.
+   */
+  synchronized void discard() {
+    Batch batch;
+    while ((batch = queue.poll()) != null) {
+      batch.close();
+      slots.release();
+    }
+    waitUntilIdle();
+    results.clear();
+    failure = null;
+  }
+
+  private void drain() {
+    while (true) {
+      final Batch batch;
+      synchronized (this) {
+        batch = queue.poll();
+        if (batch == null) {
+          running = false;
+          notifyAll();
+          return;
+        }
+      }
+      try {
+        boolean failed;
+        synchronized (this) {
+          failed = failure != null;
+        }
+        if (failed) {
+          batch.close();
+        } else {
+          List<BatchResult> executed = batch.execute();
+          synchronized (this) {
+            results.addAll(executed);
+          }
+        }
+      } catch (Throwable t) {
+        synchronized (this) {
+          failure = t;
+        }
+      } finally {
+        slots.release();
+      }
+    }
+  }
+
+  private void waitUntilIdle() {
+    boolean interrupted = false;
+    // 不能响应中断提前返回，后台线程可能还在使用连接
+    while (running) {
+      try {
+        wait();
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static void rethrow(Throwable t) throws SQLException {
+    if (t instanceof SQLException) {
+      throw (SQLException) t;
+    } else if (t instanceof RuntimeException) {
+      throw (RuntimeException) t;
+    } else if (t instanceof Error) {
+      throw (Error) t;
+    }
+    throw new ExecutorException("Error flushing statements.  Cause: " + t, t);
+  }
+
+  /**
+   * A sealed batch, owns the statements it executes.
+   */
+  interface Batch {
+
+    List<BatchResult> execute() throws SQLException;
+
+    /*
+     * Releases the statements of a batch that will not be executed.
+     */
+    void close();
+
+  }
+
+  private static class FlushThreadFactory implements ThreadFactory {
+
+    private final AtomicInteger count = new AtomicInteger();
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, "mybatis-batch-flush-" + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+
+  }
+
+}
@@ -16,6 +16,7 @@
 package com.jd.mybatis.executor;
 
 import java.sql.Connection;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.List;
@@ -25,6 +26,7 @@ import com.jd.mybatis.logging.LogFactory;
 import com.jd.mybatis.mapping.MappedStatement;
 import com.jd.mybatis.reflection.MetaObject;
 import com.jd.mybatis.cache.CacheKey;
+import com.jd.mybatis.cursor.Cursor;
 import com.jd.mybatis.cache.impl.PerpetualCache;
 import com.jd.mybatis.logging.Log;
 import com.jd.mybatis.logging.jdbc.ConnectionLogger;
@@ -47,22 +49,29 @@ public abstract class BaseExecutor implements Executor {
 
     private static final Log log = LogFactory.getLog(BaseExecutor.class);
 
+    //Integer.MAX_VALUE不在Integer的缓存范围内，避免每次装箱
+    private static final Integer NO_ROW_LIMIT = RowBounds.NO_ROW_LIMIT;
+
     protected Transaction transaction;
     protected Executor wrapper;
 
     protected ConcurrentLinkedQueue<DeferredLoad> deferredLoads;
     //本地缓存（一级缓存）
-    protected PerpetualCache localCache;
+    protected LocalCache localCache;
     protected PerpetualCache localOutputParameterCache;
     protected Configuration configuration;
 
     protected int queryStack = 0;
     private boolean closed;
+    //正在流式读取结果的Statement，结果读完之前同一连接上不能执行其他语句
+    private Statement streamingStatement;
 
     protected BaseExecutor(Configuration configuration, Transaction transaction) {
         this.transaction = transaction;
         this.deferredLoads = new ConcurrentLinkedQueue<DeferredLoad>();
-        this.localCache = new PerpetualCache("LocalCache");
+        //ResultLoaderMap.ClosedExecutor没有configuration
+        this.localCache = configuration == null ? new LocalCache("LocalCache")
+                : new LocalCache("LocalCache", configuration.getLocalCacheSize(), configuration.getLocalCacheMaxBytes());
         this.localOutputParameterCache = new PerpetualCache("LocalOutputParameterCache");
         this.closed = false;
         this.configuration = configuration;
@@ -96,6 +105,7 @@ public abstract class BaseExecutor implements Executor {
             //如果SqlSession调用了close()方法，会释放掉一级缓存PerpetualCache对象，一级缓存将不可用；
             localCache = null;
             localOutputParameterCache = null;
+            streamingStatement = null;
             closed = true;
         }
     }
@@ -111,6 +121,7 @@ public abstract class BaseExecutor implements Executor {
         if (closed) {
             throw new ExecutorException("Executor was closed.");
         }
+        checkNotStreaming(ms);
         clearLocalCache();
         return doUpdate(ms, parameter);
     }
@@ -178,6 +189,8 @@ public abstract class BaseExecutor implements Executor {
             }
             // issue #601
             deferredLoads.clear();
+            //嵌套查询和延迟加载都已完成，可以按大小限制淘汰
+            localCache.trim(localOutputParameterCache);
             if (configuration.getLocalCacheScope() == LocalCacheScope.STATEMENT) {
                 // issue #482
                 clearLocalCache();
@@ -186,6 +199,20 @@ public abstract class BaseExecutor implements Executor {
         return list;
     }
 
+    /**
+     * 游标逐行读取结果，不经过一级缓存，Statement在游标关闭后由驱动关闭
+     */
+    @Override
+    public <E> Cursor<E> queryCursor(MappedStatement ms, Object parameter, RowBounds rowBounds) throws SQLException {
+        BoundSql boundSql = ms.getBoundSql(parameter);
+        ErrorContext.instance().resource(ms.getResource()).activity("executing a query").object(ms.getId());
+        if (closed) {
+            throw new ExecutorException("Executor was closed.");
+        }
+        checkNotStreaming(ms);
+        return doQueryCursor(ms, parameter, rowBounds, boundSql);
+    }
+
     @Override
     public void deferLoad(MappedStatement ms, MetaObject resultObject, String property, CacheKey key, Class<?> targetType) {
         if (closed) {
@@ -221,18 +248,19 @@ public abstract class BaseExecutor implements Executor {
         if (closed) {
             throw new ExecutorException("Executor was closed.");
         }
-        CacheKey cacheKey = new CacheKey();
-        //1. 传入的 statementId
-        cacheKey.update(ms.getId());
+        List<ParameterMapping> parameterMappings = boundSql.getParameterMappings();
+        //按组成部分的数量预先分配：前缀、offset、limit、参数、数据源ID
+        CacheKey cacheKey = new CacheKey(parameterMappings.size() + 4);
+        //1. 传入的 statementId 和 3. 这次查询所产生的最终要传递给JDBC java.sql.Preparedstatement的Sql语句字符串（boundSql.getSql() ）
+        //同一个MappedStatement中相同的SQL共用一个前缀对象
+        cacheKey.update(ms.getCacheKeyPrefix(boundSql.getSql()));
         //2. 查询时要求的结果集中的结果范围 （结果的范围通过rowBounds.offset和rowBounds.limit表示）；
         cacheKey.update(Integer.valueOf(rowBounds.getOffset()));
-        cacheKey.update(Integer.valueOf(rowBounds.getLimit()));
-        //3. 这次查询所产生的最终要传递给JDBC java.sql.Preparedstatement的Sql语句字符串（boundSql.getSql() ）
-        cacheKey.update(boundSql.getSql());
+        cacheKey.update(rowBounds.getLimit() == RowBounds.NO_ROW_LIMIT ? NO_ROW_LIMIT : Integer.valueOf(rowBounds.getLimit()));
         // 将每一个要传递给JDBC的参数值也更新到CacheKey中
-        List<ParameterMapping> parameterMappings = boundSql.getParameterMappings();
         TypeHandlerRegistry typeHandlerRegistry = ms.getConfiguration().getTypeHandlerRegistry();
         // mimic DefaultParameterHandler logic
+        MetaObject metaObject = null;
         for (int i = 0; i < parameterMappings.size(); i++) {
             ParameterMapping parameterMapping = parameterMappings.get(i);
             if (parameterMapping.getMode() != ParameterMode.OUT) {
@@ -245,7 +273,10 @@ public abstract class BaseExecutor implements Executor {
                 } else if (typeHandlerRegistry.hasTypeHandler(parameterObject.getClass())) {
                     value = parameterObject;
                 } else {
-                    MetaObject metaObject = configuration.newMetaObject(parameterObject);
+                    //所有参数共用一个MetaObject
+                    if (metaObject == null) {
+                        metaObject = configuration.newMetaObject(parameterObject);
+                    }
                     value = metaObject.getValue(propertyName);
                 }
                 //4. 传递给java.sql.Statement要设置的参数值
@@ -311,6 +342,66 @@ public abstract class BaseExecutor implements Executor {
     protected abstract <E> List<E> doQuery(MappedStatement ms, Object parameter, RowBounds rowBounds, ResultHandler resultHandler, BoundSql boundSql)
             throws SQLException;
 
+    protected abstract <E> Cursor<E> doQueryCursor(MappedStatement ms, Object parameter, RowBounds rowBounds, BoundSql boundSql)
+            throws SQLException;
+
+    /*
+     * 游标持有的Statement不能在查询结束时关闭，交给驱动在ResultSet关闭后关闭（JDBC 4.1）
+     */
+    protected void closeOnCompletion(Statement statement) {
+        try {
+            statement.closeOnCompletion();
+        } catch (SQLException e) {
+            // ignore
+        } catch (AbstractMethodError e) {
+            // JDBC 4.1之前的驱动，Statement在事务关闭连接时释放
+        }
+    }
+
+    /*
+     * 子类创建查询的Statement后调用，记录流式读取的Statement
+     */
+    protected void startStreaming(MappedStatement ms, Statement statement) {
+        if (ms.isStreaming()) {
+            streamingStatement = statement;
+        }
+    }
+
+    /*
+     * 返回游标之前失败时调用，关闭Statement并清除流式读取的记录
+     */
+    protected void closeCursorStatement(Statement statement) {
+        if (streamingStatement == statement) {
+            streamingStatement = null;
+        }
+        closeStatement(statement);
+    }
+
+    /*
+     * MySQL在流式结果读完之前不能在同一连接上执行其他语句，驱动的报错不指明是哪条语句，这里提前检查
+     */
+    private void checkNotStreaming(MappedStatement ms) {
+        if (streamingStatement != null) {
+            if (isResultSetOpen(streamingStatement)) {
+                throw new ExecutorException("Cannot execute " + ms.getId() + " while a streaming result set is still open on the same connection. "
+                        + "Read or close the streaming results first, nested selects can not be mixed with a streaming select.");
+            }
+            streamingStatement = null;
+        }
+    }
+
+    private boolean isResultSetOpen(Statement statement) {
+        try {
+            if (statement.isClosed()) {
+                return false;
+            }
+            ResultSet rs = statement.getResultSet();
+            return rs != null && !rs.isClosed();
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
     protected void closeStatement(Statement statement) {
         if (statement != null) {
             try {
@@ -340,6 +431,7 @@ public abstract class BaseExecutor implements Executor {
 
     private <E> List<E> queryFromDatabase(MappedStatement ms, Object parameter, RowBounds rowBounds, ResultHandler resultHandler, CacheKey key, BoundSql boundSql) throws SQLException {
         List<E> list;
+        checkNotStreaming(ms);
         localCache.putObject(key, ExecutionPlaceholder.EXECUTION_PLACEHOLDER);
         try {
             //4. 执行查询，返回List 结果，然后将查询的结果放入缓存之中
@@ -348,6 +440,9 @@ public abstract class BaseExecutor implements Executor {
             localCache.removeObject(key);
         }
         localCache.putObject(key, list);
+        if (!ms.isUseLocalCache()) {
+            localCache.markTransient(key);
+        }
         if (ms.getStatementType() == StatementType.CALLABLE) {
             localOutputParameterCache.putObject(key, parameter);
         }
@@ -17,14 +17,23 @@ package com.jd.mybatis.executor;
 
 import java.sql.BatchUpdateException;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
+import com.jd.mybatis.cache.weigher.ObjectSizeEstimator;
+import com.jd.mybatis.cache.weigher.Weigher;
+import com.jd.mybatis.cursor.Cursor;
 import com.jd.mybatis.executor.statement.StatementHandler;
 import com.jd.mybatis.mapping.MappedStatement;
+import com.jd.mybatis.mapping.ParameterMapping;
+import com.jd.mybatis.mapping.SqlCommandType;
+import com.jd.mybatis.mapping.StatementType;
 import com.jd.mybatis.session.ResultHandler;
 import com.jd.mybatis.executor.keygen.Jdbc3KeyGenerator;
 import com.jd.mybatis.executor.keygen.KeyGenerator;
@@ -35,48 +44,285 @@ import com.jd.mybatis.session.RowBounds;
 import com.jd.mybatis.transaction.Transaction;
 
 /**
+ * 默认只有连续执行的同一语句（MappedStatement和SQL都相同）才会合并到一个JDBC批处理中。
+ * 开启interleavedBatchEnabled后，按SQL记录已经打开的INSERT，交替执行的多条INSERT分别合并到各自的批处理，
+ * flush时按每条语句第一次出现的顺序执行，同一语句内的参数保持执行顺序。
+ * 追加到较早Statement的行会先于之后打开的Statement执行，因此只有这一行的表不通过外键引用之后那些Statement的表时才追加，
+ * 否则打开新的Statement（见{@link TableDependencies}）。UPDATE、DELETE不交错合并，
+ * 否则对同一行的先后修改会被重新排序；执行其他类型的语句后之前的INSERT也不再追加参数。
+ *
+ * 一条语句累积的行数达到batchSize，或者参数的估算大小达到batchMaxBytes（语句上没有设置时使用全局设置）时，
+ * 自动执行当前所有的批处理。打开会话时传入了{@link BatchResultHandler}时执行结果交给它处理，
+ * 否则保留到下一次flushStatements一起返回。BatchResultHandler属于这个会话，总是在调用方线程中调用。
+ *
+ * 设置了multiRowInsertSize时，单行的INSERT ... VALUES (...)不逐行加入JDBC批处理，
+ * 而是在执行时改写成每条最多multiRowInsertSize行的INSERT ... VALUES (...),(...)，
+ * 一条语句的参数个数不超过multiRowInsertMaxParameters（没有设置时按数据库确定，见{@link MultiRowInsert#getMaxParameters(String)}，
+ * Oracle等不支持多组VALUES的数据库仍然每条语句一行），
+ * 每一行在执行update时通过StatementHandler.parameterize设置参数（经过配置的ParameterHandler、TypeHandler和插件），
+ * 设置的值记录下来，执行时按行偏移参数位置后设置到改写的语句上；使用Jdbc3KeyGenerator时按行回填生成的主键。
+ *
+ * 开启asyncBatchFlushEnabled后，自动执行的批处理交给后台线程在同一个连接上执行，调用方继续积累下一批，
+ * 最多asyncBatchQueueSize批在排队或执行中，超过时update阻塞。为了不在两个线程中同时使用连接，
+ * 调用方只缓存参数值，所有JDBC操作都在后台线程中进行；查询、flushStatements、提交和回滚之前先等待后台的批处理执行完，
+ * 执行结果（或者失败的异常）在flushStatements、commit时返回，
+ * 有BatchResultHandler时后台执行完的结果在下一次提交批处理或等待时交给它处理。
+ * 使用selectKey、CALLABLE、STATEMENT或OUT参数的语句仍在调用方线程中准备，执行前同样先等待后台的批处理。
+ *
  * @author Jeff Butler 
  */
 public class BatchExecutor extends BaseExecutor {
 
   public static final int BATCH_UPDATE_RETURN_VALUE = Integer.MIN_VALUE + 1002;
 
+  private static final Weigher PARAMETER_WEIGHER = new ObjectSizeEstimator();
+
   private final List<Statement> statementList = new ArrayList<Statement>();
   private final List<BatchResult> batchResultList = new ArrayList<BatchResult>();
+  // 与statementList对应，改写成多行INSERT的语句为累积的行，此时statementList中对应的Statement为null
+  private final List<MultiRowInsert.Rows> multiRowInserts = new ArrayList<MultiRowInsert.Rows>();
+  // 与statementList对应，每条语句累积的参数估算字节数，没有batchMaxBytes限制时不计算
+  private final List<Long> bufferedBytes = new ArrayList<Long>();
+  // 自动执行过、还没有通过flushStatements返回的结果
+  private final List<BatchResult> flushedResults = new ArrayList<BatchResult>();
   private String currentSql;
   private MappedStatement currentStatement;
+  // 交错合并时按SQL记录可以继续追加参数的INSERT在statementList中的位置
+  private final Map<String, Integer> openStatements = new HashMap<String, Integer>();
+  private SqlCommandType currentCommandType;
+  private final AsyncBatchFlusher flusher;
+  private final BatchResultHandler batchResultHandler;
+  private boolean connectionOpened;
+  // 改写后的一条INSERT最多使用的参数个数，第一次改写时确定
+  private int multiRowInsertMaxParameters = -1;
 
   public BatchExecutor(Configuration configuration, Transaction transaction) {
+    this(configuration, transaction, null);
+  }
+
+  public BatchExecutor(Configuration configuration, Transaction transaction, BatchResultHandler batchResultHandler) {
     super(configuration, transaction);
+    this.batchResultHandler = batchResultHandler;
+    this.flusher = configuration.isAsyncBatchFlushEnabled() ? new AsyncBatchFlusher(configuration.getAsyncBatchQueueSize()) : null;
   }
 
   @Override
   public int doUpdate(MappedStatement ms, Object parameterObject) throws SQLException {
     final Configuration configuration = ms.getConfiguration();
+    if (flusher != null && !isBufferable(ms)) {
+      // selectKey可能在创建StatementHandler时就使用连接
+      awaitFlusher();
+    }
     final StatementHandler handler = configuration.newStatementHandler(this, ms, parameterObject, RowBounds.DEFAULT, null, null);
     final BoundSql boundSql = handler.getBoundSql();
     final String sql = boundSql.getSql();
-    final Statement stmt;
-    if (sql.equals(currentSql) && ms.equals(currentStatement)) {
-      int last = statementList.size() - 1;
-      stmt = statementList.get(last);
-     handler.parameterize(stmt);//fix Issues 322
-      BatchResult batchResult = batchResultList.get(last);
+    final int index = findStatement(ms, sql);
+    final MultiRowInsert.Rows rows = index >= 0 ? multiRowInserts.get(index) : newBufferedRows(ms, boundSql);
+    if (rows == null && flusher != null) {
+      awaitFlusher();
+    }
+    Statement stmt = null;
+    if (index >= 0) {
+      if (rows == null) {
+        stmt = statementList.get(index);
+       handler.parameterize(stmt);//fix Issues 322
+      }
+      BatchResult batchResult = batchResultList.get(index);
       batchResult.addParameterObject(parameterObject);
     } else {
-      Connection connection = getConnection(ms.getStatementLog());
-      stmt = handler.prepare(connection);
-      handler.parameterize(stmt);    //fix Issues 322
+      if (rows == null) {
+        Connection connection = getConnection(ms.getStatementLog());
+        stmt = handler.prepare(connection);
+        handler.parameterize(stmt);    //fix Issues 322
+      }
       currentSql = sql;
       currentStatement = ms;
+      if (configuration.isInterleavedBatchEnabled()) {
+        if (ms.getSqlCommandType() != currentCommandType) {
+          openStatements.clear();
+          currentCommandType = ms.getSqlCommandType();
+        }
+        if (ms.getSqlCommandType() == SqlCommandType.INSERT) {
+          openStatements.put(sql, statementList.size());
+        }
+      }
       statementList.add(stmt);
+      multiRowInserts.add(rows);
       batchResultList.add(new BatchResult(ms, sql, parameterObject));
+      bufferedBytes.add(0L);
     }
   // handler.parameterize(stmt);
-    handler.batch(stmt);
+    if (rows != null) {
+      rows.add(handler);
+    } else {
+      handler.batch(stmt);
+    }
+    if (isBatchFull(ms, index >= 0 ? index : statementList.size() - 1, parameterObject)) {
+      if (flusher != null) {
+        submitBatch();
+      } else {
+        List<BatchResult> results = doFlushStatements(false);
+        if (batchResultHandler == null) {
+          flushedResults.addAll(results);
+        }
+      }
+    }
     return BATCH_UPDATE_RETURN_VALUE;
   }
 
+  /*
+   * Whether the parameters of the statement can be kept without preparing it, SelectKeyGenerator等需要逐行执行的主键生成方式不行
+   */
+  private boolean isBufferable(MappedStatement ms) {
+    final Class<?> keyGeneratorClass = ms.getKeyGenerator().getClass();
+    return ms.getStatementType() == StatementType.PREPARED
+        && (NoKeyGenerator.class.equals(keyGeneratorClass) || Jdbc3KeyGenerator.class.equals(keyGeneratorClass));
+  }
+
+  /*
+   * Returns the rows of a new rewritten insert, or of a statement executed in the background,
+   * or null if the statement is prepared and batched right away.
+   */
+  private MultiRowInsert.Rows newBufferedRows(MappedStatement ms, BoundSql boundSql) {
+    if (!isBufferable(ms)) {
+      return null;
+    }
+    MultiRowInsert template = null;
+    if (ms.getConfiguration().getMultiRowInsertSize() > 1 && ms.getSqlCommandType() == SqlCommandType.INSERT) {
+      template = MultiRowInsert.forStatement(ms, boundSql);
+    }
+    if (template == null && flusher != null) {
+      template = MultiRowInsert.forSingleRow(boundSql);
+    }
+    return template == null ? null : new MultiRowInsert.Rows(template);
+  }
+
+  private void submitBatch() throws SQLException {
+    if (!connectionOpened) {
+      // 连接在调用方线程中打开，Spring等按线程绑定的事务资源在后台线程中取不到
+      transaction.getConnection();
+      connectionOpened = true;
+    }
+    flusher.submit(sealBatch());
+    completed(flusher.takeResults());
+  }
+
+  private void awaitFlusher() throws SQLException {
+    completed(flusher.await());
+  }
+
+  /*
+   * Hands the results executed in the background to the BatchResultHandler, or keeps them for the next flushStatements
+   */
+  private void completed(List<BatchResult> results) {
+    if (batchResultHandler == null) {
+      flushedResults.addAll(results);
+    } else {
+      for (BatchResult batchResult : results) {
+        batchResultHandler.handleBatchResult(batchResult);
+      }
+    }
+  }
+
+  /*
+   * Executes the rows of a rewritten insert, full statements in one JDBC batch and the remaining rows in one more statement.
+   */
+  private int[] executeMultiRowInsert(BatchResult batchResult, MultiRowInsert.Rows rows) throws SQLException {
+    final MappedStatement ms = batchResult.getMappedStatement();
+    final Configuration configuration = ms.getConfiguration();
+    final List<Object> parameterObjects = batchResult.getParameterObjects();
+    final MultiRowInsert template = rows.getTemplate();
+    final int total = rows.size();
+    final int maxParameters = template.isRewritable() ? getMultiRowInsertMaxParameters(configuration) : 0;
+    final int rowsPerStatement = template.getRowsPerStatement(configuration.getMultiRowInsertSize(), maxParameters);
+    final int[] updateCounts = new int[total];
+    int row = 0;
+    while (row < total) {
+      final int from = row;
+      final int size = Math.min(rowsPerStatement, total - row);
+      final BoundSql boundSql = new BoundSql(configuration, template.getSql(size), Collections.<ParameterMapping>emptyList(), parameterObjects.get(from));
+      final StatementHandler handler = configuration.newStatementHandler(this, ms, parameterObjects.get(from), RowBounds.DEFAULT, null, boundSql);
+      final Statement stmt = handler.prepare(getConnection(ms.getStatementLog()));
+      try {
+        do {
+          rows.setParameters((PreparedStatement) stmt, row, size);
+          handler.batch(stmt);
+          row += size;
+        } while (total - row >= size);
+        MultiRowInsert.Rows.setUpdateCounts(updateCounts, from, size, stmt.executeBatch());
+        if (Jdbc3KeyGenerator.class.equals(ms.getKeyGenerator().getClass())) {
+          ((Jdbc3KeyGenerator) ms.getKeyGenerator()).processBatch(ms, stmt, parameterObjects.subList(from, row));
+        }
+      } finally {
+        closeStatement(stmt);
+      }
+    }
+    return updateCounts;
+  }
+
+  private int getMultiRowInsertMaxParameters(Configuration configuration) throws SQLException {
+    if (multiRowInsertMaxParameters < 0) {
+      final int configured = configuration.getMultiRowInsertMaxParameters();
+      multiRowInsertMaxParameters = configured > 0 ? configured : MultiRowInsert.getMaxParameters(transaction.getConnection());
+    }
+    return multiRowInsertMaxParameters;
+  }
+
+  private boolean isBatchFull(MappedStatement ms, int index, Object parameterObject) {
+    final Configuration configuration = ms.getConfiguration();
+    final int batchSize = ms.getBatchSize() != null ? ms.getBatchSize() : configuration.getDefaultBatchSize();
+    if (batchSize > 0 && batchResultList.get(index).getParameterObjects().size() >= batchSize) {
+      return true;
+    }
+    final long maxBytes = ms.getBatchMaxBytes() != null ? ms.getBatchMaxBytes() : configuration.getDefaultBatchMaxBytes();
+    if (maxBytes > 0) {
+      long bytes = bufferedBytes.get(index);
+      if (parameterObject != null) {
+        bytes += PARAMETER_WEIGHER.weigh(parameterObject);
+      }
+      bufferedBytes.set(index, bytes);
+      return bytes >= maxBytes;
+    }
+    return false;
+  }
+
+  /*
+   * Returns the index of the open statement the parameters can be added to, or -1 if a new statement is needed.
+   */
+  private int findStatement(MappedStatement ms, String sql) throws SQLException {
+    final int last = statementList.size() - 1;
+    if (sql.equals(currentSql) && ms.equals(currentStatement)) {
+      return last;
+    }
+    if (!ms.getConfiguration().isInterleavedBatchEnabled()
+        || ms.getSqlCommandType() != SqlCommandType.INSERT
+        || ms.getSqlCommandType() != currentCommandType) {
+      return -1;
+    }
+    final Integer index = openStatements.get(sql);
+    if (index == null || !ms.equals(batchResultList.get(index).getMappedStatement())) {
+      return -1;
+    }
+    // 追加的行会先于之后打开的INSERT执行，不能引用它们的表
+    final TableDependencies dependencies = ms.getConfiguration().getTableDependencies();
+    final String table = dependencies.getTable(sql);
+    if (table == null) {
+      return -1;
+    }
+    if (!dependencies.isResolved(table) && flusher != null) {
+      // 读取元数据要使用连接
+      awaitFlusher();
+    }
+    final Connection connection = getConnection(ms.getStatementLog());
+    for (int i = index + 1; i <= last; i++) {
+      final String laterTable = dependencies.getTable(batchResultList.get(i).getSql());
+      if (laterTable == null || dependencies.references(connection, table, laterTable)) {
+        return -1;
+      }
+    }
+    return index;
+  }
+
   @Override
   public <E> List<E> doQuery(MappedStatement ms, Object parameterObject, RowBounds rowBounds, ResultHandler resultHandler, BoundSql boundSql)
       throws SQLException {
@@ -88,6 +334,7 @@ public class BatchExecutor extends BaseExecutor {
       Connection connection = getConnection(ms.getStatementLog());
       stmt = handler.prepare(connection);
       handler.parameterize(stmt);
+      startStreaming(ms, stmt);
       return handler.<E>query(stmt, resultHandler);
     } finally {
       closeStatement(stmt);
@@ -95,53 +342,152 @@ public class BatchExecutor extends BaseExecutor {
   }
 
   @Override
-  public List<BatchResult> doFlushStatements(boolean isRollback) throws SQLException {
+  protected <E> Cursor<E> doQueryCursor(MappedStatement ms, Object parameter, RowBounds rowBounds, BoundSql boundSql) throws SQLException {
+    flushStatements();
+    Configuration configuration = ms.getConfiguration();
+    StatementHandler handler = configuration.newStatementHandler(wrapper, ms, parameter, rowBounds, null, boundSql);
+    Connection connection = getConnection(ms.getStatementLog());
+    Statement stmt = handler.prepare(connection);
     try {
-      List<BatchResult> results = new ArrayList<BatchResult>();
-      if (isRollback) {
-        return Collections.emptyList();
+      handler.parameterize(stmt);
+      startStreaming(ms, stmt);
+      closeOnCompletion(stmt);
+      return handler.<E>queryCursor(stmt);
+    } catch (SQLException e) {
+      closeCursorStatement(stmt);
+      throw e;
+    } catch (RuntimeException e) {
+      closeCursorStatement(stmt);
+      throw e;
+    }
+  }
+
+  @Override
+  public List<BatchResult> doFlushStatements(boolean isRollback) throws SQLException {
+    final SealedBatch batch = sealBatch();
+    if (isRollback) {
+      if (flusher != null) {
+        flusher.discard();
+      }
+      batch.close();
+      flushedResults.clear();
+      return Collections.emptyList();
+    }
+    if (flusher != null) {
+      try {
+        awaitFlusher();
+      } catch (SQLException e) {
+        batch.close();
+        throw e;
+      } catch (RuntimeException e) {
+        batch.close();
+        throw e;
       }
-      for (int i = 0, n = statementList.size(); i < n; i++) {
-        Statement stmt = statementList.get(i);
-        BatchResult batchResult = batchResultList.get(i);
-        try {
-          batchResult.setUpdateCounts(stmt.executeBatch());
-          MappedStatement ms = batchResult.getMappedStatement();
-          List<Object> parameterObjects = batchResult.getParameterObjects();
-          KeyGenerator keyGenerator = ms.getKeyGenerator();
-          if (Jdbc3KeyGenerator.class.equals(keyGenerator.getClass())) {
-            Jdbc3KeyGenerator jdbc3KeyGenerator = (Jdbc3KeyGenerator) keyGenerator;
-            jdbc3KeyGenerator.processBatch(ms, stmt, parameterObjects);
-          } else if (!NoKeyGenerator.class.equals(keyGenerator.getClass())) { //issue #141
-            for (Object parameter : parameterObjects) {
-              keyGenerator.processAfter(this, ms, stmt, parameter);
+    }
+    List<BatchResult> results = new ArrayList<BatchResult>(flushedResults);
+    flushedResults.clear();
+    return batch.execute(results, batchResultHandler);
+  }
+
+  /*
+   * Takes the statements batched so far, later updates start a new batch.
+   */
+  private SealedBatch sealBatch() {
+    final SealedBatch batch = new SealedBatch(new ArrayList<Statement>(statementList),
+        new ArrayList<MultiRowInsert.Rows>(multiRowInserts), new ArrayList<BatchResult>(batchResultList));
+    currentSql = null;
+    currentCommandType = null;
+    openStatements.clear();
+    statementList.clear();
+    multiRowInserts.clear();
+    batchResultList.clear();
+    bufferedBytes.clear();
+    return batch;
+  }
+
+  private final class SealedBatch implements AsyncBatchFlusher.Batch {
+
+    private final List<Statement> statementList;
+    private final List<MultiRowInsert.Rows> multiRowInserts;
+    private final List<BatchResult> batchResultList;
+
+    private SealedBatch(List<Statement> statementList, List<MultiRowInsert.Rows> multiRowInserts, List<BatchResult> batchResultList) {
+      this.statementList = statementList;
+      this.multiRowInserts = multiRowInserts;
+      this.batchResultList = batchResultList;
+    }
+
+    /*
+     * Executed by the background flusher, the results are handed to the BatchResultHandler on the caller thread.
+     */
+    @Override
+    public List<BatchResult> execute() throws SQLException {
+      try {
+        return execute(new ArrayList<BatchResult>(), null);
+      } finally {
+        // 后台线程被不同的会话和批处理复用
+        ErrorContext.instance().reset();
+      }
+    }
+
+    /*
+     * Executes the statements in order and adds their results to the given list.
+     */
+    private List<BatchResult> execute(List<BatchResult> results, BatchResultHandler batchResultHandler) throws SQLException {
+      try {
+        for (int i = 0, n = statementList.size(); i < n; i++) {
+          Statement stmt = statementList.get(i);
+          BatchResult batchResult = batchResultList.get(i);
+          MultiRowInsert.Rows rows = multiRowInserts.get(i);
+          try {
+            if (rows != null) {
+              batchResult.setUpdateCounts(executeMultiRowInsert(batchResult, rows));
+            } else {
+              batchResult.setUpdateCounts(stmt.executeBatch());
+              MappedStatement ms = batchResult.getMappedStatement();
+              List<Object> parameterObjects = batchResult.getParameterObjects();
+              KeyGenerator keyGenerator = ms.getKeyGenerator();
+              if (Jdbc3KeyGenerator.class.equals(keyGenerator.getClass())) {
+                Jdbc3KeyGenerator jdbc3KeyGenerator = (Jdbc3KeyGenerator) keyGenerator;
+                jdbc3KeyGenerator.processBatch(ms, stmt, parameterObjects);
+              } else if (!NoKeyGenerator.class.equals(keyGenerator.getClass())) { //issue #141
+                for (Object parameter : parameterObjects) {
+                  keyGenerator.processAfter(BatchExecutor.this, ms, stmt, parameter);
+                }
+              }
             }
+          } catch (BatchUpdateException e) {
+            StringBuilder message = new StringBuilder();
+            message.append(batchResult.getMappedStatement().getId())
+                .append(" (batch index #")
+                .append(i + 1)
+                .append(")")
+                .append(" failed.");
+            if (i > 0) {
+              message.append(" ")
+                  .append(i)
+                  .append(" prior sub executor(s) completed successfully, but will be rolled back.");
+            }
+            throw new BatchExecutorException(message.toString(), e, results, batchResult);
           }
-        } catch (BatchUpdateException e) {
-          StringBuilder message = new StringBuilder();
-          message.append(batchResult.getMappedStatement().getId())
-              .append(" (batch index #")
-              .append(i + 1)
-              .append(")")
-              .append(" failed.");
-          if (i > 0) {
-            message.append(" ")
-                .append(i)
-                .append(" prior sub executor(s) completed successfully, but will be rolled back.");
+          results.add(batchResult);
+          if (batchResultHandler != null) {
+            batchResultHandler.handleBatchResult(batchResult);
           }
-          throw new BatchExecutorException(message.toString(), e, results, batchResult);
         }
-        results.add(batchResult);
+        return results;
+      } finally {
+        close();
       }
-      return results;
-    } finally {
+    }
+
+    @Override
+    public void close() {
       for (Statement stmt : statementList) {
         closeStatement(stmt);
       }
-      currentSql = null;
-      statementList.clear();
-      batchResultList.clear();
     }
+
   }
 
 }
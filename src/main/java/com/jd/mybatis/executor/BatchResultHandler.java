@@ -0,0 +1,31 @@
+/**
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.jd.mybatis.executor;
+
+/**
+ * Receives the results of the batches executed by {@link BatchExecutor}.
+ * 打开会话时传入，执行过的BatchResult交给它处理，BatchExecutor不再保留，大批量写入时内存不会随行数增长。
+ * 只处理这个会话的结果，开启asyncBatchFlushEnabled时也在使用会话的线程中调用。
+ *
+ * @see com.jd.mybatis.session.SqlSessionFactory#openSession(BatchResultHandler)
+ *
+ * @author Jeff Butler
+ */
+public interface BatchResultHandler {
+
+  void handleBatchResult(BatchResult batchResult);
+
+}
@@ -0,0 +1,224 @@
+/**
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.jd.mybatis.executor;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.jd.mybatis.cache.Cache;
+import com.jd.mybatis.cache.CacheKey;
+import com.jd.mybatis.cache.TableTaggedResult;
+import com.jd.mybatis.cache.TableVersions;
+import com.jd.mybatis.cache.decorators.ExpiringCache;
+import com.jd.mybatis.logging.Log;
+import com.jd.mybatis.logging.LogFactory;
+import com.jd.mybatis.mapping.BoundSql;
+import com.jd.mybatis.mapping.Environment;
+import com.jd.mybatis.mapping.MappedStatement;
+import com.jd.mybatis.mapping.ParameterMapping;
+import com.jd.mybatis.mapping.ParameterMode;
+import com.jd.mybatis.mapping.StatementType;
+import com.jd.mybatis.reflection.MetaObject;
+import com.jd.mybatis.session.CacheInvalidation;
+import com.jd.mybatis.session.Configuration;
+import com.jd.mybatis.session.RowBounds;
+import com.jd.mybatis.transaction.Transaction;
+import com.jd.mybatis.type.TypeHandlerRegistry;
+
+/**
+ * Reloads second level cache entries in the background before they expire.
+ * 每次刷新使用独立的SimpleExecutor和自动提交的事务，结果直接写回命名空间的缓存，不经过TransactionalCache。
+ * 刷新线程是守护线程，队列满时放弃刷新，条目到期后由下一次查询正常加载。
+ * 插件不会拦截刷新时执行的查询。
+ * 参数的值在提交刷新时就取出（与CacheKey使用的值相同），调用方之后修改或复用参数对象不会影响刷新的结果；
+ * 存储过程和有OUT参数的语句不提前刷新。
+ *
+ * @author Clinton Begin
+ */
+public class CacheRefresher {
+
+  private static final Log log = LogFactory.getLog(CacheRefresher.class);
+
+  private static final int QUEUE_SIZE = 1024;
+
+  private final Configuration configuration;
+  private volatile ThreadPoolExecutor threads;
+  private int threadCount = 2;
+
+  public CacheRefresher(Configuration configuration) {
+    this.configuration = configuration;
+  }
+
+  /*
+   * Schedules a reload of the given key, the refresh is released if it can not be run.
+   */
+  public void refresh(final MappedStatement ms, Object parameterObject, final RowBounds rowBounds,
+      final CacheKey key, BoundSql boundSql, final Cache cache, final ExpiringCache.Refresh refresh) {
+    if (configuration.getEnvironment() == null || ms.getStatementType() == StatementType.CALLABLE) {
+      refresh.release();
+      return;
+    }
+    final Map<String, Object> parameterValues = new HashMap<String, Object>();
+    final BoundSql snapshot = snapshot(ms, parameterObject, boundSql, parameterValues);
+    if (snapshot == null) {
+      refresh.release();
+      return;
+    }
+    try {
+      getThreads().execute(new Runnable() {
+        @Override
+        public void run() {
+          reload(ms, parameterValues, rowBounds, key, snapshot, cache, refresh);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      refresh.release();
+    }
+  }
+
+  /*
+   * Resolves the parameter values the way createCacheKey does into a new BoundSql that reads them from the given map,
+   * returns null if the statement has OUT parameters.
+   */
+  private BoundSql snapshot(MappedStatement ms, Object parameterObject, BoundSql boundSql, Map<String, Object> parameterValues) {
+    final TypeHandlerRegistry typeHandlerRegistry = configuration.getTypeHandlerRegistry();
+    final List<ParameterMapping> parameterMappings = boundSql.getParameterMappings();
+    final List<ParameterMapping> snapshotMappings = new ArrayList<ParameterMapping>(parameterMappings.size());
+    MetaObject metaObject = null;
+    for (int i = 0; i < parameterMappings.size(); i++) {
+      final ParameterMapping parameterMapping = parameterMappings.get(i);
+      if (parameterMapping.getMode() != ParameterMode.IN) {
+        return null;
+      }
+      final String propertyName = parameterMapping.getProperty();
+      final Object value;
+      if (boundSql.hasAdditionalParameter(propertyName)) {
+        value = boundSql.getAdditionalParameter(propertyName);
+      } else if (parameterObject == null) {
+        value = null;
+      } else if (typeHandlerRegistry.hasTypeHandler(parameterObject.getClass())) {
+        value = parameterObject;
+      } else {
+        if (metaObject == null) {
+          metaObject = configuration.newMetaObject(parameterObject);
+        }
+        value = metaObject.getValue(propertyName);
+      }
+      // 按位置重新命名，属性路径（如user.name）不需要在快照中保留嵌套结构
+      final String name = "param" + i;
+      parameterValues.put(name, value);
+      snapshotMappings.add(new ParameterMapping.Builder(configuration, name, parameterMapping.getTypeHandler())
+          .javaType(parameterMapping.getJavaType())
+          .jdbcType(parameterMapping.getJdbcType())
+          .jdbcTypeName(parameterMapping.getJdbcTypeName())
+          .numericScale(parameterMapping.getNumericScale())
+          .build());
+    }
+    return new BoundSql(configuration, boundSql.getSql(), snapshotMappings, parameterValues);
+  }
+
+  private void reload(MappedStatement ms, Object parameterObject, RowBounds rowBounds, CacheKey key, BoundSql boundSql,
+      Cache cache, ExpiringCache.Refresh refresh) {
+    boolean completed = false;
+    Environment environment = configuration.getEnvironment();
+    Executor executor = null;
+    try {
+      Transaction tx = environment.getTransactionFactory().newTransaction(environment.getDataSource(), null, true);
+      executor = new SimpleExecutor(configuration, tx);
+      Object value;
+      if (configuration.getCacheInvalidation() == CacheInvalidation.TABLE) {
+        TableVersions tableVersions = configuration.getTableVersions();
+        String[] tables = ms.getCacheTables(boundSql);
+        long[] versions = tableVersions.snapshot(tables);
+        List<Object> list = executor.query(ms, parameterObject, rowBounds, Executor.NO_RESULT_HANDLER, key, boundSql);
+        value = new TableTaggedResult(list, tables, versions);
+      } else {
+        value = executor.query(ms, parameterObject, rowBounds, Executor.NO_RESULT_HANDLER, key, boundSql);
+      }
+      refresh.complete(cache, value);
+      completed = true;
+    } catch (Exception e) {
+      if (log.isDebugEnabled()) {
+        log.debug("Error refreshing cached result of " + ms.getId() + ".  Cause: " + e);
+      }
+    } finally {
+      if (!completed) {
+        refresh.release();
+      }
+      if (executor != null) {
+        executor.close(false);
+      }
+    }
+  }
+
+  private ThreadPoolExecutor getThreads() {
+    ThreadPoolExecutor result = threads;
+    if (result == null) {
+      synchronized (this) {
+        result = threads;
+        if (result == null) {
+          result = new ThreadPoolExecutor(threadCount, threadCount, 60, TimeUnit.SECONDS,
+              new ArrayBlockingQueue<Runnable>(QUEUE_SIZE), new RefreshThreadFactory());
+          result.allowCoreThreadTimeOut(true);
+          threads = result;
+        }
+      }
+    }
+    return result;
+  }
+
+  public int getThreadCount() {
+    return threadCount;
+  }
+
+  public synchronized void setThreadCount(int threadCount) {
+    if (threadCount < 1) {
+      throw new IllegalArgumentException("cacheRefreshThreads must be positive");
+    }
+    this.threadCount = threadCount;
+    if (threads != null) {
+      if (threadCount > threads.getMaximumPoolSize()) {
+        threads.setMaximumPoolSize(threadCount);
+        threads.setCorePoolSize(threadCount);
+      } else {
+        threads.setCorePoolSize(threadCount);
+        threads.setMaximumPoolSize(threadCount);
+      }
+    }
+  }
+
+  private static class RefreshThreadFactory implements ThreadFactory {
+
+    private final AtomicInteger count = new AtomicInteger();
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, "mybatis-cache-refresh-" + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+
+  }
+
+}
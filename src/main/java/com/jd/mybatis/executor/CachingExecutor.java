@@ -22,11 +22,18 @@ import com.jd.mybatis.cache.TransactionalCacheManager;
 import com.jd.mybatis.mapping.MappedStatement;
 import com.jd.mybatis.reflection.MetaObject;
 import com.jd.mybatis.cache.Cache;
+import com.jd.mybatis.cache.CacheMetrics;
 import com.jd.mybatis.cache.CacheKey;
+import com.jd.mybatis.cache.TableTaggedResult;
+import com.jd.mybatis.cache.TableVersions;
+import com.jd.mybatis.cache.decorators.ExpiringCache;
+import com.jd.mybatis.cache.invalidation.InvalidationBus;
+import com.jd.mybatis.cursor.Cursor;
 import com.jd.mybatis.mapping.BoundSql;
 import com.jd.mybatis.mapping.ParameterMapping;
 import com.jd.mybatis.mapping.ParameterMode;
 import com.jd.mybatis.mapping.StatementType;
+import com.jd.mybatis.session.CacheInvalidation;
 import com.jd.mybatis.session.ResultHandler;
 import com.jd.mybatis.session.RowBounds;
 import com.jd.mybatis.transaction.Transaction;
@@ -39,10 +46,15 @@ import com.jd.mybatis.transaction.Transaction;
 public class CachingExecutor implements Executor {
 
   private Executor delegate;
-  private TransactionalCacheManager tcm = new TransactionalCacheManager();
+  private TransactionalCacheManager tcm;
 
   public CachingExecutor(Executor delegate) {
+    this(delegate, null);
+  }
+
+  public CachingExecutor(Executor delegate, InvalidationBus invalidationBus) {
     this.delegate = delegate;
+    this.tcm = new TransactionalCacheManager(invalidationBus);
     delegate.setExecutorWrapper(this);
   }
 
@@ -72,7 +84,11 @@ public class CachingExecutor implements Executor {
 
   @Override
   public int update(MappedStatement ms, Object parameterObject) throws SQLException {
-    flushCacheIfRequired(ms);
+    if (ms.getConfiguration().getCacheInvalidation() == CacheInvalidation.TABLE) {
+      invalidateTablesIfRequired(ms, parameterObject);
+    } else {
+      flushCacheIfRequired(ms);
+    }
     return delegate.update(ms, parameterObject);
   }
 
@@ -83,6 +99,15 @@ public class CachingExecutor implements Executor {
     return query(ms, parameterObject, rowBounds, resultHandler, key, boundSql);
   }
 
+  /*
+   * 游标的结果不进入二级缓存
+   */
+  @Override
+  public <E> Cursor<E> queryCursor(MappedStatement ms, Object parameter, RowBounds rowBounds) throws SQLException {
+    flushCacheIfRequired(ms);
+    return delegate.queryCursor(ms, parameter, rowBounds);
+  }
+
   @Override
   public <E> List<E> query(MappedStatement ms, Object parameterObject, RowBounds rowBounds, ResultHandler resultHandler, CacheKey key, BoundSql boundSql)
       throws SQLException {
@@ -91,10 +116,14 @@ public class CachingExecutor implements Executor {
       flushCacheIfRequired(ms);
       if (ms.isUseCache() && resultHandler == null) {
         ensureNoOutParams(ms, parameterObject, boundSql);
+        if (ms.getConfiguration().getCacheInvalidation() == CacheInvalidation.TABLE) {
+          return queryByTable(cache, ms, parameterObject, rowBounds, key, boundSql);
+        }
         @SuppressWarnings("unchecked")
         List<E> list = (List<E>) tcm.getObject(cache, key);
+        refreshIfRequested(cache, ms, parameterObject, rowBounds, key, boundSql, list != null);
         if (list == null) {
-          list = delegate.<E> query(ms, parameterObject, rowBounds, resultHandler, key, boundSql);
+          list = load(cache, ms, parameterObject, rowBounds, key, boundSql);
           tcm.putObject(cache, key, list); // issue #578 and #116
         }
         return list;
@@ -103,6 +132,63 @@ public class CachingExecutor implements Executor {
     return delegate.<E> query(ms, parameterObject, rowBounds, resultHandler, key, boundSql);
   }
 
+  /*
+   * 按表失效：缓存的结果带有读取时各表的版本，版本变化后视为未命中
+   */
+  @SuppressWarnings("unchecked")
+  private <E> List<E> queryByTable(Cache cache, MappedStatement ms, Object parameterObject, RowBounds rowBounds, CacheKey key, BoundSql boundSql)
+      throws SQLException {
+    TableVersions tableVersions = ms.getConfiguration().getTableVersions();
+    String[] tables = ms.getCacheTables(boundSql);
+    if (tcm.isInvalidated(cache, tables)) {
+      //本事务修改过读取的表，缓存的结果对本事务已经过期，查询的结果提交后也会过期，不再缓存
+      return delegate.<E> query(ms, parameterObject, rowBounds, null, key, boundSql);
+    }
+    Object cached = tcm.getObject(cache, key);
+    boolean hit = cached != null && (!(cached instanceof TableTaggedResult) || ((TableTaggedResult) cached).isCurrent(tableVersions));
+    refreshIfRequested(cache, ms, parameterObject, rowBounds, key, boundSql, hit);
+    if (hit) {
+      return (List<E>) (cached instanceof TableTaggedResult ? ((TableTaggedResult) cached).getValue() : cached);
+    }
+    //版本必须在查询之前获取，查询期间提交的写操作会使这次的结果失效
+    long[] versions = tableVersions.snapshot(tables);
+    List<E> list = load(cache, ms, parameterObject, rowBounds, key, boundSql);
+    tcm.putObject(cache, key, new TableTaggedResult(list, tables, versions));
+    return list;
+  }
+
+  private <E> List<E> load(Cache cache, MappedStatement ms, Object parameterObject, RowBounds rowBounds, CacheKey key, BoundSql boundSql)
+      throws SQLException {
+    long start = System.currentTimeMillis();
+    boolean loaded = false;
+    try {
+      List<E> list = delegate.<E> query(ms, parameterObject, rowBounds, null, key, boundSql);
+      loaded = true;
+      recordLoad(ms, cache, start);
+      return list;
+    } finally {
+      if (!loaded) {
+        //查询失败时立即释放，阻塞的缓存不必等到会话回滚
+        tcm.releaseMissedEntry(cache, key);
+      }
+    }
+  }
+
+  /*
+   * 命中了需要提前刷新的条目时交给后台线程重新查询，未命中时由本次查询加载
+   */
+  private void refreshIfRequested(Cache cache, MappedStatement ms, Object parameterObject, RowBounds rowBounds, CacheKey key, BoundSql boundSql, boolean hit) {
+    ExpiringCache.Refresh refresh = ExpiringCache.pollRefresh();
+    if (refresh == null) {
+      return;
+    }
+    if (hit && key.equals(refresh.getKey())) {
+      ms.getConfiguration().getCacheRefresher().refresh(ms, parameterObject, rowBounds, key, boundSql, cache, refresh);
+    } else {
+      refresh.release();
+    }
+  }
+
   @Override
   public List<BatchResult> flushStatements() throws SQLException {
     return delegate.flushStatements();
@@ -125,6 +211,16 @@ public class CachingExecutor implements Executor {
     }
   }
 
+  /*
+   * 记录缓存未命中时查询数据库的耗时
+   */
+  private void recordLoad(MappedStatement ms, Cache cache, long start) {
+    CacheMetrics metrics = ms.getConfiguration().getCacheMetricsRegistry().getMetrics(cache.getId());
+    if (metrics != null) {
+      metrics.recordLoad(System.currentTimeMillis() - start);
+    }
+  }
+
   private void ensureNoOutParams(MappedStatement ms, Object parameter, BoundSql boundSql) {
     if (ms.getStatementType() == StatementType.CALLABLE) {
       for (ParameterMapping parameterMapping : boundSql.getParameterMappings()) {
@@ -162,6 +258,22 @@ public class CachingExecutor implements Executor {
     }
   }
 
+  /*
+   * 按表失效：记录写入的表，提交时递增版本；无法确定写入的表时清空整个命名空间
+   * 没有配置缓存的命名空间中的写操作同样会使其他命名空间中读取了这些表的结果失效
+   */
+  private void invalidateTablesIfRequired(MappedStatement ms, Object parameterObject) {
+    if (!ms.isFlushCacheRequired()) {
+      return;
+    }
+    String[] tables = ms.getTables() != null ? ms.getTables() : ms.getCacheTables(ms.getBoundSql(parameterObject));
+    if (tables != null) {
+      tcm.invalidateTables(tables, ms.getConfiguration().getTableVersions());
+    } else {
+      flushCacheIfRequired(ms);
+    }
+  }
+
   @Override
   public void setExecutorWrapper(Executor executor) {
     throw new UnsupportedOperationException("This method should not be called");
@@ -19,6 +19,7 @@ import java.sql.SQLException;
 import java.util.List;
 
 import com.jd.mybatis.cache.CacheKey;
+import com.jd.mybatis.cursor.Cursor;
 import com.jd.mybatis.mapping.MappedStatement;
 import com.jd.mybatis.reflection.MetaObject;
 import com.jd.mybatis.session.ResultHandler;
@@ -47,6 +48,8 @@ public interface Executor {
 
   <E> List<E> query(MappedStatement ms, Object parameter, RowBounds rowBounds, ResultHandler resultHandler) throws SQLException;
 
+  <E> Cursor<E> queryCursor(MappedStatement ms, Object parameter, RowBounds rowBounds) throws SQLException;
+
   List<BatchResult> flushStatements() throws SQLException;
 
   void commit(boolean required) throws SQLException;
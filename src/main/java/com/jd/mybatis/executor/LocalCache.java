@@ -0,0 +1,153 @@
+/**
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.jd.mybatis.executor;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.jd.mybatis.cache.Cache;
+import com.jd.mybatis.cache.impl.PerpetualCache;
+import com.jd.mybatis.cache.weigher.ObjectSizeEstimator;
+import com.jd.mybatis.cache.weigher.Weigher;
+
+/**
+ * The first level cache of an executor, optionally bounded by entries and estimated bytes.
+ * 按访问顺序保存，超过localCacheSize或localCacheMaxBytes时淘汰最久未使用的结果。
+ * 嵌套查询、循环引用和延迟的DeferredLoad都依赖本次查询期间缓存的结果，
+ * 所以查询期间只记录，由BaseExecutor在最外层查询结束后调用{@link #trim(Cache)}淘汰。
+ *
+ * @author Clinton Begin
+ */
+public class LocalCache extends PerpetualCache {
+
+  private final LinkedHashMap<Object, Object> entries;
+  private final int maxEntries;
+  private final long maxBytes;
+  private final Weigher weigher;
+  private final Map<Object, Long> weights;
+  private long weight;
+  // useLocalCache=false的语句的结果，最外层查询结束后删除
+  private final List<Object> transientKeys = new ArrayList<Object>();
+
+  public LocalCache(String id) {
+    this(id, 0, 0);
+  }
+
+  /*
+   * @param maxEntries - the maximum number of results kept after a query, 0 for no limit
+   * @param maxBytes - the maximum estimated size of the results kept after a query, 0 for no limit
+   */
+  public LocalCache(String id, int maxEntries, long maxBytes) {
+    this(id, new LinkedHashMap<Object, Object>(16, 0.75f, true), maxEntries, maxBytes);
+  }
+
+  private LocalCache(String id, LinkedHashMap<Object, Object> entries, int maxEntries, long maxBytes) {
+    super(id, entries);
+    this.entries = entries;
+    this.maxEntries = maxEntries;
+    this.maxBytes = maxBytes;
+    this.weigher = maxBytes > 0 ? new ObjectSizeEstimator() : null;
+    this.weights = maxBytes > 0 ? new HashMap<Object, Long>() : null;
+  }
+
+  @Override
+  public void putObject(Object key, Object value) {
+    super.putObject(key, value);
+    if (weights != null) {
+      long entryWeight = value == ExecutionPlaceholder.EXECUTION_PLACEHOLDER ? 0 : weigher.weigh(value);
+      Long previous = weights.put(key, entryWeight);
+      weight += entryWeight - (previous == null ? 0 : previous);
+    }
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    if (weights != null) {
+      Long previous = weights.remove(key);
+      if (previous != null) {
+        weight -= previous;
+      }
+    }
+    return super.removeObject(key);
+  }
+
+  @Override
+  public void clear() {
+    super.clear();
+    transientKeys.clear();
+    if (weights != null) {
+      weights.clear();
+      weight = 0;
+    }
+  }
+
+  /*
+   * Marks a result that must not outlive the current top level query.
+   */
+  public void markTransient(Object key) {
+    transientKeys.add(key);
+  }
+
+  /*
+   * Drops transient results and evicts the least recently used ones until the limits are met.
+   *
+   * @param companion - a cache keyed the same way whose entries are removed together, may be null
+   */
+  public void trim(Cache companion) {
+    if (!transientKeys.isEmpty()) {
+      for (Object key : transientKeys) {
+        removeObject(key);
+        if (companion != null) {
+          companion.removeObject(key);
+        }
+      }
+      transientKeys.clear();
+    }
+    if (!isOverLimit()) {
+      return;
+    }
+    Iterator<Map.Entry<Object, Object>> eldest = entries.entrySet().iterator();
+    while (eldest.hasNext() && isOverLimit()) {
+      Object key = eldest.next().getKey();
+      eldest.remove();
+      if (weights != null) {
+        Long entryWeight = weights.remove(key);
+        if (entryWeight != null) {
+          weight -= entryWeight;
+        }
+      }
+      if (companion != null) {
+        companion.removeObject(key);
+      }
+    }
+  }
+
+  private boolean isOverLimit() {
+    return (maxEntries > 0 && entries.size() > maxEntries) || (maxBytes > 0 && weight > maxBytes);
+  }
+
+  /*
+   * @return the estimated size of the cached results, -1 if the size is not limited
+   */
+  public long getWeight() {
+    return weights == null ? -1 : weight;
+  }
+
+}
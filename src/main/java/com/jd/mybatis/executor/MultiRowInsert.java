@@ -0,0 +1,370 @@
+/**
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.jd.mybatis.executor;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.jd.mybatis.executor.statement.StatementHandler;
+import com.jd.mybatis.mapping.BoundSql;
+import com.jd.mybatis.mapping.MappedStatement;
+import com.jd.mybatis.mapping.ParameterMapping;
+import com.jd.mybatis.mapping.ParameterMode;
+import com.jd.mybatis.reflection.ExceptionUtil;
+
+/**
+ * The shape of a single row INSERT ... VALUES (...) that BatchExecutor rewrites into multi row inserts.
+ * 只处理VALUES后面只有一组括号、所有参数都在这组括号中的INSERT/REPLACE语句，
+ * VALUES之后有其他子句（如ON DUPLICATE KEY UPDATE）、INSERT ... SELECT或者含有注释的SQL不改写。
+ * 每种行数的SQL只拼接一次，按原SQL缓存，最多缓存{@value #MAX_TEMPLATES}条SQL。
+ * 一条语句的参数个数受数据库限制，没有配置multiRowInsertMaxParameters时按数据库产品名确定。
+ * 异步执行批处理时，其他语句也通过{@link #forSingleRow(BoundSql)}按原样缓存参数，由后台线程逐行加入JDBC批处理。
+ * 缓存的参数由StatementHandler.parameterize设置，与立即加入批处理的语句一样经过配置的ParameterHandler和插件。
+ *
+ * @author Jeff Butler
+ */
+final class MultiRowInsert {
+
+  private static final int MAX_TEMPLATES = 256;
+  // 不认识的数据库不一定支持VALUES (...),(...)，每条语句只放一行
+  private static final int NOT_SUPPORTED = 0;
+  private static final MultiRowInsert NOT_REWRITABLE = new MultiRowInsert(null, null, 0, false);
+  private static final ConcurrentHashMap<String, MultiRowInsert> templates = new ConcurrentHashMap<String, MultiRowInsert>();
+
+  private final String prefix;
+  private final String values;
+  private final int parameterCount;
+  private final boolean rewritable;
+  private final ConcurrentHashMap<Integer, String> shapes = new ConcurrentHashMap<Integer, String>();
+
+  private MultiRowInsert(String prefix, String values, int parameterCount, boolean rewritable) {
+    this.prefix = prefix;
+    this.values = values;
+    this.parameterCount = parameterCount;
+    this.rewritable = rewritable;
+  }
+
+  /*
+   * Returns the template of the given statement, or null if its rows can not be rewritten.
+   */
+  static MultiRowInsert forStatement(MappedStatement ms, BoundSql boundSql) {
+    final String sql = boundSql.getSql();
+    MultiRowInsert template = templates.get(sql);
+    if (template == null) {
+      template = parse(sql);
+      if (templates.size() < MAX_TEMPLATES) {
+        templates.putIfAbsent(sql, template);
+      }
+    }
+    if (template == NOT_REWRITABLE || template.parameterCount != boundSql.getParameterMappings().size() || hasOutParameters(boundSql)) {
+      return null;
+    }
+    return template;
+  }
+
+  /*
+   * Returns a template that executes the statement as it is, one row at a time, or null if it has OUT parameters.
+   */
+  static MultiRowInsert forSingleRow(BoundSql boundSql) {
+    if (hasOutParameters(boundSql)) {
+      return null;
+    }
+    return new MultiRowInsert("", boundSql.getSql(), boundSql.getParameterMappings().size(), false);
+  }
+
+  private static boolean hasOutParameters(BoundSql boundSql) {
+    for (ParameterMapping parameterMapping : boundSql.getParameterMappings()) {
+      if (parameterMapping.getMode() == ParameterMode.OUT) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /*
+   * Returns the number of parameters one statement of the connected database may use, 0 if it can not be rewritten.
+   */
+  static int getMaxParameters(Connection connection) {
+    try {
+      return getMaxParameters(connection.getMetaData().getDatabaseProductName());
+    } catch (SQLException e) {
+      return NOT_SUPPORTED;
+    }
+  }
+
+  /*
+   * MySQL、MariaDB、H2、HSQLDB 65535，PostgreSQL、DB2 32767，SQL Server 2100，SQLite 999。
+   * Oracle（23c之前）不支持一条INSERT有多组VALUES，和其他不认识的数据库一样返回0，每条语句只放一行。
+   */
+  static int getMaxParameters(String databaseProductName) {
+    if (databaseProductName == null) {
+      return NOT_SUPPORTED;
+    }
+    final String product = databaseProductName.toLowerCase(Locale.ENGLISH);
+    if (product.contains("mysql") || product.contains("mariadb") || product.startsWith("h2") || product.contains("hsql")) {
+      return 65535;
+    } else if (product.contains("postgresql") || product.startsWith("db2")) {
+      return 32767;
+    } else if (product.contains("sql server")) {
+      return 2100;
+    } else if (product.contains("sqlite")) {
+      return 999;
+    }
+    return NOT_SUPPORTED;
+  }
+
+  boolean isRewritable() {
+    return rewritable;
+  }
+
+  /*
+   * @return the number of rows put into one statement, at most rowsPerStatement and maxParameters parameters,
+   * 1 if maxParameters is 0
+   */
+  int getRowsPerStatement(int rowsPerStatement, int maxParameters) {
+    if (!rewritable || maxParameters <= 0) {
+      return 1;
+    }
+    if (parameterCount == 0) {
+      return rowsPerStatement;
+    }
+    return Math.max(1, Math.min(rowsPerStatement, maxParameters / parameterCount));
+  }
+
+  String getSql(int rows) {
+    if (!rewritable) {
+      return values;
+    }
+    String sql = shapes.get(rows);
+    if (sql == null) {
+      StringBuilder builder = new StringBuilder(prefix.length() + rows * (values.length() + 1));
+      builder.append(prefix).append(values);
+      for (int i = 1; i < rows; i++) {
+        builder.append(',').append(values);
+      }
+      sql = builder.toString();
+      shapes.putIfAbsent(rows, sql);
+    }
+    return sql;
+  }
+
+  static MultiRowInsert parse(String sql) {
+    String trimmed = sql.trim();
+    while (trimmed.endsWith(";")) {
+      trimmed = trimmed.substring(0, trimmed.length() - 1).trim();
+    }
+    final String upper = trimmed.toUpperCase(Locale.ENGLISH);
+    if (!upper.startsWith("INSERT") && !upper.startsWith("REPLACE")) {
+      return NOT_REWRITABLE;
+    }
+    int valuesStart = -1;
+    int valuesEnd = -1;
+    int depth = 0;
+    int parameters = 0;
+    int valuesParameters = 0;
+    char quote = 0;
+    for (int i = 0; i < trimmed.length(); i++) {
+      final char c = trimmed.charAt(i);
+      if (quote != 0) {
+        if (c == quote) {
+          quote = 0;
+        }
+        continue;
+      }
+      if (c == '\'' || c == '"' || c == '`') {
+        quote = c;
+      } else if (c == '-' && upper.startsWith("--", i) || c == '/' && upper.startsWith("/*", i)) {
+        return NOT_REWRITABLE;
+      } else if (c == '?') {
+        parameters++;
+        if (valuesStart >= 0 && valuesEnd < 0) {
+          valuesParameters++;
+        }
+      } else if (c == '(') {
+        if (depth == 0 && valuesStart < 0 && isValuesKeyword(upper, i)) {
+          valuesStart = i;
+        }
+        depth++;
+      } else if (c == ')') {
+        depth--;
+        if (depth == 0 && valuesStart >= 0 && valuesEnd < 0) {
+          valuesEnd = i + 1;
+        }
+      }
+    }
+    if (valuesEnd < 0 || quote != 0 || depth != 0 || valuesEnd != trimmed.length() || valuesParameters != parameters) {
+      return NOT_REWRITABLE;
+    }
+    return new MultiRowInsert(trimmed.substring(0, valuesStart), trimmed.substring(valuesStart, valuesEnd), parameters, true);
+  }
+
+  /*
+   * Whether the parenthesis at the given index follows the VALUES keyword
+   */
+  private static boolean isValuesKeyword(String upper, int index) {
+    int end = index;
+    while (end > 0 && Character.isWhitespace(upper.charAt(end - 1))) {
+      end--;
+    }
+    int start = end - "VALUES".length();
+    return start > 0 && upper.startsWith("VALUES", start) && !Character.isJavaIdentifierPart(upper.charAt(start - 1));
+  }
+
+  /**
+   * The rows of one batch. Each row is parameterized when it is added through the statement handler, so the configured
+   * ParameterHandler, its type handlers and the plugins run as for a statement that is batched right away,
+   * the setXxx calls are recorded and replayed on the executed statement with the index shifted to the row.
+   */
+  static final class Rows {
+
+    private final MultiRowInsert template;
+    private final List<List<ParameterCall>> rows = new ArrayList<List<ParameterCall>>();
+
+    Rows(MultiRowInsert template) {
+      this.template = template;
+    }
+
+    MultiRowInsert getTemplate() {
+      return template;
+    }
+
+    int size() {
+      return rows.size();
+    }
+
+    void add(StatementHandler handler) throws SQLException {
+      final ParameterRecorder recorder = new ParameterRecorder(template.parameterCount);
+      handler.parameterize(recorder.newProxy());
+      rows.add(recorder.calls);
+    }
+
+    /*
+     * Sets the parameters of the given rows, the first row at the first placeholder.
+     */
+    void setParameters(PreparedStatement ps, int fromRow, int count) throws SQLException {
+      int offset = 0;
+      for (int r = fromRow; r < fromRow + count; r++) {
+        for (ParameterCall call : rows.get(r)) {
+          call.apply(ps, offset);
+        }
+        offset += template.parameterCount;
+      }
+    }
+
+    /*
+     * Spreads the update count of each executed statement over its rows.
+     */
+    static void setUpdateCounts(int[] updateCounts, int fromRow, int rowsPerStatement, int[] statementCounts) {
+      int row = fromRow;
+      for (int count : statementCounts) {
+        for (int i = 0; i < rowsPerStatement && row < updateCounts.length; i++) {
+          if (rowsPerStatement == 1) {
+            updateCounts[row++] = count;
+          } else {
+            updateCounts[row++] = count == rowsPerStatement ? 1 : Statement.SUCCESS_NO_INFO;
+          }
+        }
+      }
+    }
+
+  }
+
+  /**
+   * One recorded setXxx(index, ...) call.
+   */
+  private static final class ParameterCall {
+
+    private final Method method;
+    private final Object[] args;
+
+    private ParameterCall(Method method, Object[] args) {
+      this.method = method;
+      this.args = args;
+    }
+
+    private void apply(PreparedStatement ps, int offset) throws SQLException {
+      final Object[] shifted = args.clone();
+      shifted[0] = (Integer) args[0] + offset;
+      try {
+        method.invoke(ps, shifted);
+      } catch (Exception e) {
+        Throwable cause = ExceptionUtil.unwrapThrowable(e);
+        if (cause instanceof SQLException) {
+          throw (SQLException) cause;
+        }
+        throw new ExecutorException("Error setting buffered batch parameter.  Cause: " + cause, cause);
+      }
+    }
+
+  }
+
+  /*
+   * The PreparedStatement handed to StatementHandler.parameterize while a row is buffered, records the parameters it is given.
+   * 只支持设置参数的方法，TypeHandler或插件调用其他方法（如getConnection）时抛出异常，这样的语句不能使用multiRowInsertSize和asyncBatchFlushEnabled。
+   */
+  private static final class ParameterRecorder implements InvocationHandler {
+
+    private final int parameterCount;
+    private final List<ParameterCall> calls = new ArrayList<ParameterCall>();
+
+    private ParameterRecorder(int parameterCount) {
+      this.parameterCount = parameterCount;
+    }
+
+    private PreparedStatement newProxy() {
+      return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(), new Class<?>[] { PreparedStatement.class }, this);
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+      final String name = method.getName();
+      if (Object.class.equals(method.getDeclaringClass())) {
+        if ("equals".equals(name)) {
+          return proxy == args[0];
+        } else if ("hashCode".equals(name)) {
+          return System.identityHashCode(proxy);
+        }
+        return "Buffered batch row parameters " + calls;
+      }
+      if (name.startsWith("set") && args != null && args.length >= 2 && method.getParameterTypes()[0] == int.class) {
+        final int index = (Integer) args[0];
+        if (index < 1 || index > parameterCount) {
+          throw new SQLException("Parameter index " + index + " is out of range (1, " + parameterCount + ") for a buffered batch row");
+        }
+        calls.add(new ParameterCall(method, args.clone()));
+        return null;
+      }
+      if ("clearParameters".equals(name)) {
+        calls.clear();
+        return null;
+      }
+      throw new SQLFeatureNotSupportedException("PreparedStatement." + name + " is not available while the parameters of a buffered batch row are set."
+          + " Disable multiRowInsertSize and asyncBatchFlushEnabled for statements whose type handlers or plugins need it.");
+    }
+
+  }
+
+}
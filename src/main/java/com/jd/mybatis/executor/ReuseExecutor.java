@@ -23,6 +23,8 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import com.jd.mybatis.cursor.Cursor;
+import com.jd.mybatis.datasource.pooled.PreparedStatementCache;
 import com.jd.mybatis.executor.statement.StatementHandler;
 import com.jd.mybatis.logging.Log;
 import com.jd.mybatis.mapping.BoundSql;
@@ -33,6 +35,9 @@ import com.jd.mybatis.transaction.Transaction;
 import com.jd.mybatis.session.RowBounds;
 
 /**
+ * 在一个会话内按SQL复用Statement。连接池开启了poolStatementCacheSize时，
+ * PreparedStatement由物理连接的语句缓存跨会话复用，用完即归还，不再放入statementMap。
+ *
  * @author Clinton Begin
  */
 public class ReuseExecutor extends BaseExecutor {
@@ -48,7 +53,11 @@ public class ReuseExecutor extends BaseExecutor {
         Configuration configuration = ms.getConfiguration();
         StatementHandler handler = configuration.newStatementHandler(this, ms, parameter, RowBounds.DEFAULT, null, null);
         Statement stmt = prepareStatement(handler, ms.getStatementLog());
-        return handler.update(stmt);
+        try {
+            return handler.update(stmt);
+        } finally {
+            releaseStatement(stmt);
+        }
     }
 
     @Override
@@ -56,7 +65,35 @@ public class ReuseExecutor extends BaseExecutor {
         Configuration configuration = ms.getConfiguration();
         StatementHandler handler = configuration.newStatementHandler(wrapper, ms, parameter, rowBounds, resultHandler, boundSql);
         Statement stmt = prepareStatement(handler, ms.getStatementLog());
-        return handler.<E>query(stmt, resultHandler);
+        startStreaming(ms, stmt);
+        try {
+            return handler.<E>query(stmt, resultHandler);
+        } finally {
+            releaseStatement(stmt);
+        }
+    }
+
+    /*
+     * 游标在读完之前一直占用Statement，不能放入statementMap被后续查询复用
+     */
+    @Override
+    protected <E> Cursor<E> doQueryCursor(MappedStatement ms, Object parameter, RowBounds rowBounds, BoundSql boundSql) throws SQLException {
+        Configuration configuration = ms.getConfiguration();
+        StatementHandler handler = configuration.newStatementHandler(wrapper, ms, parameter, rowBounds, null, boundSql);
+        Connection connection = getConnection(ms.getStatementLog());
+        Statement stmt = handler.prepare(connection);
+        try {
+            handler.parameterize(stmt);
+            startStreaming(ms, stmt);
+            closeOnCompletion(stmt);
+            return handler.<E>queryCursor(stmt);
+        } catch (SQLException e) {
+            closeCursorStatement(stmt);
+            throw e;
+        } catch (RuntimeException e) {
+            closeCursorStatement(stmt);
+            throw e;
+        }
     }
 
     @Override
@@ -77,12 +114,23 @@ public class ReuseExecutor extends BaseExecutor {
         } else {
             Connection connection = getConnection(statementLog);
             stmt = handler.prepare(connection);
-            putStatement(sql, stmt);
+            if (!PreparedStatementCache.isCached(stmt)) {
+                putStatement(sql, stmt);
+            }
         }
         handler.parameterize(stmt);
         return stmt;
     }
 
+    /*
+     * 归还连接语句缓存中的Statement，statementMap中的Statement在flushStatements时关闭
+     */
+    private void releaseStatement(Statement stmt) {
+        if (PreparedStatementCache.isCached(stmt)) {
+            closeStatement(stmt);
+        }
+    }
+
     private boolean hasStatementFor(String sql) {
         try {
             return statementMap.keySet().contains(sql) && !statementMap.get(sql).getConnection().isClosed();
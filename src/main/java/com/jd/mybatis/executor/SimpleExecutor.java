@@ -21,6 +21,7 @@ import java.sql.Statement;
 import java.util.Collections;
 import java.util.List;
 
+import com.jd.mybatis.cursor.Cursor;
 import com.jd.mybatis.executor.statement.StatementHandler;
 import com.jd.mybatis.logging.Log;
 import com.jd.mybatis.mapping.BoundSql;
@@ -61,6 +62,7 @@ public class SimpleExecutor extends BaseExecutor {
       StatementHandler handler = configuration.newStatementHandler(wrapper, ms, parameter, rowBounds, resultHandler, boundSql);
       //6. 创建java.Sql.Statement对象，传递给StatementHandler对象
       stmt = prepareStatement(handler, ms.getStatementLog());
+      startStreaming(ms, stmt);
       //7. 调用StatementHandler.query()方法，返回List结果集  
       return handler.<E>query(stmt, resultHandler);
     } finally {
@@ -68,6 +70,26 @@ public class SimpleExecutor extends BaseExecutor {
     }
   }
 
+  @Override
+  protected <E> Cursor<E> doQueryCursor(MappedStatement ms, Object parameter, RowBounds rowBounds, BoundSql boundSql) throws SQLException {
+    Configuration configuration = ms.getConfiguration();
+    StatementHandler handler = configuration.newStatementHandler(wrapper, ms, parameter, rowBounds, null, boundSql);
+    Connection connection = getConnection(ms.getStatementLog());
+    Statement stmt = handler.prepare(connection);
+    try {
+      handler.parameterize(stmt);
+      startStreaming(ms, stmt);
+      closeOnCompletion(stmt);
+      return handler.<E>queryCursor(stmt);
+    } catch (SQLException e) {
+      closeCursorStatement(stmt);
+      throw e;
+    } catch (RuntimeException e) {
+      closeCursorStatement(stmt);
+      throw e;
+    }
+  }
+
   @Override
   public List<BatchResult> doFlushStatements(boolean isRollback) throws SQLException {
     return Collections.emptyList();
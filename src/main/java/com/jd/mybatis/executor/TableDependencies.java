@@ -0,0 +1,145 @@
+/**
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.jd.mybatis.executor;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The tables an INSERT may depend on through foreign keys, read once per table from the database metadata.
+ * BatchExecutor交错合并INSERT时，追加到较早Statement的行会在之后打开的Statement之前执行，
+ * 只有这一行的表不引用之后那些Statement的表时才能这样合并，否则打开新的Statement，保持原来的执行顺序。
+ * 无法解析表名或者读取元数据失败时视为依赖未知，不交错合并。
+ *
+ * @author Clinton Begin
+ */
+public class TableDependencies {
+
+  private static final int MAX_TABLES = 1024;
+  private static final Pattern INSERT_TABLE = Pattern.compile(
+      "^\\s*(?:INSERT|REPLACE)\\s+(?:(?:LOW_PRIORITY|DELAYED|HIGH_PRIORITY|IGNORE)\\s+)*(?:INTO\\s+)?([^\\s(]+)",
+      Pattern.CASE_INSENSITIVE);
+  // 记录无法解析表名的SQL
+  private static final String UNKNOWN_TABLE = "";
+  private static final Set<String> UNKNOWN_REFERENCES = Collections.unmodifiableSet(new HashSet<String>());
+
+  private final ConcurrentHashMap<String, String> tables = new ConcurrentHashMap<String, String>();
+  private final ConcurrentHashMap<String, Set<String>> references = new ConcurrentHashMap<String, Set<String>>();
+
+  /*
+   * Returns the name of the table the INSERT writes to without quotes, or null if it can not be parsed
+   */
+  public String getTable(String sql) {
+    String table = tables.get(sql);
+    if (table == null) {
+      table = parseTable(sql);
+      if (tables.size() < MAX_TABLES) {
+        tables.putIfAbsent(sql, table);
+      }
+    }
+    return table == UNKNOWN_TABLE ? null : table;
+  }
+
+  /*
+   * Whether the references of the table have already been read, so the connection is not needed
+   */
+  public boolean isResolved(String table) {
+    return references.containsKey(table);
+  }
+
+  /*
+   * Whether a row inserted into the table may reference a row of the other table
+   */
+  public boolean references(Connection connection, String table, String otherTable) {
+    Set<String> referenced = getReferencedTables(connection, table);
+    return referenced == null || referenced.contains(otherTable.toUpperCase(Locale.ENGLISH));
+  }
+
+  /*
+   * Returns the upper case names of the tables the given table references, or null if they are unknown
+   */
+  public Set<String> getReferencedTables(Connection connection, String table) {
+    Set<String> referenced = references.get(table);
+    if (referenced == null) {
+      referenced = readReferencedTables(connection, table);
+      if (references.size() < MAX_TABLES) {
+        references.putIfAbsent(table, referenced);
+      }
+    }
+    return referenced == UNKNOWN_REFERENCES ? null : referenced;
+  }
+
+  public void clear() {
+    tables.clear();
+    references.clear();
+  }
+
+  private static String parseTable(String sql) {
+    Matcher matcher = INSERT_TABLE.matcher(sql);
+    if (!matcher.find()) {
+      return UNKNOWN_TABLE;
+    }
+    String name = matcher.group(1);
+    // schema.table只取表名，去掉引号
+    int dot = name.lastIndexOf('.');
+    if (dot >= 0) {
+      name = name.substring(dot + 1);
+    }
+    name = name.replace("`", "").replace("\"", "").replace("[", "").replace("]", "");
+    return name.isEmpty() ? UNKNOWN_TABLE : name;
+  }
+
+  private static Set<String> readReferencedTables(Connection connection, String table) {
+    try {
+      DatabaseMetaData metaData = connection.getMetaData();
+      String name = table;
+      if (metaData.storesUpperCaseIdentifiers()) {
+        name = table.toUpperCase(Locale.ENGLISH);
+      } else if (metaData.storesLowerCaseIdentifiers()) {
+        name = table.toLowerCase(Locale.ENGLISH);
+      }
+      Set<String> referenced = new HashSet<String>();
+      ResultSet rs = metaData.getImportedKeys(connection.getCatalog(), null, name);
+      try {
+        while (rs.next()) {
+          String pkTable = rs.getString("PKTABLE_NAME");
+          if (pkTable != null) {
+            referenced.add(pkTable.toUpperCase(Locale.ENGLISH));
+          }
+        }
+      } finally {
+        rs.close();
+      }
+      return referenced;
+    } catch (SQLException e) {
+      return UNKNOWN_REFERENCES;
+    } catch (RuntimeException e) {
+      return UNKNOWN_REFERENCES;
+    } catch (AbstractMethodError e) {
+      return UNKNOWN_REFERENCES;
+    }
+  }
+
+}
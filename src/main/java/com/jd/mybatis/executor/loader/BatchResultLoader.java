@@ -0,0 +1,351 @@
+/**
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.jd.mybatis.executor.loader;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.sql.DataSource;
+
+import com.jd.mybatis.executor.Executor;
+import com.jd.mybatis.executor.ExecutorException;
+import com.jd.mybatis.executor.ResultExtractor;
+import com.jd.mybatis.mapping.Environment;
+import com.jd.mybatis.mapping.MappedStatement;
+import com.jd.mybatis.mapping.ResultFlag;
+import com.jd.mybatis.mapping.ResultMap;
+import com.jd.mybatis.mapping.ResultMapping;
+import com.jd.mybatis.reflection.MetaClass;
+import com.jd.mybatis.reflection.MetaObject;
+import com.jd.mybatis.session.Configuration;
+import com.jd.mybatis.session.ExecutorType;
+import com.jd.mybatis.session.RowBounds;
+import com.jd.mybatis.session.defaults.DefaultSqlSession.StrictMap;
+import com.jd.mybatis.transaction.Transaction;
+import com.jd.mybatis.transaction.TransactionFactory;
+
+/**
+ * Loads a nested select for many parent objects with one query per batch of keys.
+ * 嵌套查询的参数是外键的列表（以list和collection传入，与selectList传入集合时相同），
+ * 查询到的子对象按foreignColumn对应的属性（未指定时为子结果映射的id）分组后赋给对应的父对象。
+ * 延迟加载时同一次查询得到的对象共用一个实例，第一次触发时连同其他还未加载的对象一起查询，最多batchSize个外键。
+ *
+ * @author Clinton Begin
+ */
+public class BatchResultLoader {
+
+  protected final Configuration configuration;
+  protected final Executor executor;
+  protected final MappedStatement mappedStatement;
+  protected final String property;
+  protected final Class<?> targetType;
+  protected final int batchSize;
+  protected final ResultExtractor resultExtractor;
+  protected final long creatorThreadId;
+  // 子对象上与外键比较的属性
+  private final String keyProperty;
+  // 外键（已归一化） -> 等待赋值的父对象
+  private final Map<Object, PendingKey> pendingKeys = new LinkedHashMap<Object, PendingKey>();
+  // 外键（已归一化） -> 还未加载的延迟加载器
+  private final Map<Object, List<LazyResultLoader>> lazyLoaders = new LinkedHashMap<Object, List<LazyResultLoader>>();
+
+  public BatchResultLoader(Configuration configuration, Executor executor, MappedStatement mappedStatement, ResultMapping resultMapping) {
+    this.configuration = configuration;
+    this.executor = executor;
+    this.mappedStatement = mappedStatement;
+    this.property = resultMapping.getProperty();
+    this.targetType = resultMapping.getJavaType();
+    this.batchSize = resultMapping.getBatchSize();
+    this.resultExtractor = new ResultExtractor(configuration, configuration.getObjectFactory());
+    this.keyProperty = resolveKeyProperty(resultMapping.getForeignColumn());
+    this.creatorThreadId = Thread.currentThread().getId();
+  }
+
+  /*
+   * Returns a loader for ResultLoaderMap that loads the property of this parent together with its lazy siblings.
+   */
+  public synchronized ResultLoader addLazyParent(Object key) {
+    LazyResultLoader resultLoader = new LazyResultLoader(this, key, wrapKeys(Collections.singletonList(key)));
+    Object normalizedKey = normalizeKey(key);
+    List<LazyResultLoader> loaders = lazyLoaders.get(normalizedKey);
+    if (loaders == null) {
+      loaders = new ArrayList<LazyResultLoader>();
+      lazyLoaders.put(normalizedKey, loaders);
+    }
+    loaders.add(resultLoader);
+    return resultLoader;
+  }
+
+  /*
+   * Registers a parent whose property will be set by the next load().
+   */
+  public void addParent(MetaObject parent, Object key) {
+    Object normalizedKey = normalizeKey(key);
+    PendingKey pendingKey = pendingKeys.get(normalizedKey);
+    if (pendingKey == null) {
+      pendingKey = new PendingKey(key);
+      pendingKeys.put(normalizedKey, pendingKey);
+    }
+    pendingKey.parents.add(parent);
+  }
+
+  public boolean isEmpty() {
+    return pendingKeys.isEmpty();
+  }
+
+  /*
+   * Runs the nested select for all registered parents, batchSize keys at a time.
+   */
+  public void load() throws SQLException {
+    List<PendingKey> batch = new ArrayList<PendingKey>(Math.min(batchSize, pendingKeys.size()));
+    for (PendingKey pendingKey : pendingKeys.values()) {
+      batch.add(pendingKey);
+      if (batch.size() == batchSize) {
+        loadBatch(batch);
+        batch.clear();
+      }
+    }
+    if (!batch.isEmpty()) {
+      loadBatch(batch);
+    }
+    pendingKeys.clear();
+  }
+
+  /*
+   * Runs the nested select for a single key and returns the value of the property.
+   */
+  public Object loadResult(Object key) throws SQLException {
+    List<Object> keys = new ArrayList<Object>(1);
+    keys.add(key);
+    Map<Object, List<Object>> children = selectChildren(keys);
+    return extract(children.get(normalizeKey(key)));
+  }
+
+  /*
+   * 加载触发的外键和之后登记的其他外键，每个加载器保存自己的结果，在各自的属性被访问时赋值
+   */
+  private synchronized void loadLazily(LazyResultLoader trigger) throws SQLException {
+    if (trigger.isLoaded()) {
+      return;
+    }
+    Object triggerKey = normalizeKey(trigger.key);
+    List<Object> keys = new ArrayList<Object>(Math.min(batchSize, lazyLoaders.size() + 1));
+    keys.add(trigger.key);
+    for (Map.Entry<Object, List<LazyResultLoader>> entry : lazyLoaders.entrySet()) {
+      if (keys.size() == batchSize) {
+        break;
+      }
+      if (!entry.getKey().equals(triggerKey)) {
+        keys.add(entry.getValue().get(0).key);
+      }
+    }
+    Map<Object, List<Object>> children = selectChildren(keys);
+    for (Object key : keys) {
+      Object normalizedKey = normalizeKey(key);
+      List<LazyResultLoader> loaders = lazyLoaders.remove(normalizedKey);
+      if (loaders != null) {
+        for (LazyResultLoader loader : loaders) {
+          loader.setResult(extract(children.get(normalizedKey)));
+        }
+      }
+    }
+  }
+
+  private void loadBatch(List<PendingKey> batch) throws SQLException {
+    List<Object> keys = new ArrayList<Object>(batch.size());
+    for (PendingKey pendingKey : batch) {
+      keys.add(pendingKey.key);
+    }
+    Map<Object, List<Object>> children = selectChildren(keys);
+    for (PendingKey pendingKey : batch) {
+      List<Object> list = children.get(normalizeKey(pendingKey.key));
+      for (MetaObject parent : pendingKey.parents) {
+        // 每个父对象使用自己的集合
+        Object value = extract(list);
+        if (value != null || (configuration.isCallSettersOnNulls() && !parent.getSetterType(property).isPrimitive())) {
+          parent.setValue(property, value);
+        }
+      }
+    }
+  }
+
+  private static StrictMap<Object> wrapKeys(List<Object> keys) {
+    StrictMap<Object> parameter = new StrictMap<Object>();
+    parameter.put("collection", keys);
+    parameter.put("list", keys);
+    return parameter;
+  }
+
+  private Map<Object, List<Object>> selectChildren(List<Object> keys) throws SQLException {
+    List<Object> list = selectList(wrapKeys(keys));
+    Map<Object, List<Object>> children = new HashMap<Object, List<Object>>();
+    for (Object child : list) {
+      if (child == null) {
+        continue;
+      }
+      Object key = normalizeKey(configuration.newMetaObject(child).getValue(keyProperty));
+      List<Object> group = children.get(key);
+      if (group == null) {
+        group = new ArrayList<Object>();
+        children.put(key, group);
+      }
+      group.add(child);
+    }
+    return children;
+  }
+
+  /*
+   * 与ResultLoader相同：延迟加载可能发生在其他线程或会话关闭之后，此时使用新的执行器
+   */
+  private List<Object> selectList(Object parameter) throws SQLException {
+    Executor localExecutor = executor;
+    if (Thread.currentThread().getId() != this.creatorThreadId || localExecutor.isClosed()) {
+      localExecutor = newExecutor();
+    }
+    try {
+      return localExecutor.query(mappedStatement, parameter, RowBounds.DEFAULT, Executor.NO_RESULT_HANDLER);
+    } finally {
+      if (localExecutor != executor) {
+        localExecutor.close(false);
+      }
+    }
+  }
+
+  private Executor newExecutor() {
+    final Environment environment = configuration.getEnvironment();
+    if (environment == null) {
+      throw new ExecutorException("BatchResultLoader could not load lazily.  Environment was not configured.");
+    }
+    final DataSource ds = environment.getDataSource();
+    if (ds == null) {
+      throw new ExecutorException("BatchResultLoader could not load lazily.  DataSource was not configured.");
+    }
+    final TransactionFactory transactionFactory = environment.getTransactionFactory();
+    final Transaction tx = transactionFactory.newTransaction(ds, null, false);
+    return configuration.newExecutor(tx, ExecutorType.SIMPLE);
+  }
+
+  private Object extract(List<Object> list) {
+    return resultExtractor.extractObjectFromList(list == null ? new ArrayList<Object>() : new ArrayList<Object>(list), targetType);
+  }
+
+  private String resolveKeyProperty(String foreignColumn) {
+    ResultMap resultMap = mappedStatement.getResultMaps().get(0);
+    if (foreignColumn == null) {
+      String idProperty = null;
+      for (ResultMapping resultMapping : resultMap.getResultMappings()) {
+        if (resultMapping.getFlags().contains(ResultFlag.ID)) {
+          if (idProperty != null) {
+            idProperty = null;
+            break;
+          }
+          idProperty = resultMapping.getProperty();
+        }
+      }
+      if (idProperty == null) {
+        throw new ExecutorException("Batched nested select " + mappedStatement.getId() + " for property '" + property
+            + "' needs a foreignColumn attribute because its result map has no single id.");
+      }
+      return idProperty;
+    }
+    for (ResultMapping resultMapping : resultMap.getResultMappings()) {
+      if (resultMapping.getColumn() != null && resultMapping.getProperty() != null
+          && resultMapping.getColumn().equalsIgnoreCase(foreignColumn)) {
+        return resultMapping.getProperty();
+      }
+    }
+    if (Map.class.isAssignableFrom(resultMap.getType())) {
+      return foreignColumn;
+    }
+    // 自动映射的列
+    MetaClass metaClass = MetaClass.forClass(resultMap.getType(), configuration.getReflectorFactory());
+    String property = metaClass.findProperty(foreignColumn, configuration.isMapUnderscoreToCamelCase());
+    if (property == null) {
+      throw new ExecutorException("Batched nested select " + mappedStatement.getId() + " has no property for foreignColumn '"
+          + foreignColumn.toUpperCase(Locale.ENGLISH) + "'.");
+    }
+    return property;
+  }
+
+  /*
+   * 外键和子对象属性的数字类型可能不同（如Long和Integer），整数统一按Long比较
+   */
+  private static Object normalizeKey(Object key) {
+    if (key instanceof Integer || key instanceof Long || key instanceof Short || key instanceof Byte) {
+      return ((Number) key).longValue();
+    } else if (key instanceof BigInteger && ((BigInteger) key).bitLength() < 64) {
+      return ((BigInteger) key).longValue();
+    } else if (key instanceof BigDecimal) {
+      BigDecimal decimal = ((BigDecimal) key).stripTrailingZeros();
+      if (decimal.scale() <= 0 && decimal.precision() - decimal.scale() < 19) {
+        return decimal.longValue();
+      }
+      return decimal;
+    }
+    return key;
+  }
+
+  /*
+   * 放入ResultLoaderMap的加载器。parameterObject是只有一个外键的列表，对象被序列化后由ResultLoader单独加载
+   */
+  private static final class LazyResultLoader extends ResultLoader {
+
+    private final BatchResultLoader group;
+    private final Object key;
+
+    private LazyResultLoader(BatchResultLoader group, Object key, Object parameterObject) {
+      super(group.configuration, group.executor, group.mappedStatement, parameterObject, group.targetType, null, null);
+      this.group = group;
+      this.key = key;
+    }
+
+    @Override
+    public Object loadResult() throws SQLException {
+      group.loadLazily(this);
+      return resultObject;
+    }
+
+    private boolean isLoaded() {
+      return loaded;
+    }
+
+    private void setResult(Object value) {
+      resultObject = value;
+      loaded = true;
+    }
+
+  }
+
+  private static class PendingKey {
+
+    private final Object key;
+    private final List<MetaObject> parents = new ArrayList<MetaObject>();
+
+    private PendingKey(Object key) {
+      this.key = key;
+    }
+
+  }
+
+}
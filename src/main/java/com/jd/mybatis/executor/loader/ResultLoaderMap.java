@@ -28,6 +28,7 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 
+import com.jd.mybatis.cursor.Cursor;
 import com.jd.mybatis.mapping.MappedStatement;
 import com.jd.mybatis.executor.BaseExecutor;
 import com.jd.mybatis.executor.BatchResult;
@@ -300,5 +301,10 @@ public class ResultLoaderMap {
         protected <E> List<E> doQuery(MappedStatement ms, Object parameter, RowBounds rowBounds, ResultHandler resultHandler, BoundSql boundSql) throws SQLException {
             throw new UnsupportedOperationException("Not supported.");
         }
+
+        @Override
+        protected <E> Cursor<E> doQueryCursor(MappedStatement ms, Object parameter, RowBounds rowBounds, BoundSql boundSql) throws SQLException {
+            throw new UnsupportedOperationException("Not supported.");
+        }
     }
 }
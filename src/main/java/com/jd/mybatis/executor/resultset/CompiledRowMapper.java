@@ -0,0 +1,117 @@
+/**
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.jd.mybatis.executor.resultset;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Map;
+
+import com.jd.mybatis.reflection.ExceptionUtil;
+import com.jd.mybatis.reflection.ReflectionException;
+import com.jd.mybatis.reflection.factory.ObjectFactory;
+import com.jd.mybatis.reflection.invoker.Invoker;
+import com.jd.mybatis.type.TypeHandler;
+
+/**
+ * Maps the rows of a simple result map with the column indexes, setters and type handlers resolved up front.
+ * 由{@link RowMapperCompiler}按结果映射和列布局编译一次，之后每一行只按列序号读取并直接调用setter，
+ * 不再经过MetaObject、PropertyTokenizer以及按列名查找TypeHandler。
+ * 映射结果与DefaultResultSetHandler.getRowValue相同：先自动映射，再按resultMap中的顺序映射属性。
+ *
+ * @author Clinton Begin
+ */
+public final class CompiledRowMapper {
+
+  private final Class<?> type;
+  private final ObjectFactory objectFactory;
+  private final Column[] columns;
+
+  CompiledRowMapper(Class<?> type, ObjectFactory objectFactory, Column[] columns) {
+    this.type = type;
+    this.objectFactory = objectFactory;
+    this.columns = columns;
+  }
+
+  /*
+   * Maps the current row, returns null if no column had a value, like DefaultResultSetHandler.getRowValue does.
+   */
+  public Object map(ResultSet rs) throws SQLException {
+    final Object resultObject = objectFactory.create(type);
+    boolean foundValues = false;
+    for (Column column : columns) {
+      final Object value = column.typeHandler.getResult(rs, column.index);
+      if (value != null) {
+        column.set(resultObject, value);
+        foundValues = true;
+      } else {
+        if (column.setNull) {
+          column.set(resultObject, null);
+        }
+        // 与applyAutomaticMappings一致：callSettersOnNulls时自动映射的空值也算找到了值
+        foundValues = column.nullFound || foundValues;
+      }
+    }
+    return foundValues ? resultObject : null;
+  }
+
+  int getColumnCount() {
+    return columns.length;
+  }
+
+  static final class Column {
+
+    private final int index;
+    private final TypeHandler<?> typeHandler;
+    private final String property;
+    // 为null时是Map结果或者没有property的映射
+    private final Invoker setter;
+    private final boolean map;
+    private final boolean setNull;
+    private final boolean nullFound;
+
+    Column(int index, TypeHandler<?> typeHandler, String property, Invoker setter, boolean map, boolean setNull, boolean nullFound) {
+      this.index = index;
+      this.typeHandler = typeHandler;
+      this.property = property;
+      this.setter = setter;
+      this.map = map;
+      this.setNull = setNull;
+      this.nullFound = nullFound;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void set(Object resultObject, Object value) {
+      if (property == null) {
+        return;
+      }
+      if (map) {
+        ((Map<String, Object>) resultObject).put(property, value);
+        return;
+      }
+      try {
+        try {
+          setter.invoke(resultObject, new Object[] {value});
+        } catch (Throwable t) {
+          throw ExceptionUtil.unwrapThrowable(t);
+        }
+      } catch (Throwable t) {
+        throw new ReflectionException("Could not set property '" + property + "' of '" + resultObject.getClass() + "' with value '" + value + "' Cause: " + t.toString(), t);
+      }
+    }
+
+  }
+
+}
@@ -23,13 +23,17 @@ import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 
 import com.jd.mybatis.cache.CacheKey;
+import com.jd.mybatis.cursor.Cursor;
+import com.jd.mybatis.cursor.defaults.DefaultCursor;
 import com.jd.mybatis.executor.Executor;
+import com.jd.mybatis.executor.loader.BatchResultLoader;
 import com.jd.mybatis.executor.loader.ResultLoaderMap;
 import com.jd.mybatis.executor.result.DefaultResultContext;
 import com.jd.mybatis.executor.result.ResultMapException;
@@ -85,6 +89,15 @@ public class DefaultResultSetHandler implements ResultSetHandler {
     private final Map<String, ResultMapping> nextResultMaps = new HashMap<String, ResultMapping>();
     private final Map<CacheKey, List<PendingRelation>> pendingRelations = new HashMap<CacheKey, List<PendingRelation>>();
 
+    // resultOrdered的嵌套结果映射中，被ResultHandler停止时还没有读完的对象（只在游标逐个读取时保留）
+    private Object previousRowValue;
+    private boolean cursorResults;
+
+    // batched nested queries, 结果集读完后按ResultMapping一起执行
+    private final Map<ResultMapping, BatchResultLoader> batchResultLoaders = new IdentityHashMap<ResultMapping, BatchResultLoader>();
+    // 结果交给调用者的ResultHandler或游标时对象要立即完整，批量的嵌套查询逐行执行
+    private boolean deferBatchLoads;
+
     public DefaultResultSetHandler(Executor executor, MappedStatement mappedStatement, ParameterHandler parameterHandler, ResultHandler<?> resultHandler, BoundSql boundSql,
                                    RowBounds rowBounds) {
         this.executor = executor;
@@ -143,6 +156,8 @@ public class DefaultResultSetHandler implements ResultSetHandler {
         ErrorContext.instance().activity("handling results").object(mappedStatement.getId());
 
         final List<Object> multipleResults = new ArrayList<Object>();
+        deferBatchLoads = resultHandler == null;
+        previousRowValue = null;
 
         int resultSetCount = 0;
         ResultSetWrapper rsw = getFirstResultSet(stmt);
@@ -173,9 +188,36 @@ public class DefaultResultSetHandler implements ResultSetHandler {
             }
         }
 
+        loadBatchedNestedQueries();
         return collapseSingleResultList(multipleResults);
     }
 
+    /**
+     * 返回游标，结果在迭代时逐行映射，只支持一个resultMap
+     */
+    @Override
+    public <E> Cursor<E> handleCursorResultSets(Statement stmt) throws SQLException {
+        ErrorContext.instance().activity("handling cursor results").object(mappedStatement.getId());
+
+        ResultSetWrapper rsw = getFirstResultSet(stmt);
+
+        List<ResultMap> resultMaps = mappedStatement.getResultMaps();
+        int resultMapCount = resultMaps.size();
+        validateResultMapsCount(rsw, resultMapCount);
+        if (resultMapCount != 1) {
+            throw new ExecutorException("Cursor results cannot be mapped to multiple resultMaps");
+        }
+
+        ResultMap resultMap = resultMaps.get(0);
+        if (resultMap.hasNestedResultMaps() && !mappedStatement.isResultOrdered()) {
+            // 无序的嵌套结果要读完整个结果集才能确定一个对象是否完整
+            throw new ExecutorException("Mapped Statements with nested result mappings must set resultOrdered=true to be used with a Cursor: "
+                    + mappedStatement.getId());
+        }
+        cursorResults = true;
+        return new DefaultCursor<E>(this, resultMap, rsw, rowBounds);
+    }
+
     //
     // HANDLE RESULT SETS
     //
@@ -226,6 +268,7 @@ public class DefaultResultSetHandler implements ResultSetHandler {
     private void cleanUpAfterHandlingResultSet() {
         nestedResultObjects.clear();
         ancestorColumnPrefix.clear();
+        previousRowValue = null;
     }
 
     private void validateResultMapsCount(ResultSetWrapper rsw, int resultMapCount) {
@@ -259,7 +302,7 @@ public class DefaultResultSetHandler implements ResultSetHandler {
         return multipleResults.size() == 1 ? (List<Object>) multipleResults.get(0) : multipleResults;
     }
 
-    private void handleRowValues(ResultSetWrapper rsw, ResultMap resultMap, ResultHandler<?> resultHandler, RowBounds rowBounds, ResultMapping parentMapping) throws SQLException {
+    public void handleRowValues(ResultSetWrapper rsw, ResultMap resultMap, ResultHandler<?> resultHandler, RowBounds rowBounds, ResultMapping parentMapping) throws SQLException {
         if (resultMap.hasNestedResultMaps()) {
             ensureNoRowBounds();
             checkResultHandler();
@@ -292,6 +335,15 @@ public class DefaultResultSetHandler implements ResultSetHandler {
             throws SQLException {
         DefaultResultContext<Object> resultContext = new DefaultResultContext<Object>();
         skipRows(rsw.getResultSet(), rowBounds);
+        final CompiledRowMapper rowMapper = configuration.isCompiledRowMappingEnabled()
+                ? configuration.getRowMapperCompiler().getRowMapper(rsw, resultMap) : null;
+        if (rowMapper != null) {
+            // 简单结果映射没有鉴别器和嵌套映射，按编译好的列序号、setter和TypeHandler映射每一行
+            while (shouldProcessMoreRows(resultContext, rowBounds) && rsw.getResultSet().next()) {
+                storeObject(resultHandler, resultContext, rowMapper.map(rsw.getResultSet()), parentMapping, rsw.getResultSet());
+            }
+            return;
+        }
         while (shouldProcessMoreRows(resultContext, rowBounds) && rsw.getResultSet().next()) {
             ResultMap discriminatedResultMap = resolveDiscriminatedResultMap(rsw.getResultSet(), resultMap, null);
             Object rowValue = getRowValue(rsw, discriminatedResultMap);
@@ -611,7 +663,9 @@ public class DefaultResultSetHandler implements ResultSetHandler {
         final Class<?> nestedQueryParameterType = nestedQuery.getParameterMap().getType();
         final Object nestedQueryParameterObject = prepareParameterForNestedQuery(rs, constructorMapping, nestedQueryParameterType, columnPrefix);
         Object value = null;
-        if (nestedQueryParameterObject != null) {
+        if (nestedQueryParameterObject != null && constructorMapping.getBatchSize() > 0) {
+            value = getBatchResultLoader(nestedQuery, constructorMapping).loadResult(nestedQueryParameterObject);
+        } else if (nestedQueryParameterObject != null) {
             final BoundSql nestedBoundSql = nestedQuery.getBoundSql(nestedQueryParameterObject);
             final CacheKey key = executor.createCacheKey(nestedQuery, nestedQueryParameterObject, RowBounds.DEFAULT, nestedBoundSql);
             final Class<?> targetType = constructorMapping.getJavaType();
@@ -633,7 +687,18 @@ public class DefaultResultSetHandler implements ResultSetHandler {
         final Class<?> nestedQueryParameterType = nestedQuery.getParameterMap().getType();
         final Object nestedQueryParameterObject = prepareParameterForNestedQuery(rs, propertyMapping, nestedQueryParameterType, columnPrefix);
         Object value = null;
-        if (nestedQueryParameterObject != null) {
+        if (nestedQueryParameterObject != null && propertyMapping.getBatchSize() > 0) {
+            final BatchResultLoader batchResultLoader = getBatchResultLoader(nestedQuery, propertyMapping);
+            if (propertyMapping.isLazy()) {
+                lazyLoader.addLoader(property, metaResultObject, batchResultLoader.addLazyParent(nestedQueryParameterObject));
+                value = DEFERED;
+            } else if (deferBatchLoads) {
+                batchResultLoader.addParent(metaResultObject, nestedQueryParameterObject);
+                value = DEFERED;
+            } else {
+                value = batchResultLoader.loadResult(nestedQueryParameterObject);
+            }
+        } else if (nestedQueryParameterObject != null) {
             final BoundSql nestedBoundSql = nestedQuery.getBoundSql(nestedQueryParameterObject);
             final CacheKey key = executor.createCacheKey(nestedQuery, nestedQueryParameterObject, RowBounds.DEFAULT, nestedBoundSql);
             final Class<?> targetType = propertyMapping.getJavaType();
@@ -653,6 +718,26 @@ public class DefaultResultSetHandler implements ResultSetHandler {
         return value;
     }
 
+    private BatchResultLoader getBatchResultLoader(MappedStatement nestedQuery, ResultMapping resultMapping) {
+        BatchResultLoader batchResultLoader = batchResultLoaders.get(resultMapping);
+        if (batchResultLoader == null) {
+            batchResultLoader = new BatchResultLoader(configuration, executor, nestedQuery, resultMapping);
+            batchResultLoaders.put(resultMapping, batchResultLoader);
+        }
+        return batchResultLoader;
+    }
+
+    /*
+     * 每个批量嵌套查询按batchSize个外键一次执行，执行中映射出的对象如果也有批量嵌套查询，由它们自己的ResultSetHandler处理
+     */
+    private void loadBatchedNestedQueries() throws SQLException {
+        for (BatchResultLoader batchResultLoader : batchResultLoaders.values()) {
+            if (!batchResultLoader.isEmpty()) {
+                batchResultLoader.load();
+            }
+        }
+    }
+
     private Object prepareParameterForNestedQuery(ResultSet rs, ResultMapping resultMapping, Class<?> parameterType, String columnPrefix) throws SQLException {
         if (resultMapping.isCompositeResult()) {
             return prepareCompositeKeyParameter(rs, resultMapping, parameterType, columnPrefix);
@@ -736,7 +821,7 @@ public class DefaultResultSetHandler implements ResultSetHandler {
     private void handleRowValuesForNestedResultMap(ResultSetWrapper rsw, ResultMap resultMap, ResultHandler<?> resultHandler, RowBounds rowBounds, ResultMapping parentMapping) throws SQLException {
         final DefaultResultContext<Object> resultContext = new DefaultResultContext<Object>();
         skipRows(rsw.getResultSet(), rowBounds);
-        Object rowValue = null;
+        Object rowValue = previousRowValue;
         while (shouldProcessMoreRows(resultContext, rowBounds) && rsw.getResultSet().next()) {
             final ResultMap discriminatedResultMap = resolveDiscriminatedResultMap(rsw.getResultSet(), resultMap, null);
             final CacheKey rowKey = createRowKey(discriminatedResultMap, rsw, null);
@@ -757,6 +842,10 @@ public class DefaultResultSetHandler implements ResultSetHandler {
         }
         if (rowValue != null && mappedStatement.isResultOrdered() && shouldProcessMoreRows(resultContext, rowBounds)) {
             storeObject(resultHandler, resultContext, rowValue, parentMapping, rsw.getResultSet());
+            previousRowValue = null;
+        } else if (rowValue != null && cursorResults) {
+            // 游标下一次读取时继续填充这个对象
+            previousRowValue = rowValue;
         }
     }
 
@@ -20,6 +20,8 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.List;
 
+import com.jd.mybatis.cursor.Cursor;
+
 /**
  * 负责将JDBC返回的ResultSet结果集对象转换成List类型的集合
  * @author Clinton Begin
@@ -28,6 +30,8 @@ public interface ResultSetHandler {
 
   <E> List<E> handleResultSets(Statement stmt) throws SQLException;
 
+  <E> Cursor<E> handleCursorResultSets(Statement stmt) throws SQLException;
+
   void handleOutputParameters(CallableStatement cs) throws SQLException;
 
 }
@@ -22,6 +22,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -39,7 +40,7 @@ import com.jd.mybatis.type.UnknownTypeHandler;
 /**
  * @author Iwao AVE!
  */
-class ResultSetWrapper {
+public class ResultSetWrapper {
 
   private final ResultSet resultSet;
   private final TypeHandlerRegistry typeHandlerRegistry;
@@ -49,6 +50,7 @@ class ResultSetWrapper {
   private final Map<String, Map<Class<?>, TypeHandler<?>>> typeHandlerMap = new HashMap<String, Map<Class<?>, TypeHandler<?>>>();
   private Map<String, List<String>> mappedColumnNamesMap = new HashMap<String, List<String>>();
   private Map<String, List<String>> unMappedColumnNamesMap = new HashMap<String, List<String>>();
+  private Map<ResultMap, CompiledRowMapper> rowMappers;
 
   public ResultSetWrapper(ResultSet rs, Configuration configuration) throws SQLException {
     super();
@@ -75,6 +77,10 @@ class ResultSetWrapper {
     return Collections.unmodifiableList(classNames);
   }
 
+  public List<JdbcType> getJdbcTypes() {
+    return Collections.unmodifiableList(jdbcTypes);
+  }
+
   /**
    * Gets the type handler to use when reading the result set.
    * Tries to get from the TypeHandlerRegistry by searching for the property type.
@@ -160,6 +166,20 @@ class ResultSetWrapper {
     return unMappedColumnNames;
   }
 
+  /*
+   * Row mapper resolved by RowMapperCompiler for this result set, so rows mapped one by one (cursors) look it up once.
+   */
+  CompiledRowMapper getRowMapper(ResultMap resultMap) {
+    return rowMappers == null ? null : rowMappers.get(resultMap);
+  }
+
+  void setRowMapper(ResultMap resultMap, CompiledRowMapper rowMapper) {
+    if (rowMappers == null) {
+      rowMappers = new IdentityHashMap<ResultMap, CompiledRowMapper>();
+    }
+    rowMappers.put(resultMap, rowMapper);
+  }
+
   private String getMapKey(ResultMap resultMap, String columnPrefix) {
     return resultMap.getId() + ":" + columnPrefix;
   }
@@ -0,0 +1,228 @@
+/**
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.jd.mybatis.executor.resultset;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.jd.mybatis.executor.resultset.CompiledRowMapper.Column;
+import com.jd.mybatis.mapping.ResultMap;
+import com.jd.mybatis.mapping.ResultMapping;
+import com.jd.mybatis.reflection.MetaClass;
+import com.jd.mybatis.reflection.MetaObject;
+import com.jd.mybatis.reflection.factory.ObjectFactory;
+import com.jd.mybatis.reflection.wrapper.ObjectWrapper;
+import com.jd.mybatis.session.AutoMappingBehavior;
+import com.jd.mybatis.session.Configuration;
+import com.jd.mybatis.type.TypeHandler;
+import com.jd.mybatis.type.TypeHandlerRegistry;
+
+/**
+ * Compiles and caches a {@link CompiledRowMapper} per result map and column layout.
+ * 只编译简单的结果映射：没有构造方法映射、嵌套结果映射、嵌套查询、多结果集映射和鉴别器，
+ * 结果类型是有默认构造方法的JavaBean或者Map，属性名不含"."和"[]"。其他情况返回null，仍然逐行通过MetaObject映射。
+ * 列布局（列名、Java类型、JDBC类型）不同的结果集分别编译，最多缓存{@value #MAX_ROW_MAPPERS}个。
+ *
+ * @author Clinton Begin
+ */
+public class RowMapperCompiler {
+
+  private static final int MAX_ROW_MAPPERS = 1024;
+
+  // 记录无法编译的布局，避免每次执行都重新检查
+  static final CompiledRowMapper NOT_COMPILABLE = new CompiledRowMapper(Object.class, null, new Column[0]);
+
+  private final Configuration configuration;
+  private final ConcurrentHashMap<LayoutKey, CompiledRowMapper> rowMappers = new ConcurrentHashMap<LayoutKey, CompiledRowMapper>();
+
+  public RowMapperCompiler(Configuration configuration) {
+    this.configuration = configuration;
+  }
+
+  /*
+   * Returns the row mapper for the given result map and the columns of the result set, or null if it can not be compiled.
+   */
+  public CompiledRowMapper getRowMapper(ResultSetWrapper rsw, ResultMap resultMap) throws SQLException {
+    CompiledRowMapper rowMapper = rsw.getRowMapper(resultMap);
+    if (rowMapper == null) {
+      final LayoutKey key = new LayoutKey(resultMap, rsw);
+      rowMapper = rowMappers.get(key);
+      if (rowMapper == null) {
+        rowMapper = compile(rsw, resultMap);
+        if (rowMappers.size() < MAX_ROW_MAPPERS) {
+          rowMappers.putIfAbsent(key, rowMapper);
+        }
+      }
+      rsw.setRowMapper(resultMap, rowMapper);
+    }
+    return rowMapper == NOT_COMPILABLE ? null : rowMapper;
+  }
+
+  public int size() {
+    return rowMappers.size();
+  }
+
+  public void clear() {
+    rowMappers.clear();
+  }
+
+  private CompiledRowMapper compile(ResultSetWrapper rsw, ResultMap resultMap) throws SQLException {
+    if (!isSimple(resultMap)) {
+      return NOT_COMPILABLE;
+    }
+    final ObjectFactory objectFactory = configuration.getObjectFactory();
+    final Class<?> type = resultMap.getType();
+    if (!type.isInterface() && !MetaClass.forClass(type, configuration.getReflectorFactory()).hasDefaultConstructor()) {
+      return NOT_COMPILABLE;
+    }
+    // 用一个实例确定实际的类和ObjectWrapper，与逐行映射时configuration.newMetaObject的选择保持一致
+    final Object sample = objectFactory.create(type);
+    if (sample instanceof ObjectWrapper || sample instanceof Collection
+        || configuration.getObjectWrapperFactory().hasWrapperFor(sample)) {
+      return NOT_COMPILABLE;
+    }
+    final boolean map = sample instanceof Map;
+    final MetaObject metaObject = configuration.newMetaObject(sample);
+    final MetaClass metaClass = map ? null : MetaClass.forClass(sample.getClass(), configuration.getReflectorFactory());
+    final TypeHandlerRegistry typeHandlerRegistry = configuration.getTypeHandlerRegistry();
+    final boolean callSettersOnNulls = configuration.isCallSettersOnNulls();
+    final List<String> columnNames = rsw.getColumnNames();
+    final List<Column> columns = new ArrayList<Column>();
+    if (shouldApplyAutomaticMappings(resultMap)) {
+      for (String columnName : rsw.getUnmappedColumnNames(resultMap, null)) {
+        final String property = metaObject.findProperty(columnName, configuration.isMapUnderscoreToCamelCase());
+        if (property != null && metaObject.hasSetter(property)) {
+          if (!isSimpleProperty(property)) {
+            return NOT_COMPILABLE;
+          }
+          final Class<?> propertyType = metaObject.getSetterType(property);
+          if (typeHandlerRegistry.hasTypeHandler(propertyType)) {
+            final TypeHandler<?> typeHandler = rsw.getTypeHandler(propertyType, columnName);
+            columns.add(new Column(columnIndex(columnNames, columnName), typeHandler, property,
+                map ? null : metaClass.getSetInvoker(property), map,
+                callSettersOnNulls && !propertyType.isPrimitive(), callSettersOnNulls));
+          }
+        }
+      }
+    }
+    final List<String> mappedColumnNames = rsw.getMappedColumnNames(resultMap, null);
+    for (ResultMapping propertyMapping : resultMap.getPropertyResultMappings()) {
+      final String column = propertyMapping.getColumn();
+      if (column == null || !mappedColumnNames.contains(column.toUpperCase(Locale.ENGLISH))) {
+        continue;
+      }
+      final String property = propertyMapping.getProperty();
+      boolean setNull = false;
+      if (property != null) {
+        if (!isSimpleProperty(property) || !metaObject.hasSetter(property)) {
+          // 交给MetaObject按原来的方式处理（包括报错）
+          return NOT_COMPILABLE;
+        }
+        setNull = callSettersOnNulls && !metaObject.getSetterType(property).isPrimitive();
+      }
+      columns.add(new Column(columnIndex(columnNames, column), propertyMapping.getTypeHandler(), property,
+          map || property == null ? null : metaClass.getSetInvoker(property), map, setNull, false));
+    }
+    return new CompiledRowMapper(type, objectFactory, columns.toArray(new Column[columns.size()]));
+  }
+
+  private boolean isSimple(ResultMap resultMap) {
+    if (resultMap.getDiscriminator() != null
+        || resultMap.hasNestedResultMaps()
+        || resultMap.hasNestedQueries()
+        || !resultMap.getConstructorResultMappings().isEmpty()
+        || configuration.getTypeHandlerRegistry().hasTypeHandler(resultMap.getType())) {
+      return false;
+    }
+    for (ResultMapping propertyMapping : resultMap.getPropertyResultMappings()) {
+      if (propertyMapping.getNestedQueryId() != null
+          || propertyMapping.getNestedResultMapId() != null
+          || propertyMapping.getResultSet() != null
+          || propertyMapping.isCompositeResult()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private boolean isSimpleProperty(String property) {
+    return property.indexOf('.') < 0 && property.indexOf('[') < 0;
+  }
+
+  private boolean shouldApplyAutomaticMappings(ResultMap resultMap) {
+    if (resultMap.getAutoMapping() != null) {
+      return resultMap.getAutoMapping();
+    }
+    return AutoMappingBehavior.NONE != configuration.getAutoMappingBehavior();
+  }
+
+  /*
+   * JDBC按列名读取时取第一个名称相同（不区分大小写）的列
+   */
+  private int columnIndex(List<String> columnNames, String column) {
+    for (int i = 0; i < columnNames.size(); i++) {
+      if (columnNames.get(i).equalsIgnoreCase(column)) {
+        return i + 1;
+      }
+    }
+    throw new IllegalStateException("Column '" + column + "' not found in " + columnNames);
+  }
+
+  private static final class LayoutKey {
+
+    private final ResultMap resultMap;
+    private final List<String> columnNames;
+    private final List<String> classNames;
+    private final List<?> jdbcTypes;
+    private final int hashCode;
+
+    private LayoutKey(ResultMap resultMap, ResultSetWrapper rsw) {
+      this.resultMap = resultMap;
+      this.columnNames = rsw.getColumnNames();
+      this.classNames = rsw.getClassNames();
+      this.jdbcTypes = rsw.getJdbcTypes();
+      this.hashCode = 31 * (31 * System.identityHashCode(resultMap) + columnNames.hashCode()) + classNames.hashCode();
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof LayoutKey)) {
+        return false;
+      }
+      LayoutKey other = (LayoutKey) obj;
+      return resultMap == other.resultMap
+          && hashCode == other.hashCode
+          && columnNames.equals(other.columnNames)
+          && classNames.equals(other.classNames)
+          && jdbcTypes.equals(other.jdbcTypes);
+    }
+
+  }
+
+}
@@ -16,18 +16,27 @@
 package com.jd.mybatis.executor.statement;
 
 import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Locale;
 
+import com.jd.mybatis.cache.CacheKey;
+import com.jd.mybatis.datasource.pooled.PreparedStatementCache;
 import com.jd.mybatis.executor.Executor;
 import com.jd.mybatis.mapping.MappedStatement;
 import com.jd.mybatis.session.ResultHandler;
 import com.jd.mybatis.executor.ErrorContext;
 import com.jd.mybatis.executor.ExecutorException;
+import com.jd.mybatis.executor.keygen.Jdbc3KeyGenerator;
 import com.jd.mybatis.executor.keygen.KeyGenerator;
 import com.jd.mybatis.executor.parameter.ParameterHandler;
 import com.jd.mybatis.executor.resultset.ResultSetHandler;
 import com.jd.mybatis.mapping.BoundSql;
+import com.jd.mybatis.mapping.ResultSetType;
+import com.jd.mybatis.mapping.StatementType;
 import com.jd.mybatis.reflection.factory.ObjectFactory;
 import com.jd.mybatis.session.Configuration;
 import com.jd.mybatis.session.RowBounds;
@@ -38,6 +47,9 @@ import com.jd.mybatis.type.TypeHandlerRegistry;
  */
 public abstract class BaseStatementHandler implements StatementHandler {
 
+  // 流式读取时没有指定fetchSize，MySQL以外的驱动每批读取的行数
+  private static final int STREAMING_FETCH_SIZE = 1000;
+
   protected final Configuration configuration;
   protected final ObjectFactory objectFactory;
   protected final TypeHandlerRegistry typeHandlerRegistry;
@@ -85,7 +97,16 @@ public abstract class BaseStatementHandler implements StatementHandler {
     ErrorContext.instance().sql(boundSql.getSql());
     Statement statement = null;
     try {
-      statement = instantiateStatement(connection);
+      PreparedStatementCache statementCache = isStatementCacheable() ? PreparedStatementCache.forConnection(connection) : null;
+      if (statementCache != null) {
+        Object key = createStatementCacheKey();
+        statement = statementCache.take(key, connection);
+        if (statement == null) {
+          statement = statementCache.put(key, (PreparedStatement) instantiateStatement(connection), connection);
+        }
+      } else {
+        statement = instantiateStatement(connection);
+      }
       setStatementTimeout(statement);
       setFetchSize(statement);
       return statement;
@@ -100,6 +121,42 @@ public abstract class BaseStatementHandler implements StatementHandler {
 
   protected abstract Statement instantiateStatement(Connection connection) throws SQLException;
 
+  /*
+   * 流式读取的语句一直占用到结果集读完，不放入连接池的语句缓存
+   */
+  protected boolean isStatementCacheable() {
+    return mappedStatement.getStatementType() != StatementType.STATEMENT && !mappedStatement.isStreaming();
+  }
+
+  /*
+   * Statements with the same SQL and the same options of instantiateStatement share a cached statement
+   */
+  protected Object createStatementCacheKey() {
+    CacheKey key = new CacheKey();
+    key.update(mappedStatement.getStatementType());
+    key.update(getResultSetType());
+    key.update(mappedStatement.getKeyGenerator() instanceof Jdbc3KeyGenerator);
+    String[] keyColumns = mappedStatement.getKeyColumns();
+    key.update(keyColumns == null ? null : Arrays.asList(keyColumns));
+    key.update(boundSql.getSql());
+    return key;
+  }
+
+  /*
+   * 流式读取只支持FORWARD_ONLY，未指定时显式使用FORWARD_ONLY、CONCUR_READ_ONLY创建Statement
+   */
+  protected ResultSetType getResultSetType() {
+    ResultSetType resultSetType = mappedStatement.getResultSetType();
+    if (mappedStatement.isStreaming()) {
+      if (resultSetType != null && resultSetType != ResultSetType.FORWARD_ONLY) {
+        throw new ExecutorException("Streaming statement " + mappedStatement.getId()
+            + " requires a FORWARD_ONLY result set but " + resultSetType + " was configured.");
+      }
+      return ResultSetType.FORWARD_ONLY;
+    }
+    return resultSetType;
+  }
+
   protected void setStatementTimeout(Statement stmt) throws SQLException {
     Integer timeout = mappedStatement.getTimeout();
     Integer defaultTimeout = configuration.getDefaultStatementTimeout();
@@ -112,14 +169,30 @@ public abstract class BaseStatementHandler implements StatementHandler {
 
   protected void setFetchSize(Statement stmt) throws SQLException {
     Integer fetchSize = mappedStatement.getFetchSize();
-    if (fetchSize != null) {
+    if (fetchSize == null) {
+      fetchSize = configuration.getDefaultFetchSize();
+    }
+    if (mappedStatement.isStreaming()) {
+      stmt.setFetchSize(getStreamingFetchSize(stmt, fetchSize));
+    } else if (fetchSize != null) {
       stmt.setFetchSize(fetchSize);
-      return;
     }
-    Integer defaultFetchSize = configuration.getDefaultFetchSize();
-    if (defaultFetchSize != null) {
-      stmt.setFetchSize(defaultFetchSize);
+  }
+
+  /*
+   * MySQL驱动只在fetchSize为Integer.MIN_VALUE时逐行读取，连接开启useCursorFetch时正数fetchSize才会使用服务端游标；
+   * 其他驱动按fetchSize分批读取（PostgreSQL还要求关闭自动提交）
+   */
+  private int getStreamingFetchSize(Statement stmt, Integer fetchSize) throws SQLException {
+    boolean positive = fetchSize != null && fetchSize > 0;
+    DatabaseMetaData metaData = stmt.getConnection().getMetaData();
+    String product = metaData.getDatabaseProductName();
+    if (product != null && (product.startsWith("MySQL") || product.startsWith("MariaDB"))) {
+      String url = metaData.getURL();
+      boolean cursorFetch = url != null && url.toLowerCase(Locale.ENGLISH).contains("usecursorfetch=true");
+      return positive && cursorFetch ? fetchSize : Integer.MIN_VALUE;
     }
+    return positive ? fetchSize : STREAMING_FETCH_SIZE;
   }
 
   protected void closeStatement(Statement statement) {
@@ -22,6 +22,7 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.List;
 
+import com.jd.mybatis.cursor.Cursor;
 import com.jd.mybatis.executor.Executor;
 import com.jd.mybatis.mapping.MappedStatement;
 import com.jd.mybatis.session.ResultHandler;
@@ -65,6 +66,13 @@ public class PreparedStatementHandler extends BaseStatementHandler {
         return resultSetHandler.<E>handleResultSets(ps);
     }
 
+    @Override
+    public <E> Cursor<E> queryCursor(Statement statement) throws SQLException {
+        PreparedStatement ps = (PreparedStatement) statement;
+        ps.execute();
+        return resultSetHandler.<E>handleCursorResultSets(ps);
+    }
+
     @Override
     protected Statement instantiateStatement(Connection connection) throws SQLException {
         String sql = boundSql.getSql();
@@ -75,8 +83,8 @@ public class PreparedStatementHandler extends BaseStatementHandler {
             } else {
                 return connection.prepareStatement(sql, keyColumnNames);
             }
-        } else if (mappedStatement.getResultSetType() != null) {
-            return connection.prepareStatement(sql, mappedStatement.getResultSetType().getValue(), ResultSet.CONCUR_READ_ONLY);
+        } else if (getResultSetType() != null) {
+            return connection.prepareStatement(sql, getResultSetType().getValue(), ResultSet.CONCUR_READ_ONLY);
         } else {
             return connection.prepareStatement(sql);
         }
@@ -20,6 +20,7 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.List;
 
+import com.jd.mybatis.cursor.Cursor;
 import com.jd.mybatis.mapping.MappedStatement;
 import com.jd.mybatis.executor.Executor;
 import com.jd.mybatis.executor.ExecutorException;
@@ -78,6 +79,11 @@ public class RoutingStatementHandler implements StatementHandler {
     return delegate.<E>query(statement, resultHandler);
   }
 
+  @Override
+  public <E> Cursor<E> queryCursor(Statement statement) throws SQLException {
+    return delegate.<E>queryCursor(statement);
+  }
+
   @Override
   public BoundSql getBoundSql() {
     return delegate.getBoundSql();
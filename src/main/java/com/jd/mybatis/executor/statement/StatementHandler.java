@@ -20,6 +20,7 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.List;
 
+import com.jd.mybatis.cursor.Cursor;
 import com.jd.mybatis.executor.parameter.ParameterHandler;
 import com.jd.mybatis.mapping.BoundSql;
 import com.jd.mybatis.session.ResultHandler;
@@ -52,6 +53,9 @@ public interface StatementHandler {
     <E> List<E> query(Statement statement, ResultHandler resultHandler)
             throws SQLException;
 
+    <E> Cursor<E> queryCursor(Statement statement)
+            throws SQLException;
+
     BoundSql getBoundSql();
 
     ParameterHandler getParameterHandler();
@@ -17,21 +17,32 @@ package com.jd.mybatis.mapping;
 
 import java.lang.reflect.Constructor;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 
 import com.jd.mybatis.cache.Cache;
 import com.jd.mybatis.cache.CacheException;
+import com.jd.mybatis.cache.CacheMetrics;
+import com.jd.mybatis.cache.CacheMetricsRegistry;
+import com.jd.mybatis.cache.impl.ConcurrentPerpetualCache;
 import com.jd.mybatis.cache.impl.PerpetualCache;
+import com.jd.mybatis.cache.serializer.Serializer;
 import com.jd.mybatis.reflection.MetaObject;
 import com.jd.mybatis.reflection.SystemMetaObject;
 import com.jd.mybatis.cache.decorators.BlockingCache;
+import com.jd.mybatis.cache.decorators.CoalescingCache;
+import com.jd.mybatis.cache.decorators.ConcurrentLruCache;
+import com.jd.mybatis.cache.decorators.ExpiringCache;
 import com.jd.mybatis.cache.decorators.LoggingCache;
 import com.jd.mybatis.cache.decorators.LruCache;
+import com.jd.mybatis.cache.decorators.MetricsCache;
 import com.jd.mybatis.cache.decorators.ScheduledCache;
 import com.jd.mybatis.cache.decorators.SerializedCache;
 import com.jd.mybatis.cache.decorators.SynchronizedCache;
+import com.jd.mybatis.cache.decorators.WeightedCache;
 
 /**
  * 缓存构建器
@@ -39,6 +50,15 @@ import com.jd.mybatis.cache.decorators.SynchronizedCache;
  * @author Clinton Begin
  */
 public class CacheBuilder {
+	/**
+	 * 本身线程安全的回收策略，与ConcurrentPerpetualCache组合时不需要SynchronizedCache
+	 */
+	private static final Set<Class<? extends Cache>> CONCURRENT_DECORATORS = new HashSet<Class<? extends Cache>>();
+
+	static {
+		CONCURRENT_DECORATORS.add(ConcurrentLruCache.class);
+	}
+
 	/**
 	 * NameSpace
 	 */
@@ -50,6 +70,9 @@ public class CacheBuilder {
 	private boolean readWrite;
 	private Properties properties;
 	private boolean blocking;
+	private Serializer serializer;
+	private CacheMetricsRegistry metricsRegistry;
+	private CacheMetrics metrics;
 
 	public CacheBuilder(String id) {
 		this.id = id;
@@ -118,6 +141,28 @@ public class CacheBuilder {
 		return this;
 	}
 
+	/**
+	 * 绑定序列化方式，用于SerializedCache以及有serializer属性的缓存实现
+	 *
+	 * @param serializer 为null时使用Java序列化
+	 * @return
+	 */
+	public CacheBuilder serializer(Serializer serializer) {
+		this.serializer = serializer;
+		return this;
+	}
+
+	/**
+	 * 绑定缓存统计的注册表，为null时不统计
+	 *
+	 * @param metricsRegistry
+	 * @return
+	 */
+	public CacheBuilder metricsRegistry(CacheMetricsRegistry metricsRegistry) {
+		this.metricsRegistry = metricsRegistry;
+		return this;
+	}
+
 	/**
 	 * 绑定其他配置信息
 	 *
@@ -134,7 +179,7 @@ public class CacheBuilder {
 	 * 1，设置默认的缓存策略
 	 * 2，获取缓存实例，并与命名空间相绑定
 	 * 3，设置缓存的自定义属性
-	 * 4，若是mybatis提供的缓存策略，则会安排配置去匹配相应的装饰器（回收策略）
+	 * 4，若是mybatis提供的缓存策略，则会安排配置去匹配相应的装饰器（回收策略），配置了maxBytes时先按大小限制
 	 *
 	 * @return 缓存对象
 	 */
@@ -145,16 +190,29 @@ public class CacheBuilder {
 		Cache cache = newBaseCacheInstance(implementation, id);
 		//设置缓存的自定义属性
 		setCacheProperties(cache);
+		metrics = metricsRegistry == null ? null : metricsRegistry.register(id);
 		// issue #352, do not apply decorators to custom caches
 		//如果是默认缓存的话，使用装饰者模式进行装饰
-		if (PerpetualCache.class.equals(cache.getClass())) {
+		if (PerpetualCache.class.equals(cache.getClass()) || ConcurrentPerpetualCache.class.equals(cache.getClass())) {
+			boolean concurrent = ConcurrentPerpetualCache.class.equals(cache.getClass());
+			if (metrics != null) {
+				//包装在最内层，回收策略淘汰的key也能统计到
+				cache = new MetricsCache.StoreProbe(cache, metrics);
+			}
+			cache = setWeightedDecorator(cache);
 			for (Class<? extends Cache> decorator : decorators) {
 				cache = newCacheDecoratorInstance(decorator, cache);
 				setCacheProperties(cache);
+				concurrent &= CONCURRENT_DECORATORS.contains(decorator);
+			}
+			cache = setStandardDecorators(cache, !concurrent);
+		} else {
+			if (!LoggingCache.class.isAssignableFrom(cache.getClass())) {
+				cache = new LoggingCache(cache);
+			}
+			if (metrics != null) {
+				cache = new MetricsCache(cache, metrics);
 			}
-			cache = setStandardDecorators(cache);
-		} else if (!LoggingCache.class.isAssignableFrom(cache.getClass())) {
-			cache = new LoggingCache(cache);
 		}
 		return cache;
 	}
@@ -171,31 +229,85 @@ public class CacheBuilder {
 				decorators.add(LruCache.class);
 			}
 		}
+		//并发回收策略需要线程安全的存储，默认的PerpetualCache换成ConcurrentPerpetualCache
+		if (PerpetualCache.class.equals(implementation) && !decorators.isEmpty()
+				&& CONCURRENT_DECORATORS.containsAll(decorators)) {
+			implementation = ConcurrentPerpetualCache.class;
+		}
+	}
+
+	/**
+	 * 配置了maxBytes属性时按值的估算大小限制缓存
+	 * WeightedCache直接包装基础缓存，回收策略淘汰的key也会经过它，总大小才不会偏大
+	 *
+	 * @param cache 基础缓存
+	 * @return
+	 */
+	private Cache setWeightedDecorator(Cache cache) {
+		if (properties == null || properties.getProperty("maxBytes") == null) {
+			return cache;
+		}
+		WeightedCache weightedCache = new WeightedCache(cache);
+		setCacheProperties(weightedCache);
+		if (metrics != null) {
+			metrics.setWeightedCache(weightedCache);
+		}
+		return weightedCache;
+	}
+
+	/**
+	 * 配置了expireAfterWrite、expireAfterAccess或refreshAfterWrite属性时按条目过期
+	 *
+	 * @param cache 回收策略包装后的缓存
+	 * @return
+	 */
+	private Cache setExpiringDecorator(Cache cache) {
+		if (properties == null || (properties.getProperty("expireAfterWrite") == null
+				&& properties.getProperty("expireAfterAccess") == null
+				&& properties.getProperty("refreshAfterWrite") == null)) {
+			return cache;
+		}
+		cache = new ExpiringCache(cache);
+		setCacheProperties(cache);
+		return cache;
 	}
 
 	/**
 	 * 设置装饰器(设置各种回收策略)
 	 *
 	 * @param cache
+	 * @param synchronize 存储或回收策略不是线程安全的，需要包装SynchronizedCache
 	 * @return
 	 */
-	private Cache setStandardDecorators(Cache cache) {
+	private Cache setStandardDecorators(Cache cache, boolean synchronize) {
 		try {
 			MetaObject metaCache = SystemMetaObject.forObject(cache);
 			if (size != null && metaCache.hasSetter("size")) {
 				metaCache.setValue("size", size);
 			}
+			cache = setExpiringDecorator(cache);
 			if (clearInterval != null) {
 				cache = new ScheduledCache(cache);
 				((ScheduledCache) cache).setClearInterval(clearInterval);
 			}
 			if (readWrite) {
-				cache = new SerializedCache(cache);
+				cache = serializer == null ? new SerializedCache(cache) : new SerializedCache(cache, serializer);
 			}
 			cache = new LoggingCache(cache);
-			cache = new SynchronizedCache(cache);
+			if (metrics != null) {
+				cache = new MetricsCache(cache, metrics);
+			}
+			if (synchronize) {
+				cache = new SynchronizedCache(cache);
+			}
 			if (blocking) {
-				cache = new BlockingCache(cache);
+				//coalescing属性为true时合并同一个key的并发加载，否则按key加锁
+				if (properties != null && Boolean.valueOf(properties.getProperty("coalescing"))) {
+					cache = new CoalescingCache(cache);
+					setCacheProperties(cache);
+				} else {
+					cache = new BlockingCache(cache);
+				}
 			}
 			return cache;
 		} catch (Exception e) {
@@ -205,18 +317,25 @@ public class CacheBuilder {
 
 	/**
 	 * 为缓存设置自定义属性（利用反射），自定义属性和缓存中的set方法必须匹配,只支持基本数据类型
+	 * Serializer类型的属性使用已经解析好的{@link #serializer(Serializer)}
 	 *
 	 * @param cache 缓存对象
 	 */
 	private void setCacheProperties(Cache cache) {
+		MetaObject metaCache = SystemMetaObject.forObject(cache);
+		if (serializer != null && metaCache.hasSetter("serializer")
+				&& Serializer.class == metaCache.getSetterType("serializer")) {
+			metaCache.setValue("serializer", serializer);
+		}
 		if (properties != null) {
-			MetaObject metaCache = SystemMetaObject.forObject(cache);
 			for (Map.Entry<Object, Object> entry : properties.entrySet()) {
 				String name = (String) entry.getKey();
 				String value = (String) entry.getValue();
 				if (metaCache.hasSetter(name)) {
 					Class<?> type = metaCache.getSetterType(name);
-					if (String.class == type) {
+					if (Serializer.class == type) {
+						continue;
+					} else if (String.class == type) {
 						metaCache.setValue(name, value);
 					} else if (int.class == type
 							|| Integer.class == type) {
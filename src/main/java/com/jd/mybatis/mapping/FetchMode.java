@@ -0,0 +1,28 @@
+/**
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.jd.mybatis.mapping;
+
+/**
+ * How the driver fetches the rows of a select.
+ * BUFFERED：由驱动决定，MySQL默认把整个结果集读入内存
+ * STREAMING：逐行或按fetchSize分批从服务端读取，读完之前同一连接上不能执行其他语句
+ * DEFAULT：语句未指定，使用全局的defaultFetchMode
+ *
+ * @author Clinton Begin
+ */
+public enum FetchMode {
+  BUFFERED, STREAMING, DEFAULT
+}
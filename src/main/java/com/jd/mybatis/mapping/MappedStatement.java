@@ -15,9 +15,11 @@
  */
 package com.jd.mybatis.mapping;
 
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.jd.mybatis.cache.Cache;
 import com.jd.mybatis.executor.keygen.Jdbc3KeyGenerator;
@@ -57,6 +59,21 @@ public final class MappedStatement {
   private Log statementLog;
   private LanguageDriver lang;
   private String[] resultSets;
+  //声明的读取或写入的表，用于按表失效二级缓存
+  private String[] tables;
+  //未声明tables时最近一次从SQL中解析的结果，静态SQL只需解析一次
+  private volatile InferredTables inferredTables;
+  //为false时结果不保留在一级缓存中，只在本次查询（包括嵌套查询）期间可见
+  private boolean useLocalCache = true;
+  //为null时使用全局的defaultFetchMode
+  private FetchMode fetchMode;
+  //BATCH执行器中累积多少行或估算多少字节后自动执行批处理，为null时使用全局设置，0表示不限制
+  private Integer batchSize;
+  private Long batchMaxBytes;
+  //CacheKey中语句id和SQL的组合，同一条SQL共用一个实例，比较key时通常只需比较引用
+  private final ConcurrentHashMap<String, StatementKey> statementKeys = new ConcurrentHashMap<String, StatementKey>();
+
+  private static final int MAX_STATEMENT_KEYS = 256;
 
   MappedStatement() {
     // constructor disabled
@@ -174,7 +191,38 @@ public final class MappedStatement {
       mappedStatement.resultSets = delimitedStringtoArray(resultSet);
       return this;
     }
+
+    public Builder tables(String tables) {
+      String[] names = delimitedStringtoArray(tables);
+      if (names != null) {
+        for (int i = 0; i < names.length; i++) {
+          names[i] = SqlTables.normalize(names[i]);
+        }
+      }
+      mappedStatement.tables = names;
+      return this;
+    }
     
+    public Builder useLocalCache(boolean useLocalCache) {
+      mappedStatement.useLocalCache = useLocalCache;
+      return this;
+    }
+
+    public Builder fetchMode(FetchMode fetchMode) {
+      mappedStatement.fetchMode = fetchMode == FetchMode.DEFAULT ? null : fetchMode;
+      return this;
+    }
+
+    public Builder batchSize(Integer batchSize) {
+      mappedStatement.batchSize = batchSize;
+      return this;
+    }
+
+    public Builder batchMaxBytes(Long batchMaxBytes) {
+      mappedStatement.batchMaxBytes = batchMaxBytes;
+      return this;
+    }
+
     public MappedStatement build() {
       assert mappedStatement.configuration != null;
       assert mappedStatement.id != null;
@@ -276,7 +324,79 @@ public final class MappedStatement {
   public String[] getResulSets() {
     return resultSets;
   }
+
+  public String[] getTables() {
+    return tables;
+  }
+
+  public boolean isUseLocalCache() {
+    return useLocalCache;
+  }
+
+  public FetchMode getFetchMode() {
+    return fetchMode;
+  }
+
+  public Integer getBatchSize() {
+    return batchSize;
+  }
+
+  public Long getBatchMaxBytes() {
+    return batchMaxBytes;
+  }
+
+  /*
+   * @return true if the rows of this select are streamed from the server instead of buffered by the driver
+   */
+  public boolean isStreaming() {
+    if (sqlCommandType != SqlCommandType.SELECT) {
+      return false;
+    }
+    FetchMode mode = fetchMode != null ? fetchMode : configuration.getDefaultFetchMode();
+    return mode == FetchMode.STREAMING;
+  }
+
+  /**
+   * 二级缓存按表失效时使用的表名：select为读取的表，insert/update/delete为写入的表。
+   * 优先使用声明的tables，否则从SQL中解析
+   *
+   * @param boundSql 本次执行的SQL
+   * @return 表名，无法确定时返回null
+   */
+  public String[] getCacheTables(BoundSql boundSql) {
+    if (tables != null) {
+      return tables;
+    }
+    String sql = boundSql.getSql();
+    InferredTables last = inferredTables;
+    if (last != null && last.sql.equals(sql)) {
+      return last.tables;
+    }
+    String[] parsed = sqlCommandType == SqlCommandType.SELECT ? SqlTables.readTables(sql) : SqlTables.writtenTables(sql);
+    inferredTables = new InferredTables(sql, parsed);
+    return parsed;
+  }
   
+  /**
+   * 语句id和SQL组成的CacheKey前缀，静态SQL每次得到同一个实例
+   * 动态SQL最多缓存256种，超过后每次新建（equals仍然按内容比较）
+   * @param sql 要执行的SQL
+   * @return
+   */
+  public Object getCacheKeyPrefix(String sql) {
+    StatementKey key = statementKeys.get(sql);
+    if (key == null) {
+      key = new StatementKey(id, sql);
+      if (statementKeys.size() < MAX_STATEMENT_KEYS) {
+        StatementKey previous = statementKeys.putIfAbsent(sql, key);
+        if (previous != null) {
+          key = previous;
+        }
+      }
+    }
+    return key;
+  }
+
   /**
    * 根据具体传入的参数，动态地生成需要执行的SQL语句，用BoundSql对象表示
    * @param parameterObject
@@ -303,6 +423,52 @@ public final class MappedStatement {
     return boundSql;
   }
 
+  private static final class InferredTables {
+    private final String sql;
+    private final String[] tables;
+
+    InferredTables(String sql, String[] tables) {
+      this.sql = sql;
+      this.tables = tables;
+    }
+  }
+
+  private static final class StatementKey implements Serializable {
+    private static final long serialVersionUID = 5127485337283651471L;
+
+    private final String id;
+    private final String sql;
+    private final int hash;
+
+    StatementKey(String id, String sql) {
+      this.id = id;
+      this.sql = sql;
+      this.hash = 31 * id.hashCode() + sql.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof StatementKey)) {
+        return false;
+      }
+      StatementKey other = (StatementKey) o;
+      return hash == other.hash && id.equals(other.id) && sql.equals(other.sql);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public String toString() {
+      return id + ":" + sql;
+    }
+  }
+
   private static String[] delimitedStringtoArray(String in) {
     if (in == null || in.trim().length() == 0) {
       return null;
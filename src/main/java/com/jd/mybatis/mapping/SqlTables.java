@@ -0,0 +1,236 @@
+/**
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.jd.mybatis.mapping;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Finds the tables a statement reads or writes, used to invalidate the second level cache by table.
+ * 只做简单的词法分析，不是完整的SQL解析：无法确定时返回null，调用者应按整个缓存失效处理。
+ * 表名统一为小写，去掉引号和schema前缀。
+ *
+ * @author Clinton Begin
+ */
+final class SqlTables {
+
+  //FROM/JOIN后面可能出现的、不是表别名的关键字
+  private static final Set<String> KEYWORDS = new HashSet<String>(Arrays.asList(
+      "where", "join", "inner", "left", "right", "full", "outer", "cross", "natural", "straight_join", "on", "using",
+      "group", "order", "having", "limit", "offset", "union", "intersect", "except", "minus", "for", "set", "values",
+      "select", "window", "fetch", "lock", "with", "as", "into", "partition", "force", "ignore", "use", "lateral"));
+
+  private SqlTables() {
+    // Prevent Instantiation of Static Class
+  }
+
+  /*
+   * @return the tables in FROM and JOIN clauses, subqueries included, or null if they can not be determined
+   */
+  static String[] readTables(String sql) {
+    List<String> tokens = tokenize(sql);
+    if (tokens == null) {
+      return null;
+    }
+    Set<String> tables = new LinkedHashSet<String>();
+    for (int i = 0; i < tokens.size(); i++) {
+      String token = tokens.get(i);
+      if ("from".equals(token) || "join".equals(token) || "straight_join".equals(token)) {
+        if (!readTableList(tokens, i + 1, "from".equals(token), tables)) {
+          return null;
+        }
+      }
+    }
+    return tables.isEmpty() ? null : tables.toArray(new String[tables.size()]);
+  }
+
+  /*
+   * @return the tables modified by an insert, update or delete, or null if they can not be determined
+   */
+  static String[] writtenTables(String sql) {
+    List<String> tokens = tokenize(sql);
+    if (tokens == null || tokens.isEmpty()) {
+      return null;
+    }
+    Set<String> tables = new LinkedHashSet<String>();
+    String command = tokens.get(0);
+    if ("insert".equals(command) || "replace".equals(command) || "merge".equals(command)) {
+      int into = tokens.indexOf("into");
+      if (into < 0 || !addTable(tokens, into + 1, tables)) {
+        return null;
+      }
+    } else if ("update".equals(command)) {
+      //update a join b on ... set ...，连接的表都可能被修改
+      int i = 1;
+      while (i < tokens.size() && ("low_priority".equals(tokens.get(i)) || "ignore".equals(tokens.get(i)) || "only".equals(tokens.get(i)))) {
+        i++;
+      }
+      if (!readTableList(tokens, i, true, tables)) {
+        return null;
+      }
+      for (int j = i; j < tokens.size() && !"set".equals(tokens.get(j)); j++) {
+        if ("join".equals(tokens.get(j)) && !readTableList(tokens, j + 1, false, tables)) {
+          return null;
+        }
+      }
+    } else if ("delete".equals(command)) {
+      int from = tokens.indexOf("from");
+      if (from < 0) {
+        return null;
+      }
+      //delete a, b from a join b ...（MySQL多表删除）列出的是别名，保守起见把连接的表都作为被修改的表
+      if (!readTableList(tokens, from + 1, true, tables)) {
+        return null;
+      }
+      for (int j = from + 1; j < tokens.size() && !"where".equals(tokens.get(j)); j++) {
+        if ("join".equals(tokens.get(j)) && !readTableList(tokens, j + 1, false, tables)) {
+          return null;
+        }
+      }
+    } else if ("truncate".equals(command)) {
+      if (!addTable(tokens, tokens.size() > 1 && "table".equals(tokens.get(1)) ? 2 : 1, tables)) {
+        return null;
+      }
+    } else {
+      return null;
+    }
+    return tables.isEmpty() ? null : tables.toArray(new String[tables.size()]);
+  }
+
+  /*
+   * Reads "table [as] [alias] [, table [as] [alias]]..." starting at the given token.
+   * 子查询交给外层循环继续扫描，表名后面紧跟括号（表函数）时无法确定。
+   */
+  private static boolean readTableList(List<String> tokens, int start, boolean commaSeparated, Set<String> tables) {
+    int i = start;
+    while (i < tokens.size()) {
+      String token = tokens.get(i);
+      if ("(".equals(token)) {
+        return true;
+      }
+      if (!addTable(tokens, i, tables)) {
+        return false;
+      }
+      i++;
+      if (i < tokens.size() && "(".equals(tokens.get(i))) {
+        return false;
+      }
+      if (i < tokens.size() && "as".equals(tokens.get(i))) {
+        i++;
+      }
+      if (i < tokens.size() && isIdentifier(tokens.get(i)) && !KEYWORDS.contains(tokens.get(i))) {
+        i++;
+      }
+      if (commaSeparated && i < tokens.size() && ",".equals(tokens.get(i))) {
+        i++;
+      } else {
+        return true;
+      }
+    }
+    return true;
+  }
+
+  private static boolean addTable(List<String> tokens, int index, Set<String> tables) {
+    if (index >= tokens.size() || !isIdentifier(tokens.get(index)) || KEYWORDS.contains(tokens.get(index))) {
+      return false;
+    }
+    tables.add(normalize(tokens.get(index)));
+    return true;
+  }
+
+  /*
+   * @return the table name in lower case without quotes and schema prefix, also used for the tables declared in mappers
+   */
+  static String normalize(String identifier) {
+    identifier = identifier.trim().toLowerCase(Locale.ENGLISH);
+    int dot = identifier.lastIndexOf('.');
+    String name = dot < 0 ? identifier : identifier.substring(dot + 1);
+    StringBuilder builder = new StringBuilder(name.length());
+    for (int i = 0; i < name.length(); i++) {
+      char c = name.charAt(i);
+      if (c != '`' && c != '"' && c != '[' && c != ']') {
+        builder.append(c);
+      }
+    }
+    return builder.toString();
+  }
+
+  private static boolean isIdentifier(String token) {
+    char c = token.charAt(0);
+    return Character.isLetter(c) || c == '_' || c == '`' || c == '"' || c == '[';
+  }
+
+  /*
+   * Splits the SQL into lower case words, quoted identifiers, parentheses and commas,
+   * skipping comments, string literals and everything else.
+   * 多条语句时返回null。
+   */
+  private static List<String> tokenize(String sql) {
+    List<String> tokens = new ArrayList<String>();
+    int length = sql.length();
+    int i = 0;
+    while (i < length) {
+      char c = sql.charAt(i);
+      if (c == '-' && i + 1 < length && sql.charAt(i + 1) == '-') {
+        while (i < length && sql.charAt(i) != '\n') {
+          i++;
+        }
+      } else if (c == '/' && i + 1 < length && sql.charAt(i + 1) == '*') {
+        int end = sql.indexOf("*/", i + 2);
+        i = end < 0 ? length : end + 2;
+      } else if (c == '\'') {
+        i++;
+        while (i < length && sql.charAt(i) != '\'') {
+          i++;
+        }
+        i++;
+      } else if (c == ';') {
+        //只允许末尾的分号
+        if (sql.substring(i + 1).trim().length() > 0) {
+          return null;
+        }
+        i++;
+      } else if (c == '(' || c == ')' || c == ',') {
+        tokens.add(String.valueOf(c));
+        i++;
+      } else if (Character.isLetter(c) || c == '_' || c == '`' || c == '"' || c == '[') {
+        int start = i;
+        while (i < length) {
+          char d = sql.charAt(i);
+          if (d == '`' || d == '"' || d == '[') {
+            char close = d == '[' ? ']' : d;
+            int end = sql.indexOf(close, i + 1);
+            i = end < 0 ? length : end + 1;
+          } else if (Character.isLetterOrDigit(d) || d == '_' || d == '$' || d == '.') {
+            i++;
+          } else {
+            break;
+          }
+        }
+        tokens.add(sql.substring(start, i).toLowerCase(Locale.ENGLISH));
+      } else {
+        i++;
+      }
+    }
+    return tokens;
+  }
+
+}
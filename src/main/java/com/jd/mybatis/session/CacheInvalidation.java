@@ -0,0 +1,27 @@
+/**
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.jd.mybatis.session;
+
+/**
+ * How writes invalidate the second level cache.
+ * NAMESPACE：写操作提交时清空所在命名空间的整个缓存（默认）
+ * TABLE：缓存的结果按读取的表记录版本，写操作提交时只让读取了被写入的表的结果失效
+ *
+ * @author Eduardo Macarron
+ */
+public enum CacheInvalidation {
+  NAMESPACE, TABLE
+}
@@ -35,6 +35,8 @@ import com.jd.mybatis.datasource.jndi.JndiDataSourceFactory;
 import com.jd.mybatis.datasource.pooled.PooledDataSourceFactory;
 import com.jd.mybatis.datasource.unpooled.UnpooledDataSourceFactory;
 import com.jd.mybatis.executor.BatchExecutor;
+import com.jd.mybatis.executor.BatchResultHandler;
+import com.jd.mybatis.executor.CacheRefresher;
 import com.jd.mybatis.executor.CachingExecutor;
 import com.jd.mybatis.executor.Executor;
 import com.jd.mybatis.executor.keygen.KeyGenerator;
@@ -42,6 +44,7 @@ import com.jd.mybatis.executor.loader.ProxyFactory;
 import com.jd.mybatis.executor.loader.javassist.JavassistProxyFactory;
 import com.jd.mybatis.executor.parameter.ParameterHandler;
 import com.jd.mybatis.executor.resultset.DefaultResultSetHandler;
+import com.jd.mybatis.executor.resultset.RowMapperCompiler;
 import com.jd.mybatis.executor.statement.RoutingStatementHandler;
 import com.jd.mybatis.executor.statement.StatementHandler;
 import com.jd.mybatis.logging.Log;
@@ -63,17 +66,30 @@ import com.jd.mybatis.type.JdbcType;
 import com.jd.mybatis.type.TypeHandlerRegistry;
 import com.jd.mybatis.builder.CacheRefResolver;
 import com.jd.mybatis.cache.Cache;
+import com.jd.mybatis.cache.CacheMetricsRegistry;
+import com.jd.mybatis.cache.invalidation.InJvmTransport;
+import com.jd.mybatis.cache.invalidation.InvalidationBus;
+import com.jd.mybatis.cache.invalidation.UdpTransport;
+import com.jd.mybatis.cache.TableVersions;
 import com.jd.mybatis.cache.decorators.FifoCache;
 import com.jd.mybatis.cache.decorators.LruCache;
+import com.jd.mybatis.cache.decorators.ConcurrentLruCache;
+import com.jd.mybatis.cache.impl.ConcurrentPerpetualCache;
+import com.jd.mybatis.cache.impl.OffHeapCache;
 import com.jd.mybatis.cache.impl.PerpetualCache;
+import com.jd.mybatis.cache.serializer.CompactSerializer;
+import com.jd.mybatis.cache.serializer.JdkSerializer;
+import com.jd.mybatis.cache.serializer.Serializer;
 import com.jd.mybatis.executor.ReuseExecutor;
 import com.jd.mybatis.executor.SimpleExecutor;
+import com.jd.mybatis.executor.TableDependencies;
 import com.jd.mybatis.executor.loader.cglib.CglibProxyFactory;
 import com.jd.mybatis.executor.resultset.ResultSetHandler;
 import com.jd.mybatis.logging.log4j2.Log4j2Impl;
 import com.jd.mybatis.logging.stdout.StdOutImpl;
 import com.jd.mybatis.mapping.BoundSql;
 import com.jd.mybatis.mapping.Environment;
+import com.jd.mybatis.mapping.FetchMode;
 import com.jd.mybatis.mapping.MappedStatement;
 import com.jd.mybatis.mapping.ParameterMap;
 import com.jd.mybatis.mapping.ResultMap;
@@ -111,15 +127,34 @@ public class Configuration {
 	//对在此配置文件下的所有cache 进行全局性开/关设置。
 	protected boolean cacheEnabled = true;
 	protected boolean callSettersOnNulls = false;
+	//简单结果映射按列布局编译一次映射计划，之后的行不再经过MetaObject
+	protected boolean compiledRowMappingEnabled = false;
+	//BATCH执行器把交替执行的多条INSERT分别合并到各自的批处理，只在不改变外键依赖顺序时合并
+	protected boolean interleavedBatchEnabled = false;
+	//BATCH执行器中一条语句累积多少行或估算多少字节的参数后自动执行批处理，0表示不限制
+	protected int defaultBatchSize;
+	protected long defaultBatchMaxBytes;
+	//大于1时BATCH执行器把单行INSERT改写成每条最多这么多行的INSERT ... VALUES (...),(...)
+	protected int multiRowInsertSize;
+	//改写后的一条INSERT最多使用多少个参数，0表示按数据库产品名确定（Oracle和不认识的数据库不改写）
+	protected int multiRowInsertMaxParameters;
+	//BATCH执行器自动执行的批处理交给后台线程执行，最多asyncBatchQueueSize批在排队或执行中
+	protected boolean asyncBatchFlushEnabled = false;
+	protected int asyncBatchQueueSize = 2;
 
 	protected String logPrefix;
 	protected Class<? extends Log> logImpl;
 	protected LocalCacheScope localCacheScope = LocalCacheScope.SESSION;
+	//一级缓存最多保留的结果数和估算字节数，0表示不限制
+	protected int localCacheSize;
+	protected long localCacheMaxBytes;
 	protected JdbcType jdbcTypeForNull = JdbcType.OTHER;
 	protected Set<String> lazyLoadTriggerMethods = new HashSet<>(Arrays.asList(new String[]{"equals", "clone", "hashCode", "toString"}));
 	//设置一个时限，以决定让驱动器等待数据库回应的多长时间为超时
 	protected Integer defaultStatementTimeout;
 	protected Integer defaultFetchSize;
+	//STREAMING时查询结果从服务端逐批读取，不在驱动中缓存整个结果集
+	protected FetchMode defaultFetchMode = FetchMode.BUFFERED;
 	//配置和设定执行器，SIMPLE 执行器执行其它语句。REUSE 执行器可能重复使用prepared statements 语句，BATCH执行器可以重复执行语句和批量更新。
 	protected ExecutorType defaultExecutorType = ExecutorType.SIMPLE;
 	//指定MyBatis 是否并且如何来自动映射数据表字段与对象的属性。PARTIAL将只自动映射简单的，没有嵌套的结果。FULL 将自动映射所有复杂的结果。
@@ -134,6 +169,21 @@ public class Configuration {
 	//全局性设置懒加载。如果设为‘false’，则所有相关联的都会被初始化加载。
 	protected boolean lazyLoadingEnabled = false;
 	protected ProxyFactory proxyFactory = new JavassistProxyFactory(); // #224 Using internal Javassist instead of OGNL
+	//readOnly为false的二级缓存默认的序列化方式，可以在<cache>中通过serializer属性覆盖
+	protected Serializer cacheSerializer = new JdkSerializer();
+	//二级缓存的命中、淘汰、加载耗时等统计，统计有额外开销，默认关闭
+	protected boolean cacheMetricsEnabled = false;
+	protected final CacheMetricsRegistry cacheMetricsRegistry = new CacheMetricsRegistry();
+	//写操作如何使二级缓存失效，TABLE时按表记录版本
+	protected CacheInvalidation cacheInvalidation = CacheInvalidation.NAMESPACE;
+	protected final TableVersions tableVersions = new TableVersions();
+	//后台刷新即将过期的二级缓存条目（<cache>配置了refreshAfterWrite属性时）
+	protected final CacheRefresher cacheRefresher = new CacheRefresher(this);
+	protected final RowMapperCompiler rowMapperCompiler = new RowMapperCompiler(this);
+	//交错合并INSERT时按外键判断表之间的依赖
+	protected final TableDependencies tableDependencies = new TableDependencies();
+	//集群中其他节点的缓存失效通知，为null时只在本节点失效
+	protected InvalidationBus invalidationBus;
 
 	protected String databaseId;
 	/**
@@ -196,6 +246,15 @@ public class Configuration {
 		typeAliasRegistry.registerAlias("LRU", LruCache.class);
 		typeAliasRegistry.registerAlias("SOFT", SoftCache.class);
 		typeAliasRegistry.registerAlias("WEAK", WeakCache.class);
+		typeAliasRegistry.registerAlias("CONCURRENT_PERPETUAL", ConcurrentPerpetualCache.class);
+		typeAliasRegistry.registerAlias("CONCURRENT_LRU", ConcurrentLruCache.class);
+		typeAliasRegistry.registerAlias("OFF_HEAP", OffHeapCache.class);
+
+		typeAliasRegistry.registerAlias("JDK_SERIALIZER", JdkSerializer.class);
+		typeAliasRegistry.registerAlias("COMPACT_SERIALIZER", CompactSerializer.class);
+
+		typeAliasRegistry.registerAlias("IN_JVM", InJvmTransport.class);
+		typeAliasRegistry.registerAlias("UDP", UdpTransport.class);
 
 		typeAliasRegistry.registerAlias("DB_VENDOR", VendorDatabaseIdProvider.class);
 
@@ -269,6 +328,78 @@ public class Configuration {
 		this.safeResultHandlerEnabled = safeResultHandlerEnabled;
 	}
 
+	public boolean isCompiledRowMappingEnabled() {
+		return compiledRowMappingEnabled;
+	}
+
+	public void setCompiledRowMappingEnabled(boolean compiledRowMappingEnabled) {
+		this.compiledRowMappingEnabled = compiledRowMappingEnabled;
+	}
+
+	public boolean isInterleavedBatchEnabled() {
+		return interleavedBatchEnabled;
+	}
+
+	public void setInterleavedBatchEnabled(boolean interleavedBatchEnabled) {
+		this.interleavedBatchEnabled = interleavedBatchEnabled;
+	}
+
+	public int getDefaultBatchSize() {
+		return defaultBatchSize;
+	}
+
+	public void setDefaultBatchSize(int defaultBatchSize) {
+		this.defaultBatchSize = defaultBatchSize;
+	}
+
+	public long getDefaultBatchMaxBytes() {
+		return defaultBatchMaxBytes;
+	}
+
+	public void setDefaultBatchMaxBytes(long defaultBatchMaxBytes) {
+		this.defaultBatchMaxBytes = defaultBatchMaxBytes;
+	}
+
+	public int getMultiRowInsertSize() {
+		return multiRowInsertSize;
+	}
+
+	public void setMultiRowInsertSize(int multiRowInsertSize) {
+		this.multiRowInsertSize = multiRowInsertSize;
+	}
+
+	public int getMultiRowInsertMaxParameters() {
+		return multiRowInsertMaxParameters;
+	}
+
+	public void setMultiRowInsertMaxParameters(int multiRowInsertMaxParameters) {
+		this.multiRowInsertMaxParameters = multiRowInsertMaxParameters;
+	}
+
+	public boolean isAsyncBatchFlushEnabled() {
+		return asyncBatchFlushEnabled;
+	}
+
+	public void setAsyncBatchFlushEnabled(boolean asyncBatchFlushEnabled) {
+		this.asyncBatchFlushEnabled = asyncBatchFlushEnabled;
+	}
+
+	public int getAsyncBatchQueueSize() {
+		return asyncBatchQueueSize;
+	}
+
+	public void setAsyncBatchQueueSize(int asyncBatchQueueSize) {
+		this.asyncBatchQueueSize = asyncBatchQueueSize;
+	}
+
+	public RowMapperCompiler getRowMapperCompiler() {
+		return rowMapperCompiler;
+	}
+
+	public TableDependencies getTableDependencies() {
+		return tableDependencies;
+	}
+
 	public boolean isSafeRowBoundsEnabled() {
 		return safeRowBoundsEnabled;
 	}
@@ -328,6 +459,82 @@ public class Configuration {
 		this.proxyFactory = proxyFactory;
 	}
 
+	public Serializer getCacheSerializer() {
+		return cacheSerializer;
+	}
+
+	public void setCacheSerializer(Serializer cacheSerializer) {
+		if (cacheSerializer == null) {
+			cacheSerializer = new JdkSerializer();
+		}
+		this.cacheSerializer = cacheSerializer;
+	}
+
+	public boolean isCacheMetricsEnabled() {
+		return cacheMetricsEnabled;
+	}
+
+	public void setCacheMetricsEnabled(boolean cacheMetricsEnabled) {
+		this.cacheMetricsEnabled = cacheMetricsEnabled;
+	}
+
+	public boolean isCacheMetricsJmxEnabled() {
+		return cacheMetricsRegistry.isJmxEnabled();
+	}
+
+	public void setCacheMetricsJmxEnabled(boolean cacheMetricsJmxEnabled) {
+		cacheMetricsRegistry.setJmxEnabled(cacheMetricsJmxEnabled);
+	}
+
+	public CacheMetricsRegistry getCacheMetricsRegistry() {
+		return cacheMetricsRegistry;
+	}
+
+	public CacheInvalidation getCacheInvalidation() {
+		return cacheInvalidation;
+	}
+
+	public void setCacheInvalidation(CacheInvalidation cacheInvalidation) {
+		this.cacheInvalidation = cacheInvalidation;
+	}
+
+	public TableVersions getTableVersions() {
+		return tableVersions;
+	}
+
+	public int getCacheRefreshThreads() {
+		return cacheRefresher.getThreadCount();
+	}
+
+	public void setCacheRefreshThreads(int cacheRefreshThreads) {
+		cacheRefresher.setThreadCount(cacheRefreshThreads);
+	}
+
+	public CacheRefresher getCacheRefresher() {
+		return cacheRefresher;
+	}
+
+	public InvalidationBus getInvalidationBus() {
+		return invalidationBus;
+	}
+
+	/**
+	 * 设置缓存失效的广播，传入的bus需要已经start
+	 */
+	public void setInvalidationBus(InvalidationBus invalidationBus) {
+		this.invalidationBus = invalidationBus;
+	}
+
+	/**
+	 * 停止缓存失效广播的后台线程并关闭它的传输（例如UDP端口），应用关闭或重新加载配置时调用
+	 */
+	public void close() {
+		InvalidationBus bus = invalidationBus;
+		if (bus != null) {
+			bus.close();
+		}
+	}
+
 	public boolean isAggressiveLazyLoading() {
 		return aggressiveLazyLoading;
 	}
@@ -392,6 +599,14 @@ public class Configuration {
 		this.defaultFetchSize = defaultFetchSize;
 	}
 
+	public FetchMode getDefaultFetchMode() {
+		return defaultFetchMode;
+	}
+
+	public void setDefaultFetchMode(FetchMode defaultFetchMode) {
+		this.defaultFetchMode = defaultFetchMode == null || defaultFetchMode == FetchMode.DEFAULT ? FetchMode.BUFFERED : defaultFetchMode;
+	}
+
 	public boolean isUseColumnLabel() {
 		return useColumnLabel;
 	}
@@ -408,6 +623,22 @@ public class Configuration {
 		this.localCacheScope = localCacheScope;
 	}
 
+	public int getLocalCacheSize() {
+		return localCacheSize;
+	}
+
+	public void setLocalCacheSize(int localCacheSize) {
+		this.localCacheSize = localCacheSize;
+	}
+
+	public long getLocalCacheMaxBytes() {
+		return localCacheMaxBytes;
+	}
+
+	public void setLocalCacheMaxBytes(long localCacheMaxBytes) {
+		this.localCacheMaxBytes = localCacheMaxBytes;
+	}
+
 	public JdbcType getJdbcTypeForNull() {
 		return jdbcTypeForNull;
 	}
@@ -513,11 +744,18 @@ public class Configuration {
 	}
 
 	public Executor newExecutor(Transaction transaction, ExecutorType executorType) {
+		return newExecutor(transaction, executorType, null);
+	}
+
+	/*
+	 * The BatchResultHandler belongs to the session, it is only used by a BATCH executor
+	 */
+	public Executor newExecutor(Transaction transaction, ExecutorType executorType, BatchResultHandler batchResultHandler) {
 		executorType = executorType == null ? defaultExecutorType : executorType;
 		executorType = executorType == null ? ExecutorType.SIMPLE : executorType;
 		Executor executor;
 		if (ExecutorType.BATCH == executorType) {
-			executor = new BatchExecutor(this, transaction);
+			executor = new BatchExecutor(this, transaction, batchResultHandler);
 		} else if (ExecutorType.REUSE == executorType) {
 			executor = new ReuseExecutor(this, transaction);
 		} else {
@@ -531,7 +769,7 @@ public class Configuration {
      * 之后CachingExecutor会将真正Executor返回的查询结果放置到缓存中，然后在返回给用户。
      */
 		if (cacheEnabled) {
-			executor = new CachingExecutor(executor);
+			executor = new CachingExecutor(executor, invalidationBus);
 		}
 		executor = (Executor) interceptorChain.pluginAll(executor);
 		return executor;
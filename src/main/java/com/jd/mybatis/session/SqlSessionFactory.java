@@ -17,6 +17,8 @@ package com.jd.mybatis.session;
 
 import java.sql.Connection;
 
+import com.jd.mybatis.executor.BatchResultHandler;
+
 /**
  * Creates an {@link SqlSession} out of a connection or a DataSource
  * SqlSessionFactory：SqlSession工厂类，以工厂形式创建SqlSession对象，采用了Factory工厂设计模式
@@ -35,6 +37,12 @@ public interface SqlSessionFactory {
   SqlSession openSession(ExecutorType execType, TransactionIsolationLevel level);
   SqlSession openSession(ExecutorType execType, Connection connection);
 
+  /*
+   * Opens a BATCH session that hands every executed BatchResult to the handler instead of keeping it
+   */
+  SqlSession openSession(BatchResultHandler batchResultHandler);
+  SqlSession openSession(BatchResultHandler batchResultHandler, boolean autoCommit);
+
   Configuration getConfiguration();
 
 }
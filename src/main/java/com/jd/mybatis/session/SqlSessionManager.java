@@ -25,7 +25,9 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 
+import com.jd.mybatis.cursor.Cursor;
 import com.jd.mybatis.executor.BatchResult;
+import com.jd.mybatis.executor.BatchResultHandler;
 import com.jd.mybatis.reflection.ExceptionUtil;
 
 /**
@@ -106,6 +108,10 @@ public class SqlSessionManager implements SqlSessionFactory, SqlSession {
     this.localSqlSession.set(openSession(execType, connection));
   }
 
+  public void startManagedSession(BatchResultHandler batchResultHandler) {
+    this.localSqlSession.set(openSession(batchResultHandler));
+  }
+
   public boolean isManagedSessionStarted() {
     return this.localSqlSession.get() != null;
   }
@@ -150,6 +156,16 @@ public class SqlSessionManager implements SqlSessionFactory, SqlSession {
     return sqlSessionFactory.openSession(execType, connection);
   }
 
+  @Override
+  public SqlSession openSession(BatchResultHandler batchResultHandler) {
+    return sqlSessionFactory.openSession(batchResultHandler);
+  }
+
+  @Override
+  public SqlSession openSession(BatchResultHandler batchResultHandler, boolean autoCommit) {
+    return sqlSessionFactory.openSession(batchResultHandler, autoCommit);
+  }
+
   @Override
   public Configuration getConfiguration() {
     return sqlSessionFactory.getConfiguration();
@@ -195,6 +211,21 @@ public class SqlSessionManager implements SqlSessionFactory, SqlSession {
     return sqlSessionProxy.<E> selectList(statement, parameter, rowBounds);
   }
 
+  @Override
+  public <T> Cursor<T> selectCursor(String statement) {
+    return sqlSessionProxy.<T> selectCursor(statement);
+  }
+
+  @Override
+  public <T> Cursor<T> selectCursor(String statement, Object parameter) {
+    return sqlSessionProxy.<T> selectCursor(statement, parameter);
+  }
+
+  @Override
+  public <T> Cursor<T> selectCursor(String statement, Object parameter, RowBounds rowBounds) {
+    return sqlSessionProxy.<T> selectCursor(statement, parameter, rowBounds);
+  }
+
   @Override
   public void select(String statement, ResultHandler handler) {
     sqlSessionProxy.select(statement, handler);
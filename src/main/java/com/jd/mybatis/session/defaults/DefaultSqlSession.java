@@ -15,13 +15,16 @@
  */
 package com.jd.mybatis.session.defaults;
 
+import java.io.IOException;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import com.jd.mybatis.cursor.Cursor;
 import com.jd.mybatis.exceptions.TooManyResultsException;
 import com.jd.mybatis.executor.BatchResult;
 import com.jd.mybatis.executor.Executor;
@@ -49,6 +52,8 @@ public class DefaultSqlSession implements SqlSession {
 
     private boolean autoCommit;
     private boolean dirty;
+    //会话关闭时一起关闭还没有读完的游标
+    private List<Cursor<?>> cursorList;
 
     public DefaultSqlSession(Configuration configuration, Executor executor, boolean autoCommit) {
         this.configuration = configuration;
@@ -126,6 +131,30 @@ public class DefaultSqlSession implements SqlSession {
         }
     }
 
+    @Override
+    public <T> Cursor<T> selectCursor(String statement) {
+        return selectCursor(statement, null);
+    }
+
+    @Override
+    public <T> Cursor<T> selectCursor(String statement, Object parameter) {
+        return selectCursor(statement, parameter, RowBounds.DEFAULT);
+    }
+
+    @Override
+    public <T> Cursor<T> selectCursor(String statement, Object parameter, RowBounds rowBounds) {
+        try {
+            MappedStatement ms = configuration.getMappedStatement(statement);
+            Cursor<T> cursor = executor.queryCursor(ms, wrapCollection(parameter), rowBounds);
+            registerCursor(cursor);
+            return cursor;
+        } catch (Exception e) {
+            throw ExceptionFactory.wrapException("Error querying database.  Cause: " + e, e);
+        } finally {
+            ErrorContext.instance().reset();
+        }
+    }
+
     @Override
     public void select(String statement, Object parameter, ResultHandler handler) {
         select(statement, parameter, RowBounds.DEFAULT, handler);
@@ -253,6 +282,7 @@ public class DefaultSqlSession implements SqlSession {
     @Override
     public void close() {
         try {
+            closeCursors();
             executor.close(isCommitOrRollbackRequired(false));
             dirty = false;
         } finally {
@@ -260,6 +290,26 @@ public class DefaultSqlSession implements SqlSession {
         }
     }
 
+    private void closeCursors() {
+        if (cursorList != null && cursorList.size() != 0) {
+            for (Cursor<?> cursor : cursorList) {
+                try {
+                    cursor.close();
+                } catch (IOException e) {
+                    throw ExceptionFactory.wrapException("Error closing cursor.  Cause: " + e, e);
+                }
+            }
+            cursorList.clear();
+        }
+    }
+
+    private <T> void registerCursor(Cursor<T> cursor) {
+        if (cursorList == null) {
+            cursorList = new ArrayList<Cursor<?>>();
+        }
+        cursorList.add(cursor);
+    }
+
     @Override
     public Configuration getConfiguration() {
         return configuration;
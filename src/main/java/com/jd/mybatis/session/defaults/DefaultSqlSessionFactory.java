@@ -18,6 +18,7 @@ package com.jd.mybatis.session.defaults;
 import java.sql.Connection;
 import java.sql.SQLException;
 
+import com.jd.mybatis.executor.BatchResultHandler;
 import com.jd.mybatis.executor.ErrorContext;
 import com.jd.mybatis.executor.Executor;
 import com.jd.mybatis.mapping.Environment;
@@ -74,6 +75,14 @@ public class DefaultSqlSessionFactory implements SqlSessionFactory {
         return openSessionFromConnection(execType, connection);
     }
 
+    public SqlSession openSession(BatchResultHandler batchResultHandler) {
+        return openSessionFromDataSource(ExecutorType.BATCH, null, false, batchResultHandler);
+    }
+
+    public SqlSession openSession(BatchResultHandler batchResultHandler, boolean autoCommit) {
+        return openSessionFromDataSource(ExecutorType.BATCH, null, autoCommit, batchResultHandler);
+    }
+
     public Configuration getConfiguration() {
         return configuration;
     }
@@ -86,12 +95,17 @@ public class DefaultSqlSessionFactory implements SqlSessionFactory {
      * @return
      */
     private SqlSession openSessionFromDataSource(ExecutorType execType, TransactionIsolationLevel level, boolean autoCommit) {
+        return openSessionFromDataSource(execType, level, autoCommit, null);
+    }
+
+    private SqlSession openSessionFromDataSource(ExecutorType execType, TransactionIsolationLevel level, boolean autoCommit,
+            BatchResultHandler batchResultHandler) {
         Transaction tx = null;
         try {
             final Environment environment = configuration.getEnvironment();
             final TransactionFactory transactionFactory = getTransactionFactoryFromEnvironment(environment);
             tx = transactionFactory.newTransaction(environment.getDataSource(), level, autoCommit);
-            final Executor executor = configuration.newExecutor(tx, execType);
+            final Executor executor = configuration.newExecutor(tx, execType, batchResultHandler);
             return new DefaultSqlSession(configuration, executor, autoCommit);
         } catch (Exception e) {
             closeTransaction(tx); // may have fetched a connection so lets call close()
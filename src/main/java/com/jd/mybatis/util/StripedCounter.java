@@ -0,0 +1,77 @@
+/**
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.jd.mybatis.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A long counter striped over several cells, similar to the JDK 8 LongAdder.
+ * 不同线程按线程id散列到不同的cell上累加，cell之间做了填充避免伪共享，
+ * 读取时对所有cell求和，不需要任何锁。
+ *
+ * @author Clinton Begin
+ */
+public class StripedCounter {
+
+  //每个cell占用16个long（128字节），避免相邻cell落在同一缓存行
+  private static final int PADDING = 16;
+  private static final int STRIPES = stripes();
+
+  private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+  public void increment() {
+    add(1);
+  }
+
+  public void add(long x) {
+    cells.addAndGet(index(), x);
+  }
+
+  /*
+   * The current total, concurrent updates may or may not be included
+   */
+  public long sum() {
+    long sum = 0;
+    for (int i = 0; i < STRIPES; i++) {
+      sum += cells.get(i * PADDING);
+    }
+    return sum;
+  }
+
+  private static int index() {
+    long id = Thread.currentThread().getId();
+    int h = (int) (id ^ (id >>> 32));
+    h ^= h >>> 16;
+    h *= 0x85ebca6b;
+    h ^= h >>> 13;
+    return (h & (STRIPES - 1)) * PADDING;
+  }
+
+  private static int stripes() {
+    int n = Runtime.getRuntime().availableProcessors() * 2;
+    int stripes = 1;
+    while (stripes < n) {
+      stripes <<= 1;
+    }
+    return stripes;
+  }
+
+  @Override
+  public String toString() {
+    return Long.toString(sum());
+  }
+
+}
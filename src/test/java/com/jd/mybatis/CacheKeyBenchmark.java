@@ -0,0 +1,170 @@
+package com.jd.mybatis;
+
+import com.jd.mybatis.builder.StaticSqlSource;
+import com.jd.mybatis.cache.CacheKey;
+import com.jd.mybatis.executor.Executor;
+import com.jd.mybatis.executor.SimpleExecutor;
+import com.jd.mybatis.mapping.BoundSql;
+import com.jd.mybatis.mapping.MappedStatement;
+import com.jd.mybatis.mapping.ParameterMapping;
+import com.jd.mybatis.mapping.ParameterMode;
+import com.jd.mybatis.mapping.SqlCommandType;
+import com.jd.mybatis.reflection.MetaObject;
+import com.jd.mybatis.session.Configuration;
+import com.jd.mybatis.session.RowBounds;
+import com.jd.mybatis.type.TypeHandlerRegistry;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 比较改造前后每次query()创建CacheKey并在缓存中查找的耗时与内存分配，直接运行main方法即可。
+ * 改造前的实现复制在LegacyCacheKey中，两边使用相同的参数取值逻辑，差别只在CacheKey本身。
+ * 参数：[轮数]，默认200万
+ */
+public class CacheKeyBenchmark {
+
+    private static final String SQL = "select o.id, o.order_no, o.status, o.amount, o.create_time, o.customer_id "
+            + "from orders o where o.customer_id = ? and o.status = ? and o.create_time >= ? order by o.id desc";
+
+    public static void main(String[] args) {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+
+        Configuration configuration = new Configuration();
+        List<ParameterMapping> parameterMappings = new ArrayList<ParameterMapping>();
+        parameterMappings.add(new ParameterMapping.Builder(configuration, "customerId", Long.class).build());
+        parameterMappings.add(new ParameterMapping.Builder(configuration, "status", String.class).build());
+        parameterMappings.add(new ParameterMapping.Builder(configuration, "since", String.class).build());
+        MappedStatement ms = new MappedStatement.Builder(configuration, "com.jd.OrderMapper.selectByCustomer",
+                new StaticSqlSource(configuration, SQL, parameterMappings), SqlCommandType.SELECT).build();
+        Executor executor = new SimpleExecutor(configuration, null);
+
+        Map<String, Object> parameter = new HashMap<String, Object>();
+        parameter.put("customerId", 42L);
+        parameter.put("status", "PAID");
+        parameter.put("since", "2015-01-01");
+
+        Map<Object, Object> cache = new HashMap<Object, Object>();
+        BoundSql boundSql = ms.getBoundSql(parameter);
+        cache.put(executor.createCacheKey(ms, parameter, RowBounds.DEFAULT, boundSql), "value");
+        cache.put(legacyKey(configuration, ms, parameter, boundSql), "value");
+
+        for (int i = 0; i < 2; i++) {
+            //第一轮预热
+            long[] legacy = run(false, rounds / (i == 0 ? 10 : 1), configuration, ms, executor, parameter, cache);
+            long[] compact = run(true, rounds / (i == 0 ? 10 : 1), configuration, ms, executor, parameter, cache);
+            if (i == 1) {
+                print("LegacyCacheKey", legacy, rounds);
+                print("CacheKey", compact, rounds);
+            }
+        }
+    }
+
+    private static long[] run(boolean compact, int rounds, Configuration configuration, MappedStatement ms, Executor executor,
+                              Map<String, Object> parameter, Map<Object, Object> cache) {
+        long bytes = allocatedBytes();
+        long start = System.nanoTime();
+        int hits = 0;
+        for (int i = 0; i < rounds; i++) {
+            //与CachingExecutor.query相同：每次都重新获取BoundSql再创建key
+            BoundSql boundSql = ms.getBoundSql(parameter);
+            Object key = compact ? executor.createCacheKey(ms, parameter, RowBounds.DEFAULT, boundSql)
+                    : legacyKey(configuration, ms, parameter, boundSql);
+            if (cache.get(key) != null) {
+                hits++;
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        if (hits != rounds) {
+            throw new IllegalStateException("expected every lookup to hit");
+        }
+        return new long[]{elapsed, allocatedBytes() - bytes};
+    }
+
+    private static void print(String name, long[] result, int rounds) {
+        System.out.printf("%-16s %8.1f ns/op %8.1f bytes/op (getBoundSql + createCacheKey + lookup)%n",
+                name, (double) result[0] / rounds, (double) result[1] / rounds);
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /*
+     * BaseExecutor.createCacheKey改造前的逻辑
+     */
+    private static LegacyCacheKey legacyKey(Configuration configuration, MappedStatement ms, Object parameterObject, BoundSql boundSql) {
+        LegacyCacheKey cacheKey = new LegacyCacheKey();
+        cacheKey.update(ms.getId());
+        cacheKey.update(Integer.valueOf(RowBounds.DEFAULT.getOffset()));
+        cacheKey.update(Integer.valueOf(RowBounds.DEFAULT.getLimit()));
+        cacheKey.update(boundSql.getSql());
+        TypeHandlerRegistry typeHandlerRegistry = configuration.getTypeHandlerRegistry();
+        for (ParameterMapping parameterMapping : boundSql.getParameterMappings()) {
+            if (parameterMapping.getMode() != ParameterMode.OUT) {
+                Object value;
+                String propertyName = parameterMapping.getProperty();
+                if (boundSql.hasAdditionalParameter(propertyName)) {
+                    value = boundSql.getAdditionalParameter(propertyName);
+                } else if (parameterObject == null) {
+                    value = null;
+                } else if (typeHandlerRegistry.hasTypeHandler(parameterObject.getClass())) {
+                    value = parameterObject;
+                } else {
+                    MetaObject metaObject = configuration.newMetaObject(parameterObject);
+                    value = metaObject.getValue(propertyName);
+                }
+                cacheKey.update(value);
+            }
+        }
+        return cacheKey;
+    }
+
+    static class LegacyCacheKey {
+        private int multiplier = 37;
+        private int hashcode = 17;
+        private long checksum;
+        private int count;
+        private List<Object> updateList = new ArrayList<Object>();
+
+        void update(Object object) {
+            int baseHashCode = object == null ? 1 : object.hashCode();
+            count++;
+            checksum += baseHashCode;
+            baseHashCode *= count;
+            hashcode = multiplier * hashcode + baseHashCode;
+            updateList.add(object);
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            if (this == object) {
+                return true;
+            }
+            if (!(object instanceof LegacyCacheKey)) {
+                return false;
+            }
+            LegacyCacheKey cacheKey = (LegacyCacheKey) object;
+            if (hashcode != cacheKey.hashcode || checksum != cacheKey.checksum || count != cacheKey.count) {
+                return false;
+            }
+            for (int i = 0; i < updateList.size(); i++) {
+                Object thisObject = updateList.get(i);
+                Object thatObject = cacheKey.updateList.get(i);
+                if (thisObject == null ? thatObject != null : !thisObject.equals(thatObject)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            return hashcode;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.jd.mybatis;
+
+import com.jd.mybatis.cache.serializer.CompactSerializer;
+import com.jd.mybatis.cache.serializer.JdkSerializer;
+import com.jd.mybatis.cache.serializer.Serializer;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * 比较二级缓存中JDK序列化和CompactSerializer的耗时与体积，直接运行main方法即可。
+ * 参数：[行数] [轮数]，默认200行、2000轮
+ */
+public class SerializerBenchmark {
+
+    public static void main(String[] args) {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        ArrayList<Order> value = createOrders(rows);
+
+        Serializer[] serializers = {new JdkSerializer(), new CompactSerializer()};
+        for (Serializer serializer : serializers) {
+            //预热
+            run(serializer, value, rounds / 4);
+        }
+        for (Serializer serializer : serializers) {
+            long start = System.nanoTime();
+            int bytes = run(serializer, value, rounds);
+            long elapsed = System.nanoTime() - start;
+            System.out.printf("%-20s %8d bytes %10.1f us/op (serialize + deserialize)%n",
+                    serializer.getClass().getSimpleName(), bytes, elapsed / 1000.0 / rounds);
+        }
+    }
+
+    private static int run(Serializer serializer, Object value, int rounds) {
+        int bytes = 0;
+        for (int i = 0; i < rounds; i++) {
+            byte[] serialized = serializer.serialize(value);
+            bytes = serialized.length;
+            if (serializer.deserialize(serialized) == null) {
+                throw new IllegalStateException();
+            }
+        }
+        return bytes;
+    }
+
+    private static ArrayList<Order> createOrders(int rows) {
+        ArrayList<Order> orders = new ArrayList<Order>(rows);
+        Customer customer = new Customer();
+        customer.id = 42L;
+        customer.name = "customer-42";
+        customer.email = "customer42@example.com";
+        for (int i = 0; i < rows; i++) {
+            Order order = new Order();
+            order.id = i;
+            order.orderNo = "NO-" + (1000000 + i);
+            order.status = i % 2 == 0 ? Status.PAID : Status.SHIPPED;
+            order.amount = new BigDecimal("1234.56").add(BigDecimal.valueOf(i));
+            order.quantity = i % 7;
+            order.weight = 1.5 * i;
+            order.gift = i % 3 == 0;
+            order.createTime = new Date(1500000000000L + i * 1000L);
+            order.remark = "备注" + i;
+            order.address = "Beijing Yizhuang, building " + i;
+            order.customer = customer;
+            order.items = new ArrayList<String>();
+            for (int j = 0; j < 3; j++) {
+                order.items.add("sku-" + i + "-" + j);
+            }
+            orders.add(order);
+        }
+        return orders;
+    }
+
+    enum Status {
+        PAID, SHIPPED
+    }
+
+    static class Customer implements Serializable {
+        private static final long serialVersionUID = 1L;
+        Long id;
+        String name;
+        String email;
+    }
+
+    static class Order implements Serializable {
+        private static final long serialVersionUID = 1L;
+        long id;
+        String orderNo;
+        Status status;
+        BigDecimal amount;
+        int quantity;
+        double weight;
+        boolean gift;
+        Date createTime;
+        String remark;
+        String address;
+        Customer customer;
+        List<String> items;
+    }
+}
@@ -0,0 +1,137 @@
+package com.jd.mybatis.executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.jd.mybatis.builder.StaticSqlSource;
+import com.jd.mybatis.mapping.MappedStatement;
+import com.jd.mybatis.mapping.ParameterMapping;
+import com.jd.mybatis.mapping.ResultMap;
+import com.jd.mybatis.mapping.ResultMapping;
+import com.jd.mybatis.mapping.SqlCommandType;
+import com.jd.mybatis.session.Configuration;
+import com.jd.mybatis.session.RowBounds;
+
+/**
+ * 后台线程执行自动flush的批处理
+ */
+public class BatchExecutorAsyncFlushTest {
+
+  private Configuration configuration;
+  private FakeJdbc jdbc;
+  private MappedStatement insert;
+
+  @Before
+  public void setUp() {
+    configuration = new Configuration();
+    configuration.setAsyncBatchFlushEnabled(true);
+    configuration.setDefaultBatchSize(1);
+    jdbc = new FakeJdbc();
+    List<ParameterMapping> mappings = new ArrayList<ParameterMapping>();
+    mappings.add(new ParameterMapping.Builder(configuration, "id", Object.class).build());
+    insert = new MappedStatement.Builder(configuration, "insertOrder",
+        new StaticSqlSource(configuration, "insert into orders (id) values (?)", mappings), SqlCommandType.INSERT).build();
+    configuration.addMappedStatement(insert);
+  }
+
+  @Test
+  public void connectionIsOpenedOnTheCallerThread() throws Exception {
+    BatchExecutor executor = newExecutor(2);
+    executor.update(insert, row(1));
+    executor.update(insert, row(2));
+    executor.flushStatements();
+
+    assertEquals(1, jdbc.connectionsOpened);
+    assertEquals(Thread.currentThread().getName(), jdbc.openedOn);
+    assertTrue(jdbc.executeThreads.get(0).startsWith("mybatis-batch-flush-"));
+  }
+
+  @Test
+  public void updateBlocksWhileTheQueueIsFull() throws Exception {
+    jdbc.executeMillis = 200;
+    BatchExecutor executor = newExecutor(1);
+    executor.update(insert, row(1));
+    assertEquals(0, jdbc.executed().size());
+    // 队列中已经有一批，等它执行完才能提交下一批
+    executor.update(insert, row(2));
+    assertEquals(1, jdbc.executed().size());
+    executor.flushStatements();
+    assertEquals(2, jdbc.executed().size());
+  }
+
+  @Test
+  public void backgroundFailureIsThrownToTheCaller() throws Exception {
+    jdbc.failOn = "orders";
+    jdbc.executeMillis = 50;
+    BatchExecutor executor = newExecutor(3);
+    executor.update(insert, row(1));
+    try {
+      // 第一批失败之后，下一次提交或者flush都会抛出异常
+      executor.update(insert, row(2));
+      executor.flushStatements();
+      fail("the failure of the background batch should be thrown");
+    } catch (SQLException e) {
+      assertEquals("failed insert into orders (id) values (?)", e.getMessage());
+    }
+    // 失败之后排队的批处理不再执行
+    assertEquals(1, jdbc.executed().size());
+  }
+
+  @Test
+  public void rollbackDiscardsQueuedBatches() throws Exception {
+    jdbc.executeMillis = 200;
+    BatchExecutor executor = newExecutor(3);
+    executor.update(insert, row(1));
+    executor.update(insert, row(2));
+    executor.update(insert, row(3));
+    executor.rollback(true);
+
+    // 只有回滚时已经开始执行的那一批会执行完
+    int executed = jdbc.executed().size();
+    assertTrue(executed <= 1);
+    assertEquals(Collections.<BatchResult>emptyList(), executor.flushStatements());
+    Thread.sleep(300);
+    assertEquals(executed, jdbc.executed().size());
+  }
+
+  @Test
+  public void queryWaitsForTheBackgroundBatches() throws Exception {
+    jdbc.executeMillis = 100;
+    BatchExecutor executor = newExecutor(3);
+    MappedStatement select = new MappedStatement.Builder(configuration, "selectOrders",
+        new StaticSqlSource(configuration, "select * from orders"), SqlCommandType.SELECT)
+        .resultMaps(Collections.singletonList(new ResultMap.Builder(configuration, "selectOrders-Inline", Map.class,
+            new ArrayList<ResultMapping>()).build()))
+        .build();
+    executor.update(insert, row(1));
+    executor.update(insert, row(2));
+    executor.query(select, null, RowBounds.DEFAULT, Executor.NO_RESULT_HANDLER);
+
+    assertEquals(Collections.singletonList("query select * from orders"), jdbc.log.subList(jdbc.log.size() - 1, jdbc.log.size()));
+    assertEquals(2, jdbc.executed().size());
+    assertEquals(1, jdbc.queries);
+  }
+
+  private BatchExecutor newExecutor(int queueSize) {
+    configuration.setAsyncBatchQueueSize(queueSize);
+    return new BatchExecutor(configuration, jdbc.transaction());
+  }
+
+  private static Map<String, Object> row(Object id) {
+    Map<String, Object> row = new HashMap<String, Object>();
+    row.put("id", id);
+    return row;
+  }
+
+}
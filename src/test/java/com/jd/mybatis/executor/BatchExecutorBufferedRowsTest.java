@@ -0,0 +1,101 @@
+package com.jd.mybatis.executor;
+
+import static org.junit.Assert.assertEquals;
+
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.jd.mybatis.builder.StaticSqlSource;
+import com.jd.mybatis.executor.parameter.ParameterHandler;
+import com.jd.mybatis.mapping.MappedStatement;
+import com.jd.mybatis.mapping.ParameterMapping;
+import com.jd.mybatis.mapping.SqlCommandType;
+import com.jd.mybatis.plugin.Interceptor;
+import com.jd.mybatis.plugin.Intercepts;
+import com.jd.mybatis.plugin.Invocation;
+import com.jd.mybatis.plugin.Plugin;
+import com.jd.mybatis.plugin.Signature;
+import com.jd.mybatis.session.Configuration;
+
+/**
+ * 改写成多行INSERT或异步执行时缓存的行仍然经过ParameterHandler和插件设置参数
+ */
+public class BatchExecutorBufferedRowsTest {
+
+  private Configuration configuration;
+  private FakeJdbc jdbc;
+  private MappedStatement insert;
+
+  @Before
+  public void setUp() {
+    configuration = new Configuration();
+    configuration.addInterceptor(new MaskingInterceptor());
+    jdbc = new FakeJdbc();
+    List<ParameterMapping> mappings = new ArrayList<ParameterMapping>();
+    mappings.add(new ParameterMapping.Builder(configuration, "id", Object.class).build());
+    mappings.add(new ParameterMapping.Builder(configuration, "status", Object.class).build());
+    insert = new MappedStatement.Builder(configuration, "insertOrder",
+        new StaticSqlSource(configuration, "insert into orders (id, status) values (?, ?)", mappings), SqlCommandType.INSERT).build();
+    configuration.addMappedStatement(insert);
+  }
+
+  @Test
+  public void rewrittenRowsAreParameterizedByThePlugins() throws Exception {
+    configuration.setMultiRowInsertSize(10);
+    BatchExecutor executor = new BatchExecutor(configuration, jdbc.transaction());
+    executor.update(insert, row(1, "NEW"));
+    executor.update(insert, row(2, "PAID"));
+    executor.flushStatements();
+
+    assertEquals(Arrays.asList("insert into orders (id, status) values (?, ?),(?, ?) [[1, ***, 2, ***]]"), jdbc.executed());
+  }
+
+  @Test
+  public void rowsFlushedInTheBackgroundAreParameterizedByThePlugins() throws Exception {
+    configuration.setAsyncBatchFlushEnabled(true);
+    configuration.setDefaultBatchSize(2);
+    BatchExecutor executor = new BatchExecutor(configuration, jdbc.transaction());
+    executor.update(insert, row(1, "NEW"));
+    executor.update(insert, row(2, "PAID"));
+    executor.flushStatements();
+
+    assertEquals(Arrays.asList("insert into orders (id, status) values (?, ?) [[1, ***], [2, ***]]"), jdbc.executed());
+  }
+
+  private static Map<String, Object> row(Object id, Object status) {
+    Map<String, Object> row = new HashMap<String, Object>();
+    row.put("id", id);
+    row.put("status", status);
+    return row;
+  }
+
+  @Intercepts(@Signature(type = ParameterHandler.class, method = "setParameters", args = PreparedStatement.class))
+  public static class MaskingInterceptor implements Interceptor {
+
+    @Override
+    public Object intercept(Invocation invocation) throws Throwable {
+      Object result = invocation.proceed();
+      ((PreparedStatement) invocation.getArgs()[0]).setString(2, "***");
+      return result;
+    }
+
+    @Override
+    public Object plugin(Object target) {
+      return Plugin.wrap(target, this);
+    }
+
+    @Override
+    public void setProperties(Properties properties) {
+    }
+
+  }
+
+}
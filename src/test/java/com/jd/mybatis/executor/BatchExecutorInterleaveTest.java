@@ -0,0 +1,113 @@
+package com.jd.mybatis.executor;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.jd.mybatis.builder.StaticSqlSource;
+import com.jd.mybatis.mapping.MappedStatement;
+import com.jd.mybatis.mapping.ParameterMapping;
+import com.jd.mybatis.mapping.SqlCommandType;
+import com.jd.mybatis.session.Configuration;
+
+/**
+ * 交错合并时flush的执行顺序
+ */
+public class BatchExecutorInterleaveTest {
+
+  private Configuration configuration;
+  private FakeJdbc jdbc;
+  private BatchExecutor executor;
+
+  @Before
+  public void setUp() {
+    configuration = new Configuration();
+    configuration.setInterleavedBatchEnabled(true);
+    jdbc = new FakeJdbc();
+    executor = new BatchExecutor(configuration, jdbc.transaction());
+  }
+
+  @Test
+  public void updatesOfTheSameRowKeepTheirOrder() throws Exception {
+    MappedStatement updateX = statement("updateX", SqlCommandType.UPDATE, "update orders set status = ? where id = ?");
+    MappedStatement updateY = statement("updateY", SqlCommandType.UPDATE, "update orders set status = ?, note = 'y' where id = ?");
+    executor.update(updateX, row("A", 1));
+    executor.update(updateY, row("B", 1));
+    executor.update(updateX, row("C", 1));
+    executor.flushStatements();
+
+    assertEquals(Arrays.asList(
+        "update orders set status = ? where id = ? [[A, 1]]",
+        "update orders set status = ?, note = 'y' where id = ? [[B, 1]]",
+        "update orders set status = ? where id = ? [[C, 1]]"), jdbc.executed());
+  }
+
+  @Test
+  public void childInsertIsNotMovedAheadOfItsParent() throws Exception {
+    jdbc.importedKeys.put("ORDER_ITEM", Arrays.asList("ORDERS"));
+    MappedStatement insertItem = statement("insertItem", SqlCommandType.INSERT, "insert into order_item (order_id, sku) values (?, ?)");
+    MappedStatement insertOrder = statement("insertOrder", SqlCommandType.INSERT, "insert into orders (id, status) values (?, ?)");
+    // 第一行引用已经存在的订单，第二个订单之后的行引用它
+    executor.update(insertItem, row(1, "a"));
+    executor.update(insertOrder, row(2, "NEW"));
+    executor.update(insertItem, row(2, "b"));
+    executor.flushStatements();
+
+    assertEquals(Arrays.asList(
+        "insert into order_item (order_id, sku) values (?, ?) [[1, a]]",
+        "insert into orders (id, status) values (?, ?) [[2, NEW]]",
+        "insert into order_item (order_id, sku) values (?, ?) [[2, b]]"), jdbc.executed());
+  }
+
+  @Test
+  public void parentAndChildInsertsAreStillInterleaved() throws Exception {
+    jdbc.importedKeys.put("ORDER_ITEM", Arrays.asList("ORDERS"));
+    MappedStatement insertOrder = statement("insertOrder", SqlCommandType.INSERT, "insert into orders (id, status) values (?, ?)");
+    MappedStatement insertItem = statement("insertItem", SqlCommandType.INSERT, "insert into order_item (order_id, sku) values (?, ?)");
+    for (int id = 1; id <= 3; id++) {
+      executor.update(insertOrder, row(id, "NEW"));
+      executor.update(insertItem, row(id, "a"));
+    }
+    executor.flushStatements();
+
+    assertEquals(Arrays.asList(
+        "insert into orders (id, status) values (?, ?) [[1, NEW], [2, NEW], [3, NEW]]",
+        "insert into order_item (order_id, sku) values (?, ?) [[1, a], [2, a], [3, a]]"), jdbc.executed());
+  }
+
+  @Test
+  public void insertsAreNotInterleavedAcrossOtherCommands() throws Exception {
+    MappedStatement insertOrder = statement("insertOrder", SqlCommandType.INSERT, "insert into orders (id, status) values (?, ?)");
+    MappedStatement updateOrder = statement("updateOrder", SqlCommandType.UPDATE, "update orders set status = ? where id = ?");
+    executor.update(insertOrder, row(1, "NEW"));
+    executor.update(updateOrder, row("PAID", 1));
+    executor.update(insertOrder, row(2, "NEW"));
+    executor.flushStatements();
+
+    assertEquals(3, jdbc.executed().size());
+  }
+
+  private MappedStatement statement(String id, SqlCommandType type, String sql) {
+    List<ParameterMapping> mappings = new ArrayList<ParameterMapping>();
+    mappings.add(new ParameterMapping.Builder(configuration, "p1", Object.class).build());
+    mappings.add(new ParameterMapping.Builder(configuration, "p2", Object.class).build());
+    MappedStatement ms = new MappedStatement.Builder(configuration, id, new StaticSqlSource(configuration, sql, mappings), type).build();
+    configuration.addMappedStatement(ms);
+    return ms;
+  }
+
+  private static Map<String, Object> row(Object p1, Object p2) {
+    Map<String, Object> row = new HashMap<String, Object>();
+    row.put("p1", p1);
+    row.put("p2", p2);
+    return row;
+  }
+
+}
@@ -0,0 +1,107 @@
+package com.jd.mybatis.executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.jd.mybatis.builder.StaticSqlSource;
+import com.jd.mybatis.mapping.MappedStatement;
+import com.jd.mybatis.mapping.ParameterMapping;
+import com.jd.mybatis.mapping.SqlCommandType;
+import com.jd.mybatis.session.Configuration;
+
+/**
+ * 每个会话自己的BatchResultHandler
+ */
+public class BatchResultHandlerTest {
+
+  private Configuration configuration;
+  private MappedStatement insert;
+
+  @Before
+  public void setUp() {
+    configuration = new Configuration();
+    configuration.setDefaultBatchSize(2);
+    List<ParameterMapping> mappings = new ArrayList<ParameterMapping>();
+    mappings.add(new ParameterMapping.Builder(configuration, "id", Object.class).build());
+    insert = new MappedStatement.Builder(configuration, "insertOrder",
+        new StaticSqlSource(configuration, "insert into orders (id) values (?)", mappings), SqlCommandType.INSERT).build();
+    configuration.addMappedStatement(insert);
+  }
+
+  @Test
+  public void handlersOnlyReceiveTheResultsOfTheirOwnSession() throws Exception {
+    RecordingHandler first = new RecordingHandler();
+    RecordingHandler second = new RecordingHandler();
+    BatchExecutor firstExecutor = new BatchExecutor(configuration, new FakeJdbc().transaction(), first);
+    BatchExecutor secondExecutor = new BatchExecutor(configuration, new FakeJdbc().transaction(), second);
+    for (int id = 1; id <= 4; id++) {
+      firstExecutor.update(insert, row(id));
+    }
+    secondExecutor.update(insert, row(5));
+    secondExecutor.flushStatements();
+    firstExecutor.flushStatements();
+
+    assertEquals(2, first.results.size());
+    assertEquals(1, second.results.size());
+  }
+
+  @Test
+  public void autoFlushedResultsAreNotKeptWhenThereIsAHandler() throws Exception {
+    RecordingHandler handler = new RecordingHandler();
+    BatchExecutor executor = new BatchExecutor(configuration, new FakeJdbc().transaction(), handler);
+    for (int id = 1; id <= 3; id++) {
+      executor.update(insert, row(id));
+    }
+    List<BatchResult> results = executor.flushStatements();
+
+    assertEquals(1, results.size());
+    assertEquals(2, handler.results.size());
+  }
+
+  @Test
+  public void handlerIsCalledOnTheSessionThreadWhenFlushingAsynchronously() throws Exception {
+    configuration.setAsyncBatchFlushEnabled(true);
+    FakeJdbc jdbc = new FakeJdbc();
+    RecordingHandler handler = new RecordingHandler();
+    BatchExecutor executor = new BatchExecutor(configuration, jdbc.transaction(), handler);
+    for (int id = 1; id <= 6; id++) {
+      executor.update(insert, row(id));
+    }
+    executor.flushStatements();
+
+    assertEquals(3, handler.results.size());
+    assertTrue(jdbc.executeThreads.get(0).startsWith("mybatis-batch-flush-"));
+    assertEquals(Collections.singleton(Thread.currentThread().getName()), handler.threads);
+  }
+
+  private static Map<String, Object> row(Object id) {
+    Map<String, Object> row = new HashMap<String, Object>();
+    row.put("id", id);
+    return row;
+  }
+
+  private static class RecordingHandler implements BatchResultHandler {
+
+    private final List<BatchResult> results = new ArrayList<BatchResult>();
+    private final Set<String> threads = new HashSet<String>();
+
+    @Override
+    public void handleBatchResult(BatchResult batchResult) {
+      results.add(batchResult);
+      threads.add(Thread.currentThread().getName());
+    }
+
+  }
+
+}
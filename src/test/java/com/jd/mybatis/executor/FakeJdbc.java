@@ -0,0 +1,200 @@
+package com.jd.mybatis.executor;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.jd.mybatis.transaction.Transaction;
+
+/**
+ * 测试用的JDBC连接，记录prepare和executeBatch的顺序，不连接数据库。
+ */
+class FakeJdbc {
+
+  // "prepare <sql>"、"execute <sql> <每一行的参数>"
+  final List<String> log = Collections.synchronizedList(new ArrayList<String>());
+  final List<String> executeThreads = Collections.synchronizedList(new ArrayList<String>());
+  // 表名（大写） -> 外键引用的表
+  final Map<String, List<String>> importedKeys = new HashMap<String, List<String>>();
+  final List<Object> statementsClosed = Collections.synchronizedList(new ArrayList<Object>());
+  volatile long executeMillis;
+  volatile String failOn;
+  volatile String productName = "MySQL";
+  volatile int connectionsOpened;
+  volatile String openedOn;
+  volatile int queries;
+
+  Transaction transaction() {
+    return (Transaction) proxy(Transaction.class, new InvocationHandler() {
+      private Connection connection;
+
+      @Override
+      public Object invoke(Object p, Method m, Object[] args) {
+        if ("getConnection".equals(m.getName())) {
+          if (connection == null) {
+            connectionsOpened++;
+            openedOn = Thread.currentThread().getName();
+            connection = connection();
+          }
+          return connection;
+        }
+        return null;
+      }
+    });
+  }
+
+  Connection connection() {
+    return (Connection) proxy(Connection.class, new InvocationHandler() {
+      @Override
+      public Object invoke(Object p, Method m, Object[] args) {
+        String name = m.getName();
+        if (name.equals("prepareStatement")) {
+          log.add("prepare " + args[0]);
+          return statement((String) args[0]);
+        }
+        if (name.equals("getMetaData")) {
+          return metaData();
+        }
+        return defaultValue(m);
+      }
+    });
+  }
+
+  private DatabaseMetaData metaData() {
+    return (DatabaseMetaData) proxy(DatabaseMetaData.class, new InvocationHandler() {
+      @Override
+      public Object invoke(Object p, Method m, Object[] args) {
+        String name = m.getName();
+        if (name.equals("getDatabaseProductName")) {
+          return productName;
+        }
+        if (name.equals("storesUpperCaseIdentifiers")) {
+          return true;
+        }
+        if (name.equals("getImportedKeys")) {
+          List<String> tables = importedKeys.get(args[2]);
+          return resultSet(tables == null ? Collections.<String>emptyList() : tables);
+        }
+        return defaultValue(m);
+      }
+    });
+  }
+
+  private PreparedStatement statement(final String sql) {
+    final List<List<Object>> batches = new ArrayList<List<Object>>();
+    // 参数位置 -> 值，重复设置同一个位置时保留最后一次的值
+    final Map<Integer, Object> current = new TreeMap<Integer, Object>();
+    return (PreparedStatement) proxy(PreparedStatement.class, new InvocationHandler() {
+      @Override
+      public Object invoke(Object p, Method m, Object[] args) throws Throwable {
+        String name = m.getName();
+        if (name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer) {
+          current.put((Integer) args[0], args[1]);
+        } else if (name.equals("addBatch")) {
+          batches.add(new ArrayList<Object>(current.values()));
+          current.clear();
+        } else if (name.equals("executeBatch")) {
+          if (executeMillis > 0) {
+            Thread.sleep(executeMillis);
+          }
+          executeThreads.add(Thread.currentThread().getName());
+          log.add("execute " + sql + " " + batches);
+          if (failOn != null && sql.contains(failOn)) {
+            throw new SQLException("failed " + sql);
+          }
+          int[] counts = new int[batches.size()];
+          Arrays.fill(counts, 1);
+          batches.clear();
+          return counts;
+        } else if (name.equals("execute")) {
+          queries++;
+          log.add("query " + sql);
+          return true;
+        } else if (name.equals("getResultSet")) {
+          return resultSet(Collections.<String>emptyList());
+        } else if (name.equals("getUpdateCount")) {
+          return -1;
+        } else if (name.equals("close")) {
+          statementsClosed.add(sql);
+          return null;
+        } else if (name.equals("getConnection")) {
+          return connection();
+        }
+        return defaultValue(m);
+      }
+    });
+  }
+
+  private ResultSet resultSet(final List<String> pkTables) {
+    final Iterator<String> rows = pkTables.iterator();
+    final String[] row = new String[1];
+    return (ResultSet) proxy(ResultSet.class, new InvocationHandler() {
+      @Override
+      public Object invoke(Object p, Method m, Object[] args) {
+        String name = m.getName();
+        if (name.equals("next")) {
+          row[0] = rows.hasNext() ? rows.next() : null;
+          return row[0] != null;
+        }
+        if (name.equals("getString")) {
+          return row[0];
+        }
+        if (name.equals("getMetaData")) {
+          return proxy(ResultSetMetaData.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object p, Method m, Object[] args) {
+              return defaultValue(m);
+            }
+          });
+        }
+        return defaultValue(m);
+      }
+    });
+  }
+
+  /*
+   * The executed statements in order, without the prepares
+   */
+  List<String> executed() {
+    List<String> executed = new ArrayList<String>();
+    synchronized (log) {
+      for (String entry : log) {
+        if (entry.startsWith("execute ")) {
+          executed.add(entry.substring("execute ".length()));
+        }
+      }
+    }
+    return executed;
+  }
+
+  private static Object defaultValue(Method m) {
+    Class<?> type = m.getReturnType();
+    if (type == boolean.class) {
+      return false;
+    } else if (type == int.class) {
+      return 0;
+    } else if (type == long.class) {
+      return 0L;
+    }
+    return null;
+  }
+
+  private static Object proxy(Class<?> type, InvocationHandler handler) {
+    return Proxy.newProxyInstance(FakeJdbc.class.getClassLoader(), new Class<?>[] { type }, handler);
+  }
+
+}
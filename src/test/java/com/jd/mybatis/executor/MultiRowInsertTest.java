@@ -0,0 +1,67 @@
+package com.jd.mybatis.executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * 哪些INSERT可以改写成多行INSERT
+ */
+public class MultiRowInsertTest {
+
+  @Test
+  public void singleRowInsertIsRewritten() {
+    MultiRowInsert template = MultiRowInsert.parse("insert into orders (id, status) values (?, ?)");
+
+    assertTrue(template.isRewritable());
+    assertEquals("insert into orders (id, status) values (?, ?),(?, ?),(?, ?)", template.getSql(3));
+  }
+
+  @Test
+  public void trailingSemicolonAndLiteralsAreKept() {
+    MultiRowInsert template = MultiRowInsert.parse("INSERT INTO orders (id, note) VALUES (?, 'a;(b)?') ;");
+
+    assertTrue(template.isRewritable());
+    assertEquals("INSERT INTO orders (id, note) VALUES (?, 'a;(b)?'),(?, 'a;(b)?')", template.getSql(2));
+  }
+
+  @Test
+  public void onDuplicateKeyUpdateIsNotRewritten() {
+    assertFalse(MultiRowInsert.parse("insert into orders (id, status) values (?, ?) on duplicate key update status = values(status)").isRewritable());
+    assertFalse(MultiRowInsert.parse("insert into orders (id, status) values (?, ?) on duplicate key update status = ?").isRewritable());
+  }
+
+  @Test
+  public void insertSelectIsNotRewritten() {
+    assertFalse(MultiRowInsert.parse("insert into orders (id, status) select id, ? from order_draft where id = ?").isRewritable());
+  }
+
+  @Test
+  public void parametersOutsideValuesAreNotRewritten() {
+    assertFalse(MultiRowInsert.parse("insert into orders (id, status) values (?, ?) returning ?").isRewritable());
+    assertFalse(MultiRowInsert.parse("insert into orders_? (id, status) values (?, ?)").isRewritable());
+  }
+
+  @Test
+  public void otherStatementsAreNotRewritten() {
+    assertFalse(MultiRowInsert.parse("update orders set status = ? where id = ?").isRewritable());
+    assertFalse(MultiRowInsert.parse("insert into orders (id) values (?) -- one row").isRewritable());
+    assertFalse(MultiRowInsert.parse("insert into orders (id) values (?), (?)").isRewritable());
+  }
+
+  @Test
+  public void rowsPerStatementAreLimitedByTheDatabase() {
+    MultiRowInsert template = MultiRowInsert.parse("insert into orders (id, status, note) values (?, ?, ?)");
+
+    assertEquals(1000, template.getRowsPerStatement(1000, MultiRowInsert.getMaxParameters("MySQL")));
+    assertEquals(1000, template.getRowsPerStatement(1000, MultiRowInsert.getMaxParameters("PostgreSQL")));
+    assertEquals(700, template.getRowsPerStatement(1000, MultiRowInsert.getMaxParameters("Microsoft SQL Server")));
+    assertEquals(333, template.getRowsPerStatement(1000, MultiRowInsert.getMaxParameters("SQLite")));
+    assertEquals(1, template.getRowsPerStatement(1000, MultiRowInsert.getMaxParameters("Oracle")));
+    assertEquals(1, template.getRowsPerStatement(1000, MultiRowInsert.getMaxParameters("Informix Dynamic Server")));
+    assertEquals(1, template.getRowsPerStatement(1000, 2));
+  }
+
+}